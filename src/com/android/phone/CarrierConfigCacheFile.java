@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.Parcel;
+import android.os.PersistableBundle;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the binary carrier config cache files used by {@link CarrierConfigLoader}.
+ *
+ * <p>A cache file consists of a fixed size header followed by a payload holding the parcelled
+ * {@link PersistableBundle}:
+ * <pre>
+ *     int   magic          {@link #MAGIC}
+ *     int   format version {@link #FORMAT_VERSION}
+ *     int   payload length
+ *     long  CRC32 of the payload
+ *     byte[payload length] payload
+ * </pre>
+ *
+ * <p>The parcel format is only stable within a build. This is fine since
+ * {@link CarrierConfigLoader} clears all cached config files whenever the build changes; the
+ * header and checksum guard against truncated or otherwise corrupted files. The whole file is
+ * read at once and the payload is unparcelled in place, so restoring a config no longer pays for
+ * parsing XML. Values are not decoded per key: the bundle is unparcelled as a whole, on first
+ * access, like any other bundle read from a parcel.
+ */
+/* package */ final class CarrierConfigCacheFile {
+    private static final String LOG_TAG = "CarrierConfigCacheFile";
+
+    /** File name suffix of binary cache files. */
+    /* package */ static final String FILE_SUFFIX = ".bin";
+
+    @VisibleForTesting
+    /* package */ static final int MAGIC = 0x43434346; // "CCCF"
+    @VisibleForTesting
+    /* package */ static final int FORMAT_VERSION = 1;
+    @VisibleForTesting
+    /* package */ static final int HEADER_SIZE = Integer.BYTES * 3 + Long.BYTES;
+
+    private CarrierConfigCacheFile() {}
+
+    /**
+     * Atomically writes {@code config} to {@code file}.
+     *
+     * @return {@code true} if the file was written successfully.
+     */
+    /* package */ static boolean write(@NonNull File file, @NonNull PersistableBundle config) {
+        byte[] payload;
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writePersistableBundle(config);
+            payload = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(payload.length);
+        header.putLong(checksum(payload, 0, payload.length));
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            out.write(header.array());
+            out.write(payload);
+            atomicFile.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write " + file.getName() + ": " + e);
+            if (out != null) {
+                atomicFile.failWrite(out);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads a config written by {@link #write}.
+     *
+     * @return the config, or {@code null} if the file does not exist, is not a cache file of a
+     * supported format version or is corrupted.
+     */
+    @Nullable
+    /* package */ static PersistableBundle read(@NonNull File file) {
+        AtomicFile atomicFile = new AtomicFile(file);
+        if (!atomicFile.exists()) {
+            return null;
+        }
+        try {
+            return decode(atomicFile.readFully(), file.getName());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read " + file.getName() + ": " + e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    @Nullable
+    /* package */ static PersistableBundle decode(@NonNull byte[] data, @NonNull String name) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE) {
+            Log.e(LOG_TAG, "Truncated header in " + name);
+            return null;
+        }
+        int magic = buffer.getInt();
+        int formatVersion = buffer.getInt();
+        int payloadLength = buffer.getInt();
+        long expectedChecksum = buffer.getLong();
+        if (magic != MAGIC) {
+            Log.e(LOG_TAG, "Bad magic " + Integer.toHexString(magic) + " in " + name);
+            return null;
+        }
+        if (formatVersion != FORMAT_VERSION) {
+            Log.e(LOG_TAG, "Unsupported format version " + formatVersion + " in " + name);
+            return null;
+        }
+        if (payloadLength < 0 || payloadLength != buffer.remaining()) {
+            Log.e(LOG_TAG, "Payload length mismatch in " + name + ": " + payloadLength + " vs "
+                    + buffer.remaining());
+            return null;
+        }
+
+        if (checksum(data, HEADER_SIZE, payloadLength) != expectedChecksum) {
+            Log.e(LOG_TAG, "Checksum mismatch in " + name);
+            return null;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, HEADER_SIZE, payloadLength);
+            parcel.setDataPosition(0);
+            return parcel.readPersistableBundle(PersistableBundle.class.getClassLoader());
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to unparcel config in " + name + ": " + e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static long checksum(@NonNull byte[] data, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, offset, length);
+        return crc32.getValue();
+    }
+}
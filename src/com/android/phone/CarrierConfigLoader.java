@@ -128,6 +128,23 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
     @NonNull private PersistableBundle[] mOverrideConfigs;
     // Carrier configs to override code default when there is no SIM inserted
     @NonNull private PersistableBundle mNoSimConfig;
+    // Code default carrier configs. Shared by all lookups and never modified.
+    @NonNull private final PersistableBundle mDefaultConfig =
+            CarrierConfigManager.getDefaultConfig();
+    // Guards the merged config snapshots and their generation counters below.
+    @NonNull private final Object mMergedConfigLock = new Object();
+    // Generation of the config sources, indexed by phoneId. Bumped whenever any of
+    // mConfigFromDefaultApp, mConfigFromCarrierApp, mPersistentOverrideConfigs or mOverrideConfigs
+    // of the phone changes.
+    @NonNull private long[] mConfigGenerations;
+    // Generation of mNoSimConfig.
+    private long mNoSimConfigGeneration;
+    // Immutable merged config snapshots, indexed by phoneId. Stale if the snapshot generation does
+    // not match mConfigGenerations.
+    @NonNull private MergedConfigSnapshot[] mMergedConfigs;
+    // Immutable merged no SIM config snapshot. Stale if the snapshot generation does not match
+    // mNoSimConfigGeneration.
+    @Nullable private MergedConfigSnapshot mMergedNoSimConfig;
     // Service connection for binding to config app.
     @NonNull private CarrierServiceConnection[] mServiceConnection;
     // Service connection for binding to carrier config app for no SIM config.
@@ -292,17 +309,20 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                     if (mConfigFromCarrierApp[phoneId] != null
                             && getCarrierPackageForPhoneId(phoneId) == null) {
                         mConfigFromCarrierApp[phoneId] = null;
+                        invalidateMergedConfig(phoneId);
                     }
                     // Restore persistent override values.
                     PersistableBundle config = restoreConfigFromXml(
                             mPlatformCarrierConfigPackage, OVERRIDE_PACKAGE_ADDITION, phoneId);
                     if (config != null) {
                         mPersistentOverrideConfigs[phoneId] = config;
+                        invalidateMergedConfig(phoneId);
                     }
 
                     config = restoreConfigFromXml(mPlatformCarrierConfigPackage, "", phoneId);
                     if (config != null) {
                         mConfigFromDefaultApp[phoneId] = config;
+                        invalidateMergedConfig(phoneId);
                         Message newMsg = obtainMessage(EVENT_FETCH_DEFAULT_DONE, phoneId, -1);
                         newMsg.getData().putBoolean("loaded_from_xml", true);
                         mHandler.sendMessage(newMsg);
@@ -320,6 +340,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             // Put a stub bundle in place so that the rest of the logic continues
                             // smoothly.
                             mConfigFromDefaultApp[phoneId] = new PersistableBundle();
+                            invalidateMergedConfig(phoneId);
                             // Send broadcast if bind fails.
                             updateSubscriptionDatabase(phoneId);
                             // TODO: We *must* call unbindService even if bindService returns false.
@@ -364,6 +385,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                                     saveConfigToXml(mPlatformCarrierConfigPackage, "", phoneId,
                                             carrierId, config);
                                     mConfigFromDefaultApp[phoneId] = config;
+                                    invalidateMergedConfig(phoneId);
                                     sendMessage(
                                             obtainMessage(
                                                     EVENT_FETCH_DEFAULT_DONE, phoneId, -1));
@@ -405,6 +427,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                     }
                     // Put a stub bundle in place so that the rest of the logic continues smoothly.
                     mConfigFromDefaultApp[phoneId] = new PersistableBundle();
+                    invalidateMergedConfig(phoneId);
                     updateSubscriptionDatabase(phoneId);
                     break;
                 }
@@ -432,6 +455,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             restoreConfigFromXml(carrierPackageName, "", phoneId);
                     if (config != null) {
                         mConfigFromCarrierApp[phoneId] = config;
+                        invalidateMergedConfig(phoneId);
                         Message newMsg = obtainMessage(EVENT_FETCH_CARRIER_DONE, phoneId, -1);
                         newMsg.getData().putBoolean("loaded_from_xml", true);
                         sendMessage(newMsg);
@@ -447,6 +471,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             // Put a stub bundle in place so that the rest of the logic continues
                             // smoothly.
                             mConfigFromCarrierApp[phoneId] = new PersistableBundle();
+                            invalidateMergedConfig(phoneId);
                             // Send broadcast if bind fails.
                             broadcastConfigChangedIntent(phoneId);
                             loge("Bind to carrier app: " + carrierPackageName + " fails");
@@ -492,12 +517,14 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                                             phoneId, carrierId, config);
                                     if (config != null) {
                                         mConfigFromCarrierApp[phoneId] = config;
+                                        invalidateMergedConfig(phoneId);
                                     } else {
                                         logdWithLocalLog("Config from carrier app is null "
                                                 + "for phoneId " + phoneId);
                                         // Put a stub bundle in place so that the rest of the logic
                                         // continues smoothly.
                                         mConfigFromCarrierApp[phoneId] = new PersistableBundle();
+                                        invalidateMergedConfig(phoneId);
                                     }
                                     sendMessage(
                                             obtainMessage(
@@ -540,6 +567,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                     }
                     // Put a stub bundle in place so that the rest of the logic continues smoothly.
                     mConfigFromCarrierApp[phoneId] = new PersistableBundle();
+                    invalidateMergedConfig(phoneId);
                     updateSubscriptionDatabase(phoneId);
                     break;
                 }
@@ -586,6 +614,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
 
                     if (config != null) {
                         mNoSimConfig = config;
+                        invalidateMergedNoSimConfig();
                         sendMessage(
                                 obtainMessage(
                                         EVENT_FETCH_DEFAULT_FOR_NO_SIM_CONFIG_DONE,
@@ -664,6 +693,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                                             resultData.getParcelable(KEY_CONFIG_BUNDLE);
                                     saveNoSimConfigToXml(mPlatformCarrierConfigPackage, config);
                                     mNoSimConfig = config;
+                                    invalidateMergedNoSimConfig();
                                     sendMessage(
                                             obtainMessage(
                                                     EVENT_FETCH_DEFAULT_FOR_NO_SIM_CONFIG_DONE,
@@ -722,6 +752,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         mPersistentOverrideConfigs = new PersistableBundle[mNumPhones];
         mOverrideConfigs = new PersistableBundle[mNumPhones];
         mNoSimConfig = new PersistableBundle();
+        mConfigGenerations = new long[mNumPhones];
+        mMergedConfigs = new MergedConfigSnapshot[mNumPhones];
         mServiceConnection = new CarrierServiceConnection[mNumPhones];
         mServiceBound = new boolean[mNumPhones];
         mHasSentConfigChange = new boolean[mNumPhones];
@@ -782,6 +814,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
 
         mConfigFromDefaultApp[phoneId] = null;
         mConfigFromCarrierApp[phoneId] = null;
+        invalidateMergedConfig(phoneId);
         mServiceConnection[phoneId] = null;
         mHasSentConfigChange[phoneId] = false;
 
@@ -1002,8 +1035,9 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
      * the canonical file name. carrierid can also handle the cases SIM OTA resolves to different
      * carrier while iccid remains the same.
      *
-     * The file can be restored later with {@link @restoreConfigFromXml}. The XML output will
-     * include the bundle and the current version of the specified package.
+     * The file can be restored later with {@link @restoreConfigFromXml}. The output will
+     * include the bundle and the current version of the specified package. It is written in the
+     * binary {@link CarrierConfigCacheFile} format, falling back to XML if that fails.
      *
      * In case of errors or invalid input, no file will be written.
      *
@@ -1060,10 +1094,20 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         logdWithLocalLog("Save carrier config to cache. phoneId=" + phoneId
                         + ", xml=" + getFilePathForLogging(fileName) + ", version=" + version);
 
+        config.putString(KEY_VERSION, version);
+        File xmlFile = new File(mContext.getFilesDir(), fileName);
+        if (CarrierConfigCacheFile.write(getBinaryCacheFile(xmlFile), config)) {
+            // The binary cache supersedes any XML file left from before.
+            xmlFile.delete();
+            return;
+        }
+
+        // Fall back to XML if the binary cache could not be written. Drop any older binary cache
+        // as it would be restored in preference to the XML file.
+        getBinaryCacheFile(xmlFile).delete();
         FileOutputStream outFile = null;
         try {
-            outFile = new FileOutputStream(new File(mContext.getFilesDir(), fileName));
-            config.putString(KEY_VERSION, version);
+            outFile = new FileOutputStream(xmlFile);
             config.writeToStream(outFile);
             outFile.flush();
             outFile.close();
@@ -1088,7 +1132,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
      * Reads a bundle from an XML file.
      *
      * This restores a bundle that was written with {@link #saveConfigToXml}. This returns the saved
-     * config bundle for the given package and phone ID.
+     * config bundle for the given package and phone ID. The binary {@link CarrierConfigCacheFile}
+     * is preferred; legacy XML files are still read and migrated to the binary format.
      *
      * In case of errors, or if the saved config is from a different package version than the
      * current version, then null will be returned.
@@ -1132,20 +1177,66 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
             fileName = getFilenameForConfig(packageName, extraString, iccid, cid);
         }
 
-        PersistableBundle restoredBundle = null;
         File file = new File(mContext.getFilesDir(), fileName);
+        File binaryFile = getBinaryCacheFile(file);
         String filePath = file.getPath();
         String savedVersion = null;
+        PersistableBundle restoredBundle = CarrierConfigCacheFile.read(binaryFile);
+        if (restoredBundle != null) {
+            filePath = binaryFile.getPath();
+            savedVersion = restoredBundle.getString(KEY_VERSION);
+            restoredBundle.remove(KEY_VERSION);
+
+            if (!version.equals(savedVersion)) {
+                loge("Saved version mismatch: " + version + " vs " + savedVersion
+                        + ", phoneId=" + phoneId);
+                restoredBundle = null;
+            }
+        } else if (binaryFile.exists()) {
+            // Corrupted or unsupported binary cache, drop it and fall back to XML.
+            loge("Deleting unreadable cache file " + getFilePathForLogging(binaryFile.getName()));
+            binaryFile.delete();
+        }
+
+        if (restoredBundle == null && savedVersion == null) {
+            restoredBundle = restoreConfigFromXmlFile(file, version, phoneId, iccid,
+                    isNoSimConfig);
+        }
+
+        if (restoredBundle != null) {
+            logdWithLocalLog("Restored carrier config from cache. phoneId=" + phoneId + ", file="
+                    + getFilePathForLogging(filePath, iccid) + ", version=" + version
+                    + ", modified time=" + getFileTime(filePath));
+        }
+        return restoredBundle;
+    }
+
+    /**
+     * Reads a bundle from a legacy XML cache file and migrates it to the binary cache format.
+     *
+     * @return the bundle from the XML file, or null if there is no such file, the saved version
+     * does not match or reading it fails.
+     */
+    @Nullable
+    private PersistableBundle restoreConfigFromXmlFile(@NonNull File file,
+            @NonNull String version, int phoneId, @Nullable String iccid, boolean isNoSimConfig) {
+        PersistableBundle restoredBundle = null;
+        String filePath = file.getPath();
         try (FileInputStream inFile = new FileInputStream(file)) {
 
             restoredBundle = PersistableBundle.readFromStream(inFile);
-            savedVersion = restoredBundle.getString(KEY_VERSION);
-            restoredBundle.remove(KEY_VERSION);
+            String savedVersion = restoredBundle.getString(KEY_VERSION);
 
             if (!version.equals(savedVersion)) {
                 loge("Saved version mismatch: " + version + " vs " + savedVersion
                         + ", phoneId=" + phoneId);
                 restoredBundle = null;
+            } else if (CarrierConfigCacheFile.write(getBinaryCacheFile(file), restoredBundle)) {
+                logd("Migrated " + getFilePathForLogging(file.getName()) + " to binary cache");
+                file.delete();
+            }
+            if (restoredBundle != null) {
+                restoredBundle.remove(KEY_VERSION);
             }
         } catch (FileNotFoundException e) {
             // Missing file is normal occurrence that might occur with a new sim or when restoring
@@ -1159,13 +1250,17 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         } catch (IOException e) {
             loge(e.toString());
         }
+        return restoredBundle;
+    }
 
-        if (restoredBundle != null) {
-            logdWithLocalLog("Restored carrier config from cache. phoneId=" + phoneId + ", xml="
-                    + getFilePathForLogging(fileName) + ", version=" + savedVersion
-                    + ", modified time=" + getFileTime(filePath));
+    /** Returns the binary cache file superseding the given XML cache file. */
+    @NonNull
+    private static File getBinaryCacheFile(@NonNull File xmlFile) {
+        String name = xmlFile.getName();
+        if (name.endsWith(".xml")) {
+            name = name.substring(0, name.length() - ".xml".length());
         }
-        return restoredBundle;
+        return new File(xmlFile.getParentFile(), name + CarrierConfigCacheFile.FILE_SUFFIX);
     }
 
     /**
@@ -1308,6 +1403,10 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         mConfigFromCarrierApp = Arrays.copyOf(mConfigFromCarrierApp, mNumPhones);
         mPersistentOverrideConfigs = Arrays.copyOf(mPersistentOverrideConfigs, mNumPhones);
         mOverrideConfigs = Arrays.copyOf(mOverrideConfigs, mNumPhones);
+        synchronized (mMergedConfigLock) {
+            mConfigGenerations = Arrays.copyOf(mConfigGenerations, mNumPhones);
+            mMergedConfigs = new MergedConfigSnapshot[mNumPhones];
+        }
         mServiceConnection = Arrays.copyOf(mServiceConnection, mNumPhones);
         mServiceConnectionForNoSimConfig =
                 Arrays.copyOf(mServiceConnectionForNoSimConfig, mNumPhones);
@@ -1344,38 +1443,105 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         enforceTelephonyFeatureWithException(callingPackage, "getConfigForSubIdWithFeature");
 
         int phoneId = SubscriptionManager.getPhoneId(subscriptionId);
-        PersistableBundle retConfig = CarrierConfigManager.getDefaultConfig();
+        PersistableBundle retConfig;
         if (SubscriptionManager.isValidPhoneId(phoneId)) {
-            PersistableBundle config = mConfigFromDefaultApp[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
+            // The snapshot is shared between callers, hand out a copy.
+            retConfig = new PersistableBundle(getMergedConfigSnapshot(phoneId));
+            retConfig.putBoolean(CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL,
+                    isAllConfigsApplied(phoneId));
+        } else {
+            retConfig = new PersistableBundle(getMergedNoSimConfigSnapshot());
+        }
+        return retConfig;
+    }
+
+    private boolean isAllConfigsApplied(int phoneId) {
+        // Ignore the theoretical case of the default app not being present since that won't
+        // work in CarrierConfigLoader today.
+        return (mConfigFromCarrierApp[phoneId] != null
+                || getCarrierPackageForPhoneId(phoneId) == null)
+                && mConfigFromDefaultApp[phoneId] != null;
+    }
+
+    /**
+     * Returns the merged config snapshot for {@code phoneId}, rebuilding it if any of the config
+     * sources changed since it was built. The returned bundle is shared and must not be modified.
+     */
+    @NonNull
+    private PersistableBundle getMergedConfigSnapshot(int phoneId) {
+        long generation;
+        synchronized (mMergedConfigLock) {
+            generation = mConfigGenerations[phoneId];
+            MergedConfigSnapshot snapshot = mMergedConfigs[phoneId];
+            if (snapshot != null && snapshot.generation == generation) {
+                return snapshot.config;
             }
-            config = mConfigFromCarrierApp[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
+        }
+
+        PersistableBundle merged = new PersistableBundle(mDefaultConfig);
+        putAllIfNotNull(merged, mConfigFromDefaultApp[phoneId]);
+        putAllIfNotNull(merged, mConfigFromCarrierApp[phoneId]);
+        putAllIfNotNull(merged, mPersistentOverrideConfigs[phoneId]);
+        putAllIfNotNull(merged, mOverrideConfigs[phoneId]);
+
+        synchronized (mMergedConfigLock) {
+            // Only publish the snapshot if no config source changed while merging.
+            if (phoneId < mConfigGenerations.length && mConfigGenerations[phoneId] == generation) {
+                mMergedConfigs[phoneId] = new MergedConfigSnapshot(generation, merged);
             }
-            config = mPersistentOverrideConfigs[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the merged no SIM config snapshot, rebuilding it if {@link #mNoSimConfig} changed
+     * since it was built. The returned bundle is shared and must not be modified.
+     */
+    @NonNull
+    private PersistableBundle getMergedNoSimConfigSnapshot() {
+        long generation;
+        synchronized (mMergedConfigLock) {
+            generation = mNoSimConfigGeneration;
+            if (mMergedNoSimConfig != null && mMergedNoSimConfig.generation == generation) {
+                return mMergedNoSimConfig.config;
             }
-            config = mOverrideConfigs[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
+        }
+
+        PersistableBundle merged = new PersistableBundle(mDefaultConfig);
+        putAllIfNotNull(merged, mNoSimConfig);
+
+        synchronized (mMergedConfigLock) {
+            if (mNoSimConfigGeneration == generation) {
+                mMergedNoSimConfig = new MergedConfigSnapshot(generation, merged);
             }
-            // Ignore the theoretical case of the default app not being present since that won't
-            // work in CarrierConfigLoader today.
-            final boolean allConfigsApplied =
-                    (mConfigFromCarrierApp[phoneId] != null
-                        || getCarrierPackageForPhoneId(phoneId) == null)
-                    && mConfigFromDefaultApp[phoneId] != null;
-            retConfig.putBoolean(
-                    CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL, allConfigsApplied);
-        } else {
-            if (mNoSimConfig != null) {
-                retConfig.putAll(mNoSimConfig);
+        }
+        return merged;
+    }
+
+    private static void putAllIfNotNull(@NonNull PersistableBundle target,
+            @Nullable PersistableBundle source) {
+        if (source != null) {
+            target.putAll(source);
+        }
+    }
+
+    /**
+     * Invalidates the merged config snapshot of {@code phoneId}. Must be called on every change of
+     * the config sources of the phone, including in-place modifications.
+     */
+    private void invalidateMergedConfig(int phoneId) {
+        synchronized (mMergedConfigLock) {
+            if (phoneId >= 0 && phoneId < mConfigGenerations.length) {
+                mConfigGenerations[phoneId]++;
             }
         }
-        return retConfig;
+    }
+
+    /** Invalidates the merged no SIM config snapshot. Must be called on every change of it. */
+    private void invalidateMergedNoSimConfig() {
+        synchronized (mMergedConfigLock) {
+            mNoSimConfigGeneration++;
+        }
     }
 
     @Override
@@ -1390,22 +1556,27 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         enforceTelephonyFeatureWithException(callingPackage,
                 "getConfigSubsetForSubIdWithFeature");
 
-        // Permission check is performed inside and an empty bundle will return on failure.
+        // An empty bundle will return on permission check failure.
         // No SecurityException thrown here since most clients expect to retrieve the overridden
         // value if present or use default one if not
-        PersistableBundle allConfigs = getConfigForSubIdWithFeature(subscriptionId, callingPackage,
-                callingFeatureId);
-        if (allConfigs.isEmpty()) {
-            return allConfigs;
+        if (!TelephonyPermissions.checkCallingOrSelfReadPhoneState(mContext, subscriptionId,
+                callingPackage, callingFeatureId, "getCarrierConfig")) {
+            return new PersistableBundle();
         }
         for (String key : keys) {
             Objects.requireNonNull(key, "Config key must be non-null");
         }
 
+        // Resolve each key against the config layers instead of merging the whole config.
+        int phoneId = SubscriptionManager.getPhoneId(subscriptionId);
+        final boolean isValidPhone = SubscriptionManager.isValidPhoneId(phoneId);
+        PersistableBundle[] configLayers = isValidPhone
+                ? getConfigLayersByPriority(phoneId) : getNoSimConfigLayersByPriority();
+
         PersistableBundle configSubset = new PersistableBundle(
                 keys.length + CONFIG_SUBSET_METADATA_KEYS.length);
         for (String carrierConfigKey : keys) {
-            Object value = allConfigs.get(carrierConfigKey);
+            Object value = resolveConfigValue(configLayers, carrierConfigKey);
             if (value == null) {
                 // Filter out keys without values.
                 // In history, many AOSP or OEMs/carriers private configs didn't provide default
@@ -1422,12 +1593,52 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
 
         // Configs in CONFIG_SUBSET_ALWAYS_INCLUDED_KEYS should always be included
         for (String generalKey : CONFIG_SUBSET_METADATA_KEYS) {
-            configSubset.putObject(generalKey, allConfigs.get(generalKey));
+            configSubset.putObject(generalKey, resolveConfigValue(configLayers, generalKey));
+        }
+        if (isValidPhone) {
+            configSubset.putBoolean(CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL,
+                    isAllConfigsApplied(phoneId));
         }
 
         return configSubset;
     }
 
+    /**
+     * Returns the config sources of {@code phoneId}, ordered from the highest to the lowest
+     * priority. Missing sources are {@code null}.
+     */
+    @NonNull
+    private PersistableBundle[] getConfigLayersByPriority(int phoneId) {
+        return new PersistableBundle[] {
+                mOverrideConfigs[phoneId],
+                mPersistentOverrideConfigs[phoneId],
+                mConfigFromCarrierApp[phoneId],
+                mConfigFromDefaultApp[phoneId],
+                mDefaultConfig
+        };
+    }
+
+    /** Returns the config sources used when there is no SIM, from highest to lowest priority. */
+    @NonNull
+    private PersistableBundle[] getNoSimConfigLayersByPriority() {
+        return new PersistableBundle[] {mNoSimConfig, mDefaultConfig};
+    }
+
+    /**
+     * Returns the value of {@code key} from the first config layer containing it, which is the same
+     * value the fully merged config would have, or {@code null} if no layer contains it.
+     */
+    @Nullable
+    private static Object resolveConfigValue(@NonNull PersistableBundle[] configLayers,
+            @NonNull String key) {
+        for (PersistableBundle layer : configLayers) {
+            if (layer != null && layer.containsKey(key)) {
+                return layer.get(key);
+            }
+        }
+        return null;
+    }
+
     @android.annotation.EnforcePermission(android.Manifest.permission.MODIFY_PHONE_STATE)
     @Override
     public void overrideConfig(int subscriptionId, @Nullable PersistableBundle overrides,
@@ -1448,7 +1659,10 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
 
             if (persistent) {
                 overrideConfig(mPersistentOverrideConfigs, phoneId, overrides);
+            }
+            invalidateMergedConfig(phoneId);
 
+            if (persistent) {
                 if (overrides != null) {
                     final CarrierIdentifier carrierId = getCarrierIdentifierForPhoneId(phoneId);
                     saveConfigToXml(mPlatformCarrierConfigPackage, OVERRIDE_PACKAGE_ADDITION,
@@ -1461,6 +1675,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             OVERRIDE_PACKAGE_ADDITION, iccid, cid);
                     File fileToDelete = new File(mContext.getFilesDir(), fileName);
                     fileToDelete.delete();
+                    getBinaryCacheFile(fileToDelete).delete();
                 }
             }
             logdWithLocalLog("overrideConfig: subId=" + subscriptionId + ", persistent="
@@ -1685,6 +1900,10 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                 + Arrays.toString(mServiceBoundForNoSimConfig));
         indentPW.println("mHasSentConfigChange=" + Arrays.toString(mHasSentConfigChange));
         indentPW.println("mFromSystemUnlocked=" + Arrays.toString(mFromSystemUnlocked));
+        synchronized (mMergedConfigLock) {
+            indentPW.println("mConfigGenerations=" + Arrays.toString(mConfigGenerations));
+            indentPW.println("mNoSimConfigGeneration=" + mNoSimConfigGeneration);
+        }
         indentPW.println();
         indentPW.println("CarrierConfigLoader local log=");
         indentPW.increaseIndent();
@@ -1894,6 +2113,17 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         }
     }
 
+    /** An immutable merged carrier config, tagged with the generation it was built from. */
+    private static final class MergedConfigSnapshot {
+        final long generation;
+        @NonNull final PersistableBundle config;
+
+        MergedConfigSnapshot(long generation, @NonNull PersistableBundle config) {
+            this.generation = generation;
+            this.config = config;
+        }
+    }
+
     private class CarrierServiceConnection implements ServiceConnection {
         final int phoneId;
         @NonNull final String pkgName;
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.CellInfo;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Merges concurrent cell info requests for the same phone into a single modem query.
+ *
+ * <p>Requests arriving while a query for the phone is in flight are queued and completed with the
+ * result of that query. Successful results are kept for a short freshness window, during which
+ * new requests are served without querying the modem at all.
+ *
+ * <p>Requests are added and completed on the main thread; the counters may be read from any
+ * thread.
+ *
+ * @param <R> the type of the pending requests.
+ */
+/* package */ final class CellInfoRequestCoalescer<R> {
+    private static final class PhoneState<R> {
+        // Requests waiting for the result of the in flight query.
+        final List<R> pendingRequests = new ArrayList<>();
+        // The last successful result, or null if there is none.
+        @Nullable List<CellInfo> lastResult;
+        // The time lastResult was received, in elapsed realtime millis.
+        long lastResultTimeMillis;
+    }
+
+    private final SparseArray<PhoneState<R>> mPhoneStates = new SparseArray<>();
+    private final LongSupplier mElapsedRealtimeMillis;
+    private final LongSupplier mFreshnessWindowMillis;
+
+    private long mModemQueryCount;
+    private long mCoalescedCount;
+    private long mServedFromCacheCount;
+
+    /**
+     * @param elapsedRealtimeMillis supplies the current elapsed realtime in milliseconds.
+     * @param freshnessWindowMillis supplies how long a result may be served from the cache;
+     *                              zero or less disables the cache.
+     */
+    /* package */ CellInfoRequestCoalescer(@NonNull LongSupplier elapsedRealtimeMillis,
+            @NonNull LongSupplier freshnessWindowMillis) {
+        mElapsedRealtimeMillis = elapsedRealtimeMillis;
+        mFreshnessWindowMillis = freshnessWindowMillis;
+    }
+
+    /**
+     * @return the last result for {@code phoneId} if it is still within the freshness window and
+     * no query is in flight, otherwise {@code null}.
+     */
+    @Nullable
+    /* package */ synchronized List<CellInfo> getFreshResult(int phoneId) {
+        PhoneState<R> state = mPhoneStates.get(phoneId);
+        if (state == null || state.lastResult == null || !state.pendingRequests.isEmpty()) {
+            return null;
+        }
+        long ageMillis = mElapsedRealtimeMillis.getAsLong() - state.lastResultTimeMillis;
+        if (ageMillis < 0 || ageMillis >= mFreshnessWindowMillis.getAsLong()) {
+            return null;
+        }
+        mServedFromCacheCount++;
+        return state.lastResult;
+    }
+
+    /**
+     * Adds a request for the cell info of {@code phoneId}.
+     *
+     * @return {@code true} if the caller has to query the modem and call
+     * {@link #onQueryCompleted} with the result, or {@code false} if the request has been merged
+     * into a query which is already in flight.
+     */
+    /* package */ synchronized boolean addRequest(int phoneId, @NonNull R request) {
+        PhoneState<R> state = mPhoneStates.get(phoneId);
+        if (state == null) {
+            state = new PhoneState<>();
+            mPhoneStates.put(phoneId, state);
+        }
+        state.pendingRequests.add(request);
+        if (state.pendingRequests.size() > 1) {
+            mCoalescedCount++;
+            return false;
+        }
+        mModemQueryCount++;
+        return true;
+    }
+
+    /**
+     * Completes the in flight query of {@code phoneId}.
+     *
+     * @param result the cell info returned by the modem, or {@code null} if the query failed or
+     *               timed out; failed queries are not cached.
+     * @return the requests which were waiting for the query, in the order they were added.
+     */
+    @NonNull
+    /* package */ synchronized List<R> onQueryCompleted(int phoneId,
+            @Nullable List<CellInfo> result) {
+        PhoneState<R> state = mPhoneStates.get(phoneId);
+        if (state == null) {
+            return Collections.emptyList();
+        }
+        if (result != null) {
+            state.lastResult = Collections.unmodifiableList(result);
+            state.lastResultTimeMillis = mElapsedRealtimeMillis.getAsLong();
+        }
+        List<R> requests = new ArrayList<>(state.pendingRequests);
+        state.pendingRequests.clear();
+        return requests;
+    }
+
+    /** @return the number of queries sent to the modem. */
+    @VisibleForTesting
+    public synchronized long getModemQueryCount() {
+        return mModemQueryCount;
+    }
+
+    /** @return the number of requests merged into a query which was already in flight. */
+    @VisibleForTesting
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /** @return the number of requests served from the cache. */
+    @VisibleForTesting
+    public synchronized long getServedFromCacheCount() {
+        return mServedFromCacheCount;
+    }
+
+    /** Dumps the counters. */
+    public synchronized void dump(@NonNull IndentingPrintWriter pw) {
+        pw.println("CellInfoRequestCoalescer:");
+        pw.increaseIndent();
+        pw.println("freshnessWindowMillis=" + mFreshnessWindowMillis.getAsLong()
+                + " modemQueries=" + mModemQueryCount
+                + " coalesced=" + mCoalescedCount
+                + " servedFromCache=" + mServedFromCacheCount);
+        for (int i = 0; i < mPhoneStates.size(); i++) {
+            PhoneState<R> state = mPhoneStates.valueAt(i);
+            pw.println("phoneId=" + mPhoneStates.keyAt(i)
+                    + " pending=" + state.pendingRequests.size()
+                    + " cachedCells=" + (state.lastResult == null ? -1 : state.lastResult.size())
+                    + " cachedAtMillis=" + state.lastResultTimeMillis);
+        }
+        pw.decreaseIndent();
+    }
+}
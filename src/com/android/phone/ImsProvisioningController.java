@@ -71,6 +71,7 @@ import com.android.ims.RcsFeatureManager;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.PhoneConfigurationManager;
 import com.android.internal.telephony.util.HandlerExecutor;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.telephony.Rlog;
 
 import java.util.Arrays;
@@ -901,6 +902,8 @@ public class ImsProvisioningController {
     public void destroy() {
         log("destroy");
 
+        // Write the pending provisioning changes before the looper stops running them.
+        mImsProvisioningLoader.flush();
         mHandler.getLooper().quit();
 
         mTelephonyRegistryManager.removeOnSubscriptionsChangedListener(mSubChangedListener);
@@ -932,7 +935,7 @@ public class ImsProvisioningController {
                 handlerThread.start();
                 sInstance = new ImsProvisioningController(app, numSlot, handlerThread.getLooper(),
                         ImsManager::getConnector, RcsFeatureManager::getConnector,
-                        new ImsProvisioningLoader(app));
+                        new ImsProvisioningLoader(app, handlerThread.getLooper()));
             }
         }
         return sInstance;
@@ -1372,6 +1375,15 @@ public class ImsProvisioningController {
         return mHandler;
     }
 
+    /**
+     * Dump this instance into a readable format for dumpsys usage.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        pw.increaseIndent();
+        mImsProvisioningLoader.dump(pw);
+        pw.decreaseIndent();
+    }
+
     private boolean isProvisioningRequired(int subId, int capability, int tech, boolean isMmTel) {
         int[] techArray;
         techArray = getTechsFromCarrierConfig(subId, capability, isMmTel);
@@ -1474,6 +1486,8 @@ public class ImsProvisioningController {
     }
 
     private void onSubscriptionsChanged() {
+        // Write the provisioning changes of the previous subscriptions before they are replaced.
+        mImsProvisioningLoader.flush();
         for (int index = 0; index < mMmTelFeatureListenersSlotMap.size(); index++) {
             MmTelFeatureListener m = mMmTelFeatureListenersSlotMap.get(index);
             m.setSubId(getSubId(index));
@@ -16,19 +16,26 @@
 
 package com.android.phone;
 
+import android.annotation.Nullable;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PersistableBundle;
 import android.preference.PreferenceManager;
 import android.telephony.ims.ProvisioningManager;
 import android.telephony.ims.feature.ImsFeature;
 import android.telephony.ims.feature.MmTelFeature;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
+import android.util.ArraySet;
+import android.util.AtomicFile;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -37,6 +44,12 @@ import java.io.IOException;
 
 /**
  * Provides a function to set/get Ims feature provisioning status in storage.
+ * <p>
+ * When created with a {@link Looper}, changes are written behind: they are applied to the
+ * in-memory cache right away and each subscription's file is rewritten at most once per
+ * {@link #WRITE_BEHIND_DELAY_MS}, so a burst of changes results in a single write. Pending changes
+ * are also written by {@link #flush()}. Files are replaced atomically, so a crash during a write
+ * leaves the previous version in place.
  */
 public class ImsProvisioningLoader {
     private static final String LOG_TAG = ImsProvisioningLoader.class.getSimpleName();
@@ -53,16 +66,42 @@ public class ImsProvisioningLoader {
     private static final String PROVISIONING_FILE_NAME_PREF = "imsprovisioningstatus_";
     private static final String PREF_PROVISION_IMS_MMTEL_PREFIX = "provision_ims_mmtel_";
 
+    /**
+     * The longest time a change stays only in memory when writing behind, which bounds the
+     * changes that can be lost if the process dies.
+     */
+    @VisibleForTesting
+    public static final long WRITE_BEHIND_DELAY_MS = 500;
+
     private Context mContext;
     private SharedPreferences mTelephonySharedPreferences;
     // key : sub Id, value : read from sub Id's xml and it's in-memory cache
     private SparseArray<PersistableBundle> mSubIdBundleArray = new SparseArray<>();
     private final Object mLock = new Object();
+    // null if changes are written right away.
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = this::flush;
+    // The following are guarded by mLock.
+    // Sub ids with changes that have not been written yet.
+    private final ArraySet<Integer> mPendingSubIds = new ArraySet<>();
+    private boolean mFlushScheduled;
+    private long mChangeCount;
+    private long mFsyncCount;
+    private long mFailedWriteCount;
 
     public ImsProvisioningLoader(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * @param looper The looper on which changes are written behind, or {@code null} to write
+     *               every change right away.
+     */
+    public ImsProvisioningLoader(Context context, @Nullable Looper looper) {
         mContext = context;
         mTelephonySharedPreferences =
                 PreferenceManager.getDefaultSharedPreferences(context);
+        mHandler = (looper != null) ? new Handler(looper) : null;
     }
 
     /**
@@ -86,9 +125,39 @@ public class ImsProvisioningLoader {
                 isProvisioned);
     }
 
+    /**
+     * Write the changes that have not been written yet.
+     */
+    public void flush() {
+        synchronized (mLock) {
+            if (mHandler != null) mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            for (int subId : mPendingSubIds) {
+                byte[] data = serialize(mSubIdBundleArray.get(subId, null));
+                if (data != null) writeToFile(subId, data);
+            }
+            mPendingSubIds.clear();
+        }
+    }
+
+    /**
+     * Dump the persistence state of the loader.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("ImsProvisioningLoader:");
+            pw.increaseIndent();
+            pw.println("writeBehind=" + (mHandler != null) + ", maxUnsavedMs="
+                    + (mHandler != null ? WRITE_BEHIND_DELAY_MS : 0));
+            pw.println("changes=" + mChangeCount + ", fsyncs=" + mFsyncCount + ", failedWrites="
+                    + mFailedWriteCount);
+            pw.println("pendingSubIds=" + mPendingSubIds);
+            pw.decreaseIndent();
+        }
+    }
+
     private boolean isFileExist(int subId) {
-        File file = new File(mContext.getFilesDir(), getFileName(subId));
-        return file.exists();
+        return getAtomicFile(subId).exists();
     }
 
     private void initCache(int subId) {
@@ -148,7 +217,16 @@ public class ImsProvisioningLoader {
             PersistableBundle subIdBundle = mSubIdBundleArray.get(subId, null);
             setProvisioningStatusToSubIdBundle(imsFeature, tech, capability, subIdBundle,
                     newValue);
-            saveSubIdBundleToXml(subId, subIdBundle);
+            mChangeCount++;
+            if (mHandler == null) {
+                saveSubIdBundleToXml(subId, subIdBundle);
+            } else {
+                mPendingSubIds.add(subId);
+                if (!mFlushScheduled) {
+                    mFlushScheduled = true;
+                    mHandler.postDelayed(mFlushRunnable, WRITE_BEHIND_DELAY_MS);
+                }
+            }
         }
         return true;
     }
@@ -209,15 +287,12 @@ public class ImsProvisioningLoader {
 
     // Return subIdBundle from imsprovisioningstatus_{subId}.xml
     private PersistableBundle readSubIdBundleFromXml(int subId) {
-        String fileName = getFileName(subId);
-
         PersistableBundle subIdBundles = new PersistableBundle();
-        File file = null;
         FileInputStream inFile = null;
         synchronized (mLock) {
             try {
-                file = new File(mContext.getFilesDir(), fileName);
-                inFile = new FileInputStream(file);
+                // Also recovers the previous version if a write was interrupted.
+                inFile = getAtomicFile(subId).openRead();
                 subIdBundles = PersistableBundle.readFromStream(inFile);
                 inFile.close();
             } catch (FileNotFoundException e) {
@@ -233,28 +308,57 @@ public class ImsProvisioningLoader {
     }
 
     private void saveSubIdBundleToXml(int subId, PersistableBundle subIdBundle) {
-        String fileName = getFileName(subId);
+        synchronized (mLock) {
+            byte[] data = serialize(subIdBundle);
+            if (data == null) return;
+            // Written now, so a pending write is no longer needed.
+            mPendingSubIds.remove(subId);
+            writeToFile(subId, data);
+        }
+    }
 
+    // Return the contents of the file for subIdBundle, or null if there is nothing to save.
+    private byte[] serialize(PersistableBundle subIdBundle) {
         if (subIdBundle == null || subIdBundle.isEmpty()) {
             logd("subIdBundle is empty");
-            return;
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            subIdBundle.writeToStream(out);
+        } catch (IOException e) {
+            loge(e.toString());
+            return null;
+        } catch (RuntimeException e) {
+            loge(e.toString());
+            return null;
         }
+        return out.toByteArray();
+    }
 
+    // Replace imsprovisioningstatus_{subId}.xml with data. Must be called with mLock held.
+    private void writeToFile(int subId, byte[] data) {
+        AtomicFile atomicFile = getAtomicFile(subId);
         FileOutputStream outFile = null;
-        synchronized (mLock) {
-            try {
-                outFile = new FileOutputStream(new File(mContext.getFilesDir(), fileName));
-                subIdBundle.writeToStream(outFile);
-                outFile.flush();
-                outFile.close();
-            } catch (IOException e) {
-                loge(e.toString());
-            } catch (RuntimeException e) {
-                loge(e.toString());
+        try {
+            outFile = atomicFile.startWrite();
+            outFile.write(data);
+            // Syncs the file to disk before it replaces the previous version.
+            atomicFile.finishWrite(outFile);
+            mFsyncCount++;
+        } catch (IOException e) {
+            loge(e.toString());
+            if (outFile != null) {
+                atomicFile.failWrite(outFile);
             }
+            mFailedWriteCount++;
         }
     }
 
+    private AtomicFile getAtomicFile(int subId) {
+        return new AtomicFile(new File(mContext.getFilesDir(), getFileName(subId)));
+    }
+
     private int getUTProvisioningStatus(int subId, int tech) {
         return getMmTelCapabilityProvisioningBitfield(subId, tech) > 0 ? STATUS_PROVISIONED
                 : STATUS_NOT_SET;
@@ -285,6 +389,7 @@ public class ImsProvisioningLoader {
     void clear() {
         synchronized (mLock) {
             mSubIdBundleArray.clear();
+            mPendingSubIds.clear();
         }
     }
 
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.annotation.NonNull;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Per command queue depth and latency statistics of the requests {@link PhoneInterfaceManager}
+ * sends to its main thread handler.
+ *
+ * <p>For each command this tracks the time from posting a request until the handler starts
+ * processing it (wait), the time the handler spends processing each message (execution) and the
+ * time until the request is completed (completion). The slowest message executions are kept to
+ * find messages blocking the handler for the requests queued behind them.
+ *
+ * <p>Commands are indexed by their message code; all state lives in preallocated arrays so that
+ * recording a request does not allocate.
+ */
+public class MainThreadRequestStats {
+    private static final SimpleDateFormat TIME_FORMAT =
+            new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+
+    /**
+     * Upper bounds (inclusive) of the latency histogram buckets in milliseconds. The last bucket
+     * holds all latencies above the last bound.
+     */
+    @VisibleForTesting
+    public static final long[] LATENCY_BUCKET_BOUNDS_MILLIS =
+            {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    /** Number of slowest message executions kept. */
+    @VisibleForTesting
+    public static final int SLOWEST_EXECUTIONS_SIZE = 10;
+
+    private final int mMaxCommand;
+    // Number of requests sent but not completed yet, indexed by command.
+    private final int[] mQueueDepth;
+    // Highest queue depth seen, indexed by command.
+    private final int[] mMaxQueueDepth;
+    // Number of completed requests, indexed by command.
+    private final long[] mCompletedCount;
+    // Sum of the latencies of the completed requests in milliseconds, indexed by command.
+    private final long[] mTotalLatencyMillis;
+    // Highest latency of the completed requests in milliseconds, indexed by command.
+    private final long[] mMaxLatencyMillis;
+    // Latency histogram, indexed by command and bucket.
+    private final int[][] mLatencyHistogram;
+    // Number of started requests, indexed by command.
+    private final long[] mStartedCount;
+    // Sum of the times the requests waited until being started in milliseconds, indexed by
+    // command.
+    private final long[] mTotalWaitMillis;
+    // Highest time a request waited until being started in milliseconds, indexed by command.
+    private final long[] mMaxWaitMillis;
+    // Number of handled messages, indexed by message code.
+    private final long[] mExecutionCount;
+    // Sum of the message execution times in milliseconds, indexed by message code.
+    private final long[] mTotalExecutionMillis;
+    // Highest message execution time in milliseconds, indexed by message code.
+    private final long[] mMaxExecutionMillis;
+    // The slowest message executions. Entries with a zero timestamp are unused.
+    private final int[] mSlowestCode = new int[SLOWEST_EXECUTIONS_SIZE];
+    private final long[] mSlowestExecutionMillis = new long[SLOWEST_EXECUTIONS_SIZE];
+    private final long[] mSlowestWaitMillis = new long[SLOWEST_EXECUTIONS_SIZE];
+    private final long[] mSlowestTimestampMillis = new long[SLOWEST_EXECUTIONS_SIZE];
+
+    /**
+     * @param maxCommand The highest command code to track. Requests with a higher code are
+     *                   accounted to it.
+     */
+    public MainThreadRequestStats(int maxCommand) {
+        mMaxCommand = maxCommand;
+        mQueueDepth = new int[maxCommand + 1];
+        mMaxQueueDepth = new int[maxCommand + 1];
+        mCompletedCount = new long[maxCommand + 1];
+        mTotalLatencyMillis = new long[maxCommand + 1];
+        mMaxLatencyMillis = new long[maxCommand + 1];
+        mLatencyHistogram = new int[maxCommand + 1][LATENCY_BUCKET_BOUNDS_MILLIS.length + 1];
+        mStartedCount = new long[maxCommand + 1];
+        mTotalWaitMillis = new long[maxCommand + 1];
+        mMaxWaitMillis = new long[maxCommand + 1];
+        mExecutionCount = new long[maxCommand + 1];
+        mTotalExecutionMillis = new long[maxCommand + 1];
+        mMaxExecutionMillis = new long[maxCommand + 1];
+    }
+
+    /** Records that a request for {@code command} was posted to the main thread. */
+    public synchronized void onRequestSent(int command) {
+        int index = toIndex(command);
+        mQueueDepth[index]++;
+        if (mQueueDepth[index] > mMaxQueueDepth[index]) {
+            mMaxQueueDepth[index] = mQueueDepth[index];
+        }
+    }
+
+    /**
+     * Records that the handler started processing a request for {@code command}, which waited
+     * {@code waitMillis} milliseconds in the queue.
+     */
+    public synchronized void onRequestStarted(int command, long waitMillis) {
+        int index = toIndex(command);
+        mStartedCount[index]++;
+        mTotalWaitMillis[index] += waitMillis;
+        if (waitMillis > mMaxWaitMillis[index]) {
+            mMaxWaitMillis[index] = waitMillis;
+        }
+    }
+
+    /**
+     * Records that the handler spent {@code executionMillis} milliseconds processing a message.
+     *
+     * @param code The message code.
+     * @param executionMillis The time spent in the handler.
+     * @param waitMillis The time the request waited until being started, or -1 if the message is
+     *                   not a tracked request.
+     * @param timestampMillis The wall clock time the message was handled.
+     */
+    public synchronized void onMessageHandled(int code, long executionMillis, long waitMillis,
+            long timestampMillis) {
+        int index = toIndex(code);
+        mExecutionCount[index]++;
+        mTotalExecutionMillis[index] += executionMillis;
+        if (executionMillis > mMaxExecutionMillis[index]) {
+            mMaxExecutionMillis[index] = executionMillis;
+        }
+
+        // Replace the fastest of the kept executions, if this one is slower.
+        int fastest = 0;
+        for (int i = 0; i < SLOWEST_EXECUTIONS_SIZE; i++) {
+            if (mSlowestTimestampMillis[i] == 0) {
+                fastest = i;
+                break;
+            }
+            if (mSlowestExecutionMillis[i] < mSlowestExecutionMillis[fastest]) {
+                fastest = i;
+            }
+        }
+        if (mSlowestTimestampMillis[fastest] == 0
+                || executionMillis > mSlowestExecutionMillis[fastest]) {
+            mSlowestCode[fastest] = code;
+            mSlowestExecutionMillis[fastest] = executionMillis;
+            mSlowestWaitMillis[fastest] = waitMillis;
+            mSlowestTimestampMillis[fastest] = timestampMillis;
+        }
+    }
+
+    /**
+     * Records that a request for {@code command} completed {@code latencyMillis} milliseconds after
+     * it was posted.
+     */
+    public synchronized void onRequestCompleted(int command, long latencyMillis) {
+        int index = toIndex(command);
+        if (mQueueDepth[index] > 0) {
+            mQueueDepth[index]--;
+        }
+        mCompletedCount[index]++;
+        mTotalLatencyMillis[index] += latencyMillis;
+        if (latencyMillis > mMaxLatencyMillis[index]) {
+            mMaxLatencyMillis[index] = latencyMillis;
+        }
+        mLatencyHistogram[index][getBucket(latencyMillis)]++;
+    }
+
+    /** @return the number of requests for {@code command} that are not completed yet. */
+    public synchronized int getQueueDepth(int command) {
+        return mQueueDepth[toIndex(command)];
+    }
+
+    /** @return the number of completed requests for {@code command}. */
+    public synchronized long getCompletedCount(int command) {
+        return mCompletedCount[toIndex(command)];
+    }
+
+    /** @return the highest execution time of messages with {@code code} in milliseconds. */
+    public synchronized long getMaxExecutionMillis(int code) {
+        return mMaxExecutionMillis[toIndex(code)];
+    }
+
+    /** @return the highest time a request for {@code command} waited in milliseconds. */
+    public synchronized long getMaxWaitMillis(int command) {
+        return mMaxWaitMillis[toIndex(command)];
+    }
+
+    /** @return the execution times of the slowest message executions, slowest first. */
+    @VisibleForTesting
+    public synchronized long[] getSlowestExecutionMillis() {
+        return Arrays.stream(getSlowestOrder())
+                .mapToLong(i -> mSlowestExecutionMillis[i]).toArray();
+    }
+
+    /** Clears all statistics, except the queue depth of requests which are still in flight. */
+    public synchronized void reset() {
+        for (int i = 0; i <= mMaxCommand; i++) {
+            mMaxQueueDepth[i] = mQueueDepth[i];
+            Arrays.fill(mLatencyHistogram[i], 0);
+        }
+        Arrays.fill(mCompletedCount, 0);
+        Arrays.fill(mTotalLatencyMillis, 0);
+        Arrays.fill(mMaxLatencyMillis, 0);
+        Arrays.fill(mStartedCount, 0);
+        Arrays.fill(mTotalWaitMillis, 0);
+        Arrays.fill(mMaxWaitMillis, 0);
+        Arrays.fill(mExecutionCount, 0);
+        Arrays.fill(mTotalExecutionMillis, 0);
+        Arrays.fill(mMaxExecutionMillis, 0);
+        Arrays.fill(mSlowestTimestampMillis, 0);
+    }
+
+    /** @return the number of completed requests for {@code command} in the given bucket. */
+    @VisibleForTesting
+    public synchronized int getLatencyHistogramCount(int command, int bucket) {
+        return mLatencyHistogram[toIndex(command)][bucket];
+    }
+
+    /** Dumps the statistics of all commands and messages seen at least once. */
+    public synchronized void dump(@NonNull IndentingPrintWriter pw) {
+        pw.println("MainThreadRequestStats:");
+        pw.increaseIndent();
+        StringBuilder sb = new StringBuilder();
+        for (int command = 0; command <= mMaxCommand; command++) {
+            if (mCompletedCount[command] == 0 && mQueueDepth[command] == 0
+                    && mExecutionCount[command] == 0) {
+                continue;
+            }
+            sb.setLength(0);
+            sb.append("cmd=").append(command)
+                    .append(" completed=").append(mCompletedCount[command])
+                    .append(" queueDepth=").append(mQueueDepth[command])
+                    .append(" maxQueueDepth=").append(mMaxQueueDepth[command])
+                    .append(" avgWaitMs=").append(average(mTotalWaitMillis[command],
+                            mStartedCount[command]))
+                    .append(" maxWaitMs=").append(mMaxWaitMillis[command])
+                    .append(" executed=").append(mExecutionCount[command])
+                    .append(" avgExecMs=").append(average(mTotalExecutionMillis[command],
+                            mExecutionCount[command]))
+                    .append(" maxExecMs=").append(mMaxExecutionMillis[command])
+                    .append(" avgMs=").append(average(mTotalLatencyMillis[command],
+                            mCompletedCount[command]))
+                    .append(" maxMs=").append(mMaxLatencyMillis[command])
+                    .append(" histogram=[");
+            for (int bucket = 0; bucket < mLatencyHistogram[command].length; bucket++) {
+                if (bucket > 0) {
+                    sb.append(", ");
+                }
+                sb.append(bucket < LATENCY_BUCKET_BOUNDS_MILLIS.length
+                        ? "<=" + LATENCY_BUCKET_BOUNDS_MILLIS[bucket]
+                        : ">" + LATENCY_BUCKET_BOUNDS_MILLIS[bucket - 1]);
+                sb.append("ms:").append(mLatencyHistogram[command][bucket]);
+            }
+            sb.append("]");
+            pw.println(sb.toString());
+        }
+
+        pw.println("Slowest message executions:");
+        pw.increaseIndent();
+        for (int i : getSlowestOrder()) {
+            pw.println(TIME_FORMAT.format(mSlowestTimestampMillis[i])
+                    + " code=" + mSlowestCode[i]
+                    + " execMs=" + mSlowestExecutionMillis[i]
+                    + (mSlowestWaitMillis[i] >= 0 ? " waitMs=" + mSlowestWaitMillis[i] : ""));
+        }
+        pw.decreaseIndent();
+        pw.decreaseIndent();
+    }
+
+    /** @return the indices of the used slowest execution entries, slowest first. */
+    private int[] getSlowestOrder() {
+        return IntStream.range(0, SLOWEST_EXECUTIONS_SIZE)
+                .filter(i -> mSlowestTimestampMillis[i] != 0)
+                .boxed()
+                .sorted((a, b) -> Long.compare(mSlowestExecutionMillis[b],
+                        mSlowestExecutionMillis[a]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static long average(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    private int toIndex(int command) {
+        return Math.max(0, Math.min(command, mMaxCommand));
+    }
+
+    @VisibleForTesting
+    public static int getBucket(long latencyMillis) {
+        for (int i = 0; i < LATENCY_BUCKET_BOUNDS_MILLIS.length; i++) {
+            if (latencyMillis <= LATENCY_BUCKET_BOUNDS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKET_BOUNDS_MILLIS.length;
+    }
+}
@@ -83,6 +83,7 @@ import com.android.internal.telephony.uicc.UiccProfile;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.settings.SettingsConstants;
 import com.android.phone.vvm.CarrierVvmPackageInstalledReceiver;
+import com.android.services.telephony.TelecomAccountRegistry;
 import com.android.services.telephony.rcs.TelephonyRcsService;
 
 import java.io.FileDescriptor;
@@ -1391,6 +1392,22 @@ public class PhoneGlobals extends ContextWrapper {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        pw.println("ImsProvisioningController:");
+        try {
+            if (mImsProvisioningController != null) mImsProvisioningController.dump(pw);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        pw.println("TelecomAccountRegistry:");
+        pw.increaseIndent();
+        try {
+            TelecomAccountRegistry telecomAccountRegistry =
+                    TelecomAccountRegistry.getInstance(null);
+            if (telecomAccountRegistry != null) telecomAccountRegistry.dump(pw);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        pw.decreaseIndent();
         pw.println("DomainSelectionResolver:");
         pw.increaseIndent();
         try {
@@ -245,6 +245,7 @@ import com.android.internal.telephony.util.TelephonyUtils;
 import com.android.internal.telephony.util.VoicemailNotificationSettingsUtil;
 import com.android.internal.util.FunctionalUtils;
 import com.android.internal.util.HexDump;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.callcomposer.CallComposerPictureManager;
 import com.android.phone.callcomposer.CallComposerPictureTransfer;
 import com.android.phone.callcomposer.ImageData;
@@ -279,6 +280,7 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
@@ -402,6 +404,15 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     private static final int EVENT_IS_VONR_ENABLED_DONE = 116;
     private static final int CMD_PURCHASE_PREMIUM_CAPABILITY = 117;
     private static final int EVENT_PURCHASE_PREMIUM_CAPABILITY_DONE = 118;
+    // Highest message code used with mMainThreadHandler, update when adding new codes.
+    private static final int MAX_MAIN_THREAD_MESSAGE_CODE = EVENT_PURCHASE_PREMIUM_CAPABILITY_DONE;
+    // Command of a MainThreadRequest which is not tracked in mMainThreadRequestStats.
+    private static final int UNTRACKED_COMMAND = -1;
+
+    // DeviceConfig key of the window in which cell info is served without querying the modem.
+    private static final String CELL_INFO_FRESHNESS_WINDOW_MILLIS =
+            "cell_info_freshness_window_millis";
+    private static final long DEFAULT_CELL_INFO_FRESHNESS_WINDOW_MILLIS = 1000;
 
     // Parameters of select command.
     private static final int SELECT_COMMAND = 0xA4;
@@ -430,6 +441,14 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     private final UserManager mUserManager;
     private final AppOpsManager mAppOps;
     private final MainThreadHandler mMainThreadHandler;
+    private final MainThreadRequestStats mMainThreadRequestStats =
+            new MainThreadRequestStats(MAX_MAIN_THREAD_MESSAGE_CODE);
+    private final CellInfoRequestCoalescer<MainThreadRequest> mCellInfoRequestCoalescer =
+            new CellInfoRequestCoalescer<>(SystemClock::elapsedRealtime,
+                    () -> mCellInfoFreshnessWindowMillis);
+    // Updated from DeviceConfig, so that cell info requests do not read it.
+    private volatile long mCellInfoFreshnessWindowMillis =
+            DEFAULT_CELL_INFO_FRESHNESS_WINDOW_MILLIS;
     private final SharedPreferences mTelephonySharedPreferences;
     private final PhoneConfigurationManager mPhoneConfigurationManager;
     private final RadioInterfaceCapabilityController mRadioInterfaceCapabilities;
@@ -552,6 +571,15 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
         public WorkSource workSource;
 
+        // The command of the request, if tracked in mMainThreadRequestStats.
+        public int command = UNTRACKED_COMMAND;
+        // The time the request was posted to the main thread, in elapsed realtime millis.
+        public long enqueueTimeMillis;
+        // Whether the request has completed; only accessed on the main thread.
+        public boolean completed;
+        // Completed with the result of the request, if sent with sendRequestFuture.
+        @Nullable public CompletableFuture<Object> future;
+
         public MainThreadRequest(Object argument) {
             this.argument = argument;
         }
@@ -601,6 +629,25 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     private final class MainThreadHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
+            final long startMillis = SystemClock.elapsedRealtime();
+            long waitMillis = -1;
+            if (msg.obj instanceof MainThreadRequest) {
+                MainThreadRequest request = (MainThreadRequest) msg.obj;
+                if (request.command == msg.what) {
+                    waitMillis = startMillis - request.enqueueTimeMillis;
+                    mMainThreadRequestStats.onRequestStarted(msg.what, waitMillis);
+                }
+            }
+            try {
+                handleMainThreadMessage(msg);
+            } finally {
+                mMainThreadRequestStats.onMessageHandled(msg.what,
+                        SystemClock.elapsedRealtime() - startMillis, waitMillis,
+                        System.currentTimeMillis());
+            }
+        }
+
+        private void handleMainThreadMessage(Message msg) {
             MainThreadRequest request;
             Message onCompleted;
             AsyncResult ar;
@@ -1751,47 +1798,35 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                     notifyRequester(request);
                     break;
                 case CMD_GET_ALL_CELL_INFO:
+                case CMD_REQUEST_CELL_INFO_UPDATE: {
                     request = (MainThreadRequest) msg.obj;
-                    onCompleted = obtainMessage(EVENT_GET_ALL_CELL_INFO_DONE, request);
-                    request.phone.requestCellInfoUpdate(request.workSource, onCompleted);
+                    int phoneId = request.phone.getPhoneId();
+                    List<CellInfo> cellInfo = mCellInfoRequestCoalescer.getFreshResult(phoneId);
+                    if (cellInfo != null) {
+                        completeCellInfoRequest(request, cellInfo, null);
+                    } else if (mCellInfoRequestCoalescer.addRequest(phoneId, request)) {
+                        // The work source of the first request is blamed for the modem query
+                        // of all requests merged into it.
+                        request.phone.requestCellInfoUpdate(request.workSource,
+                                obtainMessage(msg.what == CMD_GET_ALL_CELL_INFO
+                                        ? EVENT_GET_ALL_CELL_INFO_DONE
+                                        : EVENT_REQUEST_CELL_INFO_UPDATE_DONE, request));
+                    }
                     break;
+                }
                 case EVENT_GET_ALL_CELL_INFO_DONE:
+                case EVENT_REQUEST_CELL_INFO_UPDATE_DONE: {
                     ar = (AsyncResult) msg.obj;
                     request = (MainThreadRequest) ar.userObj;
                     // If a timeout occurs, the response will be null
-                    request.result = (ar.exception == null && ar.result != null)
-                            ? ar.result : new ArrayList<CellInfo>();
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
-                    break;
-                case CMD_REQUEST_CELL_INFO_UPDATE:
-                    request = (MainThreadRequest) msg.obj;
-                    request.phone.requestCellInfoUpdate(request.workSource,
-                            obtainMessage(EVENT_REQUEST_CELL_INFO_UPDATE_DONE, request));
-                    break;
-                case EVENT_REQUEST_CELL_INFO_UPDATE_DONE:
-                    ar = (AsyncResult) msg.obj;
-                    request = (MainThreadRequest) ar.userObj;
-                    ICellInfoCallback cb = (ICellInfoCallback) request.argument;
-                    try {
-                        if (ar.exception != null) {
-                            Log.e(LOG_TAG, "Exception retrieving CellInfo=" + ar.exception);
-                            cb.onError(
-                                    TelephonyManager.CellInfoCallback.ERROR_MODEM_ERROR,
-                                    ar.exception.getClass().getName(),
-                                    ar.exception.toString());
-                        } else if (ar.result == null) {
-                            Log.w(LOG_TAG, "Timeout Waiting for CellInfo!");
-                            cb.onError(TelephonyManager.CellInfoCallback.ERROR_TIMEOUT, null, null);
-                        } else {
-                            // use the result as returned
-                            cb.onCellInfo((List<CellInfo>) ar.result);
-                        }
-                    } catch (RemoteException re) {
-                        Log.w(LOG_TAG, "Discarded CellInfo due to Callback RemoteException");
+                    List<CellInfo> cellInfo = ar.exception == null
+                            ? (List<CellInfo>) ar.result : null;
+                    for (MainThreadRequest pending : mCellInfoRequestCoalescer.onQueryCompleted(
+                            request.phone.getPhoneId(), cellInfo)) {
+                        completeCellInfoRequest(pending, cellInfo, ar.exception);
                     }
                     break;
+                }
                 case CMD_GET_CELL_LOCATION: {
                     request = (MainThreadRequest) msg.obj;
                     WorkSource ws = (WorkSource) request.argument;
@@ -1810,9 +1845,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                                 ? new CellIdentityCdma() : new CellIdentityGsm();
                     }
 
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    notifyRequester(request);
                     break;
                 }
                 case CMD_MODEM_REBOOT:
@@ -2275,10 +2308,58 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
             }
         }
 
+        /**
+         * Completes a request sent with {@link #CMD_GET_ALL_CELL_INFO} or
+         * {@link #CMD_REQUEST_CELL_INFO_UPDATE}.
+         *
+         * @param cellInfo the cell info, or {@code null} if the query failed or timed out.
+         * @param exception the exception the query failed with, if any.
+         */
+        private void completeCellInfoRequest(MainThreadRequest request,
+                @Nullable List<CellInfo> cellInfo, @Nullable Throwable exception) {
+            if (!(request.argument instanceof ICellInfoCallback)) {
+                // CMD_GET_ALL_CELL_INFO
+                request.result = cellInfo != null ? cellInfo : new ArrayList<CellInfo>();
+                notifyRequester(request);
+                return;
+            }
+            ICellInfoCallback cb = (ICellInfoCallback) request.argument;
+            try {
+                if (exception != null) {
+                    Log.e(LOG_TAG, "Exception retrieving CellInfo=" + exception);
+                    cb.onError(
+                            TelephonyManager.CellInfoCallback.ERROR_MODEM_ERROR,
+                            exception.getClass().getName(),
+                            exception.toString());
+                } else if (cellInfo == null) {
+                    Log.w(LOG_TAG, "Timeout Waiting for CellInfo!");
+                    cb.onError(TelephonyManager.CellInfoCallback.ERROR_TIMEOUT, null, null);
+                } else {
+                    // use the result as returned
+                    cb.onCellInfo(cellInfo);
+                }
+            } catch (RemoteException re) {
+                Log.w(LOG_TAG, "Discarded CellInfo due to Callback RemoteException");
+            }
+        }
+
         private void notifyRequester(MainThreadRequest request) {
             synchronized (request) {
                 request.notifyAll();
             }
+            onRequestCompleted(request);
+        }
+
+        private void onRequestCompleted(MainThreadRequest request) {
+            if (request.command == UNTRACKED_COMMAND || request.completed) {
+                return;
+            }
+            request.completed = true;
+            mMainThreadRequestStats.onRequestCompleted(request.command,
+                    SystemClock.elapsedRealtime() - request.enqueueTimeMillis);
+            if (request.future != null) {
+                request.future.complete(request.result);
+            }
         }
 
         private void handleNullReturnEvent(Message msg, String command) {
@@ -2378,9 +2459,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
             request = new MainThreadRequest(argument, subId, workSource);
         }
 
-        Message msg = mMainThreadHandler.obtainMessage(command, request);
-        msg.sendToTarget();
-
+        enqueueTrackedRequest(command, request);
 
         synchronized (request) {
             if (timeoutInMs >= 0) {
@@ -2414,6 +2493,45 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         return request.result;
     }
 
+    /**
+     * Non-blocking version of sendRequest():
+     * Posts the specified command to be executed on the main thread, and returns a future that is
+     * completed with the result of the request once it is complete. Unlike
+     * {@link #sendRequestAsync}, the result is delivered to the caller, without parking the calling
+     * thread until then.
+     *
+     * <p>Note that dependent actions chained with the non-async methods of the future run on the
+     * main thread, so they must not block.
+     * @see #sendRequest
+     */
+    private CompletableFuture<Object> sendRequestFuture(int command, Object argument,
+            Integer subId, Phone phone, WorkSource workSource) {
+        MainThreadRequest request;
+        if (subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID && phone != null) {
+            throw new IllegalArgumentException("subId and phone cannot both be specified!");
+        } else if (phone != null) {
+            request = new MainThreadRequest(argument, phone, workSource);
+        } else {
+            request = new MainThreadRequest(argument, subId, workSource);
+        }
+        request.future = new CompletableFuture<>();
+
+        enqueueTrackedRequest(command, request);
+        return request.future;
+    }
+
+    /**
+     * Posts the request to the main thread and tracks its queue depth and latency in
+     * {@link #mMainThreadRequestStats}.
+     */
+    private void enqueueTrackedRequest(int command, MainThreadRequest request) {
+        request.command = command;
+        request.enqueueTimeMillis = SystemClock.elapsedRealtime();
+        mMainThreadRequestStats.onRequestSent(command);
+        Message msg = mMainThreadHandler.obtainMessage(command, request);
+        msg.sendToTarget();
+    }
+
     /**
      * Asynchronous ("fire and forget") version of sendRequest():
      * Posts the specified command to be executed on the main thread, and
@@ -2476,6 +2594,16 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         mPackageManager = app.getPackageManager();
         mSatelliteAccessController = SatelliteAccessController.getOrCreateInstance(
                 getDefaultPhone().getContext(), featureFlags);
+        mCellInfoFreshnessWindowMillis = DeviceConfig.getLong(DeviceConfig.NAMESPACE_TELEPHONY,
+                CELL_INFO_FRESHNESS_WINDOW_MILLIS, DEFAULT_CELL_INFO_FRESHNESS_WINDOW_MILLIS);
+        DeviceConfig.addOnPropertiesChangedListener(DeviceConfig.NAMESPACE_TELEPHONY,
+                Runnable::run, properties -> {
+                    if (properties.getKeyset().contains(CELL_INFO_FRESHNESS_WINDOW_MILLIS)) {
+                        mCellInfoFreshnessWindowMillis = properties.getLong(
+                                CELL_INFO_FRESHNESS_WINDOW_MILLIS,
+                                DEFAULT_CELL_INFO_FRESHNESS_WINDOW_MILLIS);
+                    }
+                });
         PropertyInvalidatedCache.invalidateCache(TelephonyManager.CACHE_KEY_PHONE_ACCOUNT_TO_SUBID);
         publish();
         CarrierAllowListInfo.loadInstance(mApp);
@@ -3241,7 +3369,14 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                 return;
             }
             Pair<String, ResultReceiver> ussdObject = new Pair(ussdRequest, wrappedCallback);
-            sendRequest(CMD_HANDLE_USSD_REQUEST, ussdObject, subId);
+            // The response is delivered through wrappedCallback, so there is no need to hold the
+            // binder thread until the request has been sent to the modem.
+            sendRequestFuture(CMD_HANDLE_USSD_REQUEST, ussdObject, subId, null, null)
+                    .thenAccept(handled -> {
+                        if (!Boolean.TRUE.equals(handled)) {
+                            Rlog.w(LOG_TAG, "handleUssdRequest: not handled, subId=" + subId);
+                        }
+                    });
         } finally {
             Binder.restoreCallingIdentity(identity);
         }
@@ -9421,6 +9556,18 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
             return;
         }
         DumpsysHandler.dump(mApp, fd, writer, args);
+        IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+        mMainThreadRequestStats.dump(pw);
+        mCellInfoRequestCoalescer.dump(pw);
+        mSatelliteAccessController.dump(pw);
+    }
+
+    /**
+     * @return The statistics of the requests handled on the main thread, for shell commands.
+     */
+    @NonNull
+    /* package */ MainThreadRequestStats getMainThreadRequestStats() {
+        return mMainThreadRequestStats;
     }
 
     @Override
@@ -36,11 +36,11 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
-import android.database.MatrixCursor.RowBuilder;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Parcel;
+import android.os.SystemClock;
 import android.telephony.LocationAccessPolicy;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
@@ -50,10 +50,15 @@ import android.util.Log;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.TelephonyPermissions;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
 
 /**
  * The class to provide base facility to access ServiceState related content,
@@ -243,6 +248,90 @@ public class ServiceStateProvider extends ContentProvider {
     /* package */ static final long ENFORCE_LOCATION_PERMISSION_CHECK = 191911306;
 
     private final HashMap<Integer, ServiceState> mServiceStates = new HashMap<>();
+    // The parcelled form of the entries of mServiceStates, used to skip unchanged updates.
+    private final HashMap<Integer, byte[]> mServiceStateBytes = new HashMap<>();
+
+    /**
+     * The columns which are notified on their own Uri when they change, see
+     * {@link #notifyChangeForSubIdAndField}. Bit {@code i} of a changed columns mask returned by
+     * {@link #getChangedColumns} is set if {@code NOTIFIED_COLUMNS[i]} changed.
+     */
+    private static final String[] NOTIFIED_COLUMNS = {
+            VOICE_REG_STATE,
+            DATA_REG_STATE,
+            VOICE_ROAMING_TYPE,
+            DATA_ROAMING_TYPE,
+            DATA_NETWORK_TYPE
+    };
+
+    /** The getters of the values of {@link #NOTIFIED_COLUMNS}, in the same order. */
+    private static final List<ToIntFunction<ServiceState>> NOTIFIED_COLUMN_GETTERS = List.of(
+            ServiceState::getState,
+            ServiceState::getDataRegistrationState,
+            ServiceState::getVoiceRoamingType,
+            ServiceState::getDataRoamingType,
+            ServiceState::getDataNetworkType
+    );
+
+    // The columns a caller may query, see query().
+    private static final int COLUMNS_TIER_PUBLIC = 0;
+    private static final int COLUMNS_TIER_ALL = 1;
+    private static final int COLUMNS_TIER_ALL_REDACTED = 2;
+
+    // Upper bound of mRowCache entries, the cache is cleared when reached.
+    private static final int MAX_ROW_CACHE_SIZE = 64;
+
+    /** Key of a cached query result row. */
+    private static final class RowCacheKey {
+        final int subId;
+        final int columnsTier;
+        final String[] projection;
+
+        RowCacheKey(int subId, int columnsTier, String[] projection) {
+            this.subId = subId;
+            this.columnsTier = columnsTier;
+            this.projection = projection;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RowCacheKey)) return false;
+            RowCacheKey that = (RowCacheKey) o;
+            return subId == that.subId && columnsTier == that.columnsTier
+                    && Arrays.equals(projection, that.projection);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subId, columnsTier, Arrays.hashCode(projection));
+        }
+    }
+
+    /** A query result row, valid as long as the provider holds the same ServiceState. */
+    private static final class RowCacheEntry {
+        final ServiceState serviceState;
+        final String[] columns;
+        final Object[] row;
+
+        RowCacheEntry(ServiceState serviceState, String[] columns, Object[] row) {
+            this.serviceState = serviceState;
+            this.columns = columns;
+            this.row = row;
+        }
+    }
+
+    // Rows returned by query(), never modified once cached since MatrixCursor copies them.
+    private final HashMap<RowCacheKey, RowCacheEntry> mRowCache = new HashMap<>();
+    private final AtomicLong mRowCacheHits = new AtomicLong();
+    private final AtomicLong mRowCacheMisses = new AtomicLong();
+    private final AtomicLong mQueryCount = new AtomicLong();
+    private final AtomicLong mTotalQueryLatencyNanos = new AtomicLong();
+    private final AtomicLong mMaxQueryLatencyNanos = new AtomicLong();
+
+    /** Changed columns mask with all of {@link #NOTIFIED_COLUMNS} set. */
+    @VisibleForTesting
+    /* package */ static final int ALL_NOTIFIED_COLUMNS = (1 << NOTIFIED_COLUMNS.length) - 1;
 
     @VisibleForTesting
     /* package */ static final String[] ALL_COLUMNS = {
@@ -346,22 +435,32 @@ public class ServiceStateProvider extends ContentProvider {
                 subId = getDefaultSubId();
             }
 
-            final Parcel p = Parcel.obtain();
             final byte[] rawBytes = values.getAsByteArray(SERVICE_STATE);
-            p.unmarshall(rawBytes, 0, rawBytes.length);
-            p.setDataPosition(0);
+            if (Arrays.equals(rawBytes, mServiceStateBytes.get(subId))) {
+                // Same parcel as the stored service state, so no field can have changed.
+                return uri;
+            }
 
             // create the new service state
-            final ServiceState newSS = ServiceState.CREATOR.createFromParcel(p);
+            final Parcel p = Parcel.obtain();
+            final ServiceState newSS;
+            try {
+                p.unmarshall(rawBytes, 0, rawBytes.length);
+                p.setDataPosition(0);
+                newSS = ServiceState.CREATOR.createFromParcel(p);
+            } finally {
+                p.recycle();
+            }
 
             // notify listeners
             // if ss is null (e.g. first service state update) we will notify for all fields
             ServiceState ss = getServiceState(subId);
-            notifyChangeForSubIdAndField(getContext(), ss, newSS, subId);
-            notifyChangeForSubId(getContext(), ss, newSS, subId);
+            notifyChangedColumns(getContext(), getChangedColumns(ss, newSS), subId);
 
             // store the new service state
             mServiceStates.put(subId, newSS);
+            mServiceStateBytes.put(subId, rawBytes);
+            invalidateRowCache(subId);
             return uri;
         }
         return null;
@@ -385,6 +484,18 @@ public class ServiceStateProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        try {
+            return queryInternal(uri, projection);
+        } finally {
+            final long latencyNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+            mQueryCount.incrementAndGet();
+            mTotalQueryLatencyNanos.addAndGet(latencyNanos);
+            mMaxQueryLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        }
+    }
+
+    private Cursor queryInternal(Uri uri, String[] projection) {
         if (!isPathPrefixMatch(uri, CONTENT_URI)) {
             throw new IllegalArgumentException("Invalid URI: " + uri);
         } else {
@@ -417,19 +528,16 @@ public class ServiceStateProvider extends ContentProvider {
             final boolean canReadPrivilegedPhoneState = getContext().checkCallingOrSelfPermission(
                     Manifest.permission.READ_PRIVILEGED_PHONE_STATE) == PERMISSION_GRANTED;
 
-            final String[] availableColumns;
-            final ServiceState ss;
+            final int columnsTier;
             if (enforceLocationPermission && targetingAtLeastS && !canReadPrivilegedPhoneState) {
                 // targetSdkVersion S+ without read privileged phone state permission can only
                 // access public columns which have no location sensitive info.
-                availableColumns = PUBLIC_COLUMNS;
-                ss = unredactedServiceState;
+                columnsTier = COLUMNS_TIER_PUBLIC;
             } else {
-                availableColumns = ALL_COLUMNS;
                 if (!enforceLocationPermission) {
                     // No matter the targetSdkVersion, return unredacted ServiceState if location
                     // permission enforcement is not introduced
-                    ss = unredactedServiceState;
+                    columnsTier = COLUMNS_TIER_ALL;
                 } else {
                     boolean implicitlyQueryLocation = projection == null;
                     boolean explicitlyQueryLocation = false;
@@ -447,7 +555,7 @@ public class ServiceStateProvider extends ContentProvider {
                     // permission when query non sensitive info.
                     if (implicitlyQueryLocation || explicitlyQueryLocation) {
                         if (hasLocationPermission()) {
-                            ss = unredactedServiceState;
+                            columnsTier = COLUMNS_TIER_ALL;
                         } else {
                             if (targetingAtLeastS) {
                                 // Throw SecurityException to fail loudly if caller is targetSDK S+
@@ -456,109 +564,179 @@ public class ServiceStateProvider extends ContentProvider {
                                                 + "permissions");
                             } else {
                                 // For backward compatibility, return redacted value for old SDK
-                                ss = getLocationRedactedServiceState(unredactedServiceState);
+                                columnsTier = COLUMNS_TIER_ALL_REDACTED;
                             }
                         }
                     } else {
                         // The caller is not interested in location sensitive info, return result
                         // that scrub out all sensitive info. And no permission check is needed.
-                        ss = getLocationRedactedServiceState(unredactedServiceState);
+                        columnsTier = COLUMNS_TIER_ALL_REDACTED;
                     }
                 }
             }
 
-            // Build the result
-            final int voice_reg_state = ss.getState();
-            final int data_reg_state = ss.getDataRegistrationState();
-            final int voice_roaming_type = ss.getVoiceRoamingType();
-            final int data_roaming_type = ss.getDataRoamingType();
-            final String voice_operator_alpha_long = ss.getOperatorAlphaLong();
-            final String voice_operator_alpha_short = ss.getOperatorAlphaShort();
-            final String voice_operator_numeric = ss.getOperatorNumeric();
-            final String data_operator_alpha_long = ss.getOperatorAlphaLong();
-            final String data_operator_alpha_short = ss.getOperatorAlphaShort();
-            final String data_operator_numeric = ss.getOperatorNumeric();
-            final int is_manual_network_selection = (ss.getIsManualSelection()) ? 1 : 0;
-            final int ril_voice_radio_technology = ss.getRilVoiceRadioTechnology();
-            final int ril_data_radio_technology = ss.getRilDataRadioTechnology();
-            final int css_indicator = ss.getCssIndicator();
-            final int network_id = ss.getCdmaNetworkId();
-            final int system_id = ss.getCdmaSystemId();
-            final int cdma_roaming_indicator = ss.getCdmaRoamingIndicator();
-            final int cdma_default_roaming_indicator = ss.getCdmaDefaultRoamingIndicator();
-            final int cdma_eri_icon_index = ss.getCdmaEriIconIndex();
-            final int cdma_eri_icon_mode = ss.getCdmaEriIconMode();
-            final int is_emergency_only = (ss.isEmergencyOnly()) ? 1 : 0;
-            final int is_using_carrier_aggregation = (ss.isUsingCarrierAggregation()) ? 1 : 0;
-            final String operator_alpha_long_raw = ss.getOperatorAlphaLongRaw();
-            final String operator_alpha_short_raw = ss.getOperatorAlphaShortRaw();
-            final int data_network_type = ss.getDataNetworkType();
-            final int duplex_mode = ss.getDuplexMode();
-
-            Object[] data = availableColumns == ALL_COLUMNS ? new Object[]{
-                    // data for all columns
-                    voice_reg_state,
-                    data_reg_state,
-                    voice_roaming_type,
-                    data_roaming_type,
-                    voice_operator_alpha_long,
-                    voice_operator_alpha_short,
-                    voice_operator_numeric,
-                    data_operator_alpha_long,
-                    data_operator_alpha_short,
-                    data_operator_numeric,
-                    is_manual_network_selection,
-                    ril_voice_radio_technology,
-                    ril_data_radio_technology,
-                    css_indicator,
-                    network_id,
-                    system_id,
-                    cdma_roaming_indicator,
-                    cdma_default_roaming_indicator,
-                    cdma_eri_icon_index,
-                    cdma_eri_icon_mode,
-                    is_emergency_only,
-                    is_using_carrier_aggregation,
-                    operator_alpha_long_raw,
-                    operator_alpha_short_raw,
-                    data_network_type,
-                    duplex_mode,
-            } : new Object[]{
-                    // data for public columns only
-                    voice_reg_state,
-                    data_reg_state,
-                    voice_operator_numeric,
-                    is_manual_network_selection,
-                    data_network_type,
-                    duplex_mode,
-            };
-
-            return buildSingleRowResult(projection, availableColumns, data);
+            RowCacheKey key = new RowCacheKey(subId, columnsTier, projection);
+            RowCacheEntry entry;
+            synchronized (mRowCache) {
+                entry = mRowCache.get(key);
+            }
+            if (entry != null && entry.serviceState == unredactedServiceState) {
+                mRowCacheHits.incrementAndGet();
+            } else {
+                // Build the result
+                mRowCacheMisses.incrementAndGet();
+                final String[] availableColumns =
+                        columnsTier == COLUMNS_TIER_PUBLIC ? PUBLIC_COLUMNS : ALL_COLUMNS;
+                final ServiceState ss = columnsTier == COLUMNS_TIER_ALL_REDACTED
+                        ? getLocationRedactedServiceState(unredactedServiceState)
+                        : unredactedServiceState;
+                // Copy the projection, the caller still owns the array.
+                final String[] columns =
+                        projection == null ? availableColumns : projection.clone();
+                entry = new RowCacheEntry(unredactedServiceState, columns,
+                        projectRow(columns, availableColumns, buildRow(ss, availableColumns)));
+                synchronized (mRowCache) {
+                    if (mRowCache.size() >= MAX_ROW_CACHE_SIZE) {
+                        mRowCache.clear();
+                    }
+                    mRowCache.put(new RowCacheKey(subId, columnsTier,
+                            projection == null ? null : columns), entry);
+                }
+            }
+
+            final MatrixCursor c = new MatrixCursor(entry.columns, 1);
+            c.addRow(entry.row);
+            return c;
         }
     }
 
-    private static Cursor buildSingleRowResult(String[] projection, String[] availableColumns,
-            Object[] data) {
-        if (projection == null) {
-            projection = availableColumns;
+    private void invalidateRowCache(int subId) {
+        synchronized (mRowCache) {
+            mRowCache.keySet().removeIf(key -> key.subId == subId);
         }
-        final MatrixCursor c = new MatrixCursor(projection, 1);
-        final RowBuilder row = c.newRow();
-        for (int i = 0; i < c.getColumnCount(); i++) {
-            final String columnName = c.getColumnName(i);
+    }
+
+    /** @return the number of queries answered from the row cache. */
+    @VisibleForTesting
+    public long getRowCacheHits() {
+        return mRowCacheHits.get();
+    }
+
+    /** @return the number of queries which had to build their row. */
+    @VisibleForTesting
+    public long getRowCacheMisses() {
+        return mRowCacheMisses.get();
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        final long hits = mRowCacheHits.get();
+        final long misses = mRowCacheMisses.get();
+        final long queries = mQueryCount.get();
+        writer.println("ServiceStateProvider:");
+        writer.println("  rowCacheHits=" + hits + " rowCacheMisses=" + misses
+                + " hitRate=" + (hits + misses == 0 ? 0 : hits * 100 / (hits + misses)) + "%");
+        writer.println("  queries=" + queries
+                + " avgLatencyMicros="
+                + (queries == 0 ? 0 : mTotalQueryLatencyNanos.get() / queries / 1000)
+                + " maxLatencyMicros=" + mMaxQueryLatencyNanos.get() / 1000);
+    }
+
+    /**
+     * Builds the values of {@code availableColumns}, which is either {@link #ALL_COLUMNS} or
+     * {@link #PUBLIC_COLUMNS}, for {@code ss}.
+     */
+    private static Object[] buildRow(ServiceState ss, String[] availableColumns) {
+        final int voice_reg_state = ss.getState();
+        final int data_reg_state = ss.getDataRegistrationState();
+        final int voice_roaming_type = ss.getVoiceRoamingType();
+        final int data_roaming_type = ss.getDataRoamingType();
+        final String voice_operator_alpha_long = ss.getOperatorAlphaLong();
+        final String voice_operator_alpha_short = ss.getOperatorAlphaShort();
+        final String voice_operator_numeric = ss.getOperatorNumeric();
+        final String data_operator_alpha_long = ss.getOperatorAlphaLong();
+        final String data_operator_alpha_short = ss.getOperatorAlphaShort();
+        final String data_operator_numeric = ss.getOperatorNumeric();
+        final int is_manual_network_selection = (ss.getIsManualSelection()) ? 1 : 0;
+        final int ril_voice_radio_technology = ss.getRilVoiceRadioTechnology();
+        final int ril_data_radio_technology = ss.getRilDataRadioTechnology();
+        final int css_indicator = ss.getCssIndicator();
+        final int network_id = ss.getCdmaNetworkId();
+        final int system_id = ss.getCdmaSystemId();
+        final int cdma_roaming_indicator = ss.getCdmaRoamingIndicator();
+        final int cdma_default_roaming_indicator = ss.getCdmaDefaultRoamingIndicator();
+        final int cdma_eri_icon_index = ss.getCdmaEriIconIndex();
+        final int cdma_eri_icon_mode = ss.getCdmaEriIconMode();
+        final int is_emergency_only = (ss.isEmergencyOnly()) ? 1 : 0;
+        final int is_using_carrier_aggregation = (ss.isUsingCarrierAggregation()) ? 1 : 0;
+        final String operator_alpha_long_raw = ss.getOperatorAlphaLongRaw();
+        final String operator_alpha_short_raw = ss.getOperatorAlphaShortRaw();
+        final int data_network_type = ss.getDataNetworkType();
+        final int duplex_mode = ss.getDuplexMode();
+
+        Object[] data = availableColumns == ALL_COLUMNS ? new Object[]{
+                // data for all columns
+                voice_reg_state,
+                data_reg_state,
+                voice_roaming_type,
+                data_roaming_type,
+                voice_operator_alpha_long,
+                voice_operator_alpha_short,
+                voice_operator_numeric,
+                data_operator_alpha_long,
+                data_operator_alpha_short,
+                data_operator_numeric,
+                is_manual_network_selection,
+                ril_voice_radio_technology,
+                ril_data_radio_technology,
+                css_indicator,
+                network_id,
+                system_id,
+                cdma_roaming_indicator,
+                cdma_default_roaming_indicator,
+                cdma_eri_icon_index,
+                cdma_eri_icon_mode,
+                is_emergency_only,
+                is_using_carrier_aggregation,
+                operator_alpha_long_raw,
+                operator_alpha_short_raw,
+                data_network_type,
+                duplex_mode,
+        } : new Object[]{
+                // data for public columns only
+                voice_reg_state,
+                data_reg_state,
+                voice_operator_numeric,
+                is_manual_network_selection,
+                data_network_type,
+                duplex_mode,
+        };
+        return data;
+    }
+
+    /**
+     * @return the values of {@code columns}, picked from {@code data} holding the values of
+     * {@code availableColumns}.
+     * @throws IllegalArgumentException if a column is not one of {@code availableColumns}.
+     */
+    private static Object[] projectRow(String[] columns, String[] availableColumns,
+            Object[] data) {
+        final Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            final String columnName = columns[i];
             boolean found = false;
             for (int j = 0; j < availableColumns.length; j++) {
                 if (availableColumns[j].equals(columnName)) {
-                    row.add(data[j]);
+                    row[i] = data[j];
                     found = true;
                     break;
                 }
             }
             if (!found) {
-                throw new IllegalArgumentException("Invalid column " + projection[i]);
+                throw new IllegalArgumentException("Invalid column " + columns[i]);
             }
         }
-        return c;
+        return row;
     }
 
     /**
@@ -575,50 +753,7 @@ public class ServiceStateProvider extends ContentProvider {
     @VisibleForTesting
     public static void notifyChangeForSubIdAndField(Context context, ServiceState oldSS,
             ServiceState newSS, int subId) {
-        final boolean firstUpdate = (oldSS == null) ? true : false;
-
-        // for every field, if the field has changed values, notify via the provider
-        if (firstUpdate || voiceRegStateChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, VOICE_REG_STATE),
-                    /* observer= */ null, /* syncToNetwork= */ false);
-        }
-        if (firstUpdate || dataRegStateChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, DATA_REG_STATE), null, false);
-        }
-        if (firstUpdate || voiceRoamingTypeChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, VOICE_ROAMING_TYPE), null, false);
-        }
-        if (firstUpdate || dataRoamingTypeChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, DATA_ROAMING_TYPE), null, false);
-        }
-        if (firstUpdate || dataNetworkTypeChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, DATA_NETWORK_TYPE), null, false);
-        }
-    }
-
-    private static boolean voiceRegStateChanged(ServiceState oldSS, ServiceState newSS) {
-        return oldSS.getState() != newSS.getState();
-    }
-
-    private static boolean dataRegStateChanged(ServiceState oldSS, ServiceState newSS) {
-        return oldSS.getDataRegistrationState() != newSS.getDataRegistrationState();
-    }
-
-    private static boolean voiceRoamingTypeChanged(ServiceState oldSS, ServiceState newSS) {
-        return oldSS.getVoiceRoamingType() != newSS.getVoiceRoamingType();
-    }
-
-    private static boolean dataRoamingTypeChanged(ServiceState oldSS, ServiceState newSS) {
-        return oldSS.getDataRoamingType() != newSS.getDataRoamingType();
-    }
-
-    private static boolean dataNetworkTypeChanged(ServiceState oldSS, ServiceState newSS) {
-        return oldSS.getDataNetworkType() != newSS.getDataNetworkType();
+        notifyChangedColumnsForSubIdAndField(context, getChangedColumns(oldSS, newSS), subId);
     }
 
     /**
@@ -635,13 +770,55 @@ public class ServiceStateProvider extends ContentProvider {
     @VisibleForTesting
     public static void notifyChangeForSubId(Context context, ServiceState oldSS, ServiceState newSS,
             int subId) {
-        // if the voice or data registration or roaming state field has changed values, notify via
-        // the provider.
-        // If oldSS is null and newSS is not (e.g. first update of service state) this will also
-        // notify
-        if (oldSS == null || voiceRegStateChanged(oldSS, newSS) || dataRegStateChanged(oldSS, newSS)
-                || voiceRoamingTypeChanged(oldSS, newSS) || dataRoamingTypeChanged(oldSS, newSS)
-                || dataNetworkTypeChanged(oldSS, newSS)) {
+        notifyChangedColumnsForSubId(context, getChangedColumns(oldSS, newSS), subId);
+    }
+
+    /**
+     * Compares the notified columns of two service states.
+     *
+     * @param oldSS the previous service state, or {@code null} for the first update.
+     * @param newSS the new service state.
+     * @return a mask of the changed {@link #NOTIFIED_COLUMNS}; all columns are considered changed
+     * if {@code oldSS} is {@code null}.
+     */
+    @VisibleForTesting
+    /* package */ static int getChangedColumns(ServiceState oldSS, ServiceState newSS) {
+        if (oldSS == null) {
+            return ALL_NOTIFIED_COLUMNS;
+        }
+        int changedColumns = 0;
+        for (int i = 0; i < NOTIFIED_COLUMNS.length; i++) {
+            ToIntFunction<ServiceState> getter = NOTIFIED_COLUMN_GETTERS.get(i);
+            if (getter.applyAsInt(oldSS) != getter.applyAsInt(newSS)) {
+                changedColumns |= 1 << i;
+            }
+        }
+        return changedColumns;
+    }
+
+    /**
+     * Notifies the Uri of every column in {@code changedColumns}, followed by the Uri of the
+     * subscription if any column changed.
+     */
+    private static void notifyChangedColumns(Context context, int changedColumns, int subId) {
+        notifyChangedColumnsForSubIdAndField(context, changedColumns, subId);
+        notifyChangedColumnsForSubId(context, changedColumns, subId);
+    }
+
+    private static void notifyChangedColumnsForSubIdAndField(Context context, int changedColumns,
+            int subId) {
+        for (int i = 0; i < NOTIFIED_COLUMNS.length; i++) {
+            if ((changedColumns & (1 << i)) != 0) {
+                context.getContentResolver().notifyChange(
+                        getUriForSubscriptionIdAndField(subId, NOTIFIED_COLUMNS[i]),
+                        /* observer= */ null, /* syncToNetwork= */ false);
+            }
+        }
+    }
+
+    private static void notifyChangedColumnsForSubId(Context context, int changedColumns,
+            int subId) {
+        if (changedColumns != 0) {
             context.getContentResolver().notifyChange(getUriForSubscriptionId(subId), null, false);
         }
     }
@@ -22,8 +22,11 @@ import static com.android.internal.telephony.IccProvider.STR_NEW_TAG;
 import android.Manifest;
 import android.annotation.TestApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.pm.PackageManager;
 import android.database.ContentObserver;
@@ -60,6 +63,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.MoreExecutors;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -69,6 +73,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Provider for contact records stored on the SIM card.
@@ -106,6 +111,22 @@ public class SimPhonebookProvider extends ContentProvider {
 
     private static final int WRITE_TIMEOUT_SECONDS = 30;
 
+    private static final Uri ICC_PROVIDER_URI = Uri.parse("content://icc");
+
+    /**
+     * Optional query arg restricting a {@link SimRecords} query to the records with this name,
+     * ignoring case.
+     */
+    @VisibleForTesting
+    static final String QUERY_ARG_NAME = SimPhonebookContract.AUTHORITY + ".query-arg-name";
+    /**
+     * Optional query arg restricting a {@link SimRecords} query to the records with this phone
+     * number, ignoring separators.
+     */
+    @VisibleForTesting
+    static final String QUERY_ARG_PHONE_NUMBER =
+            SimPhonebookContract.AUTHORITY + ".query-arg-phone-number";
+
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
     private static final int ELEMENTARY_FILES = 100;
@@ -133,6 +154,7 @@ public class SimPhonebookProvider extends ContentProvider {
     private SubscriptionManager mSubscriptionManager;
     private Supplier<IIccPhoneBook> mIccPhoneBookSupplier;
     private ContentNotifier mContentNotifier;
+    private final SimRecordsIndex mRecordsIndex = new SimRecordsIndex();
 
     static int efIdForEfType(@ElementaryFiles.EfType int efType) {
         switch (efType) {
@@ -181,6 +203,14 @@ public class SimPhonebookProvider extends ContentProvider {
         } else if (Flags.workProfileApiSplit()) {
             sm = sm.createForAllUserProfiles();
         }
+        // Writes through the legacy IccProvider bypass this provider, so the cached records
+        // can't be trusted anymore when it reports a change.
+        resolver.registerContentObserver(ICC_PROVIDER_URI, true, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mRecordsIndex.invalidateAll();
+            }
+        });
         return onCreate(sm,
                 SimPhonebookProvider::getIccPhoneBook,
                 uri -> resolver.notifyChange(uri, null));
@@ -192,6 +222,7 @@ public class SimPhonebookProvider extends ContentProvider {
         mSubscriptionManager = subscriptionManager;
         mIccPhoneBookSupplier = iccPhoneBookSupplier;
         mContentNotifier = notifier;
+        mRecordsIndex.invalidateAll();
 
         mSubscriptionManager.addOnSubscriptionsChangedListener(MoreExecutors.directExecutor(),
                 new SubscriptionManager.OnSubscriptionsChangedListener() {
@@ -204,6 +235,8 @@ public class SimPhonebookProvider extends ContentProvider {
                             mFirstCallback = false;
                             return;
                         }
+                        // The SIMs may have been swapped or refreshed.
+                        mRecordsIndex.invalidateAll();
                         int[] activeSubIds = mSubscriptionManager.getActiveSubscriptionIdList();
                         if (!Arrays.equals(mNotifiedSubIds, activeSubIds)) {
                             notifier.notifyChange(SimPhonebookContract.AUTHORITY_URI);
@@ -338,12 +371,11 @@ public class SimPhonebookProvider extends ContentProvider {
         if (recordsSize == null || getRecordCount(recordsSize) == 0) {
             return;
         }
-        int efid = efIdForEfType(efType);
         // Have to load the existing records to get the size because there may be more than one
         // phonebook set in which case the total capacity is the sum of the capacity of EF_ADN for
         // all the phonebook sets whereas the recordsSize is just the size for a single EF.
-        List<AdnRecord> existingRecords = mIccPhoneBookSupplier.get()
-                .getAdnRecordsInEfForSubscriber(subscriptionInfo.getSubscriptionId(), efid);
+        List<AdnRecord> existingRecords = loadRecordsForEf(
+                subscriptionInfo.getSubscriptionId(), efType);
         if (existingRecords == null) {
             existingRecords = ImmutableList.of();
         }
@@ -374,15 +406,32 @@ public class SimPhonebookProvider extends ContentProvider {
             projection = SIM_RECORDS_ALL_COLUMNS;
         }
 
-        List<AdnRecord> records = loadRecordsForEf(args);
-        if (records == null) {
+        SimRecordsIndex.EfRecords efRecords = loadEfRecords(args);
+        if (efRecords == null) {
             return new MatrixCursor(projection, 0);
         }
+        List<AdnRecord> records = efRecords.getRecords();
         MatrixCursor result = new MatrixCursor(projection, records.size());
         SparseArray<MatrixCursor.RowBuilder> rowBuilders = new SparseArray<>(records.size());
-        for (int i = 0; i < records.size(); i++) {
-            AdnRecord record = records.get(i);
-            if (!record.isEmpty()) {
+        if (args.nameFilter == null && args.phoneNumberFilter == null) {
+            for (int i = 0; i < records.size(); i++) {
+                AdnRecord record = records.get(i);
+                if (!record.isEmpty()) {
+                    rowBuilders.put(i, result.newRow());
+                }
+            }
+        } else {
+            // Use the smallest match list and check the other filter on each of its records.
+            List<Integer> matches = args.nameFilter != null
+                    ? efRecords.findByName(args.nameFilter)
+                    : efRecords.findByPhoneNumber(args.phoneNumberFilter);
+            if (args.nameFilter != null && args.phoneNumberFilter != null) {
+                Set<Integer> phoneNumberMatches =
+                        new ArraySet<>(efRecords.findByPhoneNumber(args.phoneNumberFilter));
+                matches = matches.stream().filter(phoneNumberMatches::contains)
+                        .collect(Collectors.toList());
+            }
+            for (int i : matches) {
                 rowBuilders.put(i, result.newRow());
             }
         }
@@ -507,9 +556,11 @@ public class SimPhonebookProvider extends ContentProvider {
                 return null;
             }
             AdnRecord emptyRecord = null;
-            for (AdnRecord record : records) {
-                if (record.isEmpty()) {
-                    emptyRecord = record;
+            int emptyRecordIndex = -1;
+            for (int i = 0; i < records.size(); i++) {
+                if (records.get(i).isEmpty()) {
+                    emptyRecord = records.get(i);
+                    emptyRecordIndex = i;
                     break;
                 }
             }
@@ -518,7 +569,8 @@ public class SimPhonebookProvider extends ContentProvider {
                 throw new IllegalStateException(
                         args.uri + " is full. Please delete records to add new ones.");
             }
-            boolean success = updateRecord(args, emptyRecord, args.pin2, newName, newPhoneNumber);
+            boolean success = updateRecord(args, emptyRecordIndex, emptyRecord, args.pin2, newName,
+                    newPhoneNumber);
             if (!success) {
                 Rlog.e(TAG, "Insert failed for " + args.uri);
                 // Something didn't work but since we don't have any more specific
@@ -533,6 +585,103 @@ public class SimPhonebookProvider extends ContentProvider {
         }
     }
 
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        switch (URI_MATCHER.match(uri)) {
+            case SIM_RECORDS:
+                return bulkInsertSimRecords(PhonebookArgs.forSimRecords(uri, null), values);
+            case ELEMENTARY_FILES:
+            case ELEMENTARY_FILES_ITEM:
+            case SIM_RECORDS_ITEM:
+                throw new UnsupportedOperationException(uri + " does not support insert");
+            default:
+                throw new IllegalArgumentException("Unsupported Uri " + uri);
+        }
+    }
+
+    /**
+     * Inserts all rows into the empty records of the EF, in order.
+     *
+     * <p>The whole batch is validated before anything is written; a batch which doesn't fit into
+     * the empty records of the EF is rejected. Rows which are null or empty are skipped, like
+     * {@link #insert} ignores them.
+     *
+     * @return the number of records written.
+     */
+    private int bulkInsertSimRecords(PhonebookArgs args, ContentValues[] values) {
+        validateWritableEf(args, "insert");
+        validateSubscriptionAndEf(args);
+
+        List<ContentValues> rows = new ArrayList<>(values.length);
+        int[] recordsSize = getRecordsSizeForEf(args);
+        for (ContentValues row : values) {
+            if (row == null || row.isEmpty()) {
+                continue;
+            }
+            validateValues(args, row, recordsSize);
+            rows.add(row);
+        }
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        acquireWriteLockOrThrow();
+        try {
+            List<AdnRecord> records = loadRecordsForEf(args);
+            if (records == null) {
+                Rlog.e(TAG, "Failed to load existing records for " + args.uri);
+                return 0;
+            }
+            List<Integer> emptyRecordIndexes = new ArrayList<>(rows.size());
+            for (int i = 0; i < records.size() && emptyRecordIndexes.size() < rows.size(); i++) {
+                if (records.get(i).isEmpty()) {
+                    emptyRecordIndexes.add(i);
+                }
+            }
+            if (emptyRecordIndexes.size() < rows.size()) {
+                throw new IllegalStateException(args.uri + " only has room for "
+                        + emptyRecordIndexes.size() + " of " + rows.size() + " records.");
+            }
+
+            int inserted = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                ContentValues row = rows.get(i);
+                int index = emptyRecordIndexes.get(i);
+                if (updateRecord(args, index, records.get(index), args.pin2,
+                        Strings.nullToEmpty(row.getAsString(SimRecords.NAME)),
+                        Strings.nullToEmpty(row.getAsString(SimRecords.PHONE_NUMBER)))) {
+                    inserted++;
+                } else {
+                    Rlog.e(TAG, "Insert of row " + i + " failed for " + args.uri);
+                }
+            }
+            if (inserted > 0) {
+                notifyChange();
+            }
+            return inserted;
+        } finally {
+            releaseWriteLock();
+        }
+    }
+
+    /**
+     * Applies the operations while holding the write lock, so that no other write can interleave
+     * with the batch. The result of each operation is reported as by
+     * {@link ContentProvider#applyBatch}.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        acquireWriteLockOrThrow();
+        try {
+            return super.applyBatch(operations);
+        } finally {
+            releaseWriteLock();
+        }
+    }
+
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection,
             @Nullable String[] selectionArgs) {
@@ -563,7 +712,7 @@ public class SimPhonebookProvider extends ContentProvider {
             if (record == null || record.isEmpty()) {
                 return 0;
             }
-            if (!updateRecord(args, record, args.pin2, "", "")) {
+            if (!updateRecord(args, args.recordNumber - 1, record, args.pin2, "", "")) {
                 Rlog.e(TAG, "Failed to delete " + args.uri);
             }
             notifyChange();
@@ -617,7 +766,8 @@ public class SimPhonebookProvider extends ContentProvider {
             if (record == null) {
                 return 0;
             }
-            if (!updateRecord(args, record, args.pin2, newName, newPhoneNumber)) {
+            if (!updateRecord(args, args.recordNumber - 1, record, args.pin2, newName,
+                    newPhoneNumber)) {
                 Rlog.e(TAG, "Failed to update " + args.uri);
                 return 0;
             }
@@ -686,19 +836,34 @@ public class SimPhonebookProvider extends ContentProvider {
     }
 
 
-    private boolean updateRecord(PhonebookArgs args, AdnRecord existingRecord, String pin2,
-            String newName, String newPhone) {
+    /**
+     * Writes a record to the SIM and updates {@link #mRecordsIndex} accordingly.
+     *
+     * @param index the position of {@code existingRecord} in the records of the EF.
+     */
+    private boolean updateRecord(PhonebookArgs args, int index, AdnRecord existingRecord,
+            String pin2, String newName, String newPhone) {
+        boolean success;
         try {
             ContentValues values = new ContentValues();
             values.put(STR_NEW_TAG, newName);
             values.put(STR_NEW_NUMBER, newPhone);
-            return mIccPhoneBookSupplier.get().updateAdnRecordsInEfByIndexForSubscriber(
+            success = mIccPhoneBookSupplier.get().updateAdnRecordsInEfByIndexForSubscriber(
                     args.subscriptionId, existingRecord.getEfid(), values,
                     existingRecord.getRecId(),
                     pin2);
         } catch (RemoteException e) {
-            return false;
+            success = false;
         }
+        if (success) {
+            mRecordsIndex.updateRecord(args.subscriptionId, args.efType, index,
+                    new AdnRecord(existingRecord.getEfid(), existingRecord.getRecId(), newName,
+                            newPhone));
+        } else {
+            // The SIM may have been partially written.
+            mRecordsIndex.invalidate(args.subscriptionId, args.efType);
+        }
+        return success;
     }
 
     private void validatePhoneNumber(@Nullable String phoneNumber) {
@@ -723,6 +888,11 @@ public class SimPhonebookProvider extends ContentProvider {
     }
 
     private void validateValues(PhonebookArgs args, ContentValues values) {
+        validateValues(args, values, getRecordsSizeForEf(args));
+    }
+
+    private void validateValues(PhonebookArgs args, ContentValues values,
+            @Nullable int[] recordsSize) {
         if (!SIM_RECORDS_WRITABLE_COLUMNS.containsAll(values.keySet())) {
             Set<String> unsupportedColumns = new ArraySet<>(values.keySet());
             unsupportedColumns.removeAll(SIM_RECORDS_WRITABLE_COLUMNS);
@@ -735,7 +905,6 @@ public class SimPhonebookProvider extends ContentProvider {
 
         String name = values.getAsString(SimRecords.NAME);
         int length = getEncodedNameLength(name);
-        int[] recordsSize = getRecordsSizeForEf(args);
         if (recordsSize == null) {
             throw new IllegalStateException(
                     "Failed to get " + ElementaryFiles.NAME_MAX_LENGTH + " from SIM");
@@ -769,13 +938,33 @@ public class SimPhonebookProvider extends ContentProvider {
         }
     }
 
+    @Nullable
     private List<AdnRecord> loadRecordsForEf(PhonebookArgs args) {
-        try {
-            return mIccPhoneBookSupplier.get().getAdnRecordsInEfForSubscriber(
-                    args.subscriptionId, args.efid);
-        } catch (RemoteException e) {
-            return null;
-        }
+        return loadRecordsForEf(args.subscriptionId, args.efType);
+    }
+
+    @Nullable
+    private List<AdnRecord> loadRecordsForEf(int subscriptionId, int efType) {
+        SimRecordsIndex.EfRecords efRecords = loadEfRecords(subscriptionId, efType);
+        return efRecords != null ? efRecords.getRecords() : null;
+    }
+
+    @Nullable
+    private SimRecordsIndex.EfRecords loadEfRecords(PhonebookArgs args) {
+        return loadEfRecords(args.subscriptionId, args.efType);
+    }
+
+    /** Returns the records of the EF from {@link #mRecordsIndex}, reading them if needed. */
+    @Nullable
+    private SimRecordsIndex.EfRecords loadEfRecords(int subscriptionId, int efType) {
+        return mRecordsIndex.get(subscriptionId, efType, () -> {
+            try {
+                return mIccPhoneBookSupplier.get().getAdnRecordsInEfForSubscriber(
+                        subscriptionId, efIdForEfType(efType));
+            } catch (RemoteException e) {
+                return null;
+            }
+        });
     }
 
     private AdnRecord loadRecord(PhonebookArgs args) {
@@ -817,6 +1006,10 @@ public class SimPhonebookProvider extends ContentProvider {
         public final int efid;
         public final int recordNumber;
         public final String pin2;
+        @Nullable
+        public final String nameFilter;
+        @Nullable
+        public final String phoneNumberFilter;
 
         PhonebookArgs(Uri uri, int subscriptionId, String efName,
                 @ElementaryFiles.EfType int efType, int efid, int recordNumber,
@@ -830,6 +1023,9 @@ public class SimPhonebookProvider extends ContentProvider {
             pin2 = efType == ElementaryFiles.EF_FDN && queryArgs != null
                     ? queryArgs.getString(SimRecords.QUERY_ARG_PIN2)
                     : null;
+            nameFilter = queryArgs != null ? queryArgs.getString(QUERY_ARG_NAME) : null;
+            phoneNumberFilter =
+                    queryArgs != null ? queryArgs.getString(QUERY_ARG_PHONE_NUMBER) : null;
         }
 
         static PhonebookArgs createFromEfName(Uri uri, int subscriptionId,
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.telephony.PhoneNumberUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.uicc.AdnRecord;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory copy of the SIM records read by {@link SimPhonebookProvider}, per subscription and
+ * elementary file.
+ *
+ * <p>The records of an elementary file are loaded from the SIM on first use and kept current by
+ * the provider's own writes through {@link #updateRecord}. Anything which may have changed the
+ * SIM behind the provider's back has to {@link #invalidate} the affected entries.
+ *
+ * <p>Each {@link EfRecords} is immutable, updates replace it with a modified copy, so readers
+ * never need to hold a lock while iterating the records.
+ */
+/* package */ final class SimRecordsIndex {
+
+    /** The records of one elementary file, with lookup indexes built on first use. */
+    /* package */ static final class EfRecords {
+        private final ImmutableList<AdnRecord> mRecords;
+        // Positions in mRecords of the non-empty records by lower case name. Built on first use.
+        @Nullable
+        private volatile ImmutableListMultimap<String, Integer> mNameIndex;
+        // Positions in mRecords of the non-empty records by normalized phone number. Built on
+        // first use.
+        @Nullable
+        private volatile ImmutableListMultimap<String, Integer> mPhoneNumberIndex;
+
+        EfRecords(@NonNull List<AdnRecord> records) {
+            mRecords = ImmutableList.copyOf(records);
+        }
+
+        /** @return all records of the elementary file, including empty ones. */
+        @NonNull
+        /* package */ List<AdnRecord> getRecords() {
+            return mRecords;
+        }
+
+        /** @return the positions of the records named {@code name}, ignoring case. */
+        @NonNull
+        /* package */ List<Integer> findByName(@NonNull String name) {
+            ImmutableListMultimap<String, Integer> index = mNameIndex;
+            if (index == null) {
+                index = buildIndex(record -> nameKey(record.getAlphaTag()));
+                mNameIndex = index;
+            }
+            return index.get(nameKey(name));
+        }
+
+        /** @return the positions of the records with the phone number {@code phoneNumber}. */
+        @NonNull
+        /* package */ List<Integer> findByPhoneNumber(@NonNull String phoneNumber) {
+            ImmutableListMultimap<String, Integer> index = mPhoneNumberIndex;
+            if (index == null) {
+                index = buildIndex(record -> phoneNumberKey(record.getNumber()));
+                mPhoneNumberIndex = index;
+            }
+            return index.get(phoneNumberKey(phoneNumber));
+        }
+
+        private ImmutableListMultimap<String, Integer> buildIndex(
+                Function<AdnRecord, String> keyFunction) {
+            ImmutableListMultimap.Builder<String, Integer> builder =
+                    ImmutableListMultimap.builder();
+            for (int i = 0; i < mRecords.size(); i++) {
+                AdnRecord record = mRecords.get(i);
+                if (!record.isEmpty()) {
+                    builder.put(keyFunction.apply(record), i);
+                }
+            }
+            return builder.build();
+        }
+
+        private EfRecords withRecord(int position, @NonNull AdnRecord record) {
+            List<AdnRecord> records = new ArrayList<>(mRecords);
+            records.set(position, record);
+            return new EfRecords(records);
+        }
+
+        private static String nameKey(@Nullable String name) {
+            return Strings.nullToEmpty(name).toLowerCase(Locale.ROOT);
+        }
+
+        private static String phoneNumberKey(@Nullable String phoneNumber) {
+            return PhoneNumberUtils.normalizeNumber(Strings.nullToEmpty(phoneNumber));
+        }
+    }
+
+    private final Object mLock = new Object();
+    // Keyed by getKey(subscriptionId, efType).
+    @GuardedBy("mLock")
+    private final Map<Long, EfRecords> mEfRecords = new HashMap<>();
+    // Incremented by every update and invalidation, loads started before are not cached.
+    @GuardedBy("mLock")
+    private long mGeneration;
+    @GuardedBy("mLock")
+    private int mLoadCount;
+
+    /**
+     * @return the records of the elementary file, loading them with {@code loader} if they are
+     * not cached yet, or {@code null} if the loader returned {@code null}.
+     */
+    @Nullable
+    /* package */ EfRecords get(int subscriptionId, int efType,
+            @NonNull Supplier<List<AdnRecord>> loader) {
+        long key = getKey(subscriptionId, efType);
+        long generation;
+        synchronized (mLock) {
+            EfRecords efRecords = mEfRecords.get(key);
+            if (efRecords != null) {
+                return efRecords;
+            }
+            generation = mGeneration;
+            mLoadCount++;
+        }
+
+        List<AdnRecord> records = loader.get();
+        if (records == null) {
+            return null;
+        }
+        EfRecords efRecords = new EfRecords(records);
+        synchronized (mLock) {
+            if (generation == mGeneration) {
+                mEfRecords.put(key, efRecords);
+            }
+        }
+        return efRecords;
+    }
+
+    /**
+     * Replaces the record at {@code position} after it was written to the SIM. Does nothing if
+     * the records of the elementary file are not cached.
+     */
+    /* package */ void updateRecord(int subscriptionId, int efType, int position,
+            @NonNull AdnRecord record) {
+        long key = getKey(subscriptionId, efType);
+        synchronized (mLock) {
+            mGeneration++;
+            EfRecords efRecords = mEfRecords.get(key);
+            if (efRecords == null) {
+                return;
+            }
+            if (position < 0 || position >= efRecords.getRecords().size()) {
+                mEfRecords.remove(key);
+                return;
+            }
+            mEfRecords.put(key, efRecords.withRecord(position, record));
+        }
+    }
+
+    /** Drops the cached records of the elementary file. */
+    /* package */ void invalidate(int subscriptionId, int efType) {
+        synchronized (mLock) {
+            mGeneration++;
+            mEfRecords.remove(getKey(subscriptionId, efType));
+        }
+    }
+
+    /** Drops all cached records. */
+    /* package */ void invalidateAll() {
+        synchronized (mLock) {
+            mGeneration++;
+            mEfRecords.clear();
+        }
+    }
+
+    /** @return how often records had to be loaded from the SIM. */
+    @VisibleForTesting
+    /* package */ int getLoadCount() {
+        synchronized (mLock) {
+            return mLoadCount;
+        }
+    }
+
+    private static long getKey(int subscriptionId, int efType) {
+        return ((long) subscriptionId << 32) | (efType & 0xffffffffL);
+    }
+}
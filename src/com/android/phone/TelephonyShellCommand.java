@@ -58,6 +58,7 @@ import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.d2d.Communicator;
 import com.android.internal.telephony.emergency.EmergencyNumberTracker;
 import com.android.internal.telephony.util.TelephonyUtils;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.modules.utils.BasicShellCommandHandler;
 import com.android.phone.callcomposer.CallComposerPictureManager;
 import com.android.phone.euicc.EuiccUiDispatcherActivity;
@@ -223,6 +224,7 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
             "set-allowed-network-types-for-users";
     private static final String GET_IMEI = "get-imei";
     private static final String GET_SIM_SLOTS_MAPPING = "get-sim-slots-mapping";
+    private static final String MAIN_THREAD_STATS = "main-thread-stats";
     // Take advantage of existing methods that already contain permissions checks when possible.
     private final ITelephony mInterface;
 
@@ -382,6 +384,8 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
                 return handleGetImei();
             case GET_SIM_SLOTS_MAPPING:
                 return handleGetSimSlotsMapping();
+            case MAIN_THREAD_STATS:
+                return handleMainThreadStatsCommand();
             case RADIO_SUBCOMMAND:
                 return handleRadioCommand();
             case CARRIER_RESTRICTION_STATUS_TEST:
@@ -454,6 +458,10 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         pw.println("    Set the Allowed Network Types.");
         pw.println("  radio");
         pw.println("    Radio Commands.");
+        pw.println("  main-thread-stats [-r]");
+        pw.println("    Print the latency statistics of the phone main thread requests.");
+        pw.println("    Options are:");
+        pw.println("      -r: Reset the statistics after printing them.");
         onHelpIms();
         onHelpUce();
         onHelpEmergencyNumber();
@@ -2247,6 +2255,40 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         return result ? 0 : -1;
     }
 
+    private int handleMainThreadStatsCommand() {
+        if (!checkShellUid()) {
+            getErrPrintWriter().println("MainThreadStats: Permission denied.");
+            return -1;
+        }
+        if (!(mInterface instanceof PhoneInterfaceManager)) {
+            getErrPrintWriter().println("MainThreadStats: Not available.");
+            return -1;
+        }
+
+        boolean reset = false;
+        String opt;
+        while ((opt = getNextOption()) != null) {
+            switch (opt) {
+                case "-r": {
+                    reset = true;
+                    break;
+                }
+                default: {
+                    getErrPrintWriter().println("MainThreadStats: Unknown option " + opt);
+                    return -1;
+                }
+            }
+        }
+
+        MainThreadRequestStats stats =
+                ((PhoneInterfaceManager) mInterface).getMainThreadRequestStats();
+        stats.dump(new IndentingPrintWriter(getOutPrintWriter(), "  "));
+        if (reset) {
+            stats.reset();
+        }
+        return 0;
+    }
+
     private int handleGetImei() {
         // Verify that the user is allowed to run the command. Only allowed in rooted device in a
         // non user build.
@@ -15,17 +15,24 @@
  */
 package com.android.phone.satellite.accesscontrol;
 
+import static com.android.storage.s2.S2Support.MAX_FACE_ID;
+
 import android.annotation.NonNull;
 import android.telephony.Rlog;
 
 import com.android.storage.s2.S2LevelRange;
 import com.android.telephony.sats2range.read.SatS2RangeFileReader;
 
+import com.google.common.geometry.S1Angle;
+import com.google.common.geometry.S2Cap;
 import com.google.common.geometry.S2CellId;
 import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2RegionCoverer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -35,6 +42,9 @@ import java.util.Objects;
 final class S2RangeSatelliteOnDeviceAccessController extends SatelliteOnDeviceAccessController {
     private static final String TAG = "S2RangeSatelliteOnDeviceAccessController";
     private static final boolean DBG = false;
+    private static final double EARTH_RADIUS_METERS = 6371010.0;
+    /** The maximum number of cells used to cover the region of a cap query. */
+    private static final int MAX_COVERING_CELLS = 64;
 
     @NonNull private final SatS2RangeFileReader mSatS2RangeFileReader;
 
@@ -78,6 +88,135 @@ final class S2RangeSatelliteOnDeviceAccessController extends SatelliteOnDeviceAc
         return isSatCommunicationAllowedAtLocation(locationTokenImpl.getS2CellId());
     }
 
+    @Override
+    @NonNull
+    public AccessSpan getAccessSpanAtLocation(LocationToken locationToken) throws IOException {
+        if (!(locationToken instanceof LocationTokenImpl)) {
+            throw new IllegalArgumentException("Unknown locationToken=" + locationToken);
+        }
+        long s2CellId = ((LocationTokenImpl) locationToken).getS2CellId();
+        boolean isAllowedList = mSatS2RangeFileReader.isAllowedList();
+        S2LevelRange entry = mSatS2RangeFileReader.findEntryByCellId(s2CellId);
+        if (entry != null) {
+            return new AccessSpan(entry, isAllowedList);
+        }
+        return new AccessSpan(mSatS2RangeFileReader.findGapByCellId(s2CellId), !isAllowedList);
+    }
+
+    @Override
+    public boolean[] isSatCommunicationAllowedAtLocations(
+            @NonNull List<LocationToken> locationTokens) throws IOException {
+        long[] s2CellIds = new long[locationTokens.size()];
+        for (int i = 0; i < s2CellIds.length; i++) {
+            LocationToken locationToken = locationTokens.get(i);
+            if (!(locationToken instanceof LocationTokenImpl)) {
+                throw new IllegalArgumentException("Unknown locationToken=" + locationToken);
+            }
+            s2CellIds[i] = ((LocationTokenImpl) locationToken).getS2CellId();
+        }
+
+        S2LevelRange[] entries = mSatS2RangeFileReader.findEntriesByCellIds(s2CellIds);
+        boolean isAllowedList = mSatS2RangeFileReader.isAllowedList();
+        boolean[] results = new boolean[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            results[i] = (entries[i] != null) == isAllowedList;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the spans of S2 cells at {@link #getS2Level()} which intersect the cap of
+     * {@code radiusMeters} around the given location, in S2 order. Adjacent spans alternate
+     * between allowed and disallowed, and together they cover the whole cap.
+     *
+     * @throws IOException in the unlikely event of errors when reading the underlying file
+     */
+    @NonNull
+    public List<AccessSpan> getAccessSpansInCap(double latDegrees, double lngDegrees,
+            double radiusMeters) throws IOException {
+        S2Cap cap = S2Cap.fromAxisAngle(S2LatLng.fromDegrees(latDegrees, lngDegrees).toPoint(),
+                S1Angle.radians(radiusMeters / EARTH_RADIUS_METERS));
+        S2RegionCoverer coverer = new S2RegionCoverer();
+        coverer.setMaxLevel(mS2Level);
+        coverer.setMaxCells(MAX_COVERING_CELLS);
+        ArrayList<S2CellId> covering = new ArrayList<>();
+        coverer.getCovering(cap, covering);
+
+        boolean isAllowedList = mSatS2RangeFileReader.isAllowedList();
+        List<AccessSpan> spans = new ArrayList<>();
+        int i = 0;
+        while (i < covering.size()) {
+            // Merge the covering cells which are next to each other into a single query.
+            long startCellId = covering.get(i).childBegin(mS2Level).id();
+            long endCellId = getChildEnd(covering.get(i));
+            for (i++; i < covering.size(); i++) {
+                long nextStartCellId = covering.get(i).childBegin(mS2Level).id();
+                if (nextStartCellId != endCellId) {
+                    break;
+                }
+                endCellId = getChildEnd(covering.get(i));
+            }
+
+            long spanStartCellId = startCellId;
+            for (S2LevelRange entry
+                    : mSatS2RangeFileReader.findEntriesInRange(startCellId, endCellId)) {
+                long entryStartCellId = Long.compareUnsigned(entry.getStartCellId(),
+                        spanStartCellId) > 0 ? entry.getStartCellId() : spanStartCellId;
+                long entryEndCellId = isBefore(entry.getEndCellId(), endCellId)
+                        ? entry.getEndCellId() : endCellId;
+                if (entryStartCellId != spanStartCellId) {
+                    addAccessSpan(spans, spanStartCellId, entryStartCellId, !isAllowedList);
+                }
+                addAccessSpan(spans, entryStartCellId, entryEndCellId, isAllowedList);
+                spanStartCellId = entryEndCellId;
+            }
+            if (spanStartCellId != endCellId) {
+                addAccessSpan(spans, spanStartCellId, endCellId, !isAllowedList);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Returns the cell ID at {@link #getS2Level()} following the last descendant of
+     * {@code cellId}, wrapping around to face 0 after the last face like the ranges in the file.
+     */
+    private long getChildEnd(S2CellId cellId) {
+        S2CellId childEnd = cellId.childEnd(mS2Level);
+        return childEnd.isValid() ? childEnd.id() : S2CellId.begin(mS2Level).id();
+    }
+
+    /**
+     * Returns {@code true} if the exclusive end {@code endCellId} comes before the exclusive end
+     * {@code otherEndCellId}. An end on face 0 is after every cell of the last face.
+     */
+    private static boolean isBefore(long endCellId, long otherEndCellId) {
+        S2CellId end = new S2CellId(endCellId);
+        S2CellId otherEnd = new S2CellId(otherEndCellId);
+        if (end.face() == 0 && otherEnd.face() == MAX_FACE_ID) {
+            return false;
+        }
+        if (otherEnd.face() == 0 && end.face() == MAX_FACE_ID) {
+            return true;
+        }
+        return Long.compareUnsigned(endCellId, otherEndCellId) < 0;
+    }
+
+    private static void addAccessSpan(List<AccessSpan> spans, long startCellId, long endCellId,
+            boolean allowed) {
+        if (!spans.isEmpty()) {
+            AccessSpan lastSpan = spans.get(spans.size() - 1);
+            if (lastSpan.isAllowed() == allowed
+                    && lastSpan.getRange().getEndCellId() == startCellId) {
+                spans.set(spans.size() - 1, new AccessSpan(
+                        new S2LevelRange(lastSpan.getRange().getStartCellId(), endCellId),
+                        allowed));
+                return;
+            }
+        }
+        spans.add(new AccessSpan(new S2LevelRange(startCellId, endCellId), allowed));
+    }
+
     @Override
     public int getS2Level() {
         return mS2Level;
@@ -125,7 +264,8 @@ final class S2RangeSatelliteOnDeviceAccessController extends SatelliteOnDeviceAc
             this.mS2CellId = s2CellId;
         }
 
-        long getS2CellId() {
+        @Override
+        public long getS2CellId() {
             return mS2CellId;
         }
 
@@ -53,6 +53,7 @@ import com.android.internal.telephony.TelephonyCountryDetector;
 import com.android.internal.telephony.flags.FeatureFlags;
 import com.android.internal.telephony.satellite.SatelliteConfig;
 import com.android.internal.telephony.satellite.SatelliteController;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.PhoneGlobals;
 
 import java.io.File;
@@ -65,7 +66,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -103,6 +103,13 @@ public class SatelliteAccessController extends Handler {
     private static final String BOOT_ALLOW_MOCK_MODEM_PROPERTY = "ro.boot.radio.allow_mock_modem";
     private static final boolean DEBUG = !"user".equals(Build.TYPE);
     private static final int MAX_CACHE_SIZE = 50;
+    /**
+     * DeviceConfig key of whether the on-device access controller is kept open instead of being
+     * released after {@link #KEEP_ON_DEVICE_ACCESS_CONTROLLER_RESOURCES_TIMEOUT_MILLIS}, and is
+     * opened as soon as a satellite access check starts.
+     */
+    private static final String KEEP_ON_DEVICE_ACCESS_CONTROLLER_WARM =
+            "satellite_keep_on_device_access_controller_warm";
 
     private static final int CMD_IS_SATELLITE_COMMUNICATION_ALLOWED = 1;
     protected static final int EVENT_WAIT_FOR_CURRENT_LOCATION_TIMEOUT = 2;
@@ -136,18 +143,18 @@ public class SatelliteAccessController extends Handler {
     private long mOverriddenLocationFreshDurationNanos;
     @GuardedBy("mLock")
     @NonNull
-    private final Map<SatelliteOnDeviceAccessController.LocationToken, Boolean>
-            mCachedAccessRestrictionMap = new LinkedHashMap<>() {
-                @Override
-                protected boolean removeEldestEntry(
-                        Entry<SatelliteOnDeviceAccessController.LocationToken, Boolean> eldest) {
-                    return size() > MAX_CACHE_SIZE;
-                }
-            };
+    private final SatelliteAccessResultCache mAccessResultCache =
+            new SatelliteAccessResultCache(MAX_CACHE_SIZE);
+    @GuardedBy("mLock")
+    @NonNull
+    private final SatelliteLookupLatencyStats mLookupLatencyStats =
+            new SatelliteLookupLatencyStats();
     @GuardedBy("mLock")
     @Nullable
     CancellationSignal mLocationRequestCancellationSignal = null;
     private int mS2Level = DEFAULT_S2_LEVEL;
+    // Updated from DeviceConfig, so that satellite access checks do not read it.
+    private volatile boolean mKeepOnDeviceAccessControllerWarm;
     @GuardedBy("mLock")
     @Nullable private Location mFreshLastKnownLocation = null;
 
@@ -178,6 +185,15 @@ public class SatelliteAccessController extends Handler {
         mCountryDetector = TelephonyCountryDetector.getInstance(context);
         mSatelliteController = SatelliteController.getInstance();
         loadOverlayConfigs(context);
+        mKeepOnDeviceAccessControllerWarm = DeviceConfig.getBoolean(
+                DeviceConfig.NAMESPACE_TELEPHONY, KEEP_ON_DEVICE_ACCESS_CONTROLLER_WARM, false);
+        DeviceConfig.addOnPropertiesChangedListener(DeviceConfig.NAMESPACE_TELEPHONY,
+                Runnable::run, properties -> {
+                    if (properties.getKeyset().contains(KEEP_ON_DEVICE_ACCESS_CONTROLLER_WARM)) {
+                        mKeepOnDeviceAccessControllerWarm = properties.getBoolean(
+                                KEEP_ON_DEVICE_ACCESS_CONTROLLER_WARM, false);
+                    }
+                });
         mSatelliteController.registerForConfigUpdateChanged(this, EVENT_CONFIG_DATA_UPDATED,
                 context);
         if (s2CellFile != null) {
@@ -217,7 +233,11 @@ public class SatelliteAccessController extends Handler {
                 handleWaitForCurrentLocationTimedOutEvent();
                 break;
             case EVENT_KEEP_ON_DEVICE_ACCESS_CONTROLLER_RESOURCES_TIMEOUT:
-                cleanupOnDeviceAccessControllerResources();
+                if (isKeepOnDeviceAccessControllerWarm()) {
+                    logd("Keeping the on-device access controller warm");
+                } else {
+                    cleanupOnDeviceAccessControllerResources();
+                }
                 break;
             case EVENT_CONFIG_DATA_UPDATED:
                 updateSatelliteConfigData((Context) msg.obj);
@@ -288,6 +308,7 @@ public class SatelliteAccessController extends Handler {
                     mOverriddenSatelliteCountryCodes = new ArrayList<>();
                 }
             }
+            mAccessResultCache.clear();
             cleanupOnDeviceAccessControllerResources();
             initSatelliteOnDeviceAccessController();
         }
@@ -340,6 +361,26 @@ public class SatelliteAccessController extends Handler {
         }
     }
 
+    /** Dumps the state of the satellite access result cache and the lookup latency. */
+    public void dump(@NonNull IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("keepOnDeviceAccessControllerWarm=" + isKeepOnDeviceAccessControllerWarm()
+                    + " onDeviceAccessControllerOpen="
+                    + (mSatelliteOnDeviceAccessController != null));
+            mAccessResultCache.dump(pw);
+            mLookupLatencyStats.dump(pw);
+        }
+    }
+
+    /**
+     * @return {@code true} if the on-device access controller is kept open once opened, and
+     * opened as soon as a satellite access check starts.
+     */
+    @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
+    protected boolean isKeepOnDeviceAccessControllerWarm() {
+        return mKeepOnDeviceAccessControllerWarm;
+    }
+
     @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
     protected long getElapsedRealtimeNanos() {
         return SystemClock.elapsedRealtimeNanos();
@@ -352,6 +393,10 @@ public class SatelliteAccessController extends Handler {
     @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
     public void updateSatelliteConfigData(Context context) {
         logd("updateSatelliteConfigData");
+        synchronized (mLock) {
+            // The S2 cell file may be replaced, so results of the old one must not be reused.
+            mAccessResultCache.clear();
+        }
 
         SatelliteConfig satelliteConfig = mSatelliteController.getSatelliteConfig();
         if (satelliteConfig != null  && satelliteConfig.getSatelliteS2CellFile(context) != null) {
@@ -458,6 +503,11 @@ public class SatelliteAccessController extends Handler {
             }
             mSatelliteController.requestIsSatelliteCommunicationAllowedForCurrentLocation(
                     requestArguments.first, mInternalSatelliteAllowResultReceiver);
+            if (isKeepOnDeviceAccessControllerWarm()) {
+                // Satellite is about to be used, open the on-device data while the modem answers
+                // so that a later lookup does not have to.
+                initSatelliteOnDeviceAccessController();
+            }
         }
     }
 
@@ -626,18 +676,26 @@ public class SatelliteAccessController extends Handler {
                         SatelliteOnDeviceAccessController.createLocationTokenForLatLng(
                                 location.getLatitude(),
                                 location.getLongitude(), mS2Level);
+                Boolean cachedSatelliteAllowed = mAccessResultCache.get(locationToken);
                 boolean satelliteAllowed;
-                if (mCachedAccessRestrictionMap.containsKey(locationToken)) {
-                    satelliteAllowed = mCachedAccessRestrictionMap.get(locationToken);
+                if (cachedSatelliteAllowed != null) {
+                    satelliteAllowed = cachedSatelliteAllowed;
                 } else {
+                    long lookupStartNanos = System.nanoTime();
+                    boolean cold = mSatelliteOnDeviceAccessController == null;
                     if (!initSatelliteOnDeviceAccessController()) {
                         loge("Failed to init SatelliteOnDeviceAccessController");
                         checkSatelliteAccessRestrictionUsingCachedCountryCodes();
                         return;
                     }
-                    satelliteAllowed = mSatelliteOnDeviceAccessController
-                            .isSatCommunicationAllowedAtLocation(locationToken);
-                    updateCachedAccessRestrictionMap(locationToken, satelliteAllowed);
+                    SatelliteOnDeviceAccessController.AccessSpan span =
+                            mSatelliteOnDeviceAccessController.getAccessSpanAtLocation(
+                                    locationToken);
+                    satelliteAllowed = span != null ? span.isAllowed()
+                            : mSatelliteOnDeviceAccessController
+                                    .isSatCommunicationAllowedAtLocation(locationToken);
+                    mLookupLatencyStats.onLookup(cold, System.nanoTime() - lookupStartNanos);
+                    mAccessResultCache.put(locationToken, span, satelliteAllowed);
                 }
                 Bundle bundle = new Bundle();
                 bundle.putBoolean(KEY_SATELLITE_COMMUNICATION_ALLOWED, satelliteAllowed);
@@ -651,14 +709,6 @@ public class SatelliteAccessController extends Handler {
         }
     }
 
-    private void updateCachedAccessRestrictionMap(@NonNull
-            SatelliteOnDeviceAccessController.LocationToken locationToken,
-            boolean satelliteAllowed) {
-        synchronized (mLock) {
-            mCachedAccessRestrictionMap.put(locationToken, satelliteAllowed);
-        }
-    }
-
     private boolean isGreaterThanAll(
             long comparedItem, @NonNull Collection<Long> itemCollection) {
         for (long item : itemCollection) {
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.satellite.accesscontrol;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.phone.satellite.accesscontrol.SatelliteOnDeviceAccessController.AccessSpan;
+import com.android.phone.satellite.accesscontrol.SatelliteOnDeviceAccessController.LocationToken;
+import com.android.storage.s2.S2LevelRange;
+
+import com.google.common.geometry.S2CellId;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the satellite access results of {@link SatelliteAccessController}.
+ *
+ * <p>Each result is stored as the {@link AccessSpan} around the looked up location, filed under
+ * the parent S2 cell of the location a few levels above the level of the on-device data. Any
+ * later location inside a cached span is answered without reading the on-device data again, so
+ * a moving device keeps hitting the cache while it stays in the same area. The least recently
+ * used parent cells are evicted first.
+ *
+ * <p>This class is not thread safe; {@link SatelliteAccessController} guards it with its lock.
+ */
+final class SatelliteAccessResultCache {
+    /** How many levels above the cached locations the parent cells are. */
+    @VisibleForTesting
+    static final int PARENT_CELL_LEVEL_OFFSET = 4;
+    /** The maximum number of spans cached per parent cell. */
+    @VisibleForTesting
+    static final int MAX_SPANS_PER_PARENT_CELL = 8;
+
+    private final Map<Long, List<AccessSpan>> mSpansByParentCellId;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /** @param maxParentCells the maximum number of parent cells with cached spans. */
+    SatelliteAccessResultCache(int maxParentCells) {
+        mSpansByParentCellId = new LinkedHashMap<>(16, 0.75f, true /* accessOrder */) {
+            @Override
+            protected boolean removeEldestEntry(Entry<Long, List<AccessSpan>> eldest) {
+                if (size() > maxParentCells) {
+                    mEvictionCount += eldest.getValue().size();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return whether satellite communication is allowed at {@code locationToken}, or
+     * {@code null} if no cached span contains it.
+     */
+    @Nullable
+    Boolean get(@NonNull LocationToken locationToken) {
+        long s2CellId = locationToken.getS2CellId();
+        List<AccessSpan> spans = mSpansByParentCellId.get(getParentCellId(s2CellId));
+        if (spans != null) {
+            for (AccessSpan span : spans) {
+                if (span.contains(s2CellId)) {
+                    mHitCount++;
+                    return span.isAllowed();
+                }
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Caches the result of a lookup at {@code locationToken}.
+     *
+     * @param span the span around {@code locationToken} sharing its result, or {@code null} if it
+     *             is unknown, in which case the result is cached for the location only.
+     */
+    void put(@NonNull LocationToken locationToken, @Nullable AccessSpan span,
+            boolean satelliteAllowed) {
+        long s2CellId = locationToken.getS2CellId();
+        if (span == null || !span.contains(s2CellId)) {
+            span = new AccessSpan(getSingleCellRange(s2CellId), satelliteAllowed);
+        }
+        long parentCellId = getParentCellId(s2CellId);
+        List<AccessSpan> spans = mSpansByParentCellId.get(parentCellId);
+        if (spans == null) {
+            spans = new ArrayList<>();
+            mSpansByParentCellId.put(parentCellId, spans);
+        } else if (spans.size() >= MAX_SPANS_PER_PARENT_CELL) {
+            spans.remove(0);
+            mEvictionCount++;
+        }
+        spans.add(span);
+    }
+
+    /** Drops all cached results, e.g. when the on-device data changes. */
+    void clear() {
+        mSpansByParentCellId.clear();
+    }
+
+    /** @return the number of lookups answered from the cache. */
+    long getHitCount() {
+        return mHitCount;
+    }
+
+    /** @return the number of lookups not answered from the cache. */
+    long getMissCount() {
+        return mMissCount;
+    }
+
+    /** @return the number of spans dropped to make room for others. */
+    long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /** Dumps the counters. */
+    void dump(@NonNull IndentingPrintWriter pw) {
+        pw.println("SatelliteAccessResultCache:");
+        pw.increaseIndent();
+        pw.println("parentCells=" + mSpansByParentCellId.size()
+                + " hits=" + mHitCount
+                + " misses=" + mMissCount
+                + " evictions=" + mEvictionCount);
+        pw.decreaseIndent();
+    }
+
+    private static long getParentCellId(long s2CellId) {
+        S2CellId cellId = new S2CellId(s2CellId);
+        return cellId.parent(Math.max(0, cellId.level() - PARENT_CELL_LEVEL_OFFSET)).id();
+    }
+
+    private static S2LevelRange getSingleCellRange(long s2CellId) {
+        S2CellId cellId = new S2CellId(s2CellId);
+        S2CellId next = cellId.next();
+        if (!next.isValid()) {
+            next = S2CellId.begin(cellId.level());
+        }
+        return new S2LevelRange(s2CellId, next.id());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.satellite.accesscontrol;
+
+import android.annotation.NonNull;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the on-device satellite access lookups of {@link SatelliteAccessController}, split
+ * into cold lookups, which had to open the {@link SatelliteOnDeviceAccessController} first, and
+ * warm lookups, which found it open.
+ *
+ * <p>Only the most recent {@link #MAX_SAMPLES} lookups of each kind are kept.
+ *
+ * <p>This class is not thread safe; {@link SatelliteAccessController} guards it with its lock.
+ */
+final class SatelliteLookupLatencyStats {
+    @VisibleForTesting
+    static final int MAX_SAMPLES = 128;
+    private static final int[] DUMPED_PERCENTILES = {50, 90, 99};
+
+    /** A ring buffer of latency samples. */
+    private static final class Samples {
+        private final long[] mLatencyNanos = new long[MAX_SAMPLES];
+        private long mCount;
+
+        void add(long latencyNanos) {
+            mLatencyNanos[(int) (mCount % MAX_SAMPLES)] = latencyNanos;
+            mCount++;
+        }
+
+        long getPercentile(int percentile) {
+            int size = (int) Math.min(mCount, MAX_SAMPLES);
+            if (size == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(mLatencyNanos, size);
+            Arrays.sort(sorted);
+            // Nearest rank.
+            int rank = (int) Math.ceil(percentile / 100.0 * size);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+
+    private final Samples mColdSamples = new Samples();
+    private final Samples mWarmSamples = new Samples();
+
+    /**
+     * Records a lookup.
+     *
+     * @param cold {@code true} if the on-device controller had to be opened for the lookup.
+     */
+    void onLookup(boolean cold, long latencyNanos) {
+        (cold ? mColdSamples : mWarmSamples).add(latencyNanos);
+    }
+
+    /** @return the number of lookups of the given kind recorded so far. */
+    long getCount(boolean cold) {
+        return (cold ? mColdSamples : mWarmSamples).mCount;
+    }
+
+    /**
+     * @return the given percentile of the latency of the recent lookups of the given kind, or
+     * {@code -1} if there were none.
+     */
+    long getPercentileNanos(boolean cold, int percentile) {
+        return (cold ? mColdSamples : mWarmSamples).getPercentile(percentile);
+    }
+
+    /** Dumps the latency percentiles. */
+    void dump(@NonNull IndentingPrintWriter pw) {
+        pw.println("SatelliteLookupLatencyStats:");
+        pw.increaseIndent();
+        dumpSamples(pw, "cold", mColdSamples);
+        dumpSamples(pw, "warm", mWarmSamples);
+        pw.decreaseIndent();
+    }
+
+    private static void dumpSamples(IndentingPrintWriter pw, String name, Samples samples) {
+        StringBuilder sb = new StringBuilder(name).append(": count=").append(samples.mCount);
+        for (int percentile : DUMPED_PERCENTILES) {
+            long latencyNanos = samples.getPercentile(percentile);
+            sb.append(" p").append(percentile).append("Micros=").append(latencyNanos < 0
+                    ? -1 : TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        }
+        pw.println(sb);
+    }
+}
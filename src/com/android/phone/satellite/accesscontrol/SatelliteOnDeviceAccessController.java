@@ -16,10 +16,15 @@
 package com.android.phone.satellite.accesscontrol;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import com.android.storage.s2.S2LevelRange;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
 
 /**
  * A class that performs location-based access control for satellite communication synchronously
@@ -61,11 +66,102 @@ public abstract class SatelliteOnDeviceAccessController implements Closeable {
     public abstract boolean isSatCommunicationAllowedAtLocation(LocationToken locationToken)
             throws IOException;
 
+    /**
+     * Returns whether the satellite communication is allowed at each of the provided locations.
+     * Element {@code i} of the returned array is the result for {@code locationTokens.get(i)}.
+     *
+     * <p>This is cheaper than calling {@link #isSatCommunicationAllowedAtLocation(LocationToken)}
+     * for each location when looking up many locations at once, e.g. along a track.
+     *
+     * @throws IOException in the unlikely event of errors when reading the underlying file
+     */
+    public abstract boolean[] isSatCommunicationAllowedAtLocations(
+            @NonNull List<LocationToken> locationTokens) throws IOException;
+
+    /**
+     * Returns the span of locations around the provided location which share its result, i.e.
+     * satellite communication is allowed at every location of the span if and only if it is
+     * allowed at the provided location. Callers may use the span to answer later lookups without
+     * reading the underlying file.
+     *
+     * <p>Returns {@code null} if the implementation cannot tell the span.
+     *
+     * @throws IOException in the unlikely event of errors when reading the underlying file
+     */
+    @Nullable
+    public AccessSpan getAccessSpanAtLocation(LocationToken locationToken) throws IOException {
+        return null;
+    }
+
     /**
      * Returns the S2 level of the file.
      */
     public abstract int getS2Level();
 
+    /**
+     * A span of S2 cells in which satellite communication is either allowed or disallowed. See
+     * {@link #getAccessSpanAtLocation(LocationToken)}.
+     */
+    public static final class AccessSpan {
+
+        @NonNull private final S2LevelRange mRange;
+
+        private final boolean mAllowed;
+
+        AccessSpan(@NonNull S2LevelRange range, boolean allowed) {
+            mRange = Objects.requireNonNull(range);
+            mAllowed = allowed;
+        }
+
+        /** Returns the cells of the span. */
+        @NonNull
+        public S2LevelRange getRange() {
+            return mRange;
+        }
+
+        /** Returns whether satellite communication is allowed in the span. */
+        public boolean isAllowed() {
+            return mAllowed;
+        }
+
+        /** Returns {@code true} if the span contains the S2 cell {@code s2CellId}. */
+        public boolean contains(long s2CellId) {
+            long startCellId = mRange.getStartCellId();
+            long endCellId = mRange.getEndCellId();
+            if (Long.compareUnsigned(s2CellId, startCellId) < 0) {
+                return false;
+            }
+            // A span of the last face may end with the first cell ID of face 0.
+            return Long.compareUnsigned(endCellId, startCellId) <= 0
+                    || Long.compareUnsigned(s2CellId, endCellId) < 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AccessSpan)) {
+                return false;
+            }
+            AccessSpan that = (AccessSpan) o;
+            return mAllowed == that.mAllowed && mRange.equals(that.mRange);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mRange, mAllowed);
+        }
+
+        @Override
+        public String toString() {
+            return "AccessSpan{"
+                    + "mRange=<redacted>"
+                    + ", mAllowed=" + mAllowed
+                    + '}';
+        }
+    }
+
     /**
      * A class that represents an area with the same value. Two locations with tokens that
      * {@link #equals(Object) equal each other} will definitely return the same value.
@@ -82,5 +178,8 @@ public abstract class SatelliteOnDeviceAccessController implements Closeable {
 
         /** This will print out the location information */
         public abstract String toPiiString();
+
+        /** Returns the S2 cell ID of the location. */
+        public abstract long getS2CellId();
     }
 }
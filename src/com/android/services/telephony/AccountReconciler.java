@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony;
+
+import android.telecom.PhoneAccountHandle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Brings the account entries of {@link TelecomAccountRegistry} in line with the accounts which
+ * should currently exist.
+ * <p>
+ * Entries which are still wanted and still match their desired account are kept and refreshed.
+ * Entries which are no longer wanted, or which no longer match, are torn down, and entries for
+ * the remaining desired accounts are created.
+ */
+final class AccountReconciler {
+
+    /**
+     * An account entry which can be reconciled.
+     * @param <D> The type describing a desired account.
+     */
+    interface Entry<D> {
+        /**
+         * @return {@code true} if this entry can be kept for the given desired account.
+         */
+        boolean matches(D desired);
+
+        /**
+         * Brings a kept entry up to date.
+         * @return The number of binder calls saved compared to recreating the entry.
+         */
+        int refresh();
+
+        /**
+         * Releases the resources of an entry which is no longer wanted.
+         */
+        void teardown();
+
+        /**
+         * @return The current handle of the entry.
+         */
+        PhoneAccountHandle getPhoneAccountHandle();
+    }
+
+    /**
+     * The outcome of a reconciliation.
+     * @param <E> The type of the account entries.
+     */
+    static final class Result<E> {
+        /** The entries after reconciliation, by their handle, in the desired order. */
+        final Map<PhoneAccountHandle, E> accounts;
+        final int kept;
+        final int added;
+        final int removed;
+        final int binderCallsAvoided;
+
+        private Result(Map<PhoneAccountHandle, E> accounts, int kept, int added, int removed,
+                int binderCallsAvoided) {
+            this.accounts = accounts;
+            this.kept = kept;
+            this.added = added;
+            this.removed = removed;
+            this.binderCallsAvoided = binderCallsAvoided;
+        }
+    }
+
+    private AccountReconciler() {
+    }
+
+    /**
+     * Reconciles the current entries with the desired accounts. The entries which are no longer
+     * wanted are torn down before any entry is created, so that two entries never listen to the
+     * same phone. The given map of current entries is not modified.
+     * @param current The current entries, by the handle they were added with.
+     * @param desired The desired accounts, by their handle, in the order they should be set up.
+     * @param factory Creates the entry for a desired account which has no matching entry.
+     * @return The entries after reconciliation and what was done to get there.
+     */
+    static <D, E extends Entry<D>> Result<E> reconcile(Map<PhoneAccountHandle, E> current,
+            Map<PhoneAccountHandle, D> desired, Function<D, E> factory) {
+        Map<PhoneAccountHandle, E> keptEntries = new LinkedHashMap<>();
+        int removed = 0;
+        for (Map.Entry<PhoneAccountHandle, E> account : current.entrySet()) {
+            D desiredAccount = desired.get(account.getKey());
+            if (desiredAccount == null || !account.getValue().matches(desiredAccount)) {
+                account.getValue().teardown();
+                removed++;
+            } else {
+                keptEntries.put(account.getKey(), account.getValue());
+            }
+        }
+
+        Map<PhoneAccountHandle, E> accounts = new LinkedHashMap<>();
+        int kept = 0;
+        int added = 0;
+        int binderCallsAvoided = 0;
+        for (Map.Entry<PhoneAccountHandle, D> desiredAccount : desired.entrySet()) {
+            E entry = keptEntries.get(desiredAccount.getKey());
+            if (entry != null) {
+                binderCallsAvoided += entry.refresh();
+                kept++;
+            } else {
+                entry = factory.apply(desiredAccount.getValue());
+                added++;
+            }
+            accounts.put(entry.getPhoneAccountHandle(), entry);
+        }
+        return new Result<>(accounts, kept, added, removed, binderCallsAvoided);
+    }
+}
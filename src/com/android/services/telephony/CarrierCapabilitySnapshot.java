@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony;
+
+import android.annotation.Nullable;
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.SubscriptionManager;
+import android.text.TextUtils;
+
+/**
+ * The carrier config values used to build the PSTN {@link android.telecom.PhoneAccount} of a
+ * subscription, read from a single carrier config bundle.
+ * <p>
+ * Fetching the carrier config merges the carrier and default configs into a new bundle, so
+ * {@link TelecomAccountRegistry} reads them once into a snapshot when the carrier config changes
+ * instead of fetching the config for every capability it checks.
+ */
+final class CarrierCapabilitySnapshot {
+    private final int mSubId;
+    private final boolean mIsVideoPauseSupported;
+    private final boolean mIsPresenceCapabilityExchangeEnabled;
+    private final boolean mIsRcsPresenceUsed;
+    private final boolean mIsInstantLetteringSupported;
+    private final int mInstantLetteringMaxLength;
+    private final String mInstantLetteringEncoding;
+    private final boolean mIsAdhocConferenceCallSupported;
+    private final boolean mIsMergeCallSupported;
+    private final boolean mIsMergeImsCallSupported;
+    private final boolean mIsEmergencyVideoCallsAllowed;
+    private final boolean mIsVideoConferencingSupported;
+    private final boolean mIsMergeOfWifiCallsAllowedWhenVoWifiOff;
+    private final boolean mIsManageImsConferenceCallSupported;
+    private final boolean mIsUsingSimCallManager;
+    private final boolean mIsShowPreciseFailedCause;
+    private final boolean mIsCallRecordingToneUsed;
+    private final boolean mIsRttAllowedWhenRoaming;
+    private final boolean mIsVoiceCapable;
+
+    /**
+     * @param subId The subscription the carrier config is for.
+     * @param b The carrier config, or {@code null} if it is not available, in which case all
+     *          capabilities are unsupported but the subscription is voice capable.
+     */
+    CarrierCapabilitySnapshot(int subId, @Nullable PersistableBundle b) {
+        mSubId = subId;
+        if (b == null) {
+            mIsVideoPauseSupported = false;
+            mIsPresenceCapabilityExchangeEnabled = false;
+            mIsRcsPresenceUsed = false;
+            mIsInstantLetteringSupported = false;
+            mInstantLetteringMaxLength = 0;
+            mInstantLetteringEncoding = null;
+            mIsAdhocConferenceCallSupported = false;
+            mIsMergeCallSupported = false;
+            mIsMergeImsCallSupported = false;
+            mIsEmergencyVideoCallsAllowed = false;
+            mIsVideoConferencingSupported = false;
+            mIsMergeOfWifiCallsAllowedWhenVoWifiOff = false;
+            mIsManageImsConferenceCallSupported = false;
+            mIsUsingSimCallManager = false;
+            mIsShowPreciseFailedCause = false;
+            mIsCallRecordingToneUsed = false;
+            mIsRttAllowedWhenRoaming = false;
+            // For any abnormal case, we assume subscription is voice capable
+            mIsVoiceCapable = true;
+            return;
+        }
+        mIsVideoPauseSupported =
+                b.getBoolean(CarrierConfigManager.KEY_SUPPORT_PAUSE_IMS_VIDEO_CALLS_BOOL);
+        mIsPresenceCapabilityExchangeEnabled = b.getBoolean(
+                CarrierConfigManager.Ims.KEY_ENABLE_PRESENCE_CAPABILITY_EXCHANGE_BOOL);
+        mIsRcsPresenceUsed = b.getBoolean(CarrierConfigManager.KEY_USE_RCS_PRESENCE_BOOL);
+        mIsInstantLetteringSupported =
+                b.getBoolean(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_AVAILABLE_BOOL);
+        mInstantLetteringMaxLength =
+                b.getInt(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_LENGTH_LIMIT_INT);
+        mInstantLetteringEncoding =
+                b.getString(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_ENCODING_STRING);
+        mIsAdhocConferenceCallSupported =
+                b.getBoolean(CarrierConfigManager.KEY_SUPPORT_ADHOC_CONFERENCE_CALLS_BOOL);
+        mIsMergeCallSupported = b.getBoolean(CarrierConfigManager.KEY_SUPPORT_CONFERENCE_CALL_BOOL);
+        mIsMergeImsCallSupported =
+                b.getBoolean(CarrierConfigManager.KEY_SUPPORT_IMS_CONFERENCE_CALL_BOOL);
+        mIsEmergencyVideoCallsAllowed =
+                b.getBoolean(CarrierConfigManager.KEY_ALLOW_EMERGENCY_VIDEO_CALLS_BOOL);
+        mIsVideoConferencingSupported =
+                b.getBoolean(CarrierConfigManager.KEY_SUPPORT_VIDEO_CONFERENCE_CALL_BOOL);
+        mIsMergeOfWifiCallsAllowedWhenVoWifiOff =
+                b.getBoolean(CarrierConfigManager.KEY_ALLOW_MERGE_WIFI_CALLS_WHEN_VOWIFI_OFF_BOOL);
+        mIsManageImsConferenceCallSupported =
+                b.getBoolean(CarrierConfigManager.KEY_SUPPORT_MANAGE_IMS_CONFERENCE_CALL_BOOL);
+        mIsUsingSimCallManager = !TextUtils.isEmpty(
+                b.getString(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING));
+        mIsShowPreciseFailedCause =
+                b.getBoolean(CarrierConfigManager.KEY_SHOW_PRECISE_FAILED_CAUSE_BOOL);
+        mIsCallRecordingToneUsed =
+                b.getBoolean(CarrierConfigManager.KEY_PLAY_CALL_RECORDING_TONE_BOOL);
+        mIsRttAllowedWhenRoaming =
+                b.getBoolean(CarrierConfigManager.KEY_RTT_SUPPORTED_WHILE_ROAMING_BOOL);
+        mIsVoiceCapable = isVoiceCapable(b.getIntArray(
+                CarrierConfigManager.KEY_CELLULAR_SERVICE_CAPABILITIES_INT_ARRAY));
+    }
+
+    private static boolean isVoiceCapable(@Nullable int[] serviceCapabilities) {
+        if (serviceCapabilities == null) return false;
+        for (int capability : serviceCapabilities) {
+            if (capability == SubscriptionManager.SERVICE_CAPABILITY_VOICE) return true;
+        }
+        return false;
+    }
+
+    /** @return The subscription the snapshot was taken for. */
+    int getSubId() {
+        return mSubId;
+    }
+
+    /** @return {@code true} if pausing IMS video calls is supported. */
+    boolean isVideoPauseSupported() {
+        return mIsVideoPauseSupported;
+    }
+
+    /**
+     * @return {@code true} if the legacy RCS presence key is used, in which case RCS presence
+     * indication for video calls also depends on the user's contact discovery setting.
+     */
+    boolean isRcsPresenceUsed() {
+        return mIsRcsPresenceUsed;
+    }
+
+    /** @return {@code true} if presence capability exchange is enabled. */
+    boolean isPresenceCapabilityExchangeEnabled() {
+        return mIsPresenceCapabilityExchangeEnabled;
+    }
+
+    /** @return {@code true} if instant lettering is supported. */
+    boolean isInstantLetteringSupported() {
+        return mIsInstantLetteringSupported;
+    }
+
+    /** @return The maximum length of an instant lettering call subject. */
+    int getInstantLetteringMaxLength() {
+        return mInstantLetteringMaxLength;
+    }
+
+    /** @return The character encoding of an instant lettering call subject. */
+    String getInstantLetteringEncoding() {
+        return mInstantLetteringEncoding;
+    }
+
+    /** @return {@code true} if adhoc conference calling is supported. */
+    boolean isAdhocConferenceCallSupported() {
+        return mIsAdhocConferenceCallSupported;
+    }
+
+    /** @return {@code true} if merging calls is supported. */
+    boolean isMergeCallSupported() {
+        return mIsMergeCallSupported;
+    }
+
+    /** @return {@code true} if merging IMS calls is supported. */
+    boolean isMergeImsCallSupported() {
+        return mIsMergeImsCallSupported;
+    }
+
+    /** @return {@code true} if emergency video calls are allowed. */
+    boolean isEmergencyVideoCallsAllowed() {
+        return mIsEmergencyVideoCallsAllowed;
+    }
+
+    /** @return {@code true} if video conferencing is supported. */
+    boolean isVideoConferencingSupported() {
+        return mIsVideoConferencingSupported;
+    }
+
+    /** @return {@code true} if merging of wifi calls is allowed when VoWIFI is turned off. */
+    boolean isMergeOfWifiCallsAllowedWhenVoWifiOff() {
+        return mIsMergeOfWifiCallsAllowedWhenVoWifiOff;
+    }
+
+    /** @return {@code true} if managing IMS conference calls is supported. */
+    boolean isManageImsConferenceCallSupported() {
+        return mIsManageImsConferenceCallSupported;
+    }
+
+    /** @return {@code true} if the carrier uses a sim call manager. */
+    boolean isUsingSimCallManager() {
+        return mIsUsingSimCallManager;
+    }
+
+    /** @return {@code true} if the precise call disconnect cause is shown to the user. */
+    boolean isShowPreciseFailedCause() {
+        return mIsShowPreciseFailedCause;
+    }
+
+    /** @return {@code true} if the carrier requires the use of a call recording tone. */
+    boolean isCallRecordingToneUsed() {
+        return mIsCallRecordingToneUsed;
+    }
+
+    /** @return {@code true} if RTT is always allowed while roaming. */
+    boolean isRttAllowedWhenRoaming() {
+        return mIsRttAllowedWhenRoaming;
+    }
+
+    /** @return {@code true} if the subscription is voice capable by the carrier config. */
+    boolean isVoiceCapable() {
+        return mIsVoiceCapable;
+    }
+}
@@ -59,6 +59,12 @@ public class ConferenceParticipantConnection extends Connection {
      */
     private final com.android.internal.telephony.Connection mParentConnection;
 
+    /**
+     * The version of the last conference event package which listed this participant as not
+     * disconnected.  Used by {@link ImsConference} to find the participants which have left.
+     */
+    private int mLastSeenCepVersion;
+
     /**
      * Creates a new instance.
      *
@@ -102,6 +108,22 @@ public class ConferenceParticipantConnection extends Connection {
         setCapabilitiesAndProperties(isRemotelyHosted);
     }
 
+    /**
+     * @return The version of the last conference event package which listed this participant as
+     * not disconnected.
+     */
+    int getLastSeenCepVersion() {
+        return mLastSeenCepVersion;
+    }
+
+    /**
+     * @param cepVersion The version of a conference event package which lists this participant
+     *                   as not disconnected.
+     */
+    void setLastSeenCepVersion(int cepVersion) {
+        mLastSeenCepVersion = cepVersion;
+    }
+
     /**
      * Changes the state of the conference participant.
      *
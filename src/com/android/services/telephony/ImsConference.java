@@ -46,10 +46,8 @@ import com.android.telephony.Rlog;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -405,6 +403,20 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
      */
     private Pair<Uri, Uri> mHostParticipantIdentity = null;
 
+    /**
+     * The version of the last conference event package processed; see
+     * {@link ConferenceParticipantConnection#getLastSeenCepVersion()}.
+     * Access is protected by the {@link #mUpdateSyncRoot}.
+     */
+    private int mCepVersion = 0;
+
+    /**
+     * The number of times a participant was listed in a conference event package without any
+     * change to its connection.
+     * Access is protected by the {@link #mUpdateSyncRoot}.
+     */
+    private int mUnchangedParticipantUpdateCount = 0;
+
     public void updateConferenceParticipantsAfterCreation() {
         if (mConferenceHost != null) {
             Log.v(this, "updateConferenceStateAfterCreation :: process participant update");
@@ -980,8 +992,8 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
             boolean wasFullConference = isFullConference();
             boolean newParticipantsAdded = false;
             boolean oldParticipantsRemoved = false;
-            ArrayList<ConferenceParticipant> newParticipants = new ArrayList<>(participants.size());
-            HashSet<Pair<Uri,Uri>> participantUserEntities = new HashSet<>(participants.size());
+            ArrayList<ConferenceParticipant> newParticipants = null;
+            ArrayList<ConferenceParticipantConnection> newConnections = null;
 
             // Determine if the conference event package represents a single party conference.
             // A single party conference is one where there is no other participant other than the
@@ -990,13 +1002,13 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
             // event package; some carriers are known to keep a disconnected participant around in
             // subsequent CEP updates with a state of disconnected, even though its no longer part
             // of the conference.
-            final long numActiveCepParticipantsOtherThanHost = participants.stream()
-                    .filter(p -> {
-                        Pair<Uri, Uri> pIdent = new Pair<>(p.getHandle(), p.getEndpoint());
-                        return !Objects.equals(mHostParticipantIdentity, pIdent)
-                                && p.getState() != Connection.STATE_DISCONNECTED;
-                    })
-                    .count();
+            int numActiveCepParticipantsOtherThanHost = 0;
+            for (ConferenceParticipant p : participants) {
+                if (p.getState() != Connection.STATE_DISCONNECTED && !isHostParticipantIdentity(
+                        p.getHandle(), p.getEndpoint())) {
+                    numActiveCepParticipantsOtherThanHost++;
+                }
+            }
             // We consider 0 to still be a single party conference since some carriers
             // will send a conference event package with JUST the host in it when the conference
             // is disconnected.  We don't want to change back to conference mode prior to
@@ -1010,45 +1022,75 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
             //    single party
             if ((!isMultiparty() && !isCepForSinglePartyConference)
                     || isMultiparty()) {
+                // Each connection listed as not disconnected is marked with the version of this
+                // CEP, so that the connections which have left are the ones left unmarked.
+                int cepVersion = ++mCepVersion;
+                int markedConnectionCount = 0;
+
                 // Add any new participants and update existing.
                 for (ConferenceParticipant participant : participants) {
                     Pair<Uri, Uri> userEntity = new Pair<>(participant.getHandle(),
                             participant.getEndpoint());
+                    int state = participant.getState();
+                    ConferenceParticipantConnection connection =
+                            mConferenceParticipantConnections.get(userEntity);
 
-                    // We will exclude disconnected participants from the hash set of tracked
-                    // participants.  Some carriers are known to leave disconnected participants in
-                    // the conference event package data which would cause them to be present in the
-                    // conference even though they're disconnected.  Removing them from the hash set
-                    // here means we'll clean them up below.
-                    if (participant.getState() != Connection.STATE_DISCONNECTED) {
-                        participantUserEntities.add(userEntity);
-                    }
-                    if (!mConferenceParticipantConnections.containsKey(userEntity)) {
+                    if (connection == null) {
                         // Some carriers will also include the conference host in the CEP.  We will
                         // filter that out here.
                         if (!isParticipantHost(mConferenceHostAddress, participant.getHandle())) {
-                            createConferenceParticipantConnection(parent, participant);
+                            connection = createConferenceParticipantConnection(parent,
+                                    participant, userEntity);
+                            if (newParticipants == null) {
+                                newParticipants = new ArrayList<>();
+                                newConnections = new ArrayList<>();
+                            }
                             newParticipants.add(participant);
+                            newConnections.add(connection);
                             newParticipantsAdded = true;
+                            // We will exclude disconnected participants from the tracked
+                            // participants.  Some carriers are known to leave disconnected
+                            // participants in the conference event package data which would cause
+                            // them to be present in the conference even though they're
+                            // disconnected.
+                            if (state != Connection.STATE_DISCONNECTED) {
+                                connection.setLastSeenCepVersion(cepVersion);
+                                markedConnectionCount++;
+                            }
                         } else {
                             // Track the identity of the conference host; its useful to know when
                             // we look at the CEP in the future.
                             mHostParticipantIdentity = userEntity;
                         }
+                    } else if (state != Connection.STATE_DISCONNECTED) {
+                        if (connection.getLastSeenCepVersion() != cepVersion) {
+                            connection.setLastSeenCepVersion(cepVersion);
+                            markedConnectionCount++;
+                        }
+                        if (connection.getState() == state
+                                && connection.getVideoState() == parent.getVideoState()) {
+                            // Most of a full-state CEP is unchanged; don't touch the connection.
+                            mUnchangedParticipantUpdateCount++;
+                            continue;
+                        }
+                        Log.i(this,
+                                "handleConferenceParticipantsUpdate: updateState, participant = %s",
+                                participant);
+                        connection.updateState(state);
+                        connection.setVideoState(parent.getVideoState());
                     } else {
-                        ConferenceParticipantConnection connection =
-                                mConferenceParticipantConnections.get(userEntity);
                         Log.i(this,
                                 "handleConferenceParticipantsUpdate: updateState, participant = %s",
                                 participant);
-                        connection.updateState(participant.getState());
-                        if (participant.getState() == Connection.STATE_DISCONNECTED) {
-                            /**
-                             * Per {@link ConferenceParticipantConnection#updateState(int)}, we will
-                             * destroy the connection when its disconnected.
-                             */
-                            handleConnectionDestruction(connection);
+                        if (connection.getLastSeenCepVersion() == cepVersion) {
+                            markedConnectionCount--;
                         }
+                        connection.updateState(state);
+                        /**
+                         * Per {@link ConferenceParticipantConnection#updateState(int)}, we will
+                         * destroy the connection when its disconnected.
+                         */
+                        handleConnectionDestruction(connection);
                         connection.setVideoState(parent.getVideoState());
                     }
                 }
@@ -1056,11 +1098,9 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
                 // Set state of new participants.
                 if (newParticipantsAdded) {
                     // Set the state of the new participants at once and add to the conference
-                    for (ConferenceParticipant newParticipant : newParticipants) {
-                        ConferenceParticipantConnection connection =
-                                mConferenceParticipantConnections.get(new Pair<>(
-                                        newParticipant.getHandle(),
-                                        newParticipant.getEndpoint()));
+                    for (int i = 0; i < newParticipants.size(); i++) {
+                        ConferenceParticipant newParticipant = newParticipants.get(i);
+                        ConferenceParticipantConnection connection = newConnections.get(i);
                         connection.updateState(newParticipant.getState());
                         /**
                          * Per {@link ConferenceParticipantConnection#updateState(int)}, we will
@@ -1074,20 +1114,21 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
                 }
 
                 // Finally, remove any participants from the conference that no longer exist in the
-                // conference event package data.
-                Iterator<Map.Entry<Pair<Uri, Uri>, ConferenceParticipantConnection>> entryIterator =
-                        mConferenceParticipantConnections.entrySet().iterator();
-                while (entryIterator.hasNext()) {
-                    Map.Entry<Pair<Uri, Uri>, ConferenceParticipantConnection> entry =
-                            entryIterator.next();
-
-                    if (!participantUserEntities.contains(entry.getKey())) {
-                        ConferenceParticipantConnection participant = entry.getValue();
-                        participant.setDisconnected(new DisconnectCause(DisconnectCause.CANCELED));
-                        removeTelephonyConnection(participant);
-                        participant.destroy();
-                        entryIterator.remove();
-                        oldParticipantsRemoved = true;
+                // conference event package data.  If every remaining connection was marked, there
+                // is nothing to remove.
+                if (markedConnectionCount != mConferenceParticipantConnections.size()) {
+                    Iterator<ConferenceParticipantConnection> connectionIterator =
+                            mConferenceParticipantConnections.values().iterator();
+                    while (connectionIterator.hasNext()) {
+                        ConferenceParticipantConnection participant = connectionIterator.next();
+                        if (participant.getLastSeenCepVersion() != cepVersion) {
+                            participant.setDisconnected(
+                                    new DisconnectCause(DisconnectCause.CANCELED));
+                            removeTelephonyConnection(participant);
+                            participant.destroy();
+                            connectionIterator.remove();
+                            oldParticipantsRemoved = true;
+                        }
                     }
                 }
             }
@@ -1250,9 +1291,12 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
      * @param parent The connection which was notified of the participant change (e.g. the
      *                         parent connection).
      * @param participant The conference participant information.
+     * @param userEntity The handle and endpoint of the participant.
+     * @return The new connection.
      */
-    private void createConferenceParticipantConnection(
-            TelephonyConnection parent, ConferenceParticipant participant) {
+    private ConferenceParticipantConnection createConferenceParticipantConnection(
+            TelephonyConnection parent, ConferenceParticipant participant,
+            Pair<Uri, Uri> userEntity) {
 
         // Create and add the new connection in holding state so that it does not become the
         // active call.
@@ -1282,13 +1326,23 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
                 participant, connection);
 
         synchronized(mUpdateSyncRoot) {
-            mConferenceParticipantConnections.put(new Pair<>(participant.getHandle(),
-                    participant.getEndpoint()), connection);
+            mConferenceParticipantConnections.put(userEntity, connection);
         }
 
         mTelephonyConnectionService.addExistingConnection(mConferenceHostPhoneAccountHandle,
                 connection, this);
         addTelephonyConnection(connection);
+        return connection;
+    }
+
+    /**
+     * @return {@code true} if the handle and endpoint are those of the conference host as it
+     * appears in the CEP.
+     */
+    private boolean isHostParticipantIdentity(Uri handle, Uri endpoint) {
+        return mHostParticipantIdentity != null
+                && Objects.equals(mHostParticipantIdentity.first, handle)
+                && Objects.equals(mHostParticipantIdentity.second, endpoint);
     }
 
     /**
@@ -1651,6 +1705,17 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
         return mConferenceParticipantConnections.size();
     }
 
+    /**
+     * @return The number of times a participant was listed in a conference event package without
+     * any change to its connection.
+     */
+    @VisibleForTesting
+    public int getUnchangedParticipantUpdateCount() {
+        synchronized (mUpdateSyncRoot) {
+            return mUnchangedParticipantUpdateCount;
+        }
+    }
+
     /**
      * @return {@code True} if the carrier enforces a maximum conference size, and the number of
      *      participants in the conference has reached the limit, {@code false} otherwise.
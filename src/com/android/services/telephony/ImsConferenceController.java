@@ -18,7 +18,10 @@ package com.android.services.telephony;
 
 import android.annotation.NonNull;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.telecom.Conference;
 import android.telecom.Conferenceable;
 import android.telecom.Connection;
@@ -26,7 +29,9 @@ import android.telecom.ConnectionService;
 import android.telecom.DisconnectCause;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.CarrierConfigManager;
+import android.util.ArrayMap;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.phone.PhoneUtils;
@@ -34,11 +39,8 @@ import com.android.telephony.Rlog;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * Manages conferences for IMS connections.
@@ -133,6 +135,27 @@ public class ImsConferenceController {
 
     private TelecomAccountRegistry mTelecomAccountRegistry;
 
+    /**
+     * Handler used to coalesce the conferenceable recalculations requested by a burst of events
+     * into a single recalculation.
+     */
+    private final Handler mHandler;
+
+    // Only accessed on the looper of mHandler.
+    private boolean mIsConferenceableRecalculationPending;
+
+    private final Runnable mRecalculateConferenceableRunnable = () -> {
+        mIsConferenceableRecalculationPending = false;
+        recalculateConferenceableNow();
+    };
+
+    // Instrumentation of the conferenceable recalculations.
+    private int mConferenceableRecalculationRequestCount;
+    private int mConferenceableRecalculationCount;
+    private long mConferenceableRecalculationTimeNanos;
+    private int mConferenceablesUpdatedCount;
+    private int mConferenceablesUnchangedCount;
+
     /**
      * Creates a new instance of the Ims conference controller.
      *
@@ -142,9 +165,24 @@ public class ImsConferenceController {
     public ImsConferenceController(TelecomAccountRegistry telecomAccountRegistry,
             TelephonyConnectionServiceProxy connectionService,
             ImsConference.FeatureFlagProxy featureFlagProxy) {
+        this(telecomAccountRegistry, connectionService, featureFlagProxy,
+                Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper());
+    }
+
+    /**
+     * Creates a new instance of the Ims conference controller.
+     *
+     * @param connectionService The current connection service.
+     * @param featureFlagProxy
+     * @param looper The looper of the thread the connections and conferences are updated on.
+     */
+    public ImsConferenceController(TelecomAccountRegistry telecomAccountRegistry,
+            TelephonyConnectionServiceProxy connectionService,
+            ImsConference.FeatureFlagProxy featureFlagProxy, Looper looper) {
         mConnectionService = connectionService;
         mTelecomAccountRegistry = telecomAccountRegistry;
         mFeatureFlagProxy = featureFlagProxy;
+        mHandler = new Handler(looper);
     }
 
     void addConference(ImsConference conference) {
@@ -240,22 +278,87 @@ public class ImsConferenceController {
         throw new IllegalArgumentException("Unrecognized Conferenceable!" + c);
     }
 
-    private boolean isSamePhoneAccountHandle(
-            @NonNull Conferenceable left, @NonNull Conferenceable right) {
-        PhoneAccountHandle leftHandle = getPhoneAccountHandle(left);
-        PhoneAccountHandle rightHandle = getPhoneAccountHandle(right);
-        return Objects.equals(leftHandle, rightHandle);
+    private static <T> List<T> getGroup(ArrayMap<PhoneAccountHandle, List<T>> groups,
+            PhoneAccountHandle handle) {
+        List<T> group = groups.get(handle);
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(handle, group);
+        }
+        return group;
+    }
+
+    /**
+     * Schedules a recalculation of the conference-capable state of all connections.  The
+     * recalculations requested while one is pending, e.g. for the state changes of several
+     * connections during a merge, are coalesced into a single recalculation.
+     * <p>
+     * Whether a connection is conferenceable depends on every other connection and conference of
+     * its phone account, so an event is not applied to the conferenceables on its own; the
+     * grouping is recomputed once per burst of events instead.
+     */
+    private void recalculateConferenceable() {
+        if (!mHandler.getLooper().isCurrentThread()) {
+            // Connection events are expected on the looper thread; move a request from another
+            // thread onto it rather than access the pending state concurrently.
+            mHandler.post(this::recalculateConferenceable);
+            return;
+        }
+        mConferenceableRecalculationRequestCount++;
+        if (mIsConferenceableRecalculationPending) {
+            return;
+        }
+        mIsConferenceableRecalculationPending = true;
+        mHandler.post(mRecalculateConferenceableRunnable);
+    }
+
+    /**
+     * Performs a pending recalculation of the conference-capable state immediately.  Must be
+     * called on the looper thread.
+     */
+    @VisibleForTesting
+    public void processPendingConferenceableRecalculation() {
+        if (mIsConferenceableRecalculationPending) {
+            mHandler.removeCallbacks(mRecalculateConferenceableRunnable);
+            mRecalculateConferenceableRunnable.run();
+        }
+    }
+
+    /**
+     * @return The number of conferenceable recalculations performed.
+     */
+    @VisibleForTesting
+    public int getConferenceableRecalculationCount() {
+        return mConferenceableRecalculationCount;
+    }
+
+    /**
+     * @return The number of times the conferenceables of a connection or conference were set.
+     */
+    @VisibleForTesting
+    public int getConferenceablesUpdatedCount() {
+        return mConferenceablesUpdatedCount;
     }
 
     /**
      * Calculates the conference-capable state of all GSM connections in this connection service.
      * Connections from different {@link PhoneAccountHandle}s shall not be conferenceable.
+     * <p>
+     * The conferenceables are only set on the connections and conferences for which they have
+     * changed, since each change is reported to Telecom.
      */
-    private void recalculateConferenceable() {
+    private void recalculateConferenceableNow() {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        int updatedCount = mConferenceablesUpdatedCount;
         Log.v(this, "recalculateConferenceable : %d", mTelephonyConnections.size());
-        HashSet<Conferenceable> conferenceableSet = new HashSet<>(mTelephonyConnections.size() +
-                mImsConferences.size());
-        HashSet<Connection> conferenceParticipantsSet = new HashSet<>();
+        // The connections and conferences which are active or holding, and the participants of
+        // those conferences, grouped by PhoneAccountHandle since only those with the same handle
+        // can be conferenced together.
+        ArrayMap<PhoneAccountHandle, List<Conferenceable>> conferenceableGroups =
+                new ArrayMap<>();
+        ArrayMap<PhoneAccountHandle, List<Connection>> conferenceParticipantGroups =
+                new ArrayMap<>();
+        boolean hasHostedConference = false;
 
         // Loop through and collect all calls which are active or holding
         for (TelephonyConnection connection : mTelephonyConnections) {
@@ -276,7 +379,7 @@ public class ImsConferenceController {
             // If this connection does not support being in a conference call, then it is not
             // conferenceable with any other connection.
             if (!connection.isConferenceSupported()) {
-                connection.setConferenceables(Collections.<Conferenceable>emptyList());
+                setConferenceablesIfChanged(connection, Collections.<Conferenceable>emptyList());
                 continue;
             }
 
@@ -284,13 +387,14 @@ public class ImsConferenceController {
                 case Connection.STATE_ACTIVE:
                     // fall through
                 case Connection.STATE_HOLDING:
-                    conferenceableSet.add(connection);
+                    getGroup(conferenceableGroups, getPhoneAccountHandle(connection))
+                            .add(connection);
                     continue;
                 default:
                     break;
             }
             // This connection is not active or holding, so clear all conferencable connections
-            connection.setConferenceables(Collections.<Conferenceable>emptyList());
+            setConferenceablesIfChanged(connection, Collections.<Conferenceable>emptyList());
         }
         // Also loop through all active conferences and collect the ones that are ACTIVE or HOLDING.
         for (ImsConference conference : mImsConferences) {
@@ -304,19 +408,19 @@ public class ImsConferenceController {
                 }
                 continue;
             }
-
-            // Since UE cannot host two conference calls, remove the ability to initiate
-            // another conference call as there already exists a conference call, which
-            // is hosted on this device.
-            mTelecomAccountRegistry.refreshAdhocConference(false);
+            hasHostedConference = true;
 
             switch (conference.getState()) {
                 case Connection.STATE_ACTIVE:
                     //fall through
                 case Connection.STATE_HOLDING:
                     if (!conference.isFullConference()) {
-                        conferenceParticipantsSet.addAll(conference.getConnections());
-                        conferenceableSet.add(conference);
+                        for (Connection participant : conference.getConnections()) {
+                            getGroup(conferenceParticipantGroups,
+                                    getPhoneAccountHandle(participant)).add(participant);
+                        }
+                        getGroup(conferenceableGroups, getPhoneAccountHandle(conference))
+                                .add(conference);
                     }
                     continue;
                 default:
@@ -324,52 +428,106 @@ public class ImsConferenceController {
             }
         }
 
-        Log.v(this, "conferenceableSet size: " + conferenceableSet.size());
-
-        for (Conferenceable c : conferenceableSet) {
-            if (c instanceof Connection) {
-                // TODO: Remove this once RemoteConnection#setConferenceableConnections is fixed.
-                // Add all conference participant connections as conferenceable with a standalone
-                // Connection.  We need to do this to ensure that RemoteConnections work properly.
-                // At the current time, a RemoteConnection will not be conferenceable with a
-                // Conference, so we need to add its children to ensure the user can merge the call
-                // into the conference.
-                // We should add support for RemoteConnection#setConferenceables, which accepts a
-                // list of remote conferences and connections in the future.
-                List<Conferenceable> conferenceables = conferenceParticipantsSet
-                        .stream()
-                        // Removes conference participants from different PhoneAccountHandles.
-                        .filter(connection -> isSamePhoneAccountHandle(c, connection))
-                        .collect(Collectors.toCollection(ArrayList::new));
-
-                // Removes this connection from the Set and add all others. Removes conferenceables
-                // from different PhoneAccountHandles.
-                conferenceables.addAll(conferenceableSet
-                        .stream()
-                        .filter(conferenceable -> c != conferenceable
-                                && isSamePhoneAccountHandle(c, conferenceable)).toList());
-
-                ((Connection) c).setConferenceables(conferenceables);
-            } else if (c instanceof ImsConference) {
-                ImsConference imsConference = (ImsConference) c;
-
-                // If the conference is full, don't allow anything to be conferenced with it.
-                if (imsConference.isFullConference()) {
-                    imsConference.setConferenceableConnections(Collections.<Connection>emptyList());
+        if (hasHostedConference) {
+            // Since UE cannot host two conference calls, remove the ability to initiate
+            // another conference call as there already exists a conference call, which
+            // is hosted on this device.
+            mTelecomAccountRegistry.refreshAdhocConference(false);
+        }
+
+        for (int i = 0; i < conferenceableGroups.size(); i++) {
+            List<Conferenceable> group = conferenceableGroups.valueAt(i);
+            List<Connection> conferenceParticipants =
+                    conferenceParticipantGroups.get(conferenceableGroups.keyAt(i));
+            if (conferenceParticipants == null) {
+                conferenceParticipants = Collections.emptyList();
+            }
+            Log.v(this, "conferenceable group size: " + group.size());
+
+            for (Conferenceable c : group) {
+                if (c instanceof Connection) {
+                    // TODO: Remove this once RemoteConnection#setConferenceableConnections is
+                    // fixed.
+                    // Add all conference participant connections as conferenceable with a
+                    // standalone Connection.  We need to do this to ensure that RemoteConnections
+                    // work properly.  At the current time, a RemoteConnection will not be
+                    // conferenceable with a Conference, so we need to add its children to ensure
+                    // the user can merge the call into the conference.
+                    // We should add support for RemoteConnection#setConferenceables, which accepts
+                    // a list of remote conferences and connections in the future.
+                    List<Conferenceable> conferenceables = new ArrayList<>(
+                            conferenceParticipants.size() + group.size() - 1);
+                    conferenceables.addAll(conferenceParticipants);
+
+                    // Add all others in the group except this connection.
+                    for (Conferenceable other : group) {
+                        if (other != c) {
+                            conferenceables.add(other);
+                        }
+                    }
+                    setConferenceablesIfChanged((Connection) c, conferenceables);
+                } else if (c instanceof ImsConference) {
+                    // Only conferences which are not full are in the group.  Since we can not
+                    // conference a conference to another conference, only add the connections.
+                    List<Connection> connections = new ArrayList<>(group.size() - 1);
+                    for (Conferenceable other : group) {
+                        if (other instanceof Connection) {
+                            connections.add((Connection) other);
+                        }
+                    }
+                    // Conference equivalent to setConferenceables that only accepts Connections
+                    setConferenceableConnectionsIfChanged((ImsConference) c, connections);
                 }
+            }
+        }
+
+        long durationNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        mConferenceableRecalculationCount++;
+        mConferenceableRecalculationTimeNanos += durationNanos;
+        Log.d(this, "recalculateConferenceable: updated=%d, took=%dus; total: requests=%d, "
+                        + "recalculations=%d, took=%dus, updated=%d, unchanged=%d",
+                mConferenceablesUpdatedCount - updatedCount, durationNanos / 1000,
+                mConferenceableRecalculationRequestCount, mConferenceableRecalculationCount,
+                mConferenceableRecalculationTimeNanos / 1000, mConferenceablesUpdatedCount,
+                mConferenceablesUnchangedCount);
+    }
+
+    private void setConferenceablesIfChanged(Connection connection,
+            List<Conferenceable> conferenceables) {
+        if (isSameConferenceables(connection.getConferenceables(), conferenceables)) {
+            mConferenceablesUnchangedCount++;
+            return;
+        }
+        connection.setConferenceables(conferenceables);
+        mConferenceablesUpdatedCount++;
+    }
+
+    private void setConferenceableConnectionsIfChanged(ImsConference conference,
+            List<Connection> connections) {
+        if (isSameConferenceables(conference.getConferenceableConnections(), connections)) {
+            mConferenceablesUnchangedCount++;
+            return;
+        }
+        conference.setConferenceableConnections(connections);
+        mConferenceablesUpdatedCount++;
+    }
 
-                // Remove all conferences from the set, since we can not conference a conference
-                // to another conference. Removes connections from different PhoneAccountHandles.
-                List<Connection> connections = conferenceableSet
-                        .stream()
-                        .filter(conferenceable -> conferenceable instanceof Connection
-                                && isSamePhoneAccountHandle(c, conferenceable))
-                        .map(conferenceable -> (Connection) conferenceable)
-                        .collect(Collectors.toList());
-                // Conference equivalent to setConferenceables that only accepts Connections
-                imsConference.setConferenceableConnections(connections);
+    /**
+     * @return {@code true} if both lists contain the same conferenceables, in any order.  Neither
+     * list contains duplicates.  The lists only hold the few calls of a phone account, so they
+     * are searched linearly rather than copied into a set.
+     */
+    private static boolean isSameConferenceables(List<? extends Conferenceable> current,
+            List<? extends Conferenceable> updated) {
+        if (current.size() != updated.size()) {
+            return false;
+        }
+        for (int i = 0; i < updated.size(); i++) {
+            if (!current.contains(updated.get(i))) {
+                return false;
             }
         }
+        return true;
     }
 
     /**
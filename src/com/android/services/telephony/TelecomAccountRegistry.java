@@ -37,7 +37,6 @@ import android.os.Handler;
 import android.os.HandlerExecutor;
 import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.PersistableBundle;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.provider.Telephony;
@@ -67,6 +66,7 @@ import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.SimultaneousCallingTracker;
 import com.android.internal.telephony.flags.Flags;
 import com.android.internal.telephony.subscription.SubscriptionManagerService;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.PhoneGlobals;
 import com.android.phone.PhoneUtils;
 import com.android.phone.R;
@@ -74,11 +74,10 @@ import com.android.telephony.Rlog;
 
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -125,8 +124,12 @@ public class TelecomAccountRegistry {
 
     private Handler mHandler;
 
-    final class AccountEntry implements PstnPhoneCapabilitiesNotifier.Listener {
+    final class AccountEntry implements PstnPhoneCapabilitiesNotifier.Listener,
+            AccountReconciler.Entry<DesiredAccount> {
         private final Phone mPhone;
+        // The subscription of the phone when the entry was created. The IMS manager and callbacks
+        // are bound to it, so the entry is recreated if the phone's subscription changes.
+        private final int mCreatedSubId;
         private PhoneAccount mAccount;
         private SimultaneousCallingTracker mSCT;
         private final PstnIncomingCallNotifier mIncomingCallNotifier;
@@ -141,6 +144,8 @@ public class TelecomAccountRegistry {
         private RegistrationManager.RegistrationCallback mImsRegistrationCallback;
         private SimultaneousCallingTracker.Listener mSimultaneousCallingTrackerListener;
         private ImsMmTelManager mMmTelManager;
+        private boolean mIsMmTelCapabilityCallbackRegistered;
+        private boolean mIsImsRegistrationCallbackRegistered;
         private final boolean mIsTestAccount;
         private boolean mIsVideoCapable;
         private boolean mIsVideoPresenceSupported;
@@ -153,9 +158,15 @@ public class TelecomAccountRegistry {
         private boolean mIsUsingSimCallManager;
         private boolean mIsShowPreciseFailedCause;
         private Set<Integer> mSimultaneousCallSupportedSubIds;
+        // The carrier config values of the subscription, read when first needed after the
+        // carrier config changes.
+        private volatile CarrierCapabilitySnapshot mCarrierCapabilities;
+        // The number of times the carrier config has been fetched for this account.
+        private int mCarrierConfigFetchCount;
 
         AccountEntry(Phone phone, boolean isEmergency, boolean isTest) {
             mPhone = phone;
+            mCreatedSubId = phone.getSubId();
             mIsEmergency = isEmergency;
             mIsTestAccount = isTest;
             mIsAdhocConfCapable = mPhone.isImsRegistered();
@@ -233,16 +244,19 @@ public class TelecomAccountRegistry {
             }
         }
 
-        void teardown() {
+        @Override
+        public void teardown() {
             mIncomingCallNotifier.teardown();
             mPhoneCapabilitiesNotifier.teardown();
             if (mMmTelManager != null) {
                 if (mMmtelCapabilityCallback != null) {
                     mMmTelManager.unregisterMmTelCapabilityCallback(mMmtelCapabilityCallback);
+                    mIsMmTelCapabilityCallbackRegistered = false;
                 }
 
                 if (mImsRegistrationCallback != null) {
                     mMmTelManager.unregisterImsRegistrationCallback(mImsRegistrationCallback);
+                    mIsImsRegistrationCallbackRegistered = false;
                 }
             }
             if (Flags.simultaneousCallingIndications()) {
@@ -261,6 +275,7 @@ public class TelecomAccountRegistry {
             try {
                 mMmTelManager.registerMmTelCapabilityCallback(mContext.getMainExecutor(),
                         mMmtelCapabilityCallback);
+                mIsMmTelCapabilityCallbackRegistered = true;
             } catch (ImsException e) {
                 Log.w(this, "registerMmTelCapabilityCallback: registration failed, no ImsService"
                         + " available. Exception: " + e.getMessage());
@@ -280,6 +295,7 @@ public class TelecomAccountRegistry {
             try {
                 mMmTelManager.registerImsRegistrationCallback(mContext.getMainExecutor(),
                         mImsRegistrationCallback);
+                mIsImsRegistrationCallbackRegistered = true;
             } catch (ImsException e) {
                 Log.w(this, "registerImsRegistrationCallback: registration failed, no ImsService"
                         + " available. Exception: " + e.getMessage());
@@ -293,17 +309,60 @@ public class TelecomAccountRegistry {
 
         /**
          * Trigger re-registration of this account.
+         * @return {@code true} if the account changed and was registered with Telecom again.
          */
-        public void reRegisterPstnPhoneAccount() {
+        public boolean reRegisterPstnPhoneAccount() {
             PhoneAccount newAccount = buildPstnPhoneAccount(mIsEmergency, mIsTestAccount);
             if (!newAccount.equals(mAccount)) {
                 Log.i(this, "reRegisterPstnPhoneAccount: subId: " + getSubId()
                         + " - re-register due to account change.");
                 mTelecomManager.registerPhoneAccount(newAccount);
                 mAccount = newAccount;
+                return true;
             } else {
                 Log.i(this, "reRegisterPstnPhoneAccount: subId: " + getSubId() + " - no change");
+                return false;
+            }
+        }
+
+        /**
+         * @return {@code true} if this entry is the account for the desired phone and
+         * subscription and can be kept when the accounts are reconciled.
+         */
+        @Override
+        public boolean matches(DesiredAccount desired) {
+            return mPhone == desired.phone && mCreatedSubId == desired.subId
+                    && mIsEmergency == desired.isEmergency && mIsTestAccount == desired.isTest;
+        }
+
+        /**
+         * Brings a kept entry up to date when the accounts are reconciled, instead of tearing it
+         * down and creating it again. The IMS dependent state is read again and the account is
+         * only registered with Telecom again if it changed. IMS callbacks are only registered if
+         * an earlier attempt failed, e.g. because the ImsService was not available yet.
+         * @return The number of binder calls saved compared to recreating the entry.
+         */
+        @Override
+        public int refresh() {
+            mIsAdhocConfCapable = mPhone.isImsRegistered();
+            if (Flags.simultaneousCallingIndications()) {
+                mSimultaneousCallSupportedSubIds =
+                        mSCT.getSubIdsSupportingSimultaneousCalling(mPhone.getSubId());
+            }
+            // Recreating the entry unregisters and registers each registered IMS callback and
+            // always registers the account.
+            int savedBinderCalls = (mIsMmTelCapabilityCallbackRegistered ? 2 : 0)
+                    + (mIsImsRegistrationCallbackRegistered ? 2 : 0);
+            if (!reRegisterPstnPhoneAccount()) {
+                savedBinderCalls++;
+            }
+            if (!mIsMmTelCapabilityCallbackRegistered) {
+                registerMmTelCapabilityCallback();
+            }
+            if (!mIsImsRegistrationCallbackRegistered) {
+                registerImsRegistrationCallback();
             }
+            return savedBinderCalls;
         }
 
         private PhoneAccount registerPstnPhoneAccount(boolean isEmergency, boolean isTestAccount) {
@@ -320,6 +379,7 @@ public class TelecomAccountRegistry {
          */
         private PhoneAccount buildPstnPhoneAccount(boolean isEmergency, boolean isTestAccount) {
             String testPrefix = isTestAccount ? "Test " : "";
+            int carrierConfigFetchCount = mCarrierConfigFetchCount;
 
             // Check if we are registering another user. If we are, ensure that the account
             // is registered to that user handle.
@@ -568,10 +628,36 @@ public class TelecomAccountRegistry {
                 accountBuilder.setSimultaneousCallingRestriction(simultaneousCallingHandles);
             }
 
-
+            Log.d(this, "buildPstnPhoneAccount: subId=%d, carrierConfigFetches=%d", subId,
+                    mCarrierConfigFetchCount - carrierConfigFetchCount);
             return accountBuilder.build();
         }
 
+        /**
+         * Drop the carrier config values of the subscription, so they are fetched again the next
+         * time they are needed.
+         */
+        public void onCarrierConfigChanged() {
+            mCarrierCapabilities = null;
+        }
+
+        /**
+         * @return The carrier config values of the subscription, fetching the carrier config only
+         * if it has changed since they were last read.
+         */
+        private CarrierCapabilitySnapshot getCarrierCapabilities() {
+            CarrierCapabilitySnapshot carrierCapabilities = mCarrierCapabilities;
+            int subId = mPhone.getSubId();
+            if (carrierCapabilities == null || carrierCapabilities.getSubId() != subId) {
+                carrierCapabilities = new CarrierCapabilitySnapshot(subId,
+                        PhoneGlobals.getInstance().getCarrierConfigForSubId(subId));
+                mCarrierCapabilities = carrierCapabilities;
+                mCarrierConfigFetchCount++;
+            }
+            return carrierCapabilities;
+        }
+
+        @Override
         public PhoneAccountHandle getPhoneAccountHandle() {
             return mAccount != null ? mAccount.getAccountHandle() : null;
         }
@@ -647,10 +733,7 @@ public class TelecomAccountRegistry {
          */
         private boolean isCarrierVideoPauseSupported() {
             // Check if IMS video pause is supported.
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b != null &&
-                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_PAUSE_IMS_VIDEO_CALLS_BOOL);
+            return getCarrierCapabilities().isVideoPauseSupported();
         }
 
         /**
@@ -660,16 +743,12 @@ public class TelecomAccountRegistry {
          * @return {@code true} if RCS presence indication for video calls is supported.
          */
         private boolean isCarrierVideoPresenceSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-
+            CarrierCapabilitySnapshot carrierCapabilities = getCarrierCapabilities();
             // If using the new RcsUceAdapter API, this should be true if
             // KEY_ENABLE_PRESENCE_CAPABILITY_EXCHANGE_BOOL is set. If using the old
             // KEY_USE_RCS_PRESENCE_BOOL key, we have to also check the user setting.
-            return b.getBoolean(
-                    CarrierConfigManager.Ims.KEY_ENABLE_PRESENCE_CAPABILITY_EXCHANGE_BOOL)
-                    || (b.getBoolean(CarrierConfigManager.KEY_USE_RCS_PRESENCE_BOOL)
+            return carrierCapabilities.isPresenceCapabilityExchangeEnabled()
+                    || (carrierCapabilities.isRcsPresenceUsed()
                     && isUserContactDiscoverySettingEnabled());
         }
 
@@ -693,10 +772,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if instant lettering is supported, {@code false} otherwise.
          */
         private boolean isCarrierInstantLetteringSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b != null &&
-                    b.getBoolean(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_AVAILABLE_BOOL);
+            return getCarrierCapabilities().isInstantLetteringSupported();
         }
 
         /**
@@ -705,10 +781,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if adhoc conference calling is supported, {@code false} otherwise.
          */
         private boolean isCarrierAdhocConferenceCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b != null &&
-                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_ADHOC_CONFERENCE_CALLS_BOOL);
+            return getCarrierCapabilities().isAdhocConferenceCallSupported();
         }
 
 
@@ -718,10 +791,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if merging calls is supported, {@code false} otherwise.
          */
         private boolean isCarrierMergeCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b != null &&
-                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_CONFERENCE_CALL_BOOL);
+            return getCarrierCapabilities().isMergeCallSupported();
         }
 
         /**
@@ -730,9 +800,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if merging IMS calls is supported, {@code false} otherwise.
          */
         private boolean isCarrierMergeImsCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_IMS_CONFERENCE_CALL_BOOL);
+            return getCarrierCapabilities().isMergeImsCallSupported();
         }
 
         /**
@@ -741,10 +809,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if emergency video calls are allowed, {@code false} otherwise.
          */
         private boolean isCarrierEmergencyVideoCallsAllowed() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b != null &&
-                    b.getBoolean(CarrierConfigManager.KEY_ALLOW_EMERGENCY_VIDEO_CALLS_BOOL);
+            return getCarrierCapabilities().isEmergencyVideoCallsAllowed();
         }
 
         /**
@@ -753,10 +818,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if video conferencing is supported, {@code false} otherwise.
          */
         private boolean isCarrierVideoConferencingSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b != null &&
-                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_VIDEO_CONFERENCE_CALL_BOOL);
+            return getCarrierCapabilities().isVideoConferencingSupported();
         }
 
         /**
@@ -767,10 +829,7 @@ public class TelecomAccountRegistry {
          *      {@code false} otherwise.
          */
         private boolean isCarrierMergeOfWifiCallsAllowedWhenVoWifiOff() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b != null && b.getBoolean(
-                    CarrierConfigManager.KEY_ALLOW_MERGE_WIFI_CALLS_WHEN_VOWIFI_OFF_BOOL);
+            return getCarrierCapabilities().isMergeOfWifiCallsAllowedWhenVoWifiOff();
         }
 
         /**
@@ -780,9 +839,7 @@ public class TelecomAccountRegistry {
          *         {@code false} otherwise.
          */
         private boolean isCarrierManageImsConferenceCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_MANAGE_IMS_CONFERENCE_CALL_BOOL);
+            return getCarrierCapabilities().isManageImsConferenceCallSupported();
         }
 
         /**
@@ -792,10 +849,7 @@ public class TelecomAccountRegistry {
          *         {@code false} otherwise.
          */
         private boolean isCarrierUsingSimCallManager() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return !TextUtils.isEmpty(
-                    b.getString(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING));
+            return getCarrierCapabilities().isUsingSimCallManager();
         }
 
         /**
@@ -806,9 +860,7 @@ public class TelecomAccountRegistry {
          *         {@code false} otherwise.
          */
         private boolean isCarrierShowPreciseFailedCause() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b.getBoolean(CarrierConfigManager.KEY_SHOW_PRECISE_FAILED_CAUSE_BOOL);
+            return getCarrierCapabilities().isShowPreciseFailedCause();
         }
 
         /**
@@ -818,18 +870,14 @@ public class TelecomAccountRegistry {
          * @return {@code true} if a call recording tone should be used, {@code false} otherwise.
          */
         private boolean isCarrierUseCallRecordingTone() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b.getBoolean(CarrierConfigManager.KEY_PLAY_CALL_RECORDING_TONE_BOOL);
+            return getCarrierCapabilities().isCallRecordingToneUsed();
         }
 
         /**
          * Determines from carrier config whether to always allow RTT while roaming.
          */
         private boolean isCarrierAllowRttWhenRoaming() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            return b.getBoolean(CarrierConfigManager.KEY_RTT_SUPPORTED_WHILE_ROAMING_BOOL);
+            return getCarrierCapabilities().isRttAllowedWhenRoaming();
         }
 
         /**
@@ -839,13 +887,9 @@ public class TelecomAccountRegistry {
          * @return The {@link PhoneAccount} extras associated with the current subscription.
          */
         private Bundle getPhoneAccountExtras() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-
-            int instantLetteringMaxLength = b.getInt(
-                    CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_LENGTH_LIMIT_INT);
-            String instantLetteringEncoding = b.getString(
-                    CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_ENCODING_STRING);
+            CarrierCapabilitySnapshot carrierCapabilities = getCarrierCapabilities();
+            int instantLetteringMaxLength = carrierCapabilities.getInstantLetteringMaxLength();
+            String instantLetteringEncoding = carrierCapabilities.getInstantLetteringEncoding();
             Bundle phoneAccountExtras = new Bundle();
             phoneAccountExtras.putInt(PhoneAccount.EXTRA_CALL_SUBJECT_MAX_LENGTH,
                     instantLetteringMaxLength);
@@ -858,15 +902,7 @@ public class TelecomAccountRegistry {
          * @return true if the subscription is voice capable by the carrier config.
          */
         private boolean isSubscriptionVoiceCapableByCarrierConfig() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) {
-                return true; // For any abnormal case, we assume subscription is voice capable
-            }
-            final int[] serviceCapabilities = b.getIntArray(
-                    CarrierConfigManager.KEY_CELLULAR_SERVICE_CAPABILITIES_INT_ARRAY);
-            return Arrays.stream(serviceCapabilities).anyMatch(
-                    i -> i == SubscriptionManager.SERVICE_CAPABILITY_VOICE);
+            return getCarrierCapabilities().isVoiceCapable();
         }
 
         /**
@@ -879,7 +915,7 @@ public class TelecomAccountRegistry {
         public void onVideoCapabilitiesChanged(boolean isVideoCapable) {
             mIsVideoCapable = isVideoCapable;
             synchronized (mAccountsLock) {
-                if (!mAccounts.contains(this)) {
+                if (!mAccounts.containsValue(this)) {
                     // Account has already been torn down, don't try to register it again.
                     // This handles the case where teardown has already happened, and we got a video
                     // update that lost the race for the mAccountsLock.  In such a scenario by the
@@ -901,7 +937,7 @@ public class TelecomAccountRegistry {
                 //If necessary, update cache and re-register mAccount:
                 mSimultaneousCallSupportedSubIds = updatedSimultaneousCallSupportSubIds;
                 synchronized (mAccountsLock) {
-                    if (!mAccounts.contains(this)) {
+                    if (!mAccounts.containsValue(this)) {
                         // Account has already been torn down, don't try to register it again.
                         // This handles the case where teardown has already happened, and we got a
                         // simultaneous calling support update that lost the race for the
@@ -916,7 +952,7 @@ public class TelecomAccountRegistry {
 
         public void updateAdhocConfCapability(boolean isAdhocConfCapable) {
             synchronized (mAccountsLock) {
-                if (!mAccounts.contains(this)) {
+                if (!mAccounts.containsValue(this)) {
                     // Account has already been torn down, don't try to register it again.
                     // This handles the case where teardown has already happened, and we got a Ims
                     // registartion update that lost the race for the mAccountsLock.  In such a
@@ -936,7 +972,7 @@ public class TelecomAccountRegistry {
 
         public void updateVideoPresenceCapability() {
             synchronized (mAccountsLock) {
-                if (!mAccounts.contains(this)) {
+                if (!mAccounts.containsValue(this)) {
                     // Account has already been torn down, don't try to register it again.
                     // This handles the case where teardown has already happened, and we got a Ims
                     // registration update that lost the race for the mAccountsLock.  In such a
@@ -956,7 +992,7 @@ public class TelecomAccountRegistry {
 
         public void updateRttCapability() {
             synchronized (mAccountsLock) {
-                if (!mAccounts.contains(this)) {
+                if (!mAccounts.containsValue(this)) {
                     // Account has already been torn down, don't try to register it again.
                     // This handles the case where teardown has already happened, and we got a Ims
                     // registartion update that lost the race for the mAccountsLock.  In such a
@@ -975,7 +1011,7 @@ public class TelecomAccountRegistry {
 
         public void updateCallComposerCapability(MmTelFeature.MmTelCapabilities capabilities) {
             synchronized (mAccountsLock) {
-                if (!mAccounts.contains(this)) {
+                if (!mAccounts.containsValue(this)) {
                     // Account has already been torn down, don't try to register it again.
                     // This handles the case where teardown has already happened, and we got a Ims
                     // registartion update that lost the race for the mAccountsLock.  In such a
@@ -997,7 +1033,7 @@ public class TelecomAccountRegistry {
 
         public void updateDefaultDataSubId(int activeDataSubId) {
             synchronized (mAccountsLock) {
-                if (!mAccounts.contains(this)) {
+                if (!mAccounts.containsValue(this)) {
                     // Account has already been torn down, don't try to register it again.
                     // This handles the case where teardown has already happened, and we got a Ims
                     // registartion update that lost the race for the mAccountsLock.  In such a
@@ -1178,8 +1214,7 @@ public class TelecomAccountRegistry {
 
             // Any time the SubscriptionInfo changes rerun the setup
             Log.i(this, "TelecomAccountRegistry: onSubscriptionsChanged - update accounts");
-            tearDownAccounts();
-            setupAccounts();
+            reconcileAccounts();
         }
 
         @Override
@@ -1191,8 +1226,7 @@ public class TelecomAccountRegistry {
             // Even though registering the listener failed, we will still try to setup the phone
             // accounts now; the phone instances should already be present and ready, so even if
             // telephony registry is poking along we can still try to setup the phone account.
-            tearDownAccounts();
-            setupAccounts();
+            reconcileAccounts();
 
             if (mSubscriptionListenerState == LISTENER_STATE_UNREGISTERED) {
                 // Initial registration attempt failed; start exponential backoff.
@@ -1215,8 +1249,7 @@ public class TelecomAccountRegistry {
                 mIsPrimaryUser = currentUser == null ? true : currentUser.isSystem();
 
                 // Any time the user changes, re-register the accounts.
-                tearDownAccounts();
-                setupAccounts();
+                reconcileAccounts();
             } else if (CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED.equals(
                     intent.getAction())) {
                 Log.i(this, "Carrier-config changed, checking for phone account updates.");
@@ -1231,8 +1264,7 @@ public class TelecomAccountRegistry {
         @Override
         public void onReceive(Context context, Intent intent) {
             Log.i(this, "Locale change; re-registering phone accounts.");
-            tearDownAccounts();
-            setupAccounts();
+            reconcileAccounts();
         }
     };
 
@@ -1247,12 +1279,11 @@ public class TelecomAccountRegistry {
             Log.i(this, "onServiceStateChanged: newState=%d, mServiceState=%d",
                     newState, mServiceState);
             if (newState == ServiceState.STATE_IN_SERVICE && mServiceState != newState) {
-                Log.i(this, "onServiceStateChanged: Tearing down and re-setting up accounts.");
-                tearDownAccounts();
-                setupAccounts();
+                Log.i(this, "onServiceStateChanged: Reconciling accounts.");
+                reconcileAccounts();
             } else {
                 synchronized (mAccountsLock) {
-                    for (AccountEntry account : mAccounts) {
+                    for (AccountEntry account : mAccounts.values()) {
                         account.updateRttCapability();
                     }
                 }
@@ -1264,7 +1295,7 @@ public class TelecomAccountRegistry {
         public void onActiveDataSubscriptionIdChanged(int subId) {
             mActiveDataSubscriptionId = subId;
             synchronized (mAccountsLock) {
-                for (AccountEntry account : mAccounts) {
+                for (AccountEntry account : mAccounts.values()) {
                     account.updateDefaultDataSubId(mActiveDataSubscriptionId);
                 }
             }
@@ -1277,13 +1308,20 @@ public class TelecomAccountRegistry {
     private final android.telephony.ims.ImsManager mImsManager;
     private final TelephonyManager mTelephonyManager;
     private final SubscriptionManager mSubscriptionManager;
-    private List<AccountEntry> mAccounts = new LinkedList<AccountEntry>();
+    // The accounts by their PhoneAccountHandle, in the order they were set up.
+    private Map<PhoneAccountHandle, AccountEntry> mAccounts = new LinkedHashMap<>();
     private final Object mAccountsLock = new Object();
     private int mSubscriptionListenerState = LISTENER_STATE_UNREGISTERED;
     private int mServiceState = ServiceState.STATE_POWER_OFF;
     private int mActiveDataSubscriptionId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
     private boolean mIsPrimaryUser = UserHandle.of(ActivityManager.getCurrentUser()).isSystem();
     private ExponentialBackoff mRegisterSubscriptionListenerBackoff;
+    // Statistics of reconcileAccounts, guarded by mAccountsLock.
+    private int mReconcileCount;
+    private int mAccountsKeptCount;
+    private int mAccountsAddedCount;
+    private int mAccountsRemovedCount;
+    private long mBinderCallsAvoidedCount;
     private final HandlerThread mHandlerThread = new HandlerThread("TelecomAccountRegistry");
 
     // TODO: Remove back-pointer from app singleton to Service, since this is not a preferred
@@ -1356,10 +1394,9 @@ public class TelecomAccountRegistry {
      */
     boolean isVideoPauseSupported(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.isVideoPauseSupported();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.isVideoPauseSupported();
             }
         }
         return false;
@@ -1374,10 +1411,9 @@ public class TelecomAccountRegistry {
      */
     public boolean isMergeCallSupported(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.isMergeCallSupported();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.isMergeCallSupported();
             }
         }
         return false;
@@ -1392,10 +1428,9 @@ public class TelecomAccountRegistry {
      */
     public boolean isVideoConferencingSupported(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.isVideoConferencingSupported();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.isVideoConferencingSupported();
             }
         }
         return false;
@@ -1410,14 +1445,8 @@ public class TelecomAccountRegistry {
      */
     public boolean isMergeOfWifiCallsAllowedWhenVoWifiOff(final PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            Optional<AccountEntry> result = mAccounts.stream().filter(
-                    entry -> entry.getPhoneAccountHandle().equals(handle)).findFirst();
-
-            if (result.isPresent()) {
-                return result.get().isMergeOfWifiCallsAllowedWhenVoWifiOff();
-            } else {
-                return false;
-            }
+            AccountEntry entry = getAccountEntry(handle);
+            return entry != null && entry.isMergeOfWifiCallsAllowedWhenVoWifiOff();
         }
     }
 
@@ -1430,10 +1459,9 @@ public class TelecomAccountRegistry {
      */
     public boolean isMergeImsCallSupported(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.isMergeImsCallSupported();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.isMergeImsCallSupported();
             }
         }
         return false;
@@ -1448,10 +1476,9 @@ public class TelecomAccountRegistry {
      */
     boolean isManageImsConferenceCallSupported(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.isManageImsConferenceCallSupported();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.isManageImsConferenceCallSupported();
             }
         }
         return false;
@@ -1465,10 +1492,9 @@ public class TelecomAccountRegistry {
      */
     boolean isShowPreciseFailedCause(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.isShowPreciseFailedCause();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.isShowPreciseFailedCause();
             }
         }
         return false;
@@ -1489,10 +1515,9 @@ public class TelecomAccountRegistry {
      */
     public Uri getAddress(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.mAccount.getAddress();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.mAccount.getAddress();
             }
         }
         return null;
@@ -1501,7 +1526,7 @@ public class TelecomAccountRegistry {
     public void refreshAdhocConference(boolean isEnableAdhocConf) {
         synchronized (mAccountsLock) {
             Log.v(this, "refreshAdhocConference isEnable = " + isEnableAdhocConf);
-            for (AccountEntry entry : mAccounts) {
+            for (AccountEntry entry : mAccounts.values()) {
                 boolean hasAdhocConfCapability = entry.mAccount.hasCapabilities(
                         PhoneAccount.CAPABILITY_ADHOC_CONFERENCE_CALLING);
                 if (!isEnableAdhocConf && hasAdhocConfCapability) {
@@ -1522,10 +1547,9 @@ public class TelecomAccountRegistry {
      */
     public boolean isUsingSimCallManager(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return entry.isUsingSimCallManager();
-                }
+            AccountEntry entry = getAccountEntry(handle);
+            if (entry != null) {
+                return entry.isUsingSimCallManager();
             }
         }
         return false;
@@ -1574,7 +1598,7 @@ public class TelecomAccountRegistry {
             @Override
             public void onChange(boolean selfChange) {
                 synchronized (mAccountsLock) {
-                    for (AccountEntry account : mAccounts) {
+                    for (AccountEntry account : mAccounts.values()) {
                         account.updateRttCapability();
                     }
                 }
@@ -1590,7 +1614,7 @@ public class TelecomAccountRegistry {
             @Override
             public void onChange(boolean selfChange) {
                 synchronized (mAccountsLock) {
-                    for (AccountEntry account : mAccounts) {
+                    for (AccountEntry account : mAccounts.values()) {
                         account.updateVideoPresenceCapability();
                     }
                 }
@@ -1611,18 +1635,13 @@ public class TelecomAccountRegistry {
      */
     boolean hasAccountEntryForPhoneAccount(PhoneAccountHandle handle) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                if (entry.getPhoneAccountHandle().equals(handle)) {
-                    return true;
-                }
-            }
+            return getAccountEntry(handle) != null;
         }
-        return false;
     }
 
     PhoneAccountHandle getPhoneAccountHandleForSubId(int subId) {
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
+            for (AccountEntry entry : mAccounts.values()) {
                 if (entry.getSubId() == subId) {
                     return entry.getPhoneAccountHandle();
                 }
@@ -1655,75 +1674,169 @@ public class TelecomAccountRegistry {
         }
     }
 
-    private void setupAccounts() {
-        // Go through SIM-based phones and register ourselves -- registering an existing account
-        // will cause the existing entry to be replaced.
+    /**
+     * An account which should be registered with Telecom, see {@link #getDesiredAccounts}.
+     */
+    private static final class DesiredAccount {
+        final Phone phone;
+        final boolean isEmergency;
+        final boolean isTest;
+        final int subId;
+        final PhoneAccountHandle handle;
+
+        DesiredAccount(Phone phone, boolean isEmergency, boolean isTest) {
+            this.phone = phone;
+            subId = phone.getSubId();
+            this.isEmergency = isEmergency;
+            this.isTest = isTest;
+            // Matches the handle built by AccountEntry#buildPstnPhoneAccount.
+            handle = PhoneUtils.makePstnPhoneAccountHandleWithPrefix(phone,
+                    isTest ? "Test " : "", isEmergency, phone.getUserHandle());
+        }
+    }
+
+    /**
+     * @return The accounts which should currently be registered with Telecom, by their
+     * {@link PhoneAccountHandle}.
+     */
+    private Map<PhoneAccountHandle, DesiredAccount> getDesiredAccounts() {
         Phone[] phones = PhoneFactory.getPhones();
-        Log.i(this, "setupAccounts: Found %d phones.  Attempting to register.", phones.length);
+        Log.i(this, "getDesiredAccounts: Found %d phones.", phones.length);
 
         final boolean phoneAccountsEnabled = mContext.getResources().getBoolean(
                 R.bool.config_pstn_phone_accounts_enabled);
 
-        synchronized (mAccountsLock) {
-            try {
-                if (phoneAccountsEnabled) {
-                    for (Phone phone : phones) {
-                        int subscriptionId = phone.getSubId();
-                        Log.i(this, "setupAccounts: Phone with subscription id %d", subscriptionId);
-                        // setupAccounts can be called multiple times during service changes.
-                        // Don't add an account if subscription is not ready.
-                        if (!SubscriptionManager.isValidSubscriptionId(subscriptionId)) {
-                            Log.d(this, "setupAccounts: skipping invalid subid %d", subscriptionId);
-                            continue;
-                        }
-                        // Don't add account if it's opportunistic subscription, which is considered
-                        // data only for now.
-                        SubscriptionInfo info = SubscriptionManager.from(mContext)
-                                .getActiveSubscriptionInfo(subscriptionId);
-                        if (info == null || info.isOpportunistic()) {
-                            Log.d(this, "setupAccounts: skipping unknown or opportunistic subid %d",
-                                    subscriptionId);
-                            continue;
-                        }
-
-                        mAccounts.add(new AccountEntry(phone, false /* emergency */,
-                                false /* isTest */));
+        Map<PhoneAccountHandle, DesiredAccount> desiredAccounts = new LinkedHashMap<>();
+        try {
+            if (phoneAccountsEnabled) {
+                for (Phone phone : phones) {
+                    int subscriptionId = phone.getSubId();
+                    Log.i(this, "getDesiredAccounts: Phone with subscription id %d",
+                            subscriptionId);
+                    // Accounts can be reconciled multiple times during service changes.
+                    // Don't add an account if subscription is not ready.
+                    if (!SubscriptionManager.isValidSubscriptionId(subscriptionId)) {
+                        Log.d(this, "getDesiredAccounts: skipping invalid subid %d",
+                                subscriptionId);
+                        continue;
                     }
-                }
-            } finally {
-                // If we did not list ANY accounts, we need to provide a "default" SIM account
-                // for emergency numbers since no actual SIM is needed for dialing emergency
-                // numbers but a phone account is.
-                if (mAccounts.isEmpty()) {
-                    Log.i(this, "setupAccounts: adding default");
-                    mAccounts.add(
-                            new AccountEntry(PhoneFactory.getDefaultPhone(), true /* emergency */,
-                                    false /* isTest */));
+                    // Don't add account if it's opportunistic subscription, which is considered
+                    // data only for now.
+                    SubscriptionInfo info = SubscriptionManager.from(mContext)
+                            .getActiveSubscriptionInfo(subscriptionId);
+                    if (info == null || info.isOpportunistic()) {
+                        Log.d(this, "getDesiredAccounts: skipping unknown or opportunistic "
+                                + "subid %d", subscriptionId);
+                        continue;
+                    }
+
+                    addDesiredAccount(desiredAccounts, new DesiredAccount(phone,
+                            false /* emergency */, false /* isTest */));
                 }
             }
-
-            // Add a fake account entry.
-            if (DBG && phones.length > 0 && "TRUE".equals(System.getProperty("test_sim"))) {
-                Log.i(this, "setupAccounts: adding a fake AccountEntry");
-                mAccounts.add(new AccountEntry(phones[0], false /* emergency */,
-                        true /* isTest */));
+        } finally {
+            // If we did not list ANY accounts, we need to provide a "default" SIM account
+            // for emergency numbers since no actual SIM is needed for dialing emergency
+            // numbers but a phone account is.
+            if (desiredAccounts.isEmpty()) {
+                Log.i(this, "getDesiredAccounts: adding default");
+                addDesiredAccount(desiredAccounts, new DesiredAccount(
+                        PhoneFactory.getDefaultPhone(), true /* emergency */,
+                        false /* isTest */));
             }
         }
 
-        // Clean up any PhoneAccounts that are no longer relevant
-        cleanupPhoneAccounts();
+        // Add a fake account entry.
+        if (DBG && phones.length > 0 && "TRUE".equals(System.getProperty("test_sim"))) {
+            Log.i(this, "getDesiredAccounts: adding a fake AccountEntry");
+            addDesiredAccount(desiredAccounts, new DesiredAccount(phones[0],
+                    false /* emergency */, true /* isTest */));
+        }
+        return desiredAccounts;
     }
 
-    private void tearDownAccounts() {
+    private static void addDesiredAccount(Map<PhoneAccountHandle, DesiredAccount> accounts,
+            DesiredAccount account) {
+        accounts.put(account.handle, account);
+    }
+
+    /**
+     * Brings the {@link AccountEntry}(s) in line with the accounts which should currently exist.
+     * <p>
+     * Entries which are still wanted for the same phone and subscription are kept and only
+     * re-registered with Telecom if their {@link PhoneAccount} changed, so that their IMS
+     * callbacks stay registered and there is no window without accounts. Entries which are no
+     * longer wanted are torn down and unregistered, and entries for new accounts are created and
+     * registered. See {@link AccountReconciler}.
+     */
+    private void reconcileAccounts() {
+        Map<PhoneAccountHandle, DesiredAccount> desiredAccounts = getDesiredAccounts();
+        AccountReconciler.Result<AccountEntry> result;
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
-                entry.teardown();
+            result = AccountReconciler.reconcile(mAccounts, desiredAccounts,
+                    desired -> new AccountEntry(desired.phone, desired.isEmergency,
+                            desired.isTest));
+            mAccounts = result.accounts;
+
+            mReconcileCount++;
+            mAccountsKeptCount += result.kept;
+            mAccountsAddedCount += result.added;
+            mAccountsRemovedCount += result.removed;
+            mBinderCallsAvoidedCount += result.binderCallsAvoided;
+            Log.i(this, "reconcileAccounts: kept=%d, added=%d, removed=%d, "
+                    + "binderCallsAvoided=%d", result.kept, result.added, result.removed,
+                    result.binderCallsAvoided);
+        }
+
+        // Telecom only needs to be checked for stale accounts if the set of accounts changed,
+        // which is always the case the first time.
+        if (result.added > 0 || result.removed > 0) {
+            // Invalidate the TelephonyManager cache which maps phone account handles to sub ids
+            // since phone account handles have been added or removed.
+            PropertyInvalidatedCache.invalidateCache(
+                    TelephonyManager.CACHE_KEY_PHONE_ACCOUNT_TO_SUBID);
+            // Clean up any PhoneAccounts that are no longer relevant
+            cleanupPhoneAccounts();
+        }
+    }
+
+    /**
+     * @param handle The {@link PhoneAccountHandle}.
+     * @return The {@link AccountEntry} with the given handle, or {@code null} if there is none.
+     * Must be called with {@link #mAccountsLock} held.
+     */
+    private AccountEntry getAccountEntry(PhoneAccountHandle handle) {
+        AccountEntry entry = mAccounts.get(handle);
+        if (entry != null && entry.getPhoneAccountHandle().equals(handle)) {
+            return entry;
+        }
+        // The handle of an entry is rebuilt when it is re-registered, so it can differ from the
+        // key it was added with until the next reconcile.
+        for (AccountEntry account : mAccounts.values()) {
+            if (account.getPhoneAccountHandle().equals(handle)) {
+                return account;
             }
-            mAccounts.clear();
         }
-        // Invalidate the TelephonyManager cache which maps phone account handles to sub ids since
-        // all the phone account handles are being recreated at this point.
-        PropertyInvalidatedCache.invalidateCache(TelephonyManager.CACHE_KEY_PHONE_ACCOUNT_TO_SUBID);
+        return null;
+    }
+
+    /**
+     * Dump the state of the registered accounts and of account reconciliation.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mAccountsLock) {
+            pw.println("Accounts:");
+            pw.increaseIndent();
+            for (AccountEntry entry : mAccounts.values()) {
+                pw.println(entry.getPhoneAccountHandle() + ", subId=" + entry.getSubId());
+            }
+            pw.decreaseIndent();
+            pw.println("Reconciles: count=" + mReconcileCount
+                    + ", kept=" + mAccountsKeptCount
+                    + ", added=" + mAccountsAddedCount
+                    + ", removed=" + mAccountsRemovedCount
+                    + ", binderCallsAvoided=" + mBinderCallsAvoidedCount);
+        }
     }
 
     /**
@@ -1739,10 +1852,11 @@ public class TelecomAccountRegistry {
             return;
         }
         synchronized (mAccountsLock) {
-            for (AccountEntry entry : mAccounts) {
+            for (AccountEntry entry : mAccounts.values()) {
                 if (entry.getSubId() == subId) {
                     Log.d(this, "handleCarrierConfigChange: subId=%d, accountSubId=%d", subId,
                             entry.getSubId());
+                    entry.onCarrierConfigChanged();
                     entry.reRegisterPstnPhoneAccount();
                 }
             }
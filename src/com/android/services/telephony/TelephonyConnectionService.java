@@ -79,6 +79,7 @@ import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.RIL;
+import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.d2d.Communicator;
 import com.android.internal.telephony.data.PhoneSwitcher;
 import com.android.internal.telephony.domainselection.DomainSelectionConnection;
@@ -186,6 +187,14 @@ public class TelephonyConnectionService extends ConnectionService {
         }
     };
 
+    private final BroadcastReceiver mEmergencySlotRankingReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.v(this, "onReceive, action: %s", intent.getAction());
+            updateEmergencySlotRanking();
+        }
+    };
+
     private final BroadcastReceiver mTtyBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -236,6 +245,9 @@ public class TelephonyConnectionService extends ConnectionService {
     private DomainSelectionConnection mDomainSelectionConnection;
     private TelephonyConnection mNormalCallConnection;
     private SatelliteController mSatelliteController;
+    // Only accessed on the main thread.
+    private EmergencySlotRanking mEmergencySlotRanking;
+    private int mEmergencySlotRankingBuildCount;
 
     /**
      * Keeps track of the status of a SIM slot.
@@ -247,8 +259,6 @@ public class TelephonyConnectionService extends ConnectionService {
         public int capabilities;
         // By default, we will assume that the slots are not locked.
         public boolean isLocked = false;
-        // Is the emergency number associated with the slot
-        public boolean hasDialedEmergencyNumber = false;
         //SimState.
         public int simState;
 
@@ -266,6 +276,36 @@ public class TelephonyConnectionService extends ConnectionService {
         }
     }
 
+    /**
+     * The slots ordered by how preferred they are for an emergency call when none of the Phones
+     * is available for emergency calls, see steps 5) to 7) of
+     * {@link #getFirstPhoneForEmergencyCall(List)}. The dialed emergency number is not taken into
+     * account, it is applied to the ranking when the call is placed.
+     * <p>
+     * The ranking is rebuilt when the SIM state or the radio capabilities change, so placing an
+     * emergency call does not need to read the SIM state of every slot and sort them. It also
+     * records the Phones, subscriptions, radio access families and default Phone it was built
+     * from, which are checked when the ranking is used so that a change that is not broadcast
+     * still rebuilds it.
+     */
+    private static class EmergencySlotRanking {
+        // Sorted from the least to the most preferred slot.
+        public final List<SlotStatus> rankedSlots;
+        public final Phone[] phones;
+        public final int[] subIds;
+        public final int[] radioAccessFamilies;
+        public final int defaultPhoneId;
+
+        EmergencySlotRanking(List<SlotStatus> rankedSlots, Phone[] phones, int[] subIds,
+                int[] radioAccessFamilies, int defaultPhoneId) {
+            this.rankedSlots = rankedSlots;
+            this.phones = phones;
+            this.subIds = subIds;
+            this.radioAccessFamilies = radioAccessFamilies;
+            this.defaultPhoneId = defaultPhoneId;
+        }
+    }
+
     /**
      * SubscriptionManager dependencies for testing.
      */
@@ -494,6 +534,7 @@ public class TelephonyConnectionService extends ConnectionService {
     @VisibleForTesting
     public void setSubscriptionManagerProxy(SubscriptionManagerProxy proxy) {
         mSubscriptionManagerProxy = proxy;
+        mEmergencySlotRanking = null;
     }
 
     /**
@@ -859,11 +900,18 @@ public class TelephonyConnectionService extends ConnectionService {
                 TelecomManager.ACTION_TTY_PREFERRED_MODE_CHANGED);
         registerReceiver(mTtyBroadcastReceiver, intentFilter,
                 android.Manifest.permission.MODIFY_PHONE_STATE, null, Context.RECEIVER_EXPORTED);
+
+        IntentFilter slotRankingFilter = new IntentFilter(
+                TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        slotRankingFilter.addAction(TelephonyIntents.ACTION_SET_RADIO_CAPABILITY_DONE);
+        registerReceiver(mEmergencySlotRankingReceiver, slotRankingFilter,
+                Context.RECEIVER_NOT_EXPORTED);
     }
 
     @Override
     public boolean onUnbind(Intent intent) {
         unregisterReceiver(mTtyBroadcastReceiver);
+        unregisterReceiver(mEmergencySlotRankingReceiver);
         return super.onUnbind(intent);
     }
 
@@ -3611,15 +3659,10 @@ public class TelephonyConnectionService extends ConnectionService {
             }
         }
 
-        Phone firstPhoneWithSim = null;
-        List<SlotStatus> phoneSlotStatus = new ArrayList<>(phoneCount);
         for (int i = 0; i < phoneCount; i++) {
             Phone phone = mPhoneFactoryProxy.getPhone(i);
-            if (phone == null) {
-                continue;
-            }
             // 3)
-            if (isAvailableForEmergencyCalls(phone)) {
+            if (phone != null && isAvailableForEmergencyCalls(phone)) {
                 if (phonesWithEmergencyNumber == null
                         || phonesWithEmergencyNumber.contains(phone)) {
                     // the slot has the radio on & state is in service.
@@ -3628,14 +3671,169 @@ public class TelephonyConnectionService extends ConnectionService {
                     return phone;
                 }
             }
+        }
+
+        // 5), 6) and 7) are kept up to date in the emergency slot ranking.
+        List<SlotStatus> rankedSlots = getEmergencySlotRanking(phoneCount).rankedSlots;
+        // 8)
+        if (rankedSlots.isEmpty()) {
+            if (phonesWithEmergencyNumber != null) {
+                for (Phone phoneWithEmergencyNumber : phonesWithEmergencyNumber) {
+                    if (phoneWithEmergencyNumber != null) {
+                        return phoneWithEmergencyNumber;
+                    }
+                }
+            }
+
+            // No Phones available, get the default
+            Log.i(this, "getFirstPhoneForEmergencyCall, return default phone");
+            return  mPhoneFactoryProxy.getDefaultPhone();
+        }
+        // 4)
+        // Prefer slots where the number is considered emergency. This is ranked below the SIM
+        // presence and lock state and above the radio capabilities, so the most preferred slot is
+        // the one with the highest (SIM present, not locked, has the emergency number) that comes
+        // last in the ranking.
+        SlotStatus mostCapableSlot = null;
+        boolean mostCapableHasEmergencyNumber = false;
+        for (int i = rankedSlots.size() - 1; i >= 0; i--) {
+            SlotStatus status = rankedSlots.get(i);
+            boolean hasEmergencyNumber =
+                    hasDialedEmergencyNumber(status.slotId, phonesWithEmergencyNumber);
+            if (mostCapableSlot == null || compareEmergencySlotPreference(status,
+                    hasEmergencyNumber, mostCapableSlot, mostCapableHasEmergencyNumber) > 0) {
+                mostCapableSlot = status;
+                mostCapableHasEmergencyNumber = hasEmergencyNumber;
+            }
+        }
+        int mostCapablePhoneId = mostCapableSlot.slotId;
+        Log.i(this, "getFirstPhoneForEmergencyCall, Using Phone Id: " + mostCapablePhoneId +
+                "with highest capability");
+        return mPhoneFactoryProxy.getPhone(mostCapablePhoneId);
+    }
+
+    private static boolean hasDialedEmergencyNumber(int slotId,
+            List<Phone> phonesWithEmergencyNumber) {
+        if (phonesWithEmergencyNumber == null) {
+            return false;
+        }
+        for (Phone phoneWithEmergencyNumber : phonesWithEmergencyNumber) {
+            if (phoneWithEmergencyNumber != null
+                    && phoneWithEmergencyNumber.getPhoneId() == slotId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares two slots by SIM presence, then by lock state and then by whether the dialed
+     * number is an emergency number of the slot.
+     */
+    private static int compareEmergencySlotPreference(SlotStatus o1, boolean o1HasEmergencyNumber,
+            SlotStatus o2, boolean o2HasEmergencyNumber) {
+        // Sort by non-absent SIM (SIM without active sub is considered absent).
+        if (o1.isSubActiveAndSimPresent() && !o2.isSubActiveAndSimPresent()) {
+            return 1;
+        }
+        if (o2.isSubActiveAndSimPresent() && !o1.isSubActiveAndSimPresent()) {
+            return -1;
+        }
+        // First start by seeing if either of the phone slots are locked. If they are, then sort
+        // by non-locked SIM first. If they are both locked, sort by capability instead.
+        if (o1.isLocked && !o2.isLocked) {
+            return -1;
+        }
+        if (o2.isLocked && !o1.isLocked) {
+            return 1;
+        }
+        return Boolean.compare(o1HasEmergencyNumber, o2HasEmergencyNumber);
+    }
+
+    /**
+     * @return The emergency slot ranking, which is rebuilt if the Phones, their subscriptions,
+     * their radio access families or the default Phone have changed since it was built.
+     */
+    private EmergencySlotRanking getEmergencySlotRanking(int phoneCount) {
+        EmergencySlotRanking ranking = mEmergencySlotRanking;
+        if (ranking == null || !isEmergencySlotRankingCurrent(ranking, phoneCount)) {
+            ranking = buildEmergencySlotRanking(phoneCount);
+            mEmergencySlotRanking = ranking;
+        }
+        return ranking;
+    }
+
+    private boolean isEmergencySlotRankingCurrent(EmergencySlotRanking ranking, int phoneCount) {
+        if (ranking.phones.length != phoneCount
+                || ranking.defaultPhoneId != getDefaultPhoneIdForSlotRanking()) {
+            return false;
+        }
+        for (int i = 0; i < phoneCount; i++) {
+            Phone phone = mPhoneFactoryProxy.getPhone(i);
+            if (phone != ranking.phones[i]) {
+                return false;
+            }
+            if (phone != null && (phone.getSubId() != ranking.subIds[i]
+                    || phone.getRadioAccessFamily() != ranking.radioAccessFamilies[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the emergency slot ranking after the SIM state or the radio capabilities of a slot
+     * have changed.
+     */
+    @VisibleForTesting
+    public void updateEmergencySlotRanking() {
+        mEmergencySlotRanking =
+                buildEmergencySlotRanking(mTelephonyManagerProxy.getPhoneCount());
+    }
+
+    /**
+     * @return The number of times the emergency slot ranking has been built.
+     */
+    @VisibleForTesting
+    public int getEmergencySlotRankingBuildCount() {
+        return mEmergencySlotRankingBuildCount;
+    }
+
+    /**
+     * @return The phone id of the default Phone, which breaks ties between slots without a SIM,
+     * or {@link SubscriptionManager#INVALID_PHONE_INDEX} if there is none.
+     */
+    private int getDefaultPhoneIdForSlotRanking() {
+        Phone defaultPhone = mPhoneFactoryProxy.getDefaultPhone();
+        return defaultPhone != null ? defaultPhone.getPhoneId()
+                : SubscriptionManager.INVALID_PHONE_INDEX;
+    }
+
+    private EmergencySlotRanking buildEmergencySlotRanking(int phoneCount) {
+        mEmergencySlotRankingBuildCount++;
+        final int defaultPhoneId = getDefaultPhoneIdForSlotRanking();
+        Phone[] phones = new Phone[phoneCount];
+        int[] subIds = new int[phoneCount];
+        int[] radioAccessFamilies = new int[phoneCount];
+        Phone firstPhoneWithSim = null;
+        List<SlotStatus> phoneSlotStatus = new ArrayList<>(phoneCount);
+        for (int i = 0; i < phoneCount; i++) {
+            Phone phone = mPhoneFactoryProxy.getPhone(i);
+            phones[i] = phone;
+            if (phone == null) {
+                continue;
+            }
             // 6)
             // Store the RAF Capabilities for sorting later.
             int radioAccessFamily = phone.getRadioAccessFamily();
-            SlotStatus status = new SlotStatus(i, radioAccessFamily, phone.getSubId());
+            int subId = phone.getSubId();
+            subIds[i] = subId;
+            radioAccessFamilies[i] = radioAccessFamily;
+            SlotStatus status = new SlotStatus(i, radioAccessFamily, subId);
             phoneSlotStatus.add(status);
-            Log.i(this, "getFirstPhoneForEmergencyCall, RAF:" +
+            Log.i(this, "buildEmergencySlotRanking, RAF:" +
                 Integer.toHexString(radioAccessFamily) + " saved for Phone Id:" + i + " subId:"
-                + phone.getSubId());
+                + subId);
             // 5)
             // Report Slot's PIN/PUK lock status for sorting later.
             int simState = mSubscriptionManagerProxy.getSimStateForSlotIdx(i);
@@ -3645,109 +3843,56 @@ public class TelephonyConnectionService extends ConnectionService {
                     simState == TelephonyManager.SIM_STATE_PUK_REQUIRED) {
                 status.isLocked = true;
             }
-
-            // 4) Store if the Phone has the corresponding emergency number
-            if (phonesWithEmergencyNumber != null) {
-                for (Phone phoneWithEmergencyNumber : phonesWithEmergencyNumber) {
-                    if (phoneWithEmergencyNumber != null
-                            && phoneWithEmergencyNumber.getPhoneId() == i) {
-                        status.hasDialedEmergencyNumber = true;
-                    }
-                }
-            }
             // 7)
             if (firstPhoneWithSim == null &&
-                (phone.getSubId() != SubscriptionManager.INVALID_SIM_SLOT_INDEX)) {
+                (subId != SubscriptionManager.INVALID_SIM_SLOT_INDEX)) {
                 // The slot has a SIM card inserted (and an active subscription), but is not in
                 // service, so keep track of this Phone.
-                // Do not return because we want to make sure that none of the other Phones
-                // are in service (because that is always faster).
                 firstPhoneWithSim = phone;
-                Log.i(this, "getFirstPhoneForEmergencyCall, SIM with active sub, Phone Id:" +
+                Log.i(this, "buildEmergencySlotRanking, SIM with active sub, Phone Id:" +
                     firstPhoneWithSim.getPhoneId());
             }
         }
-        // 8)
-        if (firstPhoneWithSim == null && phoneSlotStatus.isEmpty()) {
-            if (phonesWithEmergencyNumber != null) {
-                for (Phone phoneWithEmergencyNumber : phonesWithEmergencyNumber) {
-                    if (phoneWithEmergencyNumber != null) {
-                        return phoneWithEmergencyNumber;
-                    }
-                }
-            }
-
-            // No Phones available, get the default
-            Log.i(this, "getFirstPhoneForEmergencyCall, return default phone");
-            return  mPhoneFactoryProxy.getDefaultPhone();
-        } else {
-            // 6)
-            final int defaultPhoneId = mPhoneFactoryProxy.getDefaultPhone().getPhoneId();
+        // 6)
+        // Only sort if there are enough elements to do so.
+        if (phoneSlotStatus.size() > 1) {
             final Phone firstOccupiedSlot = firstPhoneWithSim;
-            if (!phoneSlotStatus.isEmpty()) {
-                Log.i(this, "getFirstPhoneForEmergencyCall, list size: " + phoneSlotStatus.size()
+            Log.i(this, "buildEmergencySlotRanking, list size: " + phoneSlotStatus.size()
                     + " defaultPhoneId: " + defaultPhoneId + " firstOccupiedSlot: "
                     + firstOccupiedSlot);
-                // Only sort if there are enough elements to do so.
-                if (phoneSlotStatus.size() > 1) {
-                    Collections.sort(phoneSlotStatus, (o1, o2) -> {
-                        // Sort by non-absent SIM (SIM without active sub is considered absent).
-                        if (o1.isSubActiveAndSimPresent() && !o2.isSubActiveAndSimPresent()) {
+            Collections.sort(phoneSlotStatus, (o1, o2) -> {
+                // The dialed emergency number is applied when the call is placed, see 4).
+                int compare = compareEmergencySlotPreference(o1, false, o2, false);
+                if (compare != 0) {
+                    return compare;
+                }
+                // sort by number of RadioAccessFamily Capabilities.
+                compare = RadioAccessFamily.compare(o1.capabilities, o2.capabilities);
+                if (compare == 0) {
+                    if (firstOccupiedSlot != null) {
+                        // If the RAF capability is the same, choose based on whether or not any
+                        // of the slots are occupied with a SIM card (if both are, always choose
+                        // the first).
+                        if (o1.slotId == firstOccupiedSlot.getPhoneId()) {
                             return 1;
-                        }
-                        if (o2.isSubActiveAndSimPresent() && !o1.isSubActiveAndSimPresent()) {
+                        } else if (o2.slotId == firstOccupiedSlot.getPhoneId()) {
                             return -1;
                         }
-                        // First start by seeing if either of the phone slots are locked. If they
-                        // are, then sort by non-locked SIM first. If they are both locked, sort
-                        // by capability instead.
-                        if (o1.isLocked && !o2.isLocked) {
-                            return -1;
-                        }
-                        if (o2.isLocked && !o1.isLocked) {
+                    } else {
+                        // No slots have SIMs detected in them, so weight the default Phone Id
+                        // greater than the others.
+                        if (o1.slotId == defaultPhoneId) {
                             return 1;
-                        }
-                        // Prefer slots where the number is considered emergency.
-                        if (!o1.hasDialedEmergencyNumber && o2.hasDialedEmergencyNumber) {
+                        } else if (o2.slotId == defaultPhoneId) {
                             return -1;
                         }
-                        if (o1.hasDialedEmergencyNumber && !o2.hasDialedEmergencyNumber) {
-                            return 1;
-                        }
-                        // sort by number of RadioAccessFamily Capabilities.
-                        int compare = RadioAccessFamily.compare(o1.capabilities, o2.capabilities);
-                        if (compare == 0) {
-                            if (firstOccupiedSlot != null) {
-                                // If the RAF capability is the same, choose based on whether or
-                                // not any of the slots are occupied with a SIM card (if both
-                                // are, always choose the first).
-                                if (o1.slotId == firstOccupiedSlot.getPhoneId()) {
-                                    return 1;
-                                } else if (o2.slotId == firstOccupiedSlot.getPhoneId()) {
-                                    return -1;
-                                }
-                            } else {
-                                // No slots have SIMs detected in them, so weight the default
-                                // Phone Id greater than the others.
-                                if (o1.slotId == defaultPhoneId) {
-                                    return 1;
-                                } else if (o2.slotId == defaultPhoneId) {
-                                    return -1;
-                                }
-                            }
-                        }
-                        return compare;
-                    });
+                    }
                 }
-                int mostCapablePhoneId = phoneSlotStatus.get(phoneSlotStatus.size() - 1).slotId;
-                Log.i(this, "getFirstPhoneForEmergencyCall, Using Phone Id: " + mostCapablePhoneId +
-                        "with highest capability");
-                return mPhoneFactoryProxy.getPhone(mostCapablePhoneId);
-            } else {
-                // 7)
-                return firstPhoneWithSim;
-            }
+                return compare;
+            });
         }
+        return new EmergencySlotRanking(phoneSlotStatus, phones, subIds, radioAccessFamilies,
+                defaultPhoneId);
     }
 
     private boolean isAvailableForEmergencyCalls(Phone phone) {
@@ -125,8 +125,9 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
             long token = Binder.clearCallingIdentity();
             try {
                 mExecutor.execute(() -> {
-                    ValidationResult result =
-                            mSipSessionTracker.verifyOutgoingMessage(sipMessage, configVersion);
+                    // Parsed once here and shared by validation and dialog tracking.
+                    ValidationResult result = mSipSessionTracker.verifyOutgoingMessage(
+                            new ParsedSipMessage(sipMessage), configVersion);
                     result = maybeOverrideValidationForTesting(result);
                     if (!result.isValidated) {
                         notifyDelegateSendError("Outgoing - " + result.logReason,
@@ -183,7 +184,8 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
             long token = Binder.clearCallingIdentity();
             try {
                 mExecutor.execute(() -> {
-                    ValidationResult result = mSipSessionTracker.verifyIncomingMessage(message);
+                    ValidationResult result = mSipSessionTracker.verifyIncomingMessage(
+                            new ParsedSipMessage(message));
                     if (!result.isValidated) {
                         notifyAppReceiveError("Incoming - " + result.logReason, message,
                                 result.restrictedReason);
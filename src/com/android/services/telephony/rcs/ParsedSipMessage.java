@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.telephony.ims.SipMessage;
+import android.util.ArrayMap;
+import android.util.Pair;
+
+import com.android.internal.telephony.SipMessageParsingUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A read-only view of a {@link SipMessage} that parses each part of the message at most once.
+ * <p>
+ * A view is created once for each message entering {@link MessageTransportWrapper} and shared by
+ * the validators and the {@link SipSessionTracker}, so that the start line and headers are not
+ * tokenized again by every step that looks at them. Each part is parsed the first time it is
+ * requested and the result is kept for the lifetime of the view.
+ * <p>
+ * This class is not thread safe. A view is only used on the executor that handles the message.
+ */
+public final class ParsedSipMessage {
+
+    private final SipMessage mMessage;
+
+    private Boolean mIsRequest;
+    private Boolean mIsResponse;
+    private boolean mStartLineParsed;
+    private String[] mStartLineSegments;
+    private boolean mFromTagParsed;
+    private String mFromTag;
+    private boolean mToTagParsed;
+    private String mToTag;
+    private Set<String> mAcceptContactFeatureTags;
+    private ArrayMap<String, List<Pair<String, String>>> mHeaders;
+
+    public ParsedSipMessage(SipMessage message) {
+        mMessage = message;
+    }
+
+    /**
+     * @return The underlying SipMessage.
+     */
+    public SipMessage getSipMessage() {
+        return mMessage;
+    }
+
+    /**
+     * @return The start line of the SIP message.
+     */
+    public String getStartLine() {
+        return mMessage.getStartLine();
+    }
+
+    /**
+     * @return The header section of the SIP message.
+     */
+    public String getHeaderSection() {
+        return mMessage.getHeaderSection();
+    }
+
+    /**
+     * @return The Call-Id header value of the SIP message.
+     */
+    public String getCallIdParameter() {
+        return mMessage.getCallIdParameter();
+    }
+
+    /**
+     * @return The branch parameter of the top Via header of the SIP message.
+     */
+    public String getViaBranchParameter() {
+        return mMessage.getViaBranchParameter();
+    }
+
+    /**
+     * @return {@code true} if the start line is a valid SIP request start line.
+     */
+    public boolean isRequest() {
+        if (mIsRequest == null) {
+            mIsRequest = SipMessageParsingUtils.isSipRequest(mMessage.getStartLine());
+        }
+        return mIsRequest;
+    }
+
+    /**
+     * @return {@code true} if the start line is a valid SIP response start line.
+     */
+    public boolean isResponse() {
+        if (mIsResponse == null) {
+            mIsResponse = SipMessageParsingUtils.isSipResponse(mMessage.getStartLine());
+        }
+        return mIsResponse;
+    }
+
+    /**
+     * @return The three segments of the start line, or {@code null} if the start line is
+     * malformed. The returned array is shared and must not be modified.
+     */
+    public String[] getStartLineSegments() {
+        if (!mStartLineParsed) {
+            mStartLineSegments = SipMessageParsingUtils.splitStartLineAndVerify(
+                    mMessage.getStartLine());
+            mStartLineParsed = true;
+        }
+        return mStartLineSegments;
+    }
+
+    /**
+     * @return The method of a SIP request, or {@code null} if this message is not a valid SIP
+     * request.
+     */
+    public String getRequestMethod() {
+        if (!isRequest()) return null;
+        String[] segments = getStartLineSegments();
+        return segments != null ? segments[0] : null;
+    }
+
+    /**
+     * @return The tag parameter of the From header, or {@code null} if there is none.
+     */
+    public String getFromTag() {
+        if (!mFromTagParsed) {
+            mFromTag = SipMessageParsingUtils.getFromTag(mMessage.getHeaderSection());
+            mFromTagParsed = true;
+        }
+        return mFromTag;
+    }
+
+    /**
+     * @return The tag parameter of the To header, or {@code null} if there is none.
+     */
+    public String getToTag() {
+        if (!mToTagParsed) {
+            mToTag = SipMessageParsingUtils.getToTag(mMessage.getHeaderSection());
+            mToTagParsed = true;
+        }
+        return mToTag;
+    }
+
+    /**
+     * @return The feature tags contained in the Accept-Contact headers.
+     */
+    public Set<String> getAcceptContactFeatureTags() {
+        if (mAcceptContactFeatureTags == null) {
+            mAcceptContactFeatureTags = Collections.unmodifiableSet(
+                    SipMessageParsingUtils.getAcceptContactFeatureTags(
+                            mMessage.getHeaderSection()));
+        }
+        return mAcceptContactFeatureTags;
+    }
+
+    /**
+     * @param headerName The name of the header, which is matched case insensitively.
+     * @return The headers with the given name as (header name, header value) pairs, in the order
+     * they appear in the message.
+     */
+    public List<Pair<String, String>> getHeaders(String headerName) {
+        if (mHeaders == null) {
+            mHeaders = new ArrayMap<>(1);
+        }
+        String key = headerName.toLowerCase(Locale.ROOT);
+        List<Pair<String, String>> headers = mHeaders.get(key);
+        if (headers == null) {
+            headers = Collections.unmodifiableList(SipMessageParsingUtils.parseHeaders(
+                    mMessage.getHeaderSection(), false /*stopAtFirstMatch*/, key));
+            mHeaders.put(key, headers);
+        }
+        return headers;
+    }
+
+    @Override
+    public String toString() {
+        return mMessage.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        // Two views are the same if they are views of the same message, regardless of which
+        // parts have been parsed so far.
+        return mMessage.equals(((ParsedSipMessage) o).mMessage);
+    }
+
+    @Override
+    public int hashCode() {
+        return mMessage.hashCode();
+    }
+}
@@ -16,11 +16,8 @@
 
 package com.android.services.telephony.rcs;
 
-import android.telephony.ims.SipMessage;
 import android.text.TextUtils;
 
-import com.android.internal.telephony.SipMessageParsingUtils;
-
 import java.time.Instant;
 import java.util.Objects;
 import java.util.Set;
@@ -70,13 +67,10 @@ public class SipDialog {
     /**
      * @return A SipDialog instance representing the SIP request.
      */
-    public static SipDialog fromSipMessage(SipMessage m) {
-        if (!SipMessageParsingUtils.isSipRequest(m.getStartLine())) return null;
-        String fromTag = SipMessageParsingUtils.getFromTag(m.getHeaderSection());
-        Set<String> acceptContactTags = SipMessageParsingUtils.getAcceptContactFeatureTags(
-                m.getHeaderSection());
-        return new SipDialog(m.getViaBranchParameter(), m.getCallIdParameter(), fromTag,
-                acceptContactTags);
+    public static SipDialog fromSipMessage(ParsedSipMessage m) {
+        if (!m.isRequest()) return null;
+        return new SipDialog(m.getViaBranchParameter(), m.getCallIdParameter(), m.getFromTag(),
+                m.getAcceptContactFeatureTags());
     }
 
     /**
@@ -179,21 +173,20 @@ public class SipDialog {
      * {@code false} if it does not. This may match multiple Dialogs in the case of SIP INVITE
      * forking.
      */
-    public boolean isResponseAssociatedWithDialog(SipMessage m) {
+    public boolean isResponseAssociatedWithDialog(ParsedSipMessage m) {
         if (!mBranchId.equals(m.getViaBranchParameter())) return false;
         if (!mCallId.equals(m.getCallIdParameter())) return false;
-        String fromTag = SipMessageParsingUtils.getFromTag(m.getHeaderSection());
-        return mFromTag.equals(fromTag);
+        return mFromTag.equals(m.getFromTag());
     }
 
     /**
      * @return {@code true} if the SIP request is part of the SIP Dialog, {@code false} if it is
      * not.
      */
-    public boolean isRequestAssociatedWithDialog(SipMessage m) {
+    public boolean isRequestAssociatedWithDialog(ParsedSipMessage m) {
         if (!mCallId.equals(m.getCallIdParameter())) return false;
-        String fromTag = SipMessageParsingUtils.getFromTag(m.getHeaderSection());
-        String toTag = SipMessageParsingUtils.getToTag(m.getHeaderSection());
+        String fromTag = m.getFromTag();
+        String toTag = m.getToTag();
         // Requests can only be associated if both to and from tag of message are populated. The
         // dialog's to tag must also be non-null meaning we got a response from the remote.
         if (fromTag == null || toTag == null || mToTag == null) return false;
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The SIP dialogs tracked by {@link SipSessionTracker}, indexed so that handling a SIP message
+ * only looks at the dialogs it can belong to.
+ * <p>
+ * Dialogs are filed under their Call-ID. All dialogs of a SIP session, including the ones forked
+ * from the same INVITE, share the Call-ID and are told apart by their branch and From/To tags, so
+ * a message is matched against the few dialogs of its own session only. Secondary indexes give the
+ * dialogs in each state and the dialogs associated with each Accept-Contact feature tag. Closed
+ * dialogs are also kept in the order they were closed so they can be aged out.
+ * <p>
+ * {@link SipDialog#equals} depends on the To tag, which changes as the dialog progresses, so the
+ * secondary indexes compare dialogs by identity.
+ * <p>
+ * This class is not thread safe.
+ */
+final class SipDialogIndex {
+
+    /** A closed dialog and the time it was closed. */
+    private static final class ClosedDialog {
+        final SipDialog dialog;
+        final long closedElapsedRealtimeMs;
+
+        ClosedDialog(SipDialog dialog, long closedElapsedRealtimeMs) {
+            this.dialog = dialog;
+            this.closedElapsedRealtimeMs = closedElapsedRealtimeMs;
+        }
+    }
+
+    private final Map<String, List<SipDialog>> mDialogsByCallId = new LinkedHashMap<>();
+    private final Map<Integer, Set<SipDialog>> mDialogsByState = new HashMap<>();
+    private final Map<String, Set<SipDialog>> mDialogsByFeatureTag = new HashMap<>();
+    private final ArrayDeque<ClosedDialog> mClosedDialogs = new ArrayDeque<>();
+    private int mSize;
+
+    /**
+     * Start tracking a dialog.
+     * @param elapsedRealtimeMs The current time, used if the dialog is already closed.
+     */
+    void add(SipDialog dialog, long elapsedRealtimeMs) {
+        mDialogsByCallId.computeIfAbsent(dialog.getCallId(), k -> new ArrayList<>(1))
+                .add(dialog);
+        getStateSet(dialog.getState()).add(dialog);
+        for (String featureTag : dialog.getAcceptContactFeatureTags()) {
+            mDialogsByFeatureTag.computeIfAbsent(toKey(featureTag), k -> newIdentitySet())
+                    .add(dialog);
+        }
+        if (dialog.getState() == SipDialog.STATE_CLOSED) {
+            mClosedDialogs.add(new ClosedDialog(dialog, elapsedRealtimeMs));
+        }
+        mSize++;
+    }
+
+    /**
+     * Stop tracking all of the dialogs associated with a Call-ID.
+     * @return The dialogs that were removed.
+     */
+    List<SipDialog> removeCallId(String callId) {
+        List<SipDialog> dialogs = mDialogsByCallId.remove(callId);
+        if (dialogs == null) return Collections.emptyList();
+        for (SipDialog dialog : dialogs) {
+            removeFromSecondaryIndexes(dialog);
+        }
+        mSize -= dialogs.size();
+        // Stale entries in mClosedDialogs are skipped when they are aged out.
+        return dialogs;
+    }
+
+    /**
+     * Update the state index after the state of a tracked dialog has changed.
+     * @param previousState The state of the dialog before the change.
+     * @param elapsedRealtimeMs The current time, recorded if the dialog has been closed.
+     */
+    void onStateChanged(SipDialog dialog, int previousState, long elapsedRealtimeMs) {
+        int state = dialog.getState();
+        if (state == previousState) return;
+        getStateSet(previousState).remove(dialog);
+        getStateSet(state).add(dialog);
+        if (state == SipDialog.STATE_CLOSED) {
+            mClosedDialogs.add(new ClosedDialog(dialog, elapsedRealtimeMs));
+        }
+    }
+
+    /**
+     * Stop tracking the dialogs that were closed at or before the given time.
+     * @return The dialogs that were removed, oldest first.
+     */
+    List<SipDialog> removeClosedBefore(long elapsedRealtimeMs) {
+        List<SipDialog> removed = new ArrayList<>();
+        while (!mClosedDialogs.isEmpty()
+                && mClosedDialogs.peekFirst().closedElapsedRealtimeMs <= elapsedRealtimeMs) {
+            SipDialog dialog = mClosedDialogs.pollFirst().dialog;
+            List<SipDialog> callIdDialogs = mDialogsByCallId.get(dialog.getCallId());
+            // Skip dialogs that have already been removed.
+            if (callIdDialogs == null || !removeByIdentity(callIdDialogs, dialog)) continue;
+            if (callIdDialogs.isEmpty()) mDialogsByCallId.remove(dialog.getCallId());
+            removeFromSecondaryIndexes(dialog);
+            mSize--;
+            removed.add(dialog);
+        }
+        return removed;
+    }
+
+    /**
+     * @return The time the dialog that has been closed for the longest was closed, or {@code -1}
+     * if there are no closed dialogs. This may be the time of a dialog that has since been
+     * removed, until it is aged out.
+     */
+    long getOldestClosedElapsedRealtimeMillis() {
+        ClosedDialog oldest = mClosedDialogs.peekFirst();
+        return oldest != null ? oldest.closedElapsedRealtimeMs : -1;
+    }
+
+    /**
+     * @return The dialogs associated with the Call-ID, which is more than one if the request that
+     * started the SIP session forked. The returned list must not be modified.
+     */
+    List<SipDialog> getDialogs(String callId) {
+        List<SipDialog> dialogs = callId != null ? mDialogsByCallId.get(callId) : null;
+        return dialogs != null ? dialogs : Collections.emptyList();
+    }
+
+    /**
+     * @return The dialogs in the given state. The returned set must not be modified.
+     */
+    Set<SipDialog> getDialogsInState(int state) {
+        Set<SipDialog> dialogs = mDialogsByState.get(state);
+        return dialogs != null ? dialogs : Collections.emptySet();
+    }
+
+    /**
+     * @return The dialogs associated with the feature tag, which is matched case insensitively.
+     * The returned set must not be modified.
+     */
+    Set<SipDialog> getDialogsForFeatureTag(String featureTag) {
+        Set<SipDialog> dialogs = mDialogsByFeatureTag.get(toKey(featureTag));
+        return dialogs != null ? dialogs : Collections.emptySet();
+    }
+
+    /**
+     * @return All tracked dialogs, grouped by Call-ID in the order the SIP sessions were started.
+     */
+    List<SipDialog> getAll() {
+        List<SipDialog> dialogs = new ArrayList<>(mSize);
+        for (Collection<SipDialog> callIdDialogs : mDialogsByCallId.values()) {
+            dialogs.addAll(callIdDialogs);
+        }
+        return dialogs;
+    }
+
+    /**
+     * @return The number of tracked dialogs.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Stop tracking all dialogs.
+     */
+    void clear() {
+        mDialogsByCallId.clear();
+        mDialogsByState.clear();
+        mDialogsByFeatureTag.clear();
+        mClosedDialogs.clear();
+        mSize = 0;
+    }
+
+    private static boolean removeByIdentity(List<SipDialog> dialogs, SipDialog dialog) {
+        for (int i = 0; i < dialogs.size(); i++) {
+            if (dialogs.get(i) == dialog) {
+                dialogs.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeFromSecondaryIndexes(SipDialog dialog) {
+        getStateSet(dialog.getState()).remove(dialog);
+        for (String featureTag : dialog.getAcceptContactFeatureTags()) {
+            String key = toKey(featureTag);
+            Set<SipDialog> dialogs = mDialogsByFeatureTag.get(key);
+            if (dialogs == null) continue;
+            dialogs.remove(dialog);
+            if (dialogs.isEmpty()) mDialogsByFeatureTag.remove(key);
+        }
+    }
+
+    private Set<SipDialog> getStateSet(int state) {
+        return mDialogsByState.computeIfAbsent(state, k -> newIdentitySet());
+    }
+
+    private static Set<SipDialog> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static String toKey(String featureTag) {
+        return featureTag.toLowerCase(Locale.ROOT);
+    }
+}
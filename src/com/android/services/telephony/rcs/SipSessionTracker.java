@@ -16,15 +16,14 @@
 
 package com.android.services.telephony.rcs;
 
+import android.os.SystemClock;
 import android.telephony.ims.SipDialogState;
-import android.telephony.ims.SipMessage;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.LocalLog;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.internal.telephony.SipMessageParsingUtils;
 import com.android.internal.telephony.metrics.RcsStats;
 import com.android.internal.util.IndentingPrintWriter;
 
@@ -35,6 +34,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -62,21 +63,64 @@ public class SipSessionTracker {
      */
     private static final String SIP_CLOSE_DIALOG_REQUEST_METHOD = "bye";
 
+    private static final int EVENT_CREATE_DIALOG = 0;
+    private static final int EVENT_CLOSE_DIALOG = 1;
+    private static final int EVENT_DIALOG_STATE_CHANGE = 2;
+
+    /**
+     * A change to the tracked dialogs that is applied once the remote IMS stack has acknowledged
+     * the SIP message that caused it.
+     */
+    private static final class PendingEvent {
+        final int type;
+        final int direction;
+        final ParsedSipMessage message;
+
+        PendingEvent(int type, int direction, ParsedSipMessage message) {
+            this.type = type;
+            this.direction = direction;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The time after which a closed dialog is no longer tracked if {@link #cleanupSession(String)}
+     * has not been called for it, 64*T1 as per RFC 3261.
+     */
+    @VisibleForTesting
+    public static final long CLOSED_DIALOG_TIMEOUT_MS = 64 * 500;
+
     private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
-    private final ArrayList<SipDialog> mTrackedDialogs = new ArrayList<>();
-    // Operations that are pending an ack from the remote application processing the message before
+    private final SipDialogIndex mDialogIndex = new SipDialogIndex();
+    // Events that are pending an ack from the remote application processing the message before
     // they can be applied here. Maps the via header branch parameter of the message to the
-    // associated pending operation.
-    private final ArrayMap<String, Runnable> mPendingAck = new ArrayMap<>();
+    // associated pending events, in the order the messages were filtered.
+    private final ArrayMap<String, ArrayList<PendingEvent>> mPendingAck = new ArrayMap<>();
+    // The number of events in mPendingAck and the most there have been since the last clear.
+    private int mPendingAckDepth;
+    private int mMaxPendingAckDepth;
 
     private final RcsStats mRcsStats;
+    private final ScheduledExecutorService mExecutor;
+    // Whether expiring the closed dialogs has been scheduled on mExecutor.
+    private boolean mIsClosedDialogExpiryScheduled;
     int mSubId;
     private SipDialogsStateListener mSipDialogsListener;
     private String mDelegateKey;
 
     public SipSessionTracker(int subId, RcsStats rcsStats) {
+        this(subId, rcsStats, null);
+    }
+
+    /**
+     * @param executor The executor this tracker is used on. Closed dialogs are expired on it once
+     *                 {@link #CLOSED_DIALOG_TIMEOUT_MS} has passed. If {@code null}, closed
+     *                 dialogs are only expired when a SIP message is filtered or acknowledged.
+     */
+    public SipSessionTracker(int subId, RcsStats rcsStats, ScheduledExecutorService executor) {
         mSubId = subId;
         mRcsStats = rcsStats;
+        mExecutor = executor;
         mDelegateKey = String.valueOf(UUID.randomUUID());
     }
 
@@ -85,35 +129,33 @@ public class SipSessionTracker {
      * successfully acknowledged by the remote IMS stack using
      * {@link #acknowledgePendingMessage(String)} before we do any further processing.
      *
-     * @param message The Incoming SIP message.
+     * @param message The parsed view of the Incoming SIP message.
      */
-    public void filterSipMessage(int direction, SipMessage message) {
-        final Runnable r;
+    public void filterSipMessage(int direction, ParsedSipMessage message) {
+        expireClosedDialogs();
+        final int eventType;
         if (startsEarlyDialog(message)) {
-            r = getCreateDialogRunnable(direction, message);
+            eventType = EVENT_CREATE_DIALOG;
         } else if (closesDialog(message)) {
-            r = getCloseDialogRunnable(message);
-        } else if (SipMessageParsingUtils.isSipResponse(message.getStartLine())) {
-            r = getDialogStateChangeRunnable(message);
+            eventType = EVENT_CLOSE_DIALOG;
+        } else if (message.isResponse()) {
+            eventType = EVENT_DIALOG_STATE_CHANGE;
         } else {
-            r = null;
+            return;
         }
 
-        if (r != null) {
-            if (mPendingAck.containsKey(message.getViaBranchParameter())) {
-                Runnable lastEvent = mPendingAck.get(message.getViaBranchParameter());
-                logw("Adding new message when there was already a pending event for branch: "
-                        + message.getViaBranchParameter());
-                Runnable concatRunnable = () -> {
-                    // No choice but to concatenate the Runnables together.
-                    if (lastEvent != null) lastEvent.run();
-                    r.run();
-                };
-                mPendingAck.put(message.getViaBranchParameter(), concatRunnable);
-            } else {
-                mPendingAck.put(message.getViaBranchParameter(), r);
-            }
+        String branchId = message.getViaBranchParameter();
+        ArrayList<PendingEvent> events = mPendingAck.get(branchId);
+        if (events == null) {
+            events = new ArrayList<>(1);
+            mPendingAck.put(branchId, events);
+        } else {
+            logw("Adding new message when there was already a pending event for branch: "
+                    + branchId);
         }
+        events.add(new PendingEvent(eventType, direction, message));
+        mPendingAckDepth++;
+        mMaxPendingAckDepth = Math.max(mMaxPendingAckDepth, mPendingAckDepth);
     }
 
     /**
@@ -124,11 +166,14 @@ public class SipSessionTracker {
      *                    unique token.
      */
     public void acknowledgePendingMessage(String viaBranchId) {
-        Runnable r = mPendingAck.get(viaBranchId);
-        if (r != null) {
-            mPendingAck.remove(viaBranchId);
-            r.run();
+        ArrayList<PendingEvent> events = mPendingAck.remove(viaBranchId);
+        if (events != null) {
+            mPendingAckDepth -= events.size();
+            for (PendingEvent event : events) {
+                applyEvent(event);
+            }
         }
+        expireClosedDialogs();
     }
 
     /**
@@ -136,7 +181,17 @@ public class SipSessionTracker {
      * @param viaBranchId The failed message's Via header's branch parameter.
      */
     public void pendingMessageFailed(String viaBranchId) {
-        mPendingAck.remove(viaBranchId);
+        ArrayList<PendingEvent> events = mPendingAck.remove(viaBranchId);
+        if (events != null) mPendingAckDepth -= events.size();
+    }
+
+    /**
+     * @return The number of dialog events waiting for the remote IMS stack to acknowledge the
+     * associated SIP messages. A depth that keeps growing means that the remote IMS stack has
+     * stopped acknowledging messages.
+     */
+    public int getPendingAckDepth() {
+        return mPendingAckDepth;
     }
 
     /**
@@ -145,18 +200,16 @@ public class SipSessionTracker {
      * @param callId The callId of the SIP session that has been closed.
      */
     public void cleanupSession(String callId) {
-        List<SipDialog> dialogsToCleanup = mTrackedDialogs.stream()
-                .filter(d -> d.getCallId().equals(callId))
-                .collect(Collectors.toList());
+        List<SipDialog> dialogsToCleanup = mDialogIndex.removeCallId(callId);
         if (dialogsToCleanup.isEmpty()) return;
         logi("Cleanup dialogs associated with call id: " + callId);
         for (SipDialog d : dialogsToCleanup) {
             mRcsStats.onSipTransportSessionClosed(mSubId, callId, 0,
                     d.getState() == d.STATE_CLOSED);
+            // The dialog is no longer indexed, so its state can be changed directly.
             d.close();
             logi("Dialog closed: " + d);
         }
-        mTrackedDialogs.removeAll(dialogsToCleanup);
         notifySipDialogState();
     }
 
@@ -167,10 +220,8 @@ public class SipSessionTracker {
         if (featureTags.isEmpty()) return Collections.emptySet();
         Set<String> associatedIds = new ArraySet<>();
         for (String featureTag : featureTags) {
-            for (SipDialog dialog : mTrackedDialogs) {
-                boolean isAssociated = dialog.getAcceptContactFeatureTags().stream().anyMatch(
-                        d -> d.equalsIgnoreCase(featureTag));
-                if (isAssociated) associatedIds.add(dialog.getCallId());
+            for (SipDialog dialog : mDialogIndex.getDialogsForFeatureTag(featureTag)) {
+                associatedIds.add(dialog.getCallId());
             }
         }
         return associatedIds;
@@ -180,16 +231,14 @@ public class SipSessionTracker {
      * @return All dialogs that have not received a final response yet 2XX or 3XX+.
      */
     public Set<SipDialog> getEarlyDialogs() {
-        return mTrackedDialogs.stream().filter(d -> d.getState() == SipDialog.STATE_EARLY)
-                .collect(Collectors.toSet());
+        return new ArraySet<>(mDialogIndex.getDialogsInState(SipDialog.STATE_EARLY));
     }
 
     /**
      * @return All confirmed dialogs that have received a 2XX response and are active.
      */
     public Set<SipDialog> getConfirmedDialogs() {
-        return mTrackedDialogs.stream().filter(d -> d.getState() == SipDialog.STATE_CONFIRMED)
-                .collect(Collectors.toSet());
+        return new ArraySet<>(mDialogIndex.getDialogsInState(SipDialog.STATE_CONFIRMED));
     }
 
     /**
@@ -198,8 +247,17 @@ public class SipSessionTracker {
      */
     @VisibleForTesting
     public Set<SipDialog> getClosedDialogs() {
-        return mTrackedDialogs.stream().filter(d -> d.getState() == SipDialog.STATE_CLOSED)
-                .collect(Collectors.toSet());
+        return new ArraySet<>(mDialogIndex.getDialogsInState(SipDialog.STATE_CLOSED));
+    }
+
+    /**
+     * @return {@code true} if there is an early or confirmed dialog associated with the call ID.
+     */
+    public boolean hasEarlyOrConfirmedDialog(String callId) {
+        for (SipDialog d : mDialogIndex.getDialogs(callId)) {
+            if (d.getState() != SipDialog.STATE_CLOSED) return true;
+        }
+        return false;
     }
 
     /**
@@ -207,18 +265,20 @@ public class SipSessionTracker {
      * {@link #cleanupSession(String)} has not been called.
      */
     public Set<SipDialog> getTrackedDialogs() {
-        return new ArraySet<>(mTrackedDialogs);
+        return new ArraySet<>(mDialogIndex.getAll());
     }
 
     /**
      * Clears all tracked sessions.
      */
     public void clearAllSessions() {
-        for (SipDialog d : mTrackedDialogs) {
+        for (SipDialog d : mDialogIndex.getAll()) {
             mRcsStats.onSipTransportSessionClosed(mSubId, d.getCallId(), 0, false);
         }
-        mTrackedDialogs.clear();
+        mDialogIndex.clear();
         mPendingAck.clear();
+        mPendingAckDepth = 0;
+        mMaxPendingAckDepth = 0;
         notifySipDialogState();
     }
 
@@ -238,9 +298,11 @@ public class SipSessionTracker {
         pw.print("Closed Call IDs: ");
         pw.println(getClosedDialogs().stream().map(SipDialog::getCallId)
                 .collect(Collectors.toSet()));
+        pw.println("Pending acks: depth=" + mPendingAckDepth + ", branches=" + mPendingAck.size()
+                + ", max depth=" + mMaxPendingAckDepth);
         pw.println("Tracked Dialogs:");
         pw.increaseIndent();
-        for (SipDialog d : mTrackedDialogs) {
+        for (SipDialog d : mDialogIndex.getAll()) {
             pw.println(d);
         }
         pw.decreaseIndent();
@@ -254,105 +316,101 @@ public class SipSessionTracker {
      * @return {@code true}, if the SipMessage passed in should start a new SIP dialog,
      * {@code false} if it should not.
      */
-    private boolean startsEarlyDialog(SipMessage m) {
-        if (!SipMessageParsingUtils.isSipRequest(m.getStartLine())) {
-            return false;
-        }
-        String[] startLineSegments = SipMessageParsingUtils.splitStartLineAndVerify(
-                m.getStartLine());
-        if (startLineSegments == null) {
+    private boolean startsEarlyDialog(ParsedSipMessage m) {
+        String method = m.getRequestMethod();
+        if (method == null) {
             return false;
         }
         return Arrays.stream(SIP_REQUEST_DIALOG_START_METHODS)
-                .anyMatch(r -> r.equalsIgnoreCase(startLineSegments[0]));
+                .anyMatch(r -> r.equalsIgnoreCase(method));
     }
 
     /**
      * @return {@code true}, if the SipMessage passed in should close a confirmed dialog,
      * {@code false} if it should not.
      */
-    private boolean closesDialog(SipMessage m) {
-        if (!SipMessageParsingUtils.isSipRequest(m.getStartLine())) {
-            return false;
-        }
-        String[] startLineSegments = SipMessageParsingUtils.splitStartLineAndVerify(
-                m.getStartLine());
-        if (startLineSegments == null) {
-            return false;
+    private boolean closesDialog(ParsedSipMessage m) {
+        return SIP_CLOSE_DIALOG_REQUEST_METHOD.equalsIgnoreCase(m.getRequestMethod());
+    }
+
+    private void applyEvent(PendingEvent event) {
+        switch (event.type) {
+            case EVENT_CREATE_DIALOG:
+                createDialog(event.direction, event.message);
+                break;
+            case EVENT_CLOSE_DIALOG:
+                closeDialogs(event.message);
+                break;
+            case EVENT_DIALOG_STATE_CHANGE:
+                changeDialogState(event.message);
+                break;
+            default:
+                logw("applyEvent: unexpected event type: " + event.type);
         }
-        return SIP_CLOSE_DIALOG_REQUEST_METHOD.equalsIgnoreCase(startLineSegments[0]);
     }
 
-    private Runnable getCreateDialogRunnable(int direction, SipMessage m) {
-        return () -> {
-            List<SipDialog> duplicateDialogs = mTrackedDialogs.stream()
-                    .filter(d -> d.getCallId().equals(m.getCallIdParameter()))
-                    .collect(Collectors.toList());
-            if (duplicateDialogs.size() > 0) {
-                logi("trying to create a dialog for a call ID that already exists, skip: "
-                        + duplicateDialogs);
-                return;
-            }
-            SipDialog dialog = SipDialog.fromSipMessage(m);
-            String[] startLineSegments =
-                    SipMessageParsingUtils.splitStartLineAndVerify(m.getStartLine());
-            mRcsStats.earlySipTransportSession(startLineSegments[0], dialog.getCallId(),
-                    direction);
-            logi("Starting new SipDialog: " + dialog);
-            mTrackedDialogs.add(dialog);
-        };
+    private void createDialog(int direction, ParsedSipMessage m) {
+        List<SipDialog> duplicateDialogs = mDialogIndex.getDialogs(m.getCallIdParameter());
+        if (duplicateDialogs.size() > 0) {
+            logi("trying to create a dialog for a call ID that already exists, skip: "
+                    + duplicateDialogs);
+            return;
+        }
+        SipDialog dialog = SipDialog.fromSipMessage(m);
+        mRcsStats.earlySipTransportSession(m.getRequestMethod(), dialog.getCallId(),
+                direction);
+        logi("Starting new SipDialog: " + dialog);
+        mDialogIndex.add(dialog, getElapsedRealtimeMillis());
     }
 
-    private Runnable getCloseDialogRunnable(SipMessage m) {
-        return () -> {
-            List<SipDialog> dialogsToClose = mTrackedDialogs.stream()
-                    .filter(d -> d.isRequestAssociatedWithDialog(m))
-                    .collect(Collectors.toList());
-            if (dialogsToClose.isEmpty()) return;
-            logi("Closing dialogs associated with: " + m);
-            mRcsStats.onSipTransportSessionClosed(mSubId, m.getCallIdParameter(), 0, true);
-            for (SipDialog d : dialogsToClose) {
-                d.close();
-                logi("Dialog closed: " + d);
-            }
-            notifySipDialogState();
-        };
+    private void closeDialogs(ParsedSipMessage m) {
+        List<SipDialog> dialogsToClose = mDialogIndex.getDialogs(m.getCallIdParameter())
+                .stream().filter(d -> d.isRequestAssociatedWithDialog(m))
+                .collect(Collectors.toList());
+        if (dialogsToClose.isEmpty()) return;
+        logi("Closing dialogs associated with: " + m);
+        mRcsStats.onSipTransportSessionClosed(mSubId, m.getCallIdParameter(), 0, true);
+        for (SipDialog d : dialogsToClose) {
+            int previousState = d.getState();
+            d.close();
+            mDialogIndex.onStateChanged(d, previousState, getElapsedRealtimeMillis());
+            logi("Dialog closed: " + d);
+        }
+        scheduleClosedDialogExpiry();
+        notifySipDialogState();
     }
 
-    private Runnable getDialogStateChangeRunnable(SipMessage m) {
-        return () -> {
-            // This will return a dialog and all of its potential forks
-            List<SipDialog> associatedDialogs = mTrackedDialogs.stream()
-                    .filter(d -> d.isResponseAssociatedWithDialog(m))
-                    .collect(Collectors.toList());
-            if (associatedDialogs.isEmpty()) return;
-            String messageToTag = SipMessageParsingUtils.getToTag(m.getHeaderSection());
-            // If the to tag matches (or message to tag doesn't exist in dialog yet because this is
-            // the first response), then we are done.
-            SipDialog match = associatedDialogs.stream()
-                    .filter(d -> d.getToTag() == null || d.getToTag().equals(messageToTag))
-                    .findFirst().orElse(null);
-            if (match == null) {
-                // If it doesn't then we have a situation where we need to fork the existing dialog.
-                // The dialog used to fork doesn't matter, since the required params are the same,
-                // so simply use the first one in the returned list.
-                logi("Dialog forked");
-                match = associatedDialogs.get(0).forkDialog();
-                mTrackedDialogs.add(match);
-            }
-            if (match != null) {
-                logi("Dialog: " + match + " is associated with: " + m);
-                updateSipDialogState(match, m);
-                logi("Dialog state updated to " + match);
-            } else {
-                logi("No Dialogs are associated with: " + m);
-            }
-        };
+    private void changeDialogState(ParsedSipMessage m) {
+        // This will return a dialog and all of its potential forks
+        List<SipDialog> associatedDialogs = mDialogIndex.getDialogs(m.getCallIdParameter())
+                .stream().filter(d -> d.isResponseAssociatedWithDialog(m))
+                .collect(Collectors.toList());
+        if (associatedDialogs.isEmpty()) return;
+        String messageToTag = m.getToTag();
+        // If the to tag matches (or message to tag doesn't exist in dialog yet because this is
+        // the first response), then we are done.
+        SipDialog match = associatedDialogs.stream()
+                .filter(d -> d.getToTag() == null || d.getToTag().equals(messageToTag))
+                .findFirst().orElse(null);
+        if (match == null) {
+            // If it doesn't then we have a situation where we need to fork the existing dialog.
+            // The dialog used to fork doesn't matter, since the required params are the same,
+            // so simply use the first one in the returned list.
+            logi("Dialog forked");
+            match = associatedDialogs.get(0).forkDialog();
+            mDialogIndex.add(match, getElapsedRealtimeMillis());
+        }
+        if (match != null) {
+            logi("Dialog: " + match + " is associated with: " + m);
+            updateSipDialogState(match, m);
+            logi("Dialog state updated to " + match);
+        } else {
+            logi("No Dialogs are associated with: " + m);
+        }
     }
 
-    private void updateSipDialogState(SipDialog d, SipMessage m) {
-        String[] startLineSegments = SipMessageParsingUtils.splitStartLineAndVerify(
-                m.getStartLine());
+    private void updateSipDialogState(SipDialog d, ParsedSipMessage m) {
+        String[] startLineSegments = m.getStartLineSegments();
         if (startLineSegments == null) {
             logw("Could not parse start line for SIP message: " + m.getStartLine());
             return;
@@ -364,15 +422,18 @@ public class SipSessionTracker {
             logw("Could not parse status code for SIP message: " + m.getStartLine());
             return;
         }
-        String toTag = SipMessageParsingUtils.getToTag(m.getHeaderSection());
+        String toTag = m.getToTag();
         logi("updateSipDialogState: message has statusCode: " + statusCode + ", and to tag: "
                 + toTag);
         // If specifically 100 Trying, then do not do anything.
         if (statusCode <= 100) return;
+        int previousState = d.getState();
         // If 300+, then this dialog has received an error response and should move to closed state.
         if (statusCode >= 300) {
             mRcsStats.onSipTransportSessionClosed(mSubId, m.getCallIdParameter(), statusCode, true);
             d.close();
+            mDialogIndex.onStateChanged(d, previousState, getElapsedRealtimeMillis());
+            scheduleClosedDialogExpiry();
             notifySipDialogState();
             return;
         }
@@ -380,14 +441,55 @@ public class SipSessionTracker {
         if (statusCode >= 200) {
             mRcsStats.confirmedSipTransportSession(m.getCallIdParameter(), statusCode);
             d.confirm(toTag);
+            mDialogIndex.onStateChanged(d, previousState, getElapsedRealtimeMillis());
             notifySipDialogState();
             return;
         }
         // 1XX responses still require updates to dialogs.
         d.earlyResponse(toTag);
+        mDialogIndex.onStateChanged(d, previousState, getElapsedRealtimeMillis());
+        notifySipDialogState();
+    }
+
+    /**
+     * Stop tracking the dialogs that have been closed for longer than
+     * {@link #CLOSED_DIALOG_TIMEOUT_MS} without {@link #cleanupSession(String)} being called.
+     */
+    private void expireClosedDialogs() {
+        List<SipDialog> expiredDialogs = mDialogIndex.removeClosedBefore(
+                getElapsedRealtimeMillis() - CLOSED_DIALOG_TIMEOUT_MS);
+        if (expiredDialogs.isEmpty()) return;
+        for (SipDialog d : expiredDialogs) {
+            mRcsStats.onSipTransportSessionClosed(mSubId, d.getCallId(), 0, true);
+            logi("Closed dialog expired: " + d);
+        }
         notifySipDialogState();
     }
 
+    /**
+     * Schedule expiring the closed dialogs for when the oldest of them times out, so that they are
+     * not kept indefinitely if no further SIP messages are sent or received.
+     */
+    private void scheduleClosedDialogExpiry() {
+        if (mExecutor == null || mIsClosedDialogExpiryScheduled) return;
+        long oldestClosedMs = mDialogIndex.getOldestClosedElapsedRealtimeMillis();
+        if (oldestClosedMs < 0) return;
+        long delayMs = Math.max(0,
+                oldestClosedMs + CLOSED_DIALOG_TIMEOUT_MS - getElapsedRealtimeMillis());
+        mIsClosedDialogExpiryScheduled = true;
+        mExecutor.schedule(() -> {
+            mIsClosedDialogExpiryScheduled = false;
+            expireClosedDialogs();
+            // Dialogs closed since the expiry was scheduled time out later.
+            scheduleClosedDialogExpiry();
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
+    protected long getElapsedRealtimeMillis() {
+        return SystemClock.elapsedRealtime();
+    }
+
     /**
      * This is a listener to handle SipDialog state of delegate
      * @param listener {@link SipDialogsStateListener}
@@ -409,7 +511,7 @@ public class SipSessionTracker {
             return;
         }
         List<SipDialogState> dialogStates = new ArrayList<>();
-        for (SipDialog d : mTrackedDialogs) {
+        for (SipDialog d : mDialogIndex.getAll()) {
             SipDialogState dialog = new SipDialogState.Builder(d.getState()).build();
             dialogStates.add(dialog);
         }
@@ -24,12 +24,10 @@ import android.telephony.ims.FeatureTagState;
 import android.telephony.ims.SipDelegateConfiguration;
 import android.telephony.ims.SipDelegateImsConfiguration;
 import android.telephony.ims.SipDelegateManager;
-import android.telephony.ims.SipMessage;
 import android.util.LocalLog;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.internal.telephony.SipMessageParsingUtils;
 import com.android.internal.telephony.metrics.RcsStats;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.services.telephony.rcs.validator.IncomingTransportStateValidator;
@@ -156,7 +154,7 @@ public class TransportSipMessageValidator {
         mSubId = subId;
         mExecutor = executor;
         mRcsStats = RcsStats.getInstance();
-        mSipSessionTracker = new SipSessionTracker(subId, mRcsStats);
+        mSipSessionTracker = new SipSessionTracker(subId, mRcsStats, executor);
         mOutgoingTransportStateValidator = new OutgoingTransportStateValidator(mSipSessionTracker);
         mIncomingTransportStateValidator = new IncomingTransportStateValidator();
         mOutgoingMessageValidator = new MalformedSipMessageValidator().andThen(
@@ -360,11 +358,11 @@ public class TransportSipMessageValidator {
 
     /**
      * Verify a new outgoing SIP message before sending to the SipDelegate (ImsService).
-     * @param message The SIP message being verified
+     * @param message The parsed view of the SIP message being verified
      * @return The result of verifying the outgoing message.
      */
 
-    public ValidationResult verifyOutgoingMessage(SipMessage message, long configVersion) {
+    public ValidationResult verifyOutgoingMessage(ParsedSipMessage message, long configVersion) {
         if (mConfigVersion != configVersion) {
             return new ValidationResult(
                     SipDelegateManager.MESSAGE_FAILURE_REASON_STALE_IMS_CONFIGURATION,
@@ -384,10 +382,10 @@ public class TransportSipMessageValidator {
     /**
      * Verify a new incoming SIP message before sending it to the
      * DelegateConnectionMessageCallback (remote application).
-     * @param message The SipMessage to verify.
+     * @param message The parsed view of the SipMessage to verify.
      * @return The result of verifying the incoming message.
      */
-    public ValidationResult verifyIncomingMessage(SipMessage message) {
+    public ValidationResult verifyIncomingMessage(ParsedSipMessage message) {
         ValidationResult result = mIncomingMessageValidator.validate(message);
         logi("verifyIncomingMessage: " + result + ", message=" + message);
         if (result.isValidated) {
@@ -555,10 +553,9 @@ public class TransportSipMessageValidator {
                 .collect(Collectors.toSet());
     }
 
-    private void updateForMetrics(int direction, SipMessage m, ValidationResult result) {
-        String[] startLineSegments = SipMessageParsingUtils
-                .splitStartLineAndVerify(m.getStartLine());
-        if (SipMessageParsingUtils.isSipRequest(m.getStartLine())) {
+    private void updateForMetrics(int direction, ParsedSipMessage m, ValidationResult result) {
+        String[] startLineSegments = m.getStartLineSegments();
+        if (m.isRequest()) {
             if (result.isValidated) {
                 // SipMessage add to list for Metrics stats
                 mRcsStats.onSipMessageRequest(m.getCallIdParameter(), startLineSegments[0],
@@ -568,7 +565,7 @@ public class TransportSipMessageValidator {
                 mRcsStats.invalidatedMessageResult(m.getCallIdParameter(), mSubId,
                         startLineSegments[0], direction, result.restrictedReason);
             }
-        } else if (SipMessageParsingUtils.isSipResponse(m.getStartLine())) {
+        } else if (m.isResponse()) {
             int statusCode = Integer.parseInt(startLineSegments[1]);
             mRcsStats.onSipMessageResponse(mSubId, m.getCallIdParameter(), statusCode,
                     result.restrictedReason);
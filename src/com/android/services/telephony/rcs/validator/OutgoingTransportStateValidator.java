@@ -17,12 +17,11 @@
 package com.android.services.telephony.rcs.validator;
 
 import android.telephony.ims.SipDelegateManager;
-import android.telephony.ims.SipMessage;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.Log;
 
-import com.android.internal.telephony.SipMessageParsingUtils;
+import com.android.services.telephony.rcs.ParsedSipMessage;
 import com.android.services.telephony.rcs.SipDialog;
 import com.android.services.telephony.rcs.SipSessionTracker;
 import com.android.services.telephony.rcs.SipTransportController;
@@ -121,7 +120,7 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
     }
 
     @Override
-    public ValidationResult validate(SipMessage message) {
+    public ValidationResult validate(ParsedSipMessage message) {
         switch (mState) {
             case STATE_CLOSED:
                 return new ValidationResult(mReason, "outgoing transport closed.");
@@ -150,16 +149,16 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
                 + mRestrictedFeatureTags + ", denied tags: " + mDeniedTags;
     }
 
-    private ValidationResult verifyOpenMessage(SipMessage m) {
+    private ValidationResult verifyOpenMessage(ParsedSipMessage m) {
         // No need to validate responses to requests.
-        if (!SipMessageParsingUtils.isSipRequest(m.getStartLine())) {
+        if (!m.isRequest()) {
             return ValidationResult.SUCCESS;
         }
         if (mRestrictedFeatureTags == null) {
             return new ValidationResult(SipDelegateManager.MESSAGE_FAILURE_REASON_NOT_REGISTERED,
                     "no reg state from vendor");
         }
-        String[] segments = SipMessageParsingUtils.splitStartLineAndVerify(m.getStartLine());
+        String[] segments = m.getStartLineSegments();
         if (segments == null) {
             return new ValidationResult(
                     SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_START_LINE,
@@ -169,8 +168,8 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
         boolean startsDialog = Arrays.stream(SipSessionTracker.SIP_REQUEST_DIALOG_START_METHODS)
                 .anyMatch(req -> req.equals(segments[0].trim().toLowerCase(Locale.ROOT)));
         // If part of an existing dialog, then no need to validate.
-        boolean needsFeatureValidation = startsDialog && !getAllowedCallIds()
-                .contains(m.getCallIdParameter());
+        boolean needsFeatureValidation = startsDialog
+                && !mSipSessionTracker.hasEarlyOrConfirmedDialog(m.getCallIdParameter());
         if (needsFeatureValidation) {
             return validateMessageFeatureTag(m);
         }
@@ -181,9 +180,8 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
      * Compares the "Accept-Contact" header against the supported/denied feature tags and ensures
      * that there are no restricted or denied tags included.
      */
-    private ValidationResult validateMessageFeatureTag(SipMessage m) {
-        Set<String> featureTags = SipMessageParsingUtils.getAcceptContactFeatureTags(
-                m.getHeaderSection());
+    private ValidationResult validateMessageFeatureTag(ParsedSipMessage m) {
+        Set<String> featureTags = m.getAcceptContactFeatureTags();
         // Get rid of potential formatting issues first.
         featureTags = featureTags.stream().map(String::toLowerCase).map(String::trim)
                 .collect(Collectors.toSet());
@@ -216,18 +214,17 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
         return ValidationResult.SUCCESS;
     }
 
-    private ValidationResult verifyRestrictedMessage(SipMessage m) {
+    private ValidationResult verifyRestrictedMessage(ParsedSipMessage m) {
         // The validator is in the restricted state, so only in dialog requests and all responses
         // are allowed.
-        if (!SipMessageParsingUtils.isSipRequest(m.getStartLine())) {
+        if (!m.isRequest()) {
             return ValidationResult.SUCCESS;
         }
         String callId = m.getCallIdParameter();
         if (TextUtils.isEmpty(callId)) {
             return new ValidationResult(mReason, "empty call id");
         }
-        Set<String> mAllowedCallIds = getAllowedCallIds();
-        if (!mAllowedCallIds.contains(callId)) {
+        if (!mSipSessionTracker.hasEarlyOrConfirmedDialog(callId)) {
             return new ValidationResult(mReason, "call id " + callId + " is not associated with"
                     + " any active sessions");
         }
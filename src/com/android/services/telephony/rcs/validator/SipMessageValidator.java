@@ -16,7 +16,7 @@
 
 package com.android.services.telephony.rcs.validator;
 
-import android.telephony.ims.SipMessage;
+import com.android.services.telephony.rcs.ParsedSipMessage;
 
 /**
  * Validates a SipMessage and returns the result via an instance of {@link ValidationResult}.
@@ -24,11 +24,12 @@ import android.telephony.ims.SipMessage;
 public interface SipMessageValidator {
     /**
      * Validate that the SipMessage is allowed to be sent to the remote.
-     * @param message The SipMessage being validated.
+     * @param message The parsed view of the SipMessage being validated, which is shared with the
+     *                other validators so the message is only parsed once.
      * @return A {@link ValidationResult} that represents whether or not the message was validated.
      * If not validated, it also returns a reason why the SIP message was not validated.
      */
-    ValidationResult validate(SipMessage message);
+    ValidationResult validate(ParsedSipMessage message);
 
     /**
      * Compose a SipMessageValidator out of two validators, this validator running before the next
@@ -38,7 +39,7 @@ public interface SipMessageValidator {
      * @return A new SipMessageValidator composed of this validator and the next one.
      */
     default SipMessageValidator andThen(SipMessageValidator next) {
-        return (SipMessage m) -> {
+        return (ParsedSipMessage m) -> {
             ValidationResult result = validate(m);
             if (!result.isValidated) return result;
             return next.validate(m);
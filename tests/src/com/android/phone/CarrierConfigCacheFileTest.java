@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.PersistableBundle;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+@RunWith(AndroidJUnit4.class)
+public class CarrierConfigCacheFileTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "carrierconfig-test" + CarrierConfigCacheFile.FILE_SUFFIX);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        PersistableBundle config = createConfig(2500);
+
+        assertThat(CarrierConfigCacheFile.write(mFile, config)).isTrue();
+        PersistableBundle restored = CarrierConfigCacheFile.read(mFile);
+
+        assertThat(restored).isNotNull();
+        assertThat(restored.size()).isEqualTo(config.size());
+        assertThat(restored.getInt("int_key_7")).isEqualTo(7);
+        assertThat(restored.getString("string_key_8")).isEqualTo("value_8");
+        assertThat(restored.getIntArray("int_array_key_9")).isEqualTo(new int[] {9, 10});
+        assertThat(restored.getPersistableBundle("bundle_key").getBoolean("nested")).isTrue();
+    }
+
+    @Test
+    public void testRead_missingFile() {
+        assertThat(CarrierConfigCacheFile.read(mFile)).isNull();
+    }
+
+    @Test
+    public void testRead_corruptedPayload() throws Exception {
+        assertThat(CarrierConfigCacheFile.write(mFile, createConfig(10))).isTrue();
+
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            long position = CarrierConfigCacheFile.HEADER_SIZE + 4;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        }
+
+        assertThat(CarrierConfigCacheFile.read(mFile)).isNull();
+    }
+
+    @Test
+    public void testRead_truncatedFile() throws Exception {
+        assertThat(CarrierConfigCacheFile.write(mFile, createConfig(10))).isTrue();
+
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        assertThat(CarrierConfigCacheFile.read(mFile)).isNull();
+    }
+
+    private static PersistableBundle createConfig(int numKeys) {
+        PersistableBundle config = new PersistableBundle();
+        for (int i = 0; i < numKeys; i += 3) {
+            config.putInt("int_key_" + (i + 1), i + 1);
+            config.putString("string_key_" + (i + 2), "value_" + (i + 2));
+            config.putIntArray("int_array_key_" + (i + 3), new int[] {i + 3, i + 4});
+        }
+        PersistableBundle nested = new PersistableBundle();
+        nested.putBoolean("nested", true);
+        config.putPersistableBundle("bundle_key", nested);
+        return config;
+    }
+}
@@ -329,6 +329,73 @@ public class CarrierConfigLoaderTest extends TelephonyTestBase {
                 any(PersistableBundle.class), any(Runnable.class));
     }
 
+    /**
+     * Verifies that the merged config returned by #getConfigForSubId() reflects an override applied
+     * after a previous call, i.e. the cached merged config is invalidated by the override.
+     */
+    @Test
+    public void testGetConfigForSubId_reflectsOverrideAfterCachedMerge() throws Exception {
+        // Bypass case if default subId is not supported by device to reduce flakiness
+        if (!SubscriptionManager.isValidPhoneId(SubscriptionManager.getPhoneId(DEFAULT_SUB_ID))) {
+            return;
+        }
+        mFakePermissionEnforcer.grant(android.Manifest.permission.MODIFY_PHONE_STATE);
+        mContext.grantPermission(android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
+
+        PersistableBundle before = mCarrierConfigLoader.getConfigForSubId(DEFAULT_SUB_ID,
+                PLATFORM_CARRIER_CONFIG_PACKAGE);
+        assertThat(before.getInt(CARRIER_CONFIG_EXAMPLE_KEY))
+                .isNotEqualTo(CARRIER_CONFIG_EXAMPLE_VALUE);
+        // Modifying the returned copy must not leak into the cached merged config.
+        before.putInt(CARRIER_CONFIG_EXAMPLE_KEY, CARRIER_CONFIG_EXAMPLE_VALUE);
+        assertThat(mCarrierConfigLoader.getConfigForSubId(DEFAULT_SUB_ID,
+                PLATFORM_CARRIER_CONFIG_PACKAGE).getInt(CARRIER_CONFIG_EXAMPLE_KEY))
+                .isNotEqualTo(CARRIER_CONFIG_EXAMPLE_VALUE);
+
+        mCarrierConfigLoader.overrideConfig(DEFAULT_SUB_ID, getTestConfig() /*overrides*/,
+                false/*persistent*/);
+        mTestableLooper.processAllMessages();
+
+        assertThat(mCarrierConfigLoader.getConfigForSubId(DEFAULT_SUB_ID,
+                PLATFORM_CARRIER_CONFIG_PACKAGE).getInt(CARRIER_CONFIG_EXAMPLE_KEY))
+                .isEqualTo(CARRIER_CONFIG_EXAMPLE_VALUE);
+    }
+
+    /**
+     * Verifies that #getConfigSubsetForSubIdWithFeature() resolves each key against the config
+     * layers in priority order, matching the value of the fully merged config.
+     */
+    @Test
+    public void testGetConfigSubsetForSubIdWithFeature_matchesMergedConfig() throws Exception {
+        // Bypass case if default subId is not supported by device to reduce flakiness
+        if (!SubscriptionManager.isValidPhoneId(SubscriptionManager.getPhoneId(DEFAULT_SUB_ID))) {
+            return;
+        }
+        mFakePermissionEnforcer.grant(android.Manifest.permission.MODIFY_PHONE_STATE);
+        mContext.grantPermission(android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
+
+        mCarrierConfigLoader.overrideConfig(DEFAULT_SUB_ID, getTestConfig() /*overrides*/,
+                false/*persistent*/);
+        mTestableLooper.processAllMessages();
+
+        String[] keys = new String[] {CARRIER_CONFIG_EXAMPLE_KEY,
+                CarrierConfigManager.KEY_CARRIER_VOLTE_AVAILABLE_BOOL};
+        PersistableBundle subset = mCarrierConfigLoader.getConfigSubsetForSubIdWithFeature(
+                DEFAULT_SUB_ID, PLATFORM_CARRIER_CONFIG_PACKAGE, PLATFORM_CARRIER_CONFIG_FEATURE,
+                keys);
+        PersistableBundle all = mCarrierConfigLoader.getConfigForSubIdWithFeature(
+                DEFAULT_SUB_ID, PLATFORM_CARRIER_CONFIG_PACKAGE, PLATFORM_CARRIER_CONFIG_FEATURE);
+
+        assertThat(subset.getInt(CARRIER_CONFIG_EXAMPLE_KEY)).isEqualTo(
+                CARRIER_CONFIG_EXAMPLE_VALUE);
+        assertThat(subset.getBoolean(CarrierConfigManager.KEY_CARRIER_VOLTE_AVAILABLE_BOOL))
+                .isEqualTo(all.getBoolean(CarrierConfigManager.KEY_CARRIER_VOLTE_AVAILABLE_BOOL));
+        assertThat(subset.getBoolean(CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL))
+                .isEqualTo(all.getBoolean(CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL));
+        assertThat(subset.getString(CarrierConfigManager.KEY_CARRIER_CONFIG_VERSION_STRING))
+                .isEqualTo(all.getString(CarrierConfigManager.KEY_CARRIER_CONFIG_VERSION_STRING));
+    }
+
     /**
      * Verifies that IllegalArgumentException should throw when calling
      * #notifyConfigChangedForSubId() with invalid subId.
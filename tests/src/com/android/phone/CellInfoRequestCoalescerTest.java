@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.telephony.CellInfo;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class CellInfoRequestCoalescerTest {
+    private static final int PHONE_0 = 0;
+    private static final int PHONE_1 = 1;
+    private static final long FRESHNESS_WINDOW_MILLIS = 1000;
+
+    private long mNowMillis = 5000;
+    private long mFreshnessWindowMillis = FRESHNESS_WINDOW_MILLIS;
+    private final CellInfoRequestCoalescer<String> mCoalescer =
+            new CellInfoRequestCoalescer<>(() -> mNowMillis, () -> mFreshnessWindowMillis);
+
+    @Test
+    public void testConcurrentRequestsShareOneQuery() {
+        assertThat(mCoalescer.addRequest(PHONE_0, "a")).isTrue();
+        assertThat(mCoalescer.addRequest(PHONE_0, "b")).isFalse();
+        assertThat(mCoalescer.addRequest(PHONE_0, "c")).isFalse();
+        // Other phones are queried separately.
+        assertThat(mCoalescer.addRequest(PHONE_1, "d")).isTrue();
+
+        assertThat(mCoalescer.onQueryCompleted(PHONE_0, new ArrayList<>()))
+                .containsExactly("a", "b", "c").inOrder();
+        assertThat(mCoalescer.getModemQueryCount()).isEqualTo(2);
+        assertThat(mCoalescer.getCoalescedCount()).isEqualTo(2);
+
+        // The next request starts a new query.
+        assertThat(mCoalescer.addRequest(PHONE_0, "e")).isTrue();
+        assertThat(mCoalescer.onQueryCompleted(PHONE_1, null)).containsExactly("d");
+    }
+
+    @Test
+    public void testFreshResultIsServedWithinWindow() {
+        List<CellInfo> result = new ArrayList<>();
+        mCoalescer.addRequest(PHONE_0, "a");
+        mCoalescer.onQueryCompleted(PHONE_0, result);
+
+        mNowMillis += FRESHNESS_WINDOW_MILLIS - 1;
+        assertThat(mCoalescer.getFreshResult(PHONE_0)).isEqualTo(result);
+        assertThat(mCoalescer.getFreshResult(PHONE_1)).isNull();
+
+        mNowMillis++;
+        assertThat(mCoalescer.getFreshResult(PHONE_0)).isNull();
+        assertThat(mCoalescer.getServedFromCacheCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailedQueryIsNotCached() {
+        mCoalescer.addRequest(PHONE_0, "a");
+        mCoalescer.onQueryCompleted(PHONE_0, null);
+
+        assertThat(mCoalescer.getFreshResult(PHONE_0)).isNull();
+    }
+
+    @Test
+    public void testNoFreshResultWhileQueryInFlight() {
+        mCoalescer.addRequest(PHONE_0, "a");
+        mCoalescer.onQueryCompleted(PHONE_0, new ArrayList<>());
+        mCoalescer.addRequest(PHONE_0, "b");
+
+        assertThat(mCoalescer.getFreshResult(PHONE_0)).isNull();
+    }
+
+    @Test
+    public void testZeroWindowDisablesCache() {
+        mFreshnessWindowMillis = 0;
+        mCoalescer.addRequest(PHONE_0, "a");
+        mCoalescer.onQueryCompleted(PHONE_0, new ArrayList<>());
+
+        assertThat(mCoalescer.getFreshResult(PHONE_0)).isNull();
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.phone;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -24,7 +25,9 @@ import static org.mockito.Mockito.doReturn;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.HandlerThread;
 import android.os.PersistableBundle;
+import android.testing.TestableLooper;
 import android.telephony.ims.feature.MmTelFeature;
 import android.telephony.ims.feature.RcsFeature;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
@@ -33,6 +36,8 @@ import android.util.Log;
 import androidx.test.InstrumentationRegistry;
 import androidx.test.filters.SmallTest;
 
+import com.android.internal.util.IndentingPrintWriter;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +48,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.StringWriter;
 
 /**
  * Unit Test for ImsProvisioningLoader.
@@ -66,6 +72,7 @@ public class ImsProvisioningLoaderTest {
 
     private static final int STATUS_NOT_PROVISIONED = ImsProvisioningLoader.STATUS_NOT_PROVISIONED;
     private static final int STATUS_PROVISIONED = ImsProvisioningLoader.STATUS_PROVISIONED;
+    private static final int STATUS_NOT_SET = ImsProvisioningLoader.STATUS_NOT_SET;
 
     private static final int SUB_ID_1 = 111111;
     private static final int SUB_ID_2 = 222222;
@@ -75,6 +82,8 @@ public class ImsProvisioningLoaderTest {
     @Mock
     SharedPreferences mSharedPreferences;
     private ImsProvisioningLoader mImsProvisioningLoader;
+    private HandlerThread mHandlerThread;
+    private TestableLooper mTestableLooper;
 
     @Before
     public void setUp() throws Exception {
@@ -91,10 +100,63 @@ public class ImsProvisioningLoaderTest {
         if (mImsProvisioningLoader != null) {
             mImsProvisioningLoader.clear();
         }
+        if (mTestableLooper != null) {
+            mTestableLooper.destroy();
+            mHandlerThread.quit();
+        }
         deleteXml(SUB_ID_1, mContext);
         deleteXml(SUB_ID_2, mContext);
     }
 
+    @Test
+    @SmallTest
+    public void testSetProvisioningStatus_WriteBehind() throws Exception {
+        ImsProvisioningLoader loader = createWriteBehindLoader();
+
+        // A burst of changes is visible right away but is not written yet.
+        loader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_LTE, true);
+        loader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE, true);
+        loader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_IWLAN, false);
+        assertEquals(STATUS_PROVISIONED, loader.getProvisioningStatus(SUB_ID_1,
+                IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE));
+        assertEquals(STATUS_NOT_SET, mImsProvisioningLoader.getProvisioningStatus(SUB_ID_1,
+                IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE));
+
+        // All of the changes are written together once the write behind delay has passed.
+        mTestableLooper.moveTimeForward(ImsProvisioningLoader.WRITE_BEHIND_DELAY_MS);
+        mTestableLooper.processAllMessages();
+        ImsProvisioningLoader reader = new ImsProvisioningLoader(mContext);
+        assertEquals(getXmlContents(SUB_ID_1), STATUS_PROVISIONED, reader.getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_LTE));
+        assertEquals(getXmlContents(SUB_ID_1), STATUS_PROVISIONED, reader.getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE));
+        assertEquals(getXmlContents(SUB_ID_1), STATUS_NOT_PROVISIONED,
+                reader.getProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_IWLAN));
+
+        String dump = dump(loader);
+        assertTrue(dump, dump.contains("changes=3, fsyncs=1, failedWrites=0"));
+        assertTrue(dump, dump.contains("pendingSubIds=[]"));
+    }
+
+    @Test
+    @SmallTest
+    public void testFlush_WritesPendingChanges() throws Exception {
+        ImsProvisioningLoader loader = createWriteBehindLoader();
+
+        loader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_LTE, true);
+        loader.setProvisioningStatus(SUB_ID_2, IMS_FEATURE_RCS, CAPA_PRESENCE, TECH_LTE, true);
+        loader.flush();
+
+        assertEquals(STATUS_PROVISIONED, new ImsProvisioningLoader(mContext).getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_LTE));
+        assertEquals(STATUS_PROVISIONED, new ImsProvisioningLoader(mContext).getProvisioningStatus(
+                SUB_ID_2, IMS_FEATURE_RCS, CAPA_PRESENCE, TECH_LTE));
+        // The scheduled write has been cancelled, since there is nothing left to write.
+        mTestableLooper.moveTimeForward(ImsProvisioningLoader.WRITE_BEHIND_DELAY_MS);
+        mTestableLooper.processAllMessages();
+        assertTrue(dump(loader).contains("changes=2, fsyncs=2, failedWrites=0"));
+    }
+
     @Test
     @SmallTest
     public void testSetProvisioningStatus_ExistFeature() {
@@ -200,6 +262,19 @@ public class ImsProvisioningLoaderTest {
         assertEquals(getXmlContents(SUB_ID_1), getInt(false), curValue);
     }
 
+    private ImsProvisioningLoader createWriteBehindLoader() throws Exception {
+        mHandlerThread = new HandlerThread(LOG_TAG);
+        mHandlerThread.start();
+        mTestableLooper = new TestableLooper(mHandlerThread.getLooper());
+        return new ImsProvisioningLoader(mContext, mTestableLooper.getLooper());
+    }
+
+    private String dump(ImsProvisioningLoader loader) {
+        StringWriter stringWriter = new StringWriter();
+        loader.dump(new IndentingPrintWriter(stringWriter, "  "));
+        return stringWriter.toString();
+    }
+
     private boolean getBooleanFromProvisioningStatus(int subId, int imsFeature, int capa,
             int tech) {
         // Return provisioning status to bool
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.util.IndentingPrintWriter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+
+@RunWith(AndroidJUnit4.class)
+public class MainThreadRequestStatsTest {
+    private static final int CMD_FOO = 3;
+    private static final int CMD_BAR = 7;
+
+    private final MainThreadRequestStats mStats = new MainThreadRequestStats(10);
+
+    @Test
+    public void testQueueDepth() {
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestSent(CMD_BAR);
+        assertThat(mStats.getQueueDepth(CMD_FOO)).isEqualTo(2);
+        assertThat(mStats.getQueueDepth(CMD_BAR)).isEqualTo(1);
+
+        mStats.onRequestCompleted(CMD_FOO, 3);
+        assertThat(mStats.getQueueDepth(CMD_FOO)).isEqualTo(1);
+        assertThat(mStats.getCompletedCount(CMD_FOO)).isEqualTo(1);
+        assertThat(mStats.getCompletedCount(CMD_BAR)).isEqualTo(0);
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestCompleted(CMD_FOO, 0);
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestCompleted(CMD_FOO, 75);
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestCompleted(CMD_FOO, 60_000);
+
+        assertThat(mStats.getLatencyHistogramCount(CMD_FOO, MainThreadRequestStats.getBucket(0)))
+                .isEqualTo(1);
+        assertThat(mStats.getLatencyHistogramCount(CMD_FOO, MainThreadRequestStats.getBucket(75)))
+                .isEqualTo(1);
+        assertThat(mStats.getLatencyHistogramCount(CMD_FOO,
+                MainThreadRequestStats.LATENCY_BUCKET_BOUNDS_MILLIS.length)).isEqualTo(1);
+    }
+
+    @Test
+    public void testWaitAndExecutionTimes() {
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestStarted(CMD_FOO, 40);
+        mStats.onMessageHandled(CMD_FOO, 25, 40, 1000L);
+        mStats.onMessageHandled(CMD_FOO, 5, -1, 2000L);
+
+        assertThat(mStats.getMaxWaitMillis(CMD_FOO)).isEqualTo(40);
+        assertThat(mStats.getMaxExecutionMillis(CMD_FOO)).isEqualTo(25);
+        assertThat(mStats.getMaxExecutionMillis(CMD_BAR)).isEqualTo(0);
+    }
+
+    @Test
+    public void testSlowestExecutionsKeepsTopN() {
+        int executions = MainThreadRequestStats.SLOWEST_EXECUTIONS_SIZE * 3;
+        for (int i = 1; i <= executions; i++) {
+            // Interleave fast and slow executions.
+            long executionMillis = (i % 2 == 0) ? i : executions - i;
+            mStats.onMessageHandled(CMD_BAR, executionMillis, -1, i);
+        }
+
+        long[] slowest = mStats.getSlowestExecutionMillis();
+        assertThat(slowest).hasLength(MainThreadRequestStats.SLOWEST_EXECUTIONS_SIZE);
+        for (int i = 1; i < slowest.length; i++) {
+            assertThat(slowest[i]).isAtMost(slowest[i - 1]);
+        }
+        assertThat(slowest[0]).isEqualTo(executions);
+    }
+
+    @Test
+    public void testReset() {
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestSent(CMD_FOO);
+        mStats.onRequestCompleted(CMD_FOO, 3);
+        mStats.onMessageHandled(CMD_FOO, 25, -1, 1000L);
+
+        mStats.reset();
+
+        assertThat(mStats.getCompletedCount(CMD_FOO)).isEqualTo(0);
+        assertThat(mStats.getMaxExecutionMillis(CMD_FOO)).isEqualTo(0);
+        assertThat(mStats.getSlowestExecutionMillis()).isEmpty();
+        // In flight requests are still accounted.
+        assertThat(mStats.getQueueDepth(CMD_FOO)).isEqualTo(1);
+    }
+
+    @Test
+    public void testOutOfRangeCommandIsClamped() {
+        mStats.onRequestSent(100);
+        assertThat(mStats.getQueueDepth(10)).isEqualTo(1);
+    }
+
+    @Test
+    public void testDump() {
+        mStats.onRequestSent(CMD_BAR);
+        mStats.onRequestCompleted(CMD_BAR, 12);
+
+        StringWriter stringWriter = new StringWriter();
+        mStats.dump(new IndentingPrintWriter(stringWriter, "  "));
+
+        String dump = stringWriter.toString();
+        assertThat(dump).contains("cmd=" + CMD_BAR + " completed=1");
+        assertThat(dump).doesNotContain("cmd=" + CMD_FOO);
+    }
+}
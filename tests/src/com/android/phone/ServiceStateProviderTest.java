@@ -80,6 +80,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Tests for simple queries of ServiceStateProvider.
  *
@@ -618,6 +621,124 @@ public class ServiceStateProviderTest {
         assertTrue(notifyChangeCalledForSubIdAndField(oldSS, newSS, subId));
     }
 
+    @Test
+    @SmallTest
+    public void testGetChangedColumns() {
+        ServiceState oldSS = new ServiceState();
+        oldSS.setStateOutOfService();
+
+        ServiceState newSS = new ServiceState(oldSS);
+        assertEquals(ServiceStateProvider.ALL_NOTIFIED_COLUMNS,
+                ServiceStateProvider.getChangedColumns(null, newSS));
+        assertEquals(0, ServiceStateProvider.getChangedColumns(oldSS, newSS));
+
+        newSS.setVoiceRegState(ServiceState.STATE_IN_SERVICE);
+        newSS.setDataRegState(ServiceState.STATE_IN_SERVICE);
+        assertEquals(2, Integer.bitCount(ServiceStateProvider.getChangedColumns(oldSS, newSS)));
+    }
+
+    /**
+     * Replays a stream of service state updates flapping between home and roaming, interleaved
+     * with updates changing nothing but non notified fields, and verifies that only the changed
+     * columns are notified.
+     */
+    @Test
+    @SmallTest
+    public void testInsert_replayRoamingFlaps_notifiesChangedColumnsOnly() {
+        int subId = 0;
+        List<Uri> notifiedUris = new ArrayList<>();
+        MockContentResolver resolver = new MockContentResolver() {
+            @Override
+            public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+                notifiedUris.add(uri);
+            }
+        };
+        doReturn(resolver).when(mContext).getContentResolver();
+        ServiceStateProvider provider = new ServiceStateProvider();
+        ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.authority = "service-state";
+        provider.attachInfoForTesting(mContext, providerInfo);
+
+        ServiceState home = new ServiceState();
+        home.setStateOutOfService();
+        home.setVoiceRegState(ServiceState.STATE_IN_SERVICE);
+        ServiceState roaming = new ServiceState(home);
+        roaming.setVoiceRoamingType(ServiceState.ROAMING_TYPE_INTERNATIONAL);
+
+        // The first update notifies all columns.
+        provider.insert(getUriForSubscriptionId(subId),
+                ServiceStateProvider.getContentValuesForServiceState(home));
+        assertEquals(Integer.bitCount(ServiceStateProvider.ALL_NOTIFIED_COLUMNS) + 1,
+                notifiedUris.size());
+
+        int flaps = 50;
+        for (int i = 0; i < flaps; i++) {
+            notifiedUris.clear();
+            ServiceState ss = new ServiceState(i % 2 == 0 ? roaming : home);
+            provider.insert(getUriForSubscriptionId(subId),
+                    ServiceStateProvider.getContentValuesForServiceState(ss));
+            // Only the voice roaming type column and the subscription are notified.
+            assertEquals(2, notifiedUris.size());
+            assertTrue(notifiedUris.contains(getUriForSubscriptionId(subId)));
+            assertTrue(notifiedUris.contains(ServiceStateTable.getUriForSubscriptionIdAndField(
+                    subId, ServiceStateProvider.VOICE_ROAMING_TYPE)));
+
+            // Repeating the same update and changing fields which are not notified on their own
+            // do not notify at all.
+            notifiedUris.clear();
+            provider.insert(getUriForSubscriptionId(subId),
+                    ServiceStateProvider.getContentValuesForServiceState(ss));
+            ss.setCdmaSystemAndNetworkId(i, i);
+            provider.insert(getUriForSubscriptionId(subId),
+                    ServiceStateProvider.getContentValuesForServiceState(ss));
+            assertTrue(notifiedUris.isEmpty());
+        }
+    }
+
+    /**
+     * Verify that repeated queries with the same projection are served from the row cache and
+     * that inserting a new service state invalidates it.
+     */
+    @Test
+    @CoreCompatChangeRule.EnableCompatChanges({ENFORCE_LOCATION_PERMISSION_CHECK})
+    public void testQuery_sameProjection_servedFromRowCache() {
+        setTargetSdkVersion(Build.VERSION_CODES.S);
+        setCanReadPrivilegedPhoneState(false);
+        int subId = 0;
+        String[] projection = new String[]{VOICE_REG_STATE};
+        MockContentResolver resolver = new MockContentResolver();
+        doReturn(resolver).when(mContext).getContentResolver();
+        ServiceStateProvider provider = new ServiceStateProvider();
+        ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.authority = "service-state";
+        provider.attachInfoForTesting(mContext, providerInfo);
+        resolver.addProvider("service-state", provider);
+
+        ServiceState ss = new ServiceState();
+        ss.setStateOutOfService();
+        provider.insert(getUriForSubscriptionId(subId),
+                ServiceStateProvider.getContentValuesForServiceState(ss));
+        for (int i = 0; i < 3; i++) {
+            try (Cursor cursor = resolver.query(getUriForSubscriptionId(subId), projection, "",
+                    null, null)) {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(ServiceState.STATE_OUT_OF_SERVICE, cursor.getInt(0));
+            }
+        }
+        assertEquals(1, provider.getRowCacheMisses());
+        assertEquals(2, provider.getRowCacheHits());
+
+        ss.setVoiceRegState(ServiceState.STATE_IN_SERVICE);
+        provider.insert(getUriForSubscriptionId(subId),
+                ServiceStateProvider.getContentValuesForServiceState(ss));
+        try (Cursor cursor = resolver.query(getUriForSubscriptionId(subId), projection, "",
+                null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(ServiceState.STATE_IN_SERVICE, cursor.getInt(0));
+        }
+        assertEquals(2, provider.getRowCacheMisses());
+    }
+
     // Check if notifyChange was called by notifyChangeForSubId
     private boolean notifyChangeCalledForSubId(ServiceState oldSS,
             ServiceState newSS, int subId) {
@@ -35,10 +35,13 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.SimPhonebookContract;
 import android.provider.SimPhonebookContract.ElementaryFiles;
 import android.provider.SimPhonebookContract.SimRecords;
@@ -1253,6 +1256,170 @@ public final class SimPhonebookProviderTest {
         verify(mockNotifier, times(2)).notifyChange(eq(SimPhonebookContract.AUTHORITY_URI));
     }
 
+    @Test
+    public void query_simRecords_repeatedQueriesAndWrites_loadRecordsOnce() throws Exception {
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.makeAllEfsSupported(1);
+        mIccPhoneBook.addAdnRecord(1, "Initial", "8005550101");
+        IIccPhoneBook spyIccPhoneBook = mock(
+                IIccPhoneBook.class, AdditionalAnswers.delegatesTo(mIccPhoneBook));
+        TestableSimPhonebookProvider.setup(mResolver, mMockSubscriptionManager, spyIccPhoneBook);
+
+        String[] projection = {SimRecords.NAME, SimRecords.PHONE_NUMBER};
+        try (Cursor cursor = mResolver.query(
+                SimRecords.getContentUri(1, EF_ADN), projection, null, null)) {
+            assertThat(cursor).hasData(new Object[][]{{"Initial", "8005550101"}});
+        }
+        ContentValues values = new ContentValues();
+        values.put(SimRecords.NAME, "Inserted");
+        values.put(SimRecords.PHONE_NUMBER, "8005550102");
+        mResolver.insert(SimRecords.getContentUri(1, EF_ADN), values);
+        values.put(SimRecords.NAME, "Updated");
+        values.put(SimRecords.PHONE_NUMBER, "8005550103");
+        mResolver.update(SimRecords.getItemUri(1, EF_ADN, 1), values, null);
+        mResolver.delete(SimRecords.getItemUri(1, EF_ADN, 2), null);
+
+        try (Cursor cursor = mResolver.query(
+                SimRecords.getContentUri(1, EF_ADN), projection, null, null)) {
+            assertThat(cursor).hasData(new Object[][]{{"Updated", "8005550103"}});
+        }
+        verify(spyIccPhoneBook, times(1))
+                .getAdnRecordsInEfForSubscriber(eq(1), eq(IccConstants.EF_ADN));
+    }
+
+    @Test
+    public void query_simRecords_withNameAndPhoneNumberArgs_returnsMatchingRecords() {
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.makeAllEfsSupported(1);
+        mIccPhoneBook.addAdnRecord(1, "Alice", "8005550101");
+        mIccPhoneBook.addAdnRecord(1, "Bob", "8005550102");
+        mIccPhoneBook.addAdnRecord(1, "alice", "8005550103");
+
+        String[] projection = {SimRecords.RECORD_NUMBER, SimRecords.NAME};
+        Bundle nameArgs = new Bundle();
+        nameArgs.putString(SimPhonebookProvider.QUERY_ARG_NAME, "ALICE");
+        Bundle phoneNumberArgs = new Bundle();
+        phoneNumberArgs.putString(SimPhonebookProvider.QUERY_ARG_PHONE_NUMBER, "800-555-0102");
+        Bundle bothArgs = new Bundle(nameArgs);
+        bothArgs.putString(SimPhonebookProvider.QUERY_ARG_PHONE_NUMBER, "8005550103");
+        try (Cursor byName = mResolver.query(
+                SimRecords.getContentUri(1, EF_ADN), projection, nameArgs, null);
+             Cursor byPhoneNumber = mResolver.query(
+                     SimRecords.getContentUri(1, EF_ADN), projection, phoneNumberArgs, null);
+             Cursor byBoth = mResolver.query(
+                     SimRecords.getContentUri(1, EF_ADN), projection, bothArgs, null)) {
+            assertThat(byName).hasData(new Object[][]{{1, "Alice"}, {3, "alice"}});
+            assertThat(byPhoneNumber).hasData(new Object[][]{{2, "Bob"}});
+            assertThat(byBoth).hasData(new Object[][]{{3, "alice"}});
+        }
+    }
+
+    /**
+     * Restores a large phonebook with bulkInsert and checks that the records of the EF are only
+     * read once for the whole batch, unlike with one insert per row.
+     */
+    @Test
+    public void bulkInsert_adnRecords_readsRecordsOnceAndInsertsAllRows() throws Exception {
+        int count = 250;
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.setupEfWithSizes(1, IccConstants.EF_ADN, count, 30);
+        mIccPhoneBook.addRecord(1, new AdnRecord(IccConstants.EF_ADN, 2, "Existing", "8005550100"));
+        IIccPhoneBook spyIccPhoneBook = mock(
+                IIccPhoneBook.class, AdditionalAnswers.delegatesTo(mIccPhoneBook));
+        TestableSimPhonebookProvider.setup(mResolver, mMockSubscriptionManager, spyIccPhoneBook);
+
+        ContentValues[] values = new ContentValues[count - 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put(SimRecords.NAME, "Name" + i);
+            values[i].put(SimRecords.PHONE_NUMBER, String.valueOf(8005550000L + i));
+        }
+
+        int inserted = mResolver.bulkInsert(SimRecords.getContentUri(1, EF_ADN), values);
+
+        assertThat(inserted).isEqualTo(values.length);
+        List<AdnRecord> records = mIccPhoneBook.getAdnRecordsInEfForSubscriber(
+                1, IccConstants.EF_ADN);
+        assertThat(records.subList(0, 3))
+                .comparingElementsUsing(ADN_RECORD_IS_EQUAL)
+                .containsExactly(
+                        new AdnRecord(IccConstants.EF_ADN, 1, "Name0", "8005550000"),
+                        new AdnRecord(IccConstants.EF_ADN, 2, "Existing", "8005550100"),
+                        new AdnRecord(IccConstants.EF_ADN, 3, "Name1", "8005550001"));
+        assertThat(records.stream().filter(r -> !r.isEmpty()).count()).isEqualTo(count);
+        verify(spyIccPhoneBook, times(1))
+                .getAdnRecordsInEfForSubscriber(eq(1), eq(IccConstants.EF_ADN));
+        verify(spyIccPhoneBook, times(values.length)).updateAdnRecordsInEfByIndexForSubscriber(
+                eq(1), eq(IccConstants.EF_ADN), any(), anyInt(), any());
+    }
+
+    @Test
+    public void bulkInsert_notEnoughEmptyRecords_throwsAndWritesNothing() {
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.setupEfWithSizes(1, IccConstants.EF_ADN, 2, 30);
+        mIccPhoneBook.addRecord(1, IccConstants.EF_ADN, "Existing", "8005550100");
+
+        ContentValues[] values = new ContentValues[2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put(SimRecords.NAME, "Name" + i);
+            values[i].put(SimRecords.PHONE_NUMBER, "800555010" + (i + 1));
+        }
+
+        assertThrows(IllegalStateException.class,
+                () -> mResolver.bulkInsert(SimRecords.getContentUri(1, EF_ADN), values));
+        assertThat(mIccPhoneBook.getAllValidRecords()).hasSize(1);
+    }
+
+    @Test
+    public void bulkInsert_invalidRow_throwsAndWritesNothing() {
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.makeAllEfsSupported(1);
+
+        ContentValues valid = new ContentValues();
+        valid.put(SimRecords.NAME, "Valid");
+        valid.put(SimRecords.PHONE_NUMBER, "8005550101");
+        ContentValues invalid = new ContentValues();
+        invalid.put(SimRecords.NAME, "Invalid");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> mResolver.bulkInsert(SimRecords.getContentUri(1, EF_ADN),
+                        new ContentValues[]{valid, invalid}));
+        assertThat(mIccPhoneBook.getAllValidRecords()).isEmpty();
+    }
+
+    @Test
+    public void applyBatch_reportsResultPerOperation() throws Exception {
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.makeAllEfsSupported(1);
+        mIccPhoneBook.addAdnRecord(1, "Initial", "8005550101");
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(SimRecords.getContentUri(1, EF_ADN))
+                .withValue(SimRecords.NAME, "Inserted")
+                .withValue(SimRecords.PHONE_NUMBER, "8005550102")
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(SimRecords.getItemUri(1, EF_ADN, 1))
+                .withValue(SimRecords.NAME, "Updated")
+                .withValue(SimRecords.PHONE_NUMBER, "8005550103")
+                .build());
+        operations.add(ContentProviderOperation.newDelete(SimRecords.getItemUri(1, EF_ADN, 3))
+                .build());
+
+        ContentProviderResult[] results = mResolver.applyBatch(
+                SimPhonebookContract.AUTHORITY, operations);
+
+        assertThat(results).hasLength(3);
+        assertThat(results[0].uri).isEqualTo(SimRecords.getItemUri(1, EF_ADN, 2));
+        assertThat(results[1].count).isEqualTo(1);
+        assertThat(results[2].count).isEqualTo(0);
+        assertThat(mIccPhoneBook.getAllValidRecords())
+                .comparingElementsUsing(ADN_RECORD_IS_EQUAL)
+                .containsExactly(
+                        new AdnRecord(IccConstants.EF_ADN, 1, "Updated", "8005550103"),
+                        new AdnRecord(IccConstants.EF_ADN, 2, "Inserted", "8005550102"));
+    }
+
     @Test
     public void insert_callsNotifyChange() {
         // Clear invocations that happened in setUp
@@ -16,6 +16,8 @@
 
 package com.android.phone.satellite.accesscontrol;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -68,6 +70,111 @@ public class S2RangeSatelliteOnDeviceAccessControllerTest {
         testSatelliteAccessControl(false);
     }
 
+    @Test
+    public void testIsSatCommunicationAllowedAtLocations() throws Exception {
+        boolean isAllowedList = true;
+        SatS2RangeFileFormat fileFormat = createSatS2File(mFile, isAllowedList);
+
+        try (SatelliteOnDeviceAccessController accessController =
+                     SatelliteOnDeviceAccessController.create(mFile)) {
+            int s2Level = accessController.getS2Level();
+            List<SatelliteOnDeviceAccessController.LocationToken> locationTokens =
+                    new ArrayList<>();
+            int[][] prefixAndSuffixes = {
+                    {1001, 1500}, {1000, 999}, {1000, 1500}, {1000, 2000}, {1000, 2500},
+                    {1001, 2000}, {1000, 1501},
+            };
+            for (int[] prefixAndSuffix : prefixAndSuffixes) {
+                S2LatLng s2LatLng = new S2CellId(TestUtils.createCellId(
+                        fileFormat, 1, prefixAndSuffix[0], prefixAndSuffix[1])).toLatLng();
+                locationTokens.add(SatelliteOnDeviceAccessController.createLocationTokenForLatLng(
+                        s2LatLng.latDegrees(), s2LatLng.lngDegrees(), s2Level));
+            }
+
+            boolean[] results = accessController.isSatCommunicationAllowedAtLocations(
+                    locationTokens);
+            assertEquals(locationTokens.size(), results.length);
+            for (int i = 0; i < results.length; i++) {
+                assertEquals(accessController.isSatCommunicationAllowedAtLocation(
+                        locationTokens.get(i)), results[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testGetAccessSpanAtLocation() throws Exception {
+        boolean isAllowedList = true;
+        SatS2RangeFileFormat fileFormat = createSatS2File(mFile, isAllowedList);
+
+        try (SatelliteOnDeviceAccessController accessController =
+                     SatelliteOnDeviceAccessController.create(mFile)) {
+            // Inside range1.
+            SatelliteOnDeviceAccessController.AccessSpan span =
+                    accessController.getAccessSpanAtLocation(createLocationToken(
+                            accessController, TestUtils.createCellId(fileFormat, 1, 1000, 1500)));
+            assertEquals(new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1000, 1000),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2000)), span.getRange());
+            assertTrue(span.isAllowed());
+
+            // Between range1 and range2.
+            span = accessController.getAccessSpanAtLocation(createLocationToken(
+                    accessController, TestUtils.createCellId(fileFormat, 1, 1000, 2000)));
+            assertEquals(new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2000),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2001)), span.getRange());
+            assertFalse(span.isAllowed());
+
+            // Before range3, bounded by the start of its suffix table.
+            span = accessController.getAccessSpanAtLocation(createLocationToken(
+                    accessController, TestUtils.createCellId(fileFormat, 1, 1001, 500)));
+            assertEquals(new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1001, 0),
+                    TestUtils.createCellId(fileFormat, 1, 1001, 1000)), span.getRange());
+            assertFalse(span.isAllowed());
+        }
+    }
+
+    private static SatelliteOnDeviceAccessController.LocationToken createLocationToken(
+            SatelliteOnDeviceAccessController accessController, long s2CellId) {
+        S2LatLng s2LatLng = new S2CellId(s2CellId).toLatLng();
+        return SatelliteOnDeviceAccessController.createLocationTokenForLatLng(
+                s2LatLng.latDegrees(), s2LatLng.lngDegrees(), accessController.getS2Level());
+    }
+
+    @Test
+    public void testGetAccessSpansInCap() throws Exception {
+        boolean isAllowedList = false;
+        SatS2RangeFileFormat fileFormat = createSatS2File(mFile, isAllowedList);
+
+        try (S2RangeSatelliteOnDeviceAccessController accessController =
+                     S2RangeSatelliteOnDeviceAccessController.create(mFile)) {
+            // A cap of a few cells around a cell in the middle of range1.
+            long cellId = TestUtils.createCellId(fileFormat, 1, 1000, 1500);
+            S2LatLng s2LatLng = new S2CellId(cellId).toLatLng();
+            List<SatelliteOnDeviceAccessController.AccessSpan> spans =
+                    accessController.getAccessSpansInCap(
+                            s2LatLng.latDegrees(), s2LatLng.lngDegrees(), 5000);
+
+            assertFalse(spans.isEmpty());
+            boolean found = false;
+            for (int i = 0; i < spans.size(); i++) {
+                SatelliteOnDeviceAccessController.AccessSpan span = spans.get(i);
+                if (i > 0 && spans.get(i - 1).getRange().getEndCellId()
+                        == span.getRange().getStartCellId()) {
+                    // Adjacent spans are merged unless their results differ.
+                    assertTrue(spans.get(i - 1).isAllowed() != span.isAllowed());
+                }
+                if (Long.compareUnsigned(span.getRange().getStartCellId(), cellId) <= 0
+                        && Long.compareUnsigned(cellId, span.getRange().getEndCellId()) < 0) {
+                    found = true;
+                    assertFalse(span.isAllowed());
+                }
+            }
+            assertTrue(found);
+        }
+    }
+
     private void testSatelliteAccessControl(boolean isAllowedList) throws Exception {
         SatS2RangeFileFormat fileFormat = null;
         try {
@@ -540,6 +540,28 @@ public class SatelliteAccessControllerTest {
         assertTrue(mQueriedSatelliteAllowed);
     }
 
+    @Test
+    public void testKeepOnDeviceAccessControllerWarm() throws Exception {
+        when(mMockFeatureFlags.oemEnabledSatelliteFlag()).thenReturn(true);
+        mSatelliteAccessControllerUT.keepOnDeviceAccessControllerWarm = true;
+
+        // The resources are not released when the timer expires.
+        mTestableLooper.moveTimeForward(mSatelliteAccessControllerUT
+                .getKeepOnDeviceAccessControllerResourcesTimeoutMillis());
+        mTestableLooper.processAllMessages();
+        assertFalse(mSatelliteAccessControllerUT.isSatelliteOnDeviceAccessControllerReset());
+        verify(mMockSatelliteOnDeviceAccessController, never()).close();
+
+        // A new check restarts the timer while waiting for the modem.
+        mSatelliteAccessControllerUT.requestIsCommunicationAllowedForCurrentLocation(
+                SUB_ID, mSatelliteAllowedReceiver);
+        mTestableLooper.processAllMessages();
+        verify(mMockSatelliteController).requestIsSatelliteCommunicationAllowedForCurrentLocation(
+                anyInt(), mResultReceiverFromSatelliteControllerCaptor.capture());
+        assertTrue(
+                mSatelliteAccessControllerUT.isKeepOnDeviceAccessControllerResourcesTimerStarted());
+    }
+
     @Test
     public void testUpdateSatelliteConfigData() {
         // Verify the case when the configParser is not exist.
@@ -643,6 +665,7 @@ public class SatelliteAccessControllerTest {
 
     private static class TestSatelliteAccessController extends SatelliteAccessController {
         public long elapsedRealtimeNanos = 0;
+        public boolean keepOnDeviceAccessControllerWarm = false;
 
         /**
          * Create a SatelliteAccessController instance.
@@ -671,6 +694,11 @@ public class SatelliteAccessControllerTest {
             return elapsedRealtimeNanos;
         }
 
+        @Override
+        protected boolean isKeepOnDeviceAccessControllerWarm() {
+            return keepOnDeviceAccessControllerWarm;
+        }
+
         public boolean isKeepOnDeviceAccessControllerResourcesTimerStarted() {
             return hasMessages(EVENT_KEEP_ON_DEVICE_ACCESS_CONTROLLER_RESOURCES_TIMEOUT);
         }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.satellite.accesscontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.storage.s2.S2LevelRange;
+
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+
+@RunWith(AndroidJUnit4.class)
+public class SatelliteAccessResultCacheTest {
+    private static final int S2_LEVEL = 12;
+
+    private final SatelliteAccessResultCache mCache = new SatelliteAccessResultCache(2);
+
+    @Test
+    public void testLocationsInsideCachedSpanAreHits() {
+        // The first cell of a parent cell, so that the span stays within the parent cell.
+        S2CellId start = S2CellId.fromLatLng(S2LatLng.fromDegrees(37.4, -122.1))
+                .parent(S2_LEVEL - SatelliteAccessResultCache.PARENT_CELL_LEVEL_OFFSET)
+                .childBegin(S2_LEVEL);
+        S2CellId end = advance(start, 10);
+        SatelliteOnDeviceAccessController.AccessSpan span =
+                new SatelliteOnDeviceAccessController.AccessSpan(
+                        new S2LevelRange(start.id(), end.id()), true);
+
+        assertNull(mCache.get(createLocationToken(start)));
+        mCache.put(createLocationToken(start), span, true);
+
+        assertEquals(Boolean.TRUE, mCache.get(createLocationToken(start)));
+        assertEquals(Boolean.TRUE, mCache.get(createLocationToken(advance(start, 9))));
+        // The end of the span is exclusive.
+        assertNull(mCache.get(createLocationToken(end)));
+        assertEquals(2, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void testUnknownSpanIsCachedForLocationOnly() {
+        S2CellId cellId = S2CellId.fromLatLng(S2LatLng.fromDegrees(-33.9, 151.2)).parent(S2_LEVEL);
+        mCache.put(createLocationToken(cellId), null, false);
+
+        assertEquals(Boolean.FALSE, mCache.get(createLocationToken(cellId)));
+        assertNull(mCache.get(createLocationToken(cellId.next())));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedParentCellIsEvicted() {
+        S2CellId cellId0 = S2CellId.fromLatLng(S2LatLng.fromDegrees(10, 10)).parent(S2_LEVEL);
+        S2CellId cellId1 = S2CellId.fromLatLng(S2LatLng.fromDegrees(20, 20)).parent(S2_LEVEL);
+        S2CellId cellId2 = S2CellId.fromLatLng(S2LatLng.fromDegrees(30, 30)).parent(S2_LEVEL);
+        mCache.put(createLocationToken(cellId0), null, true);
+        mCache.put(createLocationToken(cellId1), null, true);
+        // Use cellId0 so that cellId1 is evicted next.
+        mCache.get(createLocationToken(cellId0));
+        mCache.put(createLocationToken(cellId2), null, true);
+
+        assertEquals(1, mCache.getEvictionCount());
+        assertEquals(Boolean.TRUE, mCache.get(createLocationToken(cellId0)));
+        assertNull(mCache.get(createLocationToken(cellId1)));
+        assertEquals(Boolean.TRUE, mCache.get(createLocationToken(cellId2)));
+    }
+
+    @Test
+    public void testClearAndDump() {
+        S2CellId cellId = S2CellId.fromLatLng(S2LatLng.fromDegrees(10, 10)).parent(S2_LEVEL);
+        mCache.put(createLocationToken(cellId), null, true);
+        mCache.clear();
+        assertNull(mCache.get(createLocationToken(cellId)));
+
+        StringWriter stringWriter = new StringWriter();
+        mCache.dump(new IndentingPrintWriter(stringWriter, "  "));
+        assertTrue(stringWriter.toString().contains("hits=0 misses=1 evictions=0"));
+    }
+
+    private static S2CellId advance(S2CellId cellId, int steps) {
+        for (int i = 0; i < steps; i++) {
+            cellId = cellId.next();
+        }
+        return cellId;
+    }
+
+    private static SatelliteOnDeviceAccessController.LocationToken createLocationToken(
+            S2CellId cellId) {
+        S2LatLng s2LatLng = cellId.toLatLng();
+        return SatelliteOnDeviceAccessController.createLocationTokenForLatLng(
+                s2LatLng.latDegrees(), s2LatLng.lngDegrees(), S2_LEVEL);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.satellite.accesscontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.util.IndentingPrintWriter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class SatelliteLookupLatencyStatsTest {
+    private final SatelliteLookupLatencyStats mStats = new SatelliteLookupLatencyStats();
+
+    @Test
+    public void testPercentilesPerKind() {
+        for (int i = 1; i <= 100; i++) {
+            mStats.onLookup(false /* cold */, i);
+        }
+        mStats.onLookup(true /* cold */, 5000);
+
+        assertEquals(100, mStats.getCount(false));
+        assertEquals(1, mStats.getCount(true));
+        assertEquals(50, mStats.getPercentileNanos(false, 50));
+        assertEquals(99, mStats.getPercentileNanos(false, 99));
+        assertEquals(5000, mStats.getPercentileNanos(true, 50));
+    }
+
+    @Test
+    public void testOnlyRecentSamplesAreKept() {
+        for (int i = 0; i < SatelliteLookupLatencyStats.MAX_SAMPLES; i++) {
+            mStats.onLookup(false /* cold */, 1000);
+        }
+        for (int i = 0; i < SatelliteLookupLatencyStats.MAX_SAMPLES; i++) {
+            mStats.onLookup(false /* cold */, 1);
+        }
+
+        assertEquals(2 * SatelliteLookupLatencyStats.MAX_SAMPLES, mStats.getCount(false));
+        assertEquals(1, mStats.getPercentileNanos(false, 99));
+    }
+
+    @Test
+    public void testDump() {
+        mStats.onLookup(true /* cold */, TimeUnit.MILLISECONDS.toNanos(3));
+
+        StringWriter stringWriter = new StringWriter();
+        mStats.dump(new IndentingPrintWriter(stringWriter, "  "));
+
+        String dump = stringWriter.toString();
+        assertTrue(dump.contains("cold: count=1 p50Micros=3000 p90Micros=3000 p99Micros=3000"));
+        assertTrue(dump.contains("warm: count=0 p50Micros=-1"));
+    }
+}
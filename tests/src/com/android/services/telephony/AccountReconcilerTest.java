@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.telecom.PhoneAccountHandle;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+public class AccountReconcilerTest {
+
+    private static final ComponentName TEST_COMPONENT_NAME = new ComponentName(
+            "com.android.phone", "com.android.services.telephony.TelephonyConnectionService");
+    private static final PhoneAccountHandle HANDLE_1 =
+            new PhoneAccountHandle(TEST_COMPONENT_NAME, "1");
+    private static final PhoneAccountHandle HANDLE_2 =
+            new PhoneAccountHandle(TEST_COMPONENT_NAME, "2");
+    private static final PhoneAccountHandle EMERGENCY_HANDLE =
+            new PhoneAccountHandle(TEST_COMPONENT_NAME, "E");
+
+    /** A desired account for the given subscription. */
+    private static final class FakeDesired {
+        final PhoneAccountHandle handle;
+        final int subId;
+
+        FakeDesired(PhoneAccountHandle handle, int subId) {
+            this.handle = handle;
+            this.subId = subId;
+        }
+    }
+
+    /** An entry which, like an AccountEntry, is bound to the subscription it was created for. */
+    private static final class FakeEntry implements AccountReconciler.Entry<FakeDesired> {
+        final PhoneAccountHandle handle;
+        final int subId;
+        // The binder calls saved by each refresh, which drops once a failed callback
+        // registration is retried successfully.
+        int refreshSavings;
+        int refreshCount;
+        boolean tornDown;
+
+        FakeEntry(FakeDesired desired) {
+            handle = desired.handle;
+            subId = desired.subId;
+        }
+
+        @Override
+        public boolean matches(FakeDesired desired) {
+            return subId == desired.subId;
+        }
+
+        @Override
+        public int refresh() {
+            refreshCount++;
+            return refreshSavings;
+        }
+
+        @Override
+        public void teardown() {
+            tornDown = true;
+        }
+
+        @Override
+        public PhoneAccountHandle getPhoneAccountHandle() {
+            return handle;
+        }
+    }
+
+    private final List<FakeEntry> mCreatedEntries = new ArrayList<>();
+
+    @Test
+    public void testAddsEntriesForNewAccounts() {
+        AccountReconciler.Result<FakeEntry> result = reconcile(new LinkedHashMap<>(),
+                desired(new FakeDesired(HANDLE_1, 1), new FakeDesired(HANDLE_2, 2)));
+
+        assertEquals(2, result.added);
+        assertEquals(0, result.kept);
+        assertEquals(0, result.removed);
+        assertEquals(2, mCreatedEntries.size());
+        assertSame(mCreatedEntries.get(0), result.accounts.get(HANDLE_1));
+        assertSame(mCreatedEntries.get(1), result.accounts.get(HANDLE_2));
+    }
+
+    @Test
+    public void testKeepsMatchingEntries() {
+        Map<PhoneAccountHandle, FakeEntry> current = reconcile(new LinkedHashMap<>(),
+                desired(new FakeDesired(HANDLE_1, 1))).accounts;
+        FakeEntry entry = current.get(HANDLE_1);
+        mCreatedEntries.clear();
+
+        AccountReconciler.Result<FakeEntry> result =
+                reconcile(current, desired(new FakeDesired(HANDLE_1, 1)));
+
+        assertEquals(1, result.kept);
+        assertEquals(0, result.added);
+        assertEquals(0, result.removed);
+        assertTrue(mCreatedEntries.isEmpty());
+        assertSame(entry, result.accounts.get(HANDLE_1));
+        assertFalse(entry.tornDown);
+        assertEquals(1, entry.refreshCount);
+    }
+
+    @Test
+    public void testRemovesEntriesNoLongerWanted() {
+        Map<PhoneAccountHandle, FakeEntry> current = reconcile(new LinkedHashMap<>(),
+                desired(new FakeDesired(HANDLE_1, 1), new FakeDesired(HANDLE_2, 2))).accounts;
+        FakeEntry removedEntry = current.get(HANDLE_2);
+
+        AccountReconciler.Result<FakeEntry> result =
+                reconcile(current, desired(new FakeDesired(HANDLE_1, 1)));
+
+        assertEquals(1, result.kept);
+        assertEquals(1, result.removed);
+        assertTrue(removedEntry.tornDown);
+        assertEquals(1, result.accounts.size());
+        assertFalse(result.accounts.containsKey(HANDLE_2));
+        // The map of the current entries is left alone.
+        assertEquals(2, current.size());
+    }
+
+    @Test
+    public void testRecreatesEntryWhenSubscriptionChanges() {
+        // The emergency account keeps its handle when the phone's subscription changes.
+        Map<PhoneAccountHandle, FakeEntry> current = reconcile(new LinkedHashMap<>(),
+                desired(new FakeDesired(EMERGENCY_HANDLE, -1))).accounts;
+        FakeEntry staleEntry = current.get(EMERGENCY_HANDLE);
+        mCreatedEntries.clear();
+
+        AccountReconciler.Result<FakeEntry> result =
+                reconcile(current, desired(new FakeDesired(EMERGENCY_HANDLE, 1)));
+
+        assertEquals(0, result.kept);
+        assertEquals(1, result.added);
+        assertEquals(1, result.removed);
+        assertTrue(staleEntry.tornDown);
+        assertEquals(0, staleEntry.refreshCount);
+        FakeEntry newEntry = result.accounts.get(EMERGENCY_HANDLE);
+        assertNotSame(staleEntry, newEntry);
+        assertEquals(1, newEntry.subId);
+    }
+
+    @Test
+    public void testRefreshesKeptEntriesOnEveryReconcile() {
+        Map<PhoneAccountHandle, FakeEntry> current = reconcile(new LinkedHashMap<>(),
+                desired(new FakeDesired(HANDLE_1, 1))).accounts;
+        FakeEntry entry = current.get(HANDLE_1);
+
+        // The first refresh retries a callback registration which failed before.
+        entry.refreshSavings = 1;
+        AccountReconciler.Result<FakeEntry> result =
+                reconcile(current, desired(new FakeDesired(HANDLE_1, 1)));
+        assertEquals(1, result.binderCallsAvoided);
+
+        entry.refreshSavings = 5;
+        result = reconcile(result.accounts, desired(new FakeDesired(HANDLE_1, 1)));
+        assertEquals(5, result.binderCallsAvoided);
+        assertEquals(2, entry.refreshCount);
+        assertSame(entry, result.accounts.get(HANDLE_1));
+    }
+
+    @Test
+    public void testTearsDownBeforeCreating() {
+        Map<PhoneAccountHandle, FakeEntry> current = reconcile(new LinkedHashMap<>(),
+                desired(new FakeDesired(HANDLE_1, 1))).accounts;
+        FakeEntry oldEntry = current.get(HANDLE_1);
+
+        AccountReconciler.reconcile(current, desired(new FakeDesired(HANDLE_1, 2)), d -> {
+            assertTrue(oldEntry.tornDown);
+            return new FakeEntry(d);
+        });
+    }
+
+    private AccountReconciler.Result<FakeEntry> reconcile(
+            Map<PhoneAccountHandle, FakeEntry> current,
+            Map<PhoneAccountHandle, FakeDesired> desired) {
+        return AccountReconciler.reconcile(current, desired, d -> {
+            FakeEntry entry = new FakeEntry(d);
+            mCreatedEntries.add(entry);
+            return entry;
+        });
+    }
+
+    private static Map<PhoneAccountHandle, FakeDesired> desired(FakeDesired... accounts) {
+        Map<PhoneAccountHandle, FakeDesired> desired = new LinkedHashMap<>();
+        for (FakeDesired account : accounts) {
+            desired.put(account.handle, account);
+        }
+        return desired;
+    }
+}
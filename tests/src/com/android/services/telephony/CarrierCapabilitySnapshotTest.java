@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.SubscriptionManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CarrierCapabilitySnapshotTest {
+
+    private static final int TEST_SUB_ID = 1;
+
+    @Test
+    public void testNullCarrierConfig() {
+        CarrierCapabilitySnapshot snapshot = new CarrierCapabilitySnapshot(TEST_SUB_ID, null);
+
+        assertEquals(TEST_SUB_ID, snapshot.getSubId());
+        assertFalse(snapshot.isMergeCallSupported());
+        assertFalse(snapshot.isUsingSimCallManager());
+        assertEquals(0, snapshot.getInstantLetteringMaxLength());
+        assertNull(snapshot.getInstantLetteringEncoding());
+        // The subscription is assumed voice capable if the carrier config is not available.
+        assertTrue(snapshot.isVoiceCapable());
+    }
+
+    @Test
+    public void testValuesReadFromCarrierConfig() {
+        PersistableBundle b = new PersistableBundle();
+        b.putBoolean(CarrierConfigManager.KEY_SUPPORT_CONFERENCE_CALL_BOOL, true);
+        b.putBoolean(CarrierConfigManager.KEY_SUPPORT_IMS_CONFERENCE_CALL_BOOL, false);
+        b.putBoolean(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_AVAILABLE_BOOL, true);
+        b.putInt(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_LENGTH_LIMIT_INT, 64);
+        b.putString(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_ENCODING_STRING, "UTF-8");
+        b.putString(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING, "com.test/.Cm");
+        b.putIntArray(CarrierConfigManager.KEY_CELLULAR_SERVICE_CAPABILITIES_INT_ARRAY,
+                new int[] {SubscriptionManager.SERVICE_CAPABILITY_VOICE});
+
+        CarrierCapabilitySnapshot snapshot = new CarrierCapabilitySnapshot(TEST_SUB_ID, b);
+
+        assertTrue(snapshot.isMergeCallSupported());
+        assertFalse(snapshot.isMergeImsCallSupported());
+        assertTrue(snapshot.isInstantLetteringSupported());
+        assertEquals(64, snapshot.getInstantLetteringMaxLength());
+        assertEquals("UTF-8", snapshot.getInstantLetteringEncoding());
+        assertTrue(snapshot.isUsingSimCallManager());
+        assertTrue(snapshot.isVoiceCapable());
+    }
+
+    @Test
+    public void testNotVoiceCapable() {
+        PersistableBundle b = new PersistableBundle();
+        b.putIntArray(CarrierConfigManager.KEY_CELLULAR_SERVICE_CAPABILITIES_INT_ARRAY,
+                new int[] {SubscriptionManager.SERVICE_CAPABILITY_SMS});
+
+        CarrierCapabilitySnapshot snapshot = new CarrierCapabilitySnapshot(TEST_SUB_ID, b);
+
+        assertFalse(snapshot.isVoiceCapable());
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.services.telephony;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
@@ -96,6 +97,7 @@ public class ImsConferenceControllerTest {
 
         mTestTelephonyConnectionA.setActive();
         mTestTelephonyConnectionB.setTelephonyConnectionOnHold();
+        mControllerTest.processPendingConferenceableRecalculation();
 
         assertTrue(mTestTelephonyConnectionA.getConferenceables()
                 .contains(mTestTelephonyConnectionB));
@@ -108,10 +110,42 @@ public class ImsConferenceControllerTest {
 
         // call A removed
         mControllerTest.remove(mTestTelephonyConnectionA);
+        mControllerTest.processPendingConferenceableRecalculation();
         assertFalse(mTestTelephonyConnectionB.getConferenceables()
                 .contains(mTestTelephonyConnectionA));
     }
 
+    /**
+     * Behavior: add telephony connections B and A to conference controller and change their state
+     *           several times before the looper runs, then recalculate again without changes
+     * Expected: the events are coalesced into one recalculation;
+     *           the conferenceables are only set again when they change
+     */
+    @Test
+    @SmallTest
+    public void testConferenceableRecalculationCoalesced() {
+        mControllerTest.add(mTestTelephonyConnectionB);
+        mControllerTest.add(mTestTelephonyConnectionA);
+        mTestTelephonyConnectionA.setActive();
+        mTestTelephonyConnectionB.setActive();
+        mTestTelephonyConnectionB.setTelephonyConnectionOnHold();
+        assertEquals(0, mControllerTest.getConferenceableRecalculationCount());
+
+        mControllerTest.processPendingConferenceableRecalculation();
+        assertEquals(1, mControllerTest.getConferenceableRecalculationCount());
+        assertEquals(2, mControllerTest.getConferenceablesUpdatedCount());
+        assertTrue(mTestTelephonyConnectionA.getConferenceables()
+                .contains(mTestTelephonyConnectionB));
+        assertTrue(mTestTelephonyConnectionB.getConferenceables()
+                .contains(mTestTelephonyConnectionA));
+
+        // A state change which doesn't affect the conferenceables doesn't set them again.
+        mTestTelephonyConnectionA.setTelephonyConnectionOnHold();
+        mControllerTest.processPendingConferenceableRecalculation();
+        assertEquals(2, mControllerTest.getConferenceableRecalculationCount());
+        assertEquals(2, mControllerTest.getConferenceablesUpdatedCount());
+    }
+
     /**
      * Behavior: add telephony connections A and B to conference controller;
      * Assumption: Connection A and B have different PhoneAccountHandles, belong to different subs;
@@ -126,6 +160,7 @@ public class ImsConferenceControllerTest {
 
         mTestTelephonyConnectionA.setActive();
         mTestTelephonyConnectionB.setTelephonyConnectionOnHold();
+        mControllerTest.processPendingConferenceableRecalculation();
 
         assertFalse(mTestTelephonyConnectionA.getConferenceables()
                 .contains(mTestTelephonyConnectionB));
@@ -51,6 +51,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -222,6 +223,65 @@ public class ImsConferenceTest {
                 eq(imsConference));
     }
 
+    /**
+     * Verifies that a storm of full-state CEPs for a large conference leaves the unchanged
+     * participants untouched, while the changes and removals in the CEPs are still applied.
+     */
+    @Test
+    @SmallTest
+    public void testFullStateCepStorm() {
+        ImsConference imsConference = new ImsConference(mMockTelecomAccountRegistry,
+                mMockTelephonyConnectionServiceProxy, mConferenceHost,
+                null /* phoneAccountHandle */, () -> true /* featureFlagProxy */,
+                new ImsConference.CarrierConfiguration.Builder().build());
+
+        final int participantCount = 50;
+        List<ConferenceParticipant> participants = new ArrayList<>(participantCount);
+        for (int i = 0; i < participantCount; i++) {
+            participants.add(new ConferenceParticipant(
+                    Uri.parse("tel:65055512" + i),
+                    "A",
+                    Uri.parse("sip:65055512" + i + "@testims.com"),
+                    Connection.STATE_ACTIVE,
+                    Call.Details.DIRECTION_OUTGOING));
+        }
+        imsConference.handleConferenceParticipantsUpdate(mConferenceHost, participants);
+        assertEquals(participantCount, imsConference.getNumberOfParticipants());
+        assertEquals(0, imsConference.getUnchangedParticipantUpdateCount());
+        ArgumentCaptor<Connection> captor = ArgumentCaptor.forClass(Connection.class);
+        verify(mMockTelephonyConnectionServiceProxy, times(participantCount))
+                .addExistingConnection(any(PhoneAccountHandle.class), captor.capture(),
+                        eq(imsConference));
+        List<Connection> connections = captor.getAllValues();
+
+        // Repeating the same CEP doesn't touch any participant.
+        final int repeatCount = 100;
+        for (int i = 0; i < repeatCount; i++) {
+            imsConference.handleConferenceParticipantsUpdate(mConferenceHost, participants);
+        }
+        assertEquals(participantCount, imsConference.getNumberOfParticipants());
+        assertEquals(repeatCount * participantCount,
+                imsConference.getUnchangedParticipantUpdateCount());
+
+        // Put the first participant on hold and drop the last one.
+        List<ConferenceParticipant> changedParticipants =
+                new ArrayList<>(participants.subList(1, participantCount - 1));
+        changedParticipants.add(0, new ConferenceParticipant(
+                Uri.parse("tel:650555120"),
+                "A",
+                Uri.parse("sip:650555120@testims.com"),
+                Connection.STATE_HOLDING,
+                Call.Details.DIRECTION_OUTGOING));
+        imsConference.handleConferenceParticipantsUpdate(mConferenceHost, changedParticipants);
+        assertEquals(participantCount - 1, imsConference.getNumberOfParticipants());
+        assertEquals(repeatCount * participantCount + participantCount - 2,
+                imsConference.getUnchangedParticipantUpdateCount());
+        assertEquals(Connection.STATE_HOLDING, connections.get(0).getState());
+        assertEquals(Connection.STATE_ACTIVE, connections.get(1).getState());
+        assertEquals(Connection.STATE_DISCONNECTED,
+                connections.get(participantCount - 1).getState());
+    }
+
     /**
      * Tests CEPs with disconnected participants present with disconnected state.
      */
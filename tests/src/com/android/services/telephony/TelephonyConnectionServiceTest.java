@@ -697,6 +697,84 @@ public class TelephonyConnectionServiceTest extends TelephonyTestBase {
         assertEquals(slot1Phone, resultPhone);
     }
 
+    /**
+     * Prerequisites:
+     * - MSIM Device, two slots with SIMs inserted
+     * - Slot 1 is LTE capable, Slot 0 is GSM capable
+     *
+     * Result: getFirstPhoneForEmergencyCall reuses the emergency slot ranking until the SIM state
+     * or the radio capabilities of a slot change.
+     */
+    @Test
+    @SmallTest
+    public void testEmergencySlotRankingReused() {
+        Phone slot0Phone = makeTestPhone(SLOT_0_PHONE_ID, ServiceState.STATE_OUT_OF_SERVICE,
+                false /*isEmergencyOnly*/);
+        Phone slot1Phone = makeTestPhone(SLOT_1_PHONE_ID, ServiceState.STATE_OUT_OF_SERVICE,
+                false /*isEmergencyOnly*/);
+        setDefaultPhone(slot0Phone);
+        setupDeviceConfig(slot0Phone, slot1Phone, SLOT_0_PHONE_ID);
+        setPhoneSlotState(SLOT_0_PHONE_ID, TelephonyManager.SIM_STATE_READY);
+        setPhoneSlotState(SLOT_1_PHONE_ID, TelephonyManager.SIM_STATE_READY);
+        setPhoneRadioAccessFamily(slot0Phone, RadioAccessFamily.RAF_GSM);
+        setPhoneRadioAccessFamily(slot1Phone, RadioAccessFamily.RAF_LTE);
+
+        assertEquals(slot1Phone, mTestConnectionService.getFirstPhoneForEmergencyCall());
+        assertEquals(slot1Phone, mTestConnectionService.getFirstPhoneForEmergencyCall());
+        assertEquals(1, mTestConnectionService.getEmergencySlotRankingBuildCount());
+        verify(mSubscriptionManagerProxy).getSimStateForSlotIdx(SLOT_1_PHONE_ID);
+
+        // Slot 1 is locked, which is reported by a SIM state change.
+        setPhoneSlotState(SLOT_1_PHONE_ID, TelephonyManager.SIM_STATE_PIN_REQUIRED);
+        mTestConnectionService.updateEmergencySlotRanking();
+
+        assertEquals(slot0Phone, mTestConnectionService.getFirstPhoneForEmergencyCall());
+        assertEquals(2, mTestConnectionService.getEmergencySlotRankingBuildCount());
+
+        // A change of the radio access family is detected when the ranking is used.
+        setPhoneSlotState(SLOT_1_PHONE_ID, TelephonyManager.SIM_STATE_READY);
+        mTestConnectionService.updateEmergencySlotRanking();
+        setPhoneRadioAccessFamily(slot0Phone,
+                RadioAccessFamily.RAF_GSM | RadioAccessFamily.RAF_LTE);
+
+        assertEquals(slot0Phone, mTestConnectionService.getFirstPhoneForEmergencyCall());
+        assertEquals(4, mTestConnectionService.getEmergencySlotRankingBuildCount());
+    }
+
+    /**
+     * Prerequisites:
+     * - MSIM Device, no SIMs inserted
+     * - Both slots have the same capability
+     * - The default Phone changes after the emergency slot ranking was built
+     *
+     * Result: the ranking is rebuilt and getFirstPhoneForEmergencyCall returns the new default
+     * Phone.
+     */
+    @Test
+    @SmallTest
+    public void testEmergencySlotRankingRebuiltForDefaultPhoneChange() {
+        Phone slot0Phone = makeTestPhone(SLOT_0_PHONE_ID, ServiceState.STATE_OUT_OF_SERVICE,
+                false /*isEmergencyOnly*/);
+        Phone slot1Phone = makeTestPhone(SLOT_1_PHONE_ID, ServiceState.STATE_OUT_OF_SERVICE,
+                false /*isEmergencyOnly*/);
+        setDefaultPhone(slot0Phone);
+        setupDeviceConfig(slot0Phone, slot1Phone, SLOT_0_PHONE_ID);
+        setPhoneSlotState(SLOT_0_PHONE_ID, TelephonyManager.SIM_STATE_ABSENT);
+        setPhoneSlotState(SLOT_1_PHONE_ID, TelephonyManager.SIM_STATE_ABSENT);
+        when(slot0Phone.getSubId()).thenReturn(SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+        when(slot1Phone.getSubId()).thenReturn(SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+        setPhoneRadioAccessFamily(slot0Phone, RadioAccessFamily.RAF_GSM);
+        setPhoneRadioAccessFamily(slot1Phone, RadioAccessFamily.RAF_GSM);
+
+        assertEquals(slot0Phone, mTestConnectionService.getFirstPhoneForEmergencyCall());
+        assertEquals(1, mTestConnectionService.getEmergencySlotRankingBuildCount());
+
+        setDefaultPhone(slot1Phone);
+
+        assertEquals(slot1Phone, mTestConnectionService.getFirstPhoneForEmergencyCall());
+        assertEquals(2, mTestConnectionService.getEmergencySlotRankingBuildCount());
+    }
+
     /**
      * Prerequisites:
      * - MSIM Device, two slots with SIMs inserted
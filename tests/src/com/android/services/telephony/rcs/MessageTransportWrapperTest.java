@@ -210,7 +210,7 @@ public class MessageTransportWrapperTest extends TelephonyTestBase {
         tracker.openTransport(mISipDelegate, Collections.emptySet(), Collections.emptySet());
         doReturn(ValidationResult.SUCCESS)
                 .when(mTransportSipSessionValidator)
-                .verifyOutgoingMessage(TEST_MESSAGE, 1 /*version*/);
+                .verifyOutgoingMessage(new ParsedSipMessage(TEST_MESSAGE), 1 /*version*/);
         tracker.getDelegateConnection().sendMessage(TEST_MESSAGE, 1 /*version*/);
         verify(mISipDelegate).sendMessage(TEST_MESSAGE, 1 /*version*/);
 
@@ -222,7 +222,7 @@ public class MessageTransportWrapperTest extends TelephonyTestBase {
         doReturn(new ValidationResult(
                 SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED, ""))
                 .when(mTransportSipSessionValidator)
-                .verifyOutgoingMessage(TEST_MESSAGE, 1 /*version*/);
+                .verifyOutgoingMessage(new ParsedSipMessage(TEST_MESSAGE), 1 /*version*/);
         tracker.getDelegateConnection().sendMessage(TEST_MESSAGE, 1 /*version*/);
         verify(mDelegateMessageCallback).onMessageSendFailure(TEST_TRANSACTION_ID,
                 SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED);
@@ -267,7 +267,8 @@ public class MessageTransportWrapperTest extends TelephonyTestBase {
         tracker.openTransport(mISipDelegate, Collections.emptySet(), Collections.emptySet());
 
         doReturn(ValidationResult.SUCCESS)
-                .when(mTransportSipSessionValidator).verifyIncomingMessage(TEST_MESSAGE);
+                .when(mTransportSipSessionValidator)
+                .verifyIncomingMessage(new ParsedSipMessage(TEST_MESSAGE));
         tracker.getMessageCallback().onMessageReceived(TEST_MESSAGE);
         verify(mDelegateMessageCallback).onMessageReceived(TEST_MESSAGE);
 
@@ -278,7 +279,8 @@ public class MessageTransportWrapperTest extends TelephonyTestBase {
 
         doReturn(new ValidationResult(
                 SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_DEAD, ""))
-                .when(mTransportSipSessionValidator).verifyIncomingMessage(TEST_MESSAGE);
+                .when(mTransportSipSessionValidator)
+                .verifyIncomingMessage(new ParsedSipMessage(TEST_MESSAGE));
         tracker.getMessageCallback().onMessageReceived(TEST_MESSAGE);
         verify(mISipDelegate, times(2)).notifyMessageReceiveError(TEST_TRANSACTION_ID,
                 SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_DEAD);
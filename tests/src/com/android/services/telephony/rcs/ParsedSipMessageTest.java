@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static com.android.internal.telephony.TelephonyStatsLog.SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__INCOMING;
+import static com.android.internal.telephony.TelephonyStatsLog.SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import android.telephony.ims.SipMessage;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.metrics.RcsStats;
+import com.android.services.telephony.rcs.validator.IncomingTransportStateValidator;
+import com.android.services.telephony.rcs.validator.MalformedSipMessageValidator;
+import com.android.services.telephony.rcs.validator.OutgoingTransportStateValidator;
+import com.android.services.telephony.rcs.validator.RestrictedOutgoingSipRequestValidator;
+import com.android.services.telephony.rcs.validator.RestrictedOutgoingSubscribeValidator;
+import com.android.services.telephony.rcs.validator.SipMessageValidator;
+import com.android.services.telephony.rcs.validator.ValidationResult;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@RunWith(AndroidJUnit4.class)
+public class ParsedSipMessageTest {
+    private static final int TEST_SUB_ID = 1;
+
+    private static final String CHAT_FEATURE_TAG =
+            "+g.3gpp.icsi-ref=\"urn%3Aurn-7%3A3gpp-service.ims.icsi.oma.cpm.session\"";
+    private static final String PAGER_FEATURE_TAG =
+            "+g.3gpp.icsi-ref=\"urn%3Aurn-7%3A3gpp-service.ims.icsi.oma.cpm.msg\"";
+    private static final String ALICE = "Alice <sip:alice@client.example.com>";
+    private static final String BOB = "Bob <sip:bob@client.example.com>";
+    private static final String BOB_URI = "sip:bob@client.example.com";
+    private static final String FACTORY = "<sip:conference-factory@example.com>";
+    private static final String FACTORY_URI = "sip:conference-factory@example.com";
+    private static final String FOCUS_URI = "sip:chat-1234@conf.example.com";
+
+    /** A message of a recorded trace and the direction it was sent in. */
+    private static final class TraceEntry {
+        final boolean outgoing;
+        final SipMessage message;
+
+        TraceEntry(boolean outgoing, SipMessage message) {
+            this.outgoing = outgoing;
+            this.message = message;
+        }
+    }
+
+    @Mock private RcsStats mRcsStats;
+    private SipSessionTracker mTracker;
+    private List<SipMessageValidator> mOutgoingValidators;
+    private List<SipMessageValidator> mIncomingValidators;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mTracker = new SipSessionTracker(TEST_SUB_ID, mRcsStats);
+    }
+
+    @Test
+    public void testRequestIsParsedOnce() {
+        ParsedSipMessage m = new ParsedSipMessage(request("SUBSCRIBE", FOCUS_URI, "z9hG4bKsub1",
+                "callId1", "fromTag1", "toTag1", "Event: conference\nAccept-Contact: *;"
+                        + CHAT_FEATURE_TAG));
+
+        assertTrue(m.isRequest());
+        assertFalse(m.isResponse());
+        assertEquals("SUBSCRIBE", m.getRequestMethod());
+        assertEquals("fromTag1", m.getFromTag());
+        assertEquals("toTag1", m.getToTag());
+        assertEquals("callId1", m.getCallIdParameter());
+        assertEquals("z9hG4bKsub1", m.getViaBranchParameter());
+        assertEquals(1, m.getHeaders("Event").size());
+        assertEquals("conference", m.getHeaders("Event").get(0).second.trim());
+        assertTrue(m.getHeaders("Expires").isEmpty());
+        // Later lookups return the result of the first parse.
+        assertSame(m.getStartLineSegments(), m.getStartLineSegments());
+        assertSame(m.getAcceptContactFeatureTags(), m.getAcceptContactFeatureTags());
+        assertSame(m.getHeaders("Event"), m.getHeaders("event"));
+    }
+
+    @Test
+    public void testResponseAndMalformedMessage() {
+        ParsedSipMessage response = new ParsedSipMessage(
+                response("200 OK", "z9hG4bK1", "callId1", "fromTag1", null /*toTag*/));
+        assertTrue(response.isResponse());
+        assertFalse(response.isRequest());
+        assertNull(response.getRequestMethod());
+        assertEquals("200", response.getStartLineSegments()[1]);
+        assertNull(response.getToTag());
+
+        ParsedSipMessage malformed = new ParsedSipMessage(
+                new SipMessage("INVITE sip:bob@biloxi.comSIP/2.0",
+                        "Via: SIP/2.0/UDP client.example.com;branch=z9hG4bK1", new byte[0]));
+        assertFalse(malformed.isRequest());
+        assertFalse(malformed.isResponse());
+        assertNull(malformed.getStartLineSegments());
+        assertNull(malformed.getRequestMethod());
+    }
+
+    @Test
+    public void testEquals() {
+        SipMessage m = response("200 OK", "z9hG4bK1", "callId1", "fromTag1", "toTag1");
+        ParsedSipMessage parsed = new ParsedSipMessage(m);
+        parsed.getToTag();
+        assertEquals(new ParsedSipMessage(m), parsed);
+        assertEquals(new ParsedSipMessage(m).hashCode(), parsed.hashCode());
+    }
+
+    /**
+     * Replays a 1-1 chat and a group chat trace through the outgoing and incoming validators and
+     * the SipSessionTracker, once sharing one parsed view per message and once giving every step
+     * its own view, which is how each step used to parse the message on its own. Both must reach
+     * the same state.
+     */
+    @Test
+    public void testReplayChatAndGroupChatTraces() {
+        List<TraceEntry> trace = new ArrayList<>(createChatTrace());
+        trace.addAll(createGroupChatTrace());
+        setUpValidators(trace);
+
+        replay(trace, true /*shareView*/);
+        Set<String> sharedClosedCallIds = getClosedCallIds();
+        mTracker.clearAllSessions();
+
+        replay(trace, false /*shareView*/);
+        assertEquals(sharedClosedCallIds, getClosedCallIds());
+
+        assertEquals(Arrays.asList("chat-callId", "group-callId"),
+                sharedClosedCallIds.stream().sorted().collect(Collectors.toList()));
+    }
+
+    private void setUpValidators(List<TraceEntry> trace) {
+        OutgoingTransportStateValidator outgoingStateValidator =
+                new OutgoingTransportStateValidator(mTracker);
+        Set<String> allowedTags = trace.stream()
+                .flatMap(e -> new ParsedSipMessage(e.message).getAcceptContactFeatureTags()
+                        .stream())
+                .collect(Collectors.toSet());
+        outgoingStateValidator.open(allowedTags, Collections.emptySet());
+        outgoingStateValidator.restrictFeatureTags(Collections.emptySet());
+        IncomingTransportStateValidator incomingStateValidator =
+                new IncomingTransportStateValidator();
+        incomingStateValidator.open();
+        // The same validators, in the same order, as TransportSipMessageValidator.
+        mOutgoingValidators = Arrays.asList(new MalformedSipMessageValidator(),
+                new RestrictedOutgoingSipRequestValidator(),
+                new RestrictedOutgoingSubscribeValidator(), outgoingStateValidator);
+        mIncomingValidators = Collections.singletonList(incomingStateValidator);
+    }
+
+    private void replay(List<TraceEntry> trace, boolean shareView) {
+        for (TraceEntry e : trace) {
+            ParsedSipMessage view = new ParsedSipMessage(e.message);
+            for (SipMessageValidator v : e.outgoing ? mOutgoingValidators : mIncomingValidators) {
+                ValidationResult result = v.validate(
+                        shareView ? view : new ParsedSipMessage(e.message));
+                assertTrue(result.isValidated);
+            }
+            mTracker.filterSipMessage(e.outgoing
+                    ? SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING
+                    : SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__INCOMING,
+                    shareView ? view : new ParsedSipMessage(e.message));
+            mTracker.acknowledgePendingMessage(e.message.getViaBranchParameter());
+        }
+    }
+
+    private Set<String> getClosedCallIds() {
+        return mTracker.getClosedDialogs().stream().map(SipDialog::getCallId)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @return A 1-1 chat: a pager mode message, then a chat session that is set up, used and torn
+     * down by the local user.
+     */
+    private static List<TraceEntry> createChatTrace() {
+        String callId = "chat-callId";
+        String fromTag = "chatFrom";
+        String toTag = "chatTo";
+        String invite = "z9hG4bKchat1";
+        return Arrays.asList(
+                out(request("MESSAGE", BOB_URI, "z9hG4bKpager1", "pager-callId", "pagerFrom",
+                        null /*toTag*/, "Accept-Contact: *;" + PAGER_FEATURE_TAG
+                                + "\nContent-Type: message/cpim")),
+                in(response("200 OK", "z9hG4bKpager1", "pager-callId", "pagerFrom", "pagerTo")),
+                out(request("INVITE", BOB_URI, invite, callId, fromTag, null /*toTag*/,
+                        "Accept-Contact: *;" + CHAT_FEATURE_TAG
+                                + "\nContent-Type: application/sdp")),
+                in(response("100 Trying", invite, callId, fromTag, null /*toTag*/)),
+                in(response("180 Ringing", invite, callId, fromTag, toTag)),
+                in(response("200 OK", invite, callId, fromTag, toTag)),
+                out(request("ACK", BOB_URI, "z9hG4bKchat2", callId, fromTag, toTag, "")),
+                in(request("BYE", "sip:alice@client.example.com", "z9hG4bKchat3", callId, toTag,
+                        fromTag, "")),
+                out(response("200 OK", "z9hG4bKchat3", callId, toTag, fromTag)));
+    }
+
+    /**
+     * @return A group chat: a chat session with the conference factory, a subscription to the
+     * conference event package and a notification, then the local user leaves.
+     */
+    private static List<TraceEntry> createGroupChatTrace() {
+        String callId = "group-callId";
+        String fromTag = "groupFrom";
+        String toTag = "groupTo";
+        String invite = "z9hG4bKgroup1";
+        return Arrays.asList(
+                out(request("INVITE", FACTORY_URI, invite, callId, fromTag, null /*toTag*/,
+                        "Accept-Contact: *;" + CHAT_FEATURE_TAG
+                                + "\nContent-Type: multipart/mixed;boundary=boundary1")),
+                in(response("100 Trying", invite, callId, fromTag, null /*toTag*/)),
+                in(response("200 OK", invite, callId, fromTag, toTag)),
+                out(request("ACK", FOCUS_URI, "z9hG4bKgroup2", callId, fromTag, toTag, "")),
+                out(request("SUBSCRIBE", FOCUS_URI, "z9hG4bKgroup3", "sub-callId", "subFrom",
+                        null /*toTag*/, "Event: conference\nExpires: 3600")),
+                in(response("200 OK", "z9hG4bKgroup3", "sub-callId", "subFrom", "subTo")),
+                in(request("NOTIFY", "sip:alice@client.example.com", "z9hG4bKgroup4",
+                        "sub-callId", "subTo", "subFrom",
+                        "Event: conference\nSubscription-State: active;expires=3600")),
+                out(response("200 OK", "z9hG4bKgroup4", "sub-callId", "subTo", "subFrom")),
+                out(request("BYE", FOCUS_URI, "z9hG4bKgroup5", callId, fromTag, toTag, "")),
+                in(response("200 OK", "z9hG4bKgroup5", callId, fromTag, toTag)));
+    }
+
+    private static TraceEntry out(SipMessage m) {
+        return new TraceEntry(true, m);
+    }
+
+    private static TraceEntry in(SipMessage m) {
+        return new TraceEntry(false, m);
+    }
+
+    private static SipMessage request(String method, String requestUri, String branchId,
+            String callId, String fromTag, String toTag, String extraHeaders) {
+        String from = requestUri.startsWith("sip:alice") ? BOB : ALICE;
+        String to = requestUri.startsWith("sip:alice") ? ALICE
+                : (requestUri.equals(BOB_URI) ? BOB : FACTORY);
+        return new SipMessage(method + " " + requestUri + " SIP/2.0",
+                createHeaders(branchId, callId, from, fromTag, to, toTag, method)
+                        + (extraHeaders.isEmpty() ? "" : "\n" + extraHeaders),
+                new byte[0]);
+    }
+
+    private static SipMessage response(String status, String branchId, String callId,
+            String fromTag, String toTag) {
+        return new SipMessage("SIP/2.0 " + status,
+                createHeaders(branchId, callId, ALICE, fromTag, BOB, toTag, "INVITE"),
+                new byte[0]);
+    }
+
+    private static String createHeaders(String branchId, String callId, String from,
+            String fromTag, String to, String toTag, String method) {
+        return "Via: SIP/2.0/TCP " + SipMessageUtils.BASE_ADDRESS + ":5060;branch=" + branchId
+                + "\nMax-Forwards: 70"
+                + "\nFrom: " + from + ";tag=" + fromTag
+                + "\nTo: " + to + (toTag != null ? ";tag=" + toTag : "")
+                + "\nCall-ID: " + callId
+                + "\nCSeq: 1 " + method
+                + "\nContact: <sip:alice@" + SipMessageUtils.BASE_ADDRESS + ">";
+    }
+}
@@ -46,7 +46,7 @@ public class SipDialogTest {
                 SipMessageUtils.INVITE_SIP_METHOD,
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, SIP_URI_BOB, branchId, callId,
                 fromTag, null /*toTag*/);
-        SipDialog dialog = SipDialog.fromSipMessage(inviteRequest);
+        SipDialog dialog = SipDialog.fromSipMessage(new ParsedSipMessage(inviteRequest));
         assertNotNull(dialog);
         assertEquals(SipDialog.STATE_EARLY, dialog.getState());
         assertEquals(callId, dialog.getCallId());
@@ -66,37 +66,37 @@ public class SipDialogTest {
                 SipMessageUtils.INVITE_SIP_METHOD,
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, SIP_URI_BOB, branchId, callId,
                 fromTag, null /*toTag*/);
-        SipDialog dialog = SipDialog.fromSipMessage(inviteRequest);
+        SipDialog dialog = SipDialog.fromSipMessage(new ParsedSipMessage(inviteRequest));
         assertNotNull(dialog);
 
         // A response with no to tag should match
         SipMessage inviteTrying = SipMessageUtils.generateSipResponse("100", "Trying",
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, branchId, callId, fromTag,
                 null /*toTag*/);
-        assertTrue(dialog.isResponseAssociatedWithDialog(inviteTrying));
+        assertTrue(dialog.isResponseAssociatedWithDialog(new ParsedSipMessage(inviteTrying)));
         // A response with a different to tag should match
         inviteTrying = SipMessageUtils.generateSipResponse("100", "Trying",
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, branchId, callId, fromTag,
                 "testToTag");
-        assertTrue(dialog.isResponseAssociatedWithDialog(inviteTrying));
+        assertTrue(dialog.isResponseAssociatedWithDialog(new ParsedSipMessage(inviteTrying)));
         // A response with a different from tag shouldn't match.
         String fromTag2 = "testFromTag2";
         inviteTrying = SipMessageUtils.generateSipResponse("100", "Trying",
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, branchId, callId, fromTag2,
                 null /*toTag*/);
-        assertFalse(dialog.isResponseAssociatedWithDialog(inviteTrying));
+        assertFalse(dialog.isResponseAssociatedWithDialog(new ParsedSipMessage(inviteTrying)));
         // A response with a different branch ID shouldn't match.
         String branchId2 = "testBranchId2";
         inviteTrying = SipMessageUtils.generateSipResponse("100", "Trying",
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, branchId2, callId, fromTag,
                 null /*toTag*/);
-        assertFalse(dialog.isResponseAssociatedWithDialog(inviteTrying));
+        assertFalse(dialog.isResponseAssociatedWithDialog(new ParsedSipMessage(inviteTrying)));
         // A response with a different call id shouldn't match.
         String callId2 = "testCallId2";
         inviteTrying = SipMessageUtils.generateSipResponse("100", "Trying",
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, branchId, callId2, fromTag,
                 null /*toTag*/);
-        assertFalse(dialog.isResponseAssociatedWithDialog(inviteTrying));
+        assertFalse(dialog.isResponseAssociatedWithDialog(new ParsedSipMessage(inviteTrying)));
     }
 
     @Test
@@ -108,7 +108,7 @@ public class SipDialogTest {
                 SipMessageUtils.INVITE_SIP_METHOD,
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, SIP_URI_BOB, branchId, callId,
                 fromTag, null /*toTag*/);
-        SipDialog dialog = SipDialog.fromSipMessage(inviteRequest);
+        SipDialog dialog = SipDialog.fromSipMessage(new ParsedSipMessage(inviteRequest));
         assertNotNull(dialog);
         assertEquals(SipDialog.STATE_EARLY, dialog.getState());
         assertEquals(callId, dialog.getCallId());
@@ -131,7 +131,7 @@ public class SipDialogTest {
                 SipMessageUtils.INVITE_SIP_METHOD,
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, SIP_URI_BOB, branchId, callId,
                 fromTag, null /*toTag*/);
-        SipDialog dialog = SipDialog.fromSipMessage(inviteRequest);
+        SipDialog dialog = SipDialog.fromSipMessage(new ParsedSipMessage(inviteRequest));
         assertNotNull(dialog);
         assertEquals(SipDialog.STATE_EARLY, dialog.getState());
         assertEquals(callId, dialog.getCallId());
@@ -151,38 +151,38 @@ public class SipDialogTest {
                 SipMessageUtils.INVITE_SIP_METHOD,
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, SIP_URI_BOB, branchId, callId,
                 fromTag, null /*toTag*/);
-        SipDialog dialog = SipDialog.fromSipMessage(inviteRequest);
+        SipDialog dialog = SipDialog.fromSipMessage(new ParsedSipMessage(inviteRequest));
         assertNotNull(dialog);
         dialog.earlyResponse(toTag);
 
         SipMessage cancelRequest = SipMessageUtils.generateSipRequest(
                 SipMessageUtils.CANCEL_SIP_METHOD, BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB,
                 SIP_URI_BOB, branchId, callId, fromTag, toTag);
-        assertTrue(dialog.isRequestAssociatedWithDialog(cancelRequest));
+        assertTrue(dialog.isRequestAssociatedWithDialog(new ParsedSipMessage(cancelRequest)));
         // cancel request with no toTag should fail
         cancelRequest = SipMessageUtils.generateSipRequest(
                 SipMessageUtils.INVITE_SIP_METHOD, BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB,
                 SIP_URI_BOB, branchId, callId, fromTag, null /*toTag*/);
-        assertFalse(dialog.isRequestAssociatedWithDialog(cancelRequest));
+        assertFalse(dialog.isRequestAssociatedWithDialog(new ParsedSipMessage(cancelRequest)));
         // cancel request to a different dialog in the same session should fail
         String toTag2 = "testToTag2";
         cancelRequest = SipMessageUtils.generateSipRequest(
                 SipMessageUtils.INVITE_SIP_METHOD, BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB,
                 SIP_URI_BOB, branchId, callId, fromTag, toTag2);
-        assertFalse(dialog.isRequestAssociatedWithDialog(cancelRequest));
+        assertFalse(dialog.isRequestAssociatedWithDialog(new ParsedSipMessage(cancelRequest)));
         // cancel request to a different session should fail (even with the same from/to)
         String callId2 = "testCallId2";
         cancelRequest = SipMessageUtils.generateSipRequest(
                 SipMessageUtils.INVITE_SIP_METHOD, BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB,
                 SIP_URI_BOB, branchId, callId2, fromTag, toTag);
-        assertFalse(dialog.isRequestAssociatedWithDialog(cancelRequest));
+        assertFalse(dialog.isRequestAssociatedWithDialog(new ParsedSipMessage(cancelRequest)));
         // Same call id but different from and to (although not really possible) should fail.
         String fromTag3 = "testFromTag3";
         String toTag3 = "testToTag3";
         cancelRequest = SipMessageUtils.generateSipRequest(
                 SipMessageUtils.INVITE_SIP_METHOD, BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB,
                 SIP_URI_BOB, branchId, callId, fromTag3, toTag3);
-        assertFalse(dialog.isRequestAssociatedWithDialog(cancelRequest));
+        assertFalse(dialog.isRequestAssociatedWithDialog(new ParsedSipMessage(cancelRequest)));
     }
 
     @Test
@@ -194,7 +194,7 @@ public class SipDialogTest {
                 SipMessageUtils.INVITE_SIP_METHOD,
                 BASE_CONTACT_URI_ALICE, BASE_CONTACT_URI_BOB, SIP_URI_BOB, branchId, callId,
                 fromTag, null /*toTag*/);
-        SipDialog dialog = SipDialog.fromSipMessage(inviteRequest);
+        SipDialog dialog = SipDialog.fromSipMessage(new ParsedSipMessage(inviteRequest));
         assertNotNull(dialog);
         assertEquals(SipDialog.STATE_EARLY, dialog.getState());
         assertEquals(callId, dialog.getCallId());
@@ -19,6 +19,7 @@ package com.android.services.telephony.rcs;
 import static com.android.internal.telephony.TelephonyStatsLog.SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
@@ -26,6 +27,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.content.Context;
@@ -43,6 +45,7 @@ import android.util.Base64;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.android.TestExecutorService;
 import com.android.internal.telephony.ISipDialogStateCallback;
 import com.android.internal.telephony.ITelephony;
 import com.android.internal.telephony.PhoneFactory;
@@ -117,6 +120,7 @@ public class SipSessionTrackerTest {
     // Keep track of the string entry so we can generate unique strings.
     private int mStringEntryCounter = 0;
     private SipSessionTracker mTrackerUT;
+    private long mElapsedRealtimeMs = 0;
     private static final int TEST_SUB_ID = 1;
     private static final String TEST_INVITE_SIP_METHOD = "INVITE";
     private static final int TEST_SIP_RESPONSE_CODE = 200;
@@ -135,7 +139,13 @@ public class SipSessionTrackerTest {
     public void setUp() throws Exception {
         mStringEntryCounter = 0;
         MockitoAnnotations.initMocks(this);
-        mTrackerUT = new SipSessionTracker(TEST_SUB_ID, mRcsStats);
+        mElapsedRealtimeMs = 0;
+        mTrackerUT = new SipSessionTracker(TEST_SUB_ID, mRcsStats) {
+            @Override
+            protected long getElapsedRealtimeMillis() {
+                return mElapsedRealtimeMs;
+            }
+        };
         mMockImsRcsInterface = mock(IImsRcsController.class);
         mBinderCache = mock(BinderCacheManager.class);
         mRcsBinderCache = mock(BinderCacheManager.class);
@@ -354,6 +364,135 @@ public class SipSessionTrackerTest {
         filterMessage(inviteRequest, attr);
         assertTrue(mTrackerUT.getCallIdsAssociatedWithFeatureTag(Collections.singleton("+test"))
                 .contains(attr.callId));
+        // Feature tags are matched case insensitively.
+        assertTrue(mTrackerUT.getCallIdsAssociatedWithFeatureTag(Collections.singleton("+TEST"))
+                .contains(attr.callId));
+    }
+
+    @Test
+    public void testPendingEventsAppliedInOrderOnAck() {
+        DialogAttributes attr = new DialogAttributes();
+        SipMessage inviteRequest = generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr);
+        attr.setToTag();
+        SipMessage ringingResponse = generateSipResponse("180", "Ringing", attr);
+        SipMessage okResponse = generateSipResponse("200", "OK", attr);
+        // Retransmissions of the INVITE and its responses before the remote IMS stack has acked.
+        filterSipMessage(inviteRequest);
+        filterSipMessage(inviteRequest);
+        filterSipMessage(ringingResponse);
+        filterSipMessage(okResponse);
+        assertEquals(4, mTrackerUT.getPendingAckDepth());
+        assertTrue(mTrackerUT.getTrackedDialogs().isEmpty());
+
+        mTrackerUT.acknowledgePendingMessage(attr.branchId);
+        assertEquals(0, mTrackerUT.getPendingAckDepth());
+        assertEquals(1, mTrackerUT.getTrackedDialogs().size());
+        assertTrue(mTrackerUT.getEarlyDialogs().isEmpty());
+        verifyContainsCallIds(mTrackerUT.getConfirmedDialogs(), attr);
+        // The events have been applied, so acking again does nothing.
+        mTrackerUT.acknowledgePendingMessage(attr.branchId);
+        assertEquals(1, mTrackerUT.getTrackedDialogs().size());
+    }
+
+    @Test
+    public void testPendingEventsDroppedOnFailure() {
+        DialogAttributes attr1 = new DialogAttributes();
+        DialogAttributes attr2 = new DialogAttributes();
+        filterSipMessage(generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr1));
+        filterSipMessage(generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr1));
+        filterSipMessage(generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr2));
+        assertEquals(3, mTrackerUT.getPendingAckDepth());
+
+        mTrackerUT.pendingMessageFailed(attr1.branchId);
+        assertEquals(1, mTrackerUT.getPendingAckDepth());
+        mTrackerUT.acknowledgePendingMessage(attr1.branchId);
+        assertTrue(mTrackerUT.getTrackedDialogs().isEmpty());
+
+        mTrackerUT.acknowledgePendingMessage(attr2.branchId);
+        assertEquals(0, mTrackerUT.getPendingAckDepth());
+        verifyContainsCallIds(mTrackerUT.getEarlyDialogs(), attr2);
+        assertEquals(1, mTrackerUT.getTrackedDialogs().size());
+    }
+
+    @Test
+    public void testClosedDialogExpiresWhenIdle() {
+        TestExecutorService executor = new TestExecutorService(true /*waitToComplete*/);
+        mTrackerUT = new SipSessionTracker(TEST_SUB_ID, mRcsStats, executor) {
+            @Override
+            protected long getElapsedRealtimeMillis() {
+                return mElapsedRealtimeMs;
+            }
+        };
+        DialogAttributes attr = new DialogAttributes();
+        attr.setToTag();
+        createConfirmedDialog(attr);
+        SipMessage byeRequest = generateSipRequest(SipMessageUtils.BYE_SIP_METHOD, attr);
+        filterMessage(byeRequest, attr);
+        verifyContainsCallIds(mTrackerUT.getClosedDialogs(), attr);
+
+        // No further SIP messages are sent, the closed dialog is removed by the scheduled expiry.
+        mElapsedRealtimeMs += SipSessionTracker.CLOSED_DIALOG_TIMEOUT_MS;
+        executor.executePending();
+        assertTrue(mTrackerUT.getTrackedDialogs().isEmpty());
+    }
+
+    @Test
+    public void testClosedDialogExpires() {
+        DialogAttributes attr = new DialogAttributes();
+        attr.setToTag();
+        createConfirmedDialog(attr);
+        SipMessage byeRequest = generateSipRequest(SipMessageUtils.BYE_SIP_METHOD, attr);
+        filterMessage(byeRequest, attr);
+        verifyContainsCallIds(mTrackerUT.getClosedDialogs(), attr);
+
+        // The closed dialog is kept until the timeout has passed.
+        DialogAttributes attr2 = new DialogAttributes();
+        mElapsedRealtimeMs += SipSessionTracker.CLOSED_DIALOG_TIMEOUT_MS - 1;
+        filterMessage(generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr2), attr2);
+        verifyContainsCallIds(mTrackerUT.getClosedDialogs(), attr);
+        verifyContainsCallIds(mTrackerUT.getEarlyDialogs(), attr2);
+
+        // Once the timeout has passed, the next message removes the closed dialog but not the
+        // dialogs that are still open.
+        DialogAttributes attr3 = new DialogAttributes();
+        mElapsedRealtimeMs += 1;
+        filterMessage(generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr3), attr3);
+        assertTrue(mTrackerUT.getClosedDialogs().isEmpty());
+        verifyContainsCallIds(mTrackerUT.getEarlyDialogs(), attr2, attr3);
+        assertEquals(2, mTrackerUT.getTrackedDialogs().size());
+        // Once when the BYE was sent and once when the closed dialog expired.
+        verify(mRcsStats, times(2)).onSipTransportSessionClosed(eq(TEST_SUB_ID), eq(attr.callId),
+                eq(0), eq(true));
+        // A new session can reuse the call ID.
+        filterMessage(generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr), attr);
+        verifyContainsCallIds(mTrackerUT.getEarlyDialogs(), attr);
+    }
+
+    @Test
+    public void testManyDialogsLookupByCallId() {
+        List<DialogAttributes> attrs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            DialogAttributes attr = new DialogAttributes();
+            attr.setToTag();
+            createConfirmedDialog(attr);
+            attrs.add(attr);
+        }
+        DialogAttributes closedAttr = attrs.get(50);
+        filterMessage(generateSipRequest(SipMessageUtils.BYE_SIP_METHOD, closedAttr), closedAttr);
+
+        assertEquals(100, mTrackerUT.getTrackedDialogs().size());
+        assertEquals(99, mTrackerUT.getConfirmedDialogs().size());
+        assertEquals(1, mTrackerUT.getClosedDialogs().size());
+        for (DialogAttributes attr : attrs) {
+            assertEquals(attr != closedAttr, mTrackerUT.hasEarlyOrConfirmedDialog(attr.callId));
+        }
+        assertFalse(mTrackerUT.hasEarlyOrConfirmedDialog(getNextString()));
+
+        mTrackerUT.cleanupSession(closedAttr.callId);
+        assertEquals(99, mTrackerUT.getTrackedDialogs().size());
+        assertTrue(mTrackerUT.getClosedDialogs().isEmpty());
+        mTrackerUT.clearAllSessions();
+        assertTrue(mTrackerUT.getTrackedDialogs().isEmpty());
     }
 
     @Test
@@ -427,7 +566,8 @@ public class SipSessionTrackerTest {
         DialogAttributes attr = new DialogAttributes();
         SipMessage inviteRequest = generateSipRequest(SipMessageUtils.INVITE_SIP_METHOD, attr);
         mTrackerUT.filterSipMessage(
-                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING, inviteRequest);
+                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING,
+                new ParsedSipMessage(inviteRequest));
         // Do not acknowledge the request and ensure that the operation has not been applied yet.
         assertTrue(mTrackerUT.getConfirmedDialogs().isEmpty());
         assertTrue(mTrackerUT.getEarlyDialogs().isEmpty());
@@ -447,9 +587,11 @@ public class SipSessionTrackerTest {
         // acknowledgePendingMessage being called in between. Ensure that when it is called, it
         // applies both operations.
         mTrackerUT.filterSipMessage(
-                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING, inviteRequest);
+                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING,
+                new ParsedSipMessage(inviteRequest));
         mTrackerUT.filterSipMessage(
-                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING, inviteConfirm);
+                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING,
+                new ParsedSipMessage(inviteConfirm));
         assertTrue(mTrackerUT.getEarlyDialogs().isEmpty());
         assertTrue(mTrackerUT.getConfirmedDialogs().isEmpty());
         // we should skip right to confirmed as both operations run back-to-back
@@ -595,9 +737,13 @@ public class SipSessionTrackerTest {
         return false;
     }
 
-    private void filterMessage(SipMessage m, DialogAttributes attr) {
+    private void filterSipMessage(SipMessage m) {
         mTrackerUT.filterSipMessage(
-                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING, m);
+                SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING, new ParsedSipMessage(m));
+    }
+
+    private void filterMessage(SipMessage m, DialogAttributes attr) {
+        filterSipMessage(m);
         mTrackerUT.acknowledgePendingMessage(attr.branchId);
     }
     private void verifyContainsCallIds(Set<SipDialog> callIdSet, DialogAttributes... attrs) {
@@ -61,7 +61,7 @@ import java.util.concurrent.ScheduledExecutorService;
 public class TransportSipMessageValidatorTest extends TelephonyTestBase {
     private static final int TEST_SUB_ID = 1;
     private static final int TEST_CONFIG_VERSION = 1;
-    private static final SipMessage TEST_MESSAGE = new SipMessage(
+    private static final ParsedSipMessage TEST_MESSAGE = new ParsedSipMessage(new SipMessage(
             "INVITE sip:bob@biloxi.com SIP/2.0",
             // Typical Via
             "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\n"
@@ -73,7 +73,7 @@ public class TransportSipMessageValidatorTest extends TelephonyTestBase {
                     + "Contact: <sip:alice@pc33.atlanta.com>\n"
                     + "Content-Type: application/sdp\n"
                     + "Content-Length: 142",
-            new byte[0]);
+            new byte[0]));
 
     @Mock
     private SipSessionTracker mSipSessionTracker;
@@ -533,24 +533,25 @@ public class TransportSipMessageValidatorTest extends TelephonyTestBase {
                 mOutgoingStateValidator, mIncomingStateValidator, mRcsStats);
     }
 
-    private SipMessage generateSipResponse(String statusCode, String statusString, String callId) {
+    private ParsedSipMessage generateSipResponse(String statusCode, String statusString,
+            String callId) {
         String fromHeader = "Alice <sip:alice@atlanta.com>;tag=1928301774";
         String toHeader = "Bob <sip:bob@biloxi.com>";
         String branchId = "AAAA";
         String fromTag = "tag=1928301774";
         String toTag = "";
-        return SipMessageUtils.generateSipResponse(statusCode, statusString, fromHeader,
-            toHeader, branchId, callId, fromTag, toTag);
+        return new ParsedSipMessage(SipMessageUtils.generateSipResponse(statusCode,
+                statusString, fromHeader, toHeader, branchId, callId, fromTag, toTag));
     }
 
-    private SipMessage generateSipRequest(String requestMethod, String callId) {
+    private ParsedSipMessage generateSipRequest(String requestMethod, String callId) {
         String fromHeader = "Alice <sip:alice@atlanta.com>;tag=1928301774";
         String toHeader = "Bob <sip:bob@biloxi.com>";
         String branchId = "AAAA";
         String fromTag = "tag=1928301774";
         String toTag = "";
         String toUri = "sip:bob@biloxi.com";
-        return SipMessageUtils.generateSipRequest(requestMethod, fromHeader, toHeader,
-                toUri, branchId, callId, fromTag, toTag);
+        return new ParsedSipMessage(SipMessageUtils.generateSipRequest(requestMethod,
+                fromHeader, toHeader, toUri, branchId, callId, fromTag, toTag));
     }
 }
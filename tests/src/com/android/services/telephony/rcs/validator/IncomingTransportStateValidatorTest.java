@@ -25,6 +25,8 @@ import android.telephony.ims.SipMessage;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.android.services.telephony.rcs.ParsedSipMessage;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -46,17 +48,17 @@ public class IncomingTransportStateValidatorTest {
     @Test
     public void testVerifyMessageAndUpdateState() {
         IncomingTransportStateValidator validator = new IncomingTransportStateValidator();
-        ValidationResult result = validator.validate(TEST_MESSAGE);
+        ValidationResult result = validator.validate(new ParsedSipMessage(TEST_MESSAGE));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED,
                 result.restrictedReason);
 
         validator.open();
-        result = validator.validate(TEST_MESSAGE);
+        result = validator.validate(new ParsedSipMessage(TEST_MESSAGE));
         assertTrue(result.isValidated);
 
         validator.close(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED);
-        result = validator.validate(TEST_MESSAGE);
+        result = validator.validate(new ParsedSipMessage(TEST_MESSAGE));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED,
                 result.restrictedReason);
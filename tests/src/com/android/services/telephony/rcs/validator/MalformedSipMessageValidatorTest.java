@@ -25,6 +25,8 @@ import android.telephony.ims.SipMessage;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.android.services.telephony.rcs.ParsedSipMessage;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -46,7 +48,8 @@ public class MalformedSipMessageValidatorTest {
                         + "Content-Type: application/sdp\n"
                         + "Content-Length: 142",
                 new byte[0]);
-        ValidationResult result = new MalformedSipMessageValidator().validate(msg);
+        ValidationResult result = new MalformedSipMessageValidator().validate(
+                new ParsedSipMessage(msg));
         assertTrue(result.isValidated);
     }
 
@@ -64,7 +67,8 @@ public class MalformedSipMessageValidatorTest {
                         + "Content-Type: application/sdp\n"
                         + "Content-Length: 142",
                 new byte[0]);
-        ValidationResult result = new MalformedSipMessageValidator().validate(msg);
+        ValidationResult result = new MalformedSipMessageValidator().validate(
+                new ParsedSipMessage(msg));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_START_LINE,
                 result.restrictedReason);
@@ -85,7 +89,8 @@ public class MalformedSipMessageValidatorTest {
                         + "Require: eventlist\n"
                         + "Content-Length: 0",
                 new byte[0]);
-        ValidationResult result = new MalformedSipMessageValidator().validate(msg);
+        ValidationResult result = new MalformedSipMessageValidator().validate(
+                new ParsedSipMessage(msg));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_START_LINE,
                 result.restrictedReason);
@@ -29,6 +29,7 @@ import android.util.ArraySet;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import com.android.TelephonyTestBase;
+import com.android.services.telephony.rcs.ParsedSipMessage;
 import com.android.services.telephony.rcs.SipDialog;
 import com.android.services.telephony.rcs.SipSessionTracker;
 
@@ -63,18 +64,18 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         SipMessage testMessage = generateSipRequestForCallId("callId1");
         OutgoingTransportStateValidator validator =
                 new OutgoingTransportStateValidator(mMockSessionTracker);
-        ValidationResult result = validator.validate(testMessage);
+        ValidationResult result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED,
                 result.restrictedReason);
 
         validator.open(Collections.singleton("+tag"), Collections.emptySet());
         validator.restrictFeatureTags(Collections.emptySet());
-        result = validator.validate(testMessage);
+        result = validator.validate(new ParsedSipMessage(testMessage));
         assertTrue(result.isValidated);
 
         validator.close(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED);
-        result = validator.validate(testMessage);
+        result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED,
                 result.restrictedReason);
@@ -90,13 +91,17 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         SipMessage testOutOfDialogInvite = generateSipRequestForCallId(callId3);
         SipMessage testStatelessRequest = generateMessageRequest();
         ArraySet<SipDialog> inDialogEarlyCallIds = new ArraySet<>(1);
-        inDialogEarlyCallIds.add(SipDialog.fromSipMessage(testInDialogEarlyMessage));
+        inDialogEarlyCallIds.add(SipDialog.fromSipMessage(
+                new ParsedSipMessage(testInDialogEarlyMessage)));
         ArraySet<String> inDialogConfirmedCallIds = new ArraySet<>();
-        inDialogEarlyCallIds.add(SipDialog.fromSipMessage(testInDialogConfirmedMessage));
+        inDialogEarlyCallIds.add(SipDialog.fromSipMessage(
+                new ParsedSipMessage(testInDialogConfirmedMessage)));
         // For the sake of testing, add the same call id to early and confirmed dialogs, since we
         // will accept requests for both right now.
         doReturn(inDialogEarlyCallIds).when(mMockSessionTracker).getEarlyDialogs();
         doReturn(inDialogConfirmedCallIds).when(mMockSessionTracker).getConfirmedDialogs();
+        doReturn(true).when(mMockSessionTracker).hasEarlyOrConfirmedDialog(callId1);
+        doReturn(true).when(mMockSessionTracker).hasEarlyOrConfirmedDialog(callId2);
         OutgoingTransportStateValidator validator =
                 new OutgoingTransportStateValidator(mMockSessionTracker);
         validator.restrict(
@@ -104,21 +109,22 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
 
         // ensure a response to a pending request is not restricted, even if it is not for a tracked
         // call ID.
-        ValidationResult result = validator.validate(generate200OkResponse("callId4"));
+        ValidationResult result = validator.validate(
+                new ParsedSipMessage(generate200OkResponse("callId4")));
         assertTrue(result.isValidated);
 
         // confirm in dialog messages are not restricted
-        result = validator.validate(testInDialogEarlyMessage);
+        result = validator.validate(new ParsedSipMessage(testInDialogEarlyMessage));
         assertTrue(result.isValidated);
-        result = validator.validate(testInDialogConfirmedMessage);
+        result = validator.validate(new ParsedSipMessage(testInDialogConfirmedMessage));
         assertTrue(result.isValidated);
 
         // confirm out-of-dialog requests are restricted.
-        result = validator.validate(testOutOfDialogInvite);
+        result = validator.validate(new ParsedSipMessage(testOutOfDialogInvite));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INTERNAL_DELEGATE_STATE_TRANSITION,
                 result.restrictedReason);
-        result = validator.validate(testStatelessRequest);
+        result = validator.validate(new ParsedSipMessage(testStatelessRequest));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INTERNAL_DELEGATE_STATE_TRANSITION,
                 result.restrictedReason);
@@ -129,7 +135,7 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         SipMessage testMessage = generateSipRequestForCallId("callId1");
         OutgoingTransportStateValidator validator =
                 new OutgoingTransportStateValidator(mMockSessionTracker);
-        ValidationResult result = validator.validate(testMessage);
+        ValidationResult result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED,
                 result.restrictedReason);
@@ -137,7 +143,7 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         // Assert that invites associated with denied tags are denied.
         validator.open(Collections.emptySet(), Collections.singleton("+tag"));
         validator.restrictFeatureTags(Collections.emptySet());
-        result = validator.validate(testMessage);
+        result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG,
                 result.restrictedReason);
@@ -148,7 +154,7 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         SipMessage testMessage = generateSipRequestForCallId("callId1");
         OutgoingTransportStateValidator validator =
                 new OutgoingTransportStateValidator(mMockSessionTracker);
-        ValidationResult result = validator.validate(testMessage);
+        ValidationResult result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED,
                 result.restrictedReason);
@@ -156,7 +162,7 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         validator.open(Collections.singleton("+tag"), Collections.emptySet());
         // Ensure that when supported tags are restricted, the message is not validated.
         validator.restrictFeatureTags(Collections.singleton("+tag"));
-        result = validator.validate(testMessage);
+        result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG,
                 result.restrictedReason);
@@ -167,7 +173,7 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         SipMessage testMessage = generateSipRequestForCallId("callId1");
         OutgoingTransportStateValidator validator =
                 new OutgoingTransportStateValidator(mMockSessionTracker);
-        ValidationResult result = validator.validate(testMessage);
+        ValidationResult result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED,
                 result.restrictedReason);
@@ -175,15 +181,15 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
         // Assert if a message doesn't have any related supported tags, it should be denied
         validator.open(Collections.emptySet(), Collections.emptySet());
         validator.restrictFeatureTags(Collections.emptySet());
-        result = validator.validate(testMessage);
+        result = validator.validate(new ParsedSipMessage(testMessage));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG,
                 result.restrictedReason);
 
         // responses and non-dialog starting messages do not matter
-        result = validator.validate(generate200OkResponse("callId2"));
+        result = validator.validate(new ParsedSipMessage(generate200OkResponse("callId2")));
         assertTrue(result.isValidated);
-        result = validator.validate(generateMessageRequest());
+        result = validator.validate(new ParsedSipMessage(generateMessageRequest()));
         assertTrue(result.isValidated);
     }
 
@@ -25,6 +25,8 @@ import android.telephony.ims.SipMessage;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.android.services.telephony.rcs.ParsedSipMessage;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -43,7 +45,8 @@ public class RestrictedOutgoingSipRequestValidatorTest {
                         + "CSeq: 314159 REGISTER\n"
                         + "Contact: <sip:alice@pc33.atlanta.com>\n",
                 new byte[0]);
-        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(msg);
+        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(
+                new ParsedSipMessage(msg));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_START_LINE,
                 result.restrictedReason);
@@ -61,7 +64,8 @@ public class RestrictedOutgoingSipRequestValidatorTest {
                         + "CSeq: 314159 PUBLISH\n"
                         + "Contact: <sip:alice@pc33.atlanta.com>\n",
                 new byte[0]);
-        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(msg);
+        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(
+                new ParsedSipMessage(msg));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_START_LINE,
                 result.restrictedReason);
@@ -80,7 +84,8 @@ public class RestrictedOutgoingSipRequestValidatorTest {
                         + "CSeq: 314159 OPTIONS\n"
                         + "Contact: <sip:alice@pc33.atlanta.com>\n",
                 new byte[0]);
-        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(msg);
+        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(
+                new ParsedSipMessage(msg));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_START_LINE,
                 result.restrictedReason);
@@ -101,7 +106,8 @@ public class RestrictedOutgoingSipRequestValidatorTest {
                         + "Content-Type: application/sdp\n"
                         + "Content-Length: 142",
                 new byte[0]);
-        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(msg);
+        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(
+                new ParsedSipMessage(msg));
         assertTrue(result.isValidated);
     }
 
@@ -120,7 +126,8 @@ public class RestrictedOutgoingSipRequestValidatorTest {
                         + "Require: eventlist\n"
                         + "Content-Length: 0",
                 new byte[0]);
-        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(msg);
+        ValidationResult result = new RestrictedOutgoingSipRequestValidator().validate(
+                new ParsedSipMessage(msg));
         assertTrue(result.isValidated);
     }
 }
@@ -25,6 +25,8 @@ import android.telephony.ims.SipMessage;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.android.services.telephony.rcs.ParsedSipMessage;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -46,7 +48,8 @@ public class RestrictedOutgoingSubscribeValidatorTest {
                         + "Content-Type: application/sdp\n"
                         + "Content-Length: 142",
                 new byte[0]);
-        ValidationResult result = new MalformedSipMessageValidator().validate(msg);
+        ValidationResult result = new MalformedSipMessageValidator().validate(
+                new ParsedSipMessage(msg));
         assertTrue(result.isValidated);
     }
 
@@ -65,7 +68,8 @@ public class RestrictedOutgoingSubscribeValidatorTest {
                         + "Require: eventlist\n"
                         + "Content-Length: 0",
                 new byte[0]);
-        ValidationResult result = new MalformedSipMessageValidator().validate(msg);
+        ValidationResult result = new MalformedSipMessageValidator().validate(
+                new ParsedSipMessage(msg));
         assertTrue(result.isValidated);
     }
 
@@ -82,7 +86,8 @@ public class RestrictedOutgoingSubscribeValidatorTest {
                         + "Event:    conference \n"
                         + "Max-Forwards: 70\n",
                 new byte[0]);
-        ValidationResult result = new RestrictedOutgoingSubscribeValidator().validate(msg);
+        ValidationResult result = new RestrictedOutgoingSubscribeValidator().validate(
+                new ParsedSipMessage(msg));
         assertTrue(result.isValidated);
     }
 
@@ -99,7 +104,8 @@ public class RestrictedOutgoingSubscribeValidatorTest {
                         + "Event:  presence  \n"
                         + "Max-Forwards: 70\n",
                 new byte[0]);
-        ValidationResult result = new RestrictedOutgoingSubscribeValidator().validate(msg);
+        ValidationResult result = new RestrictedOutgoingSubscribeValidator().validate(
+                new ParsedSipMessage(msg));
         assertFalse(result.isValidated);
         assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_HEADER_FIELDS,
                 result.restrictedReason);
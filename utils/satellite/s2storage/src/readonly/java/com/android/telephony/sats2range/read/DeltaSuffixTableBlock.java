@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.sats2range.read;
+
+import static com.android.storage.util.Conditions.checkStateInRange;
+
+import com.android.storage.block.read.BlockData;
+import com.android.storage.s2.S2LevelRange;
+
+import java.util.Objects;
+
+/**
+ * An implementation of {@link SuffixTableBlock.SuffixTableBlockDelegate} for tables that are backed
+ * by real block data, i.e. have one or more entries, in
+ * {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_DELTA} files.
+ *
+ * <p>Rather than a fixed-width record per range, each range is stored as the distance from the end
+ * of the previous range to its start, followed by its length, both as unsigned varints (7 bits per
+ * byte, least significant group first, high bit set on all but the last byte). Ranges are usually
+ * short and close together, so most entries take two or three bytes.
+ *
+ * <p>Varints can only be decoded in order, so the entries are split into groups of
+ * {@code skipInterval} entries. A skip index records the start suffix and the byte offset of the
+ * first entry of each group, which is stored without a distance. A lookup binary searches the skip
+ * index and then decodes at most {@code skipInterval} entries.
+ *
+ * <p>The block data is laid out as follows:
+ * <pre>
+ *     int prefix
+ *     int entryCount
+ *     unsigned byte skipInterval
+ *     int[groupCount] the start suffix of the first entry of each group
+ *     int[groupCount] the offset of the first entry of each group, from the first entry
+ *     byte[] the entries
+ * </pre>
+ */
+final class DeltaSuffixTableBlock implements SuffixTableBlock.SuffixTableBlockDelegate {
+
+    private static final int MAX_VARINT_SHIFT = 28;
+
+    private final SatS2RangeFileFormat mFileFormat;
+
+    private final BlockData mBlockData;
+
+    private final int mPrefix;
+
+    private final int mEntryCount;
+
+    private final int mSkipInterval;
+
+    private final int mGroupCount;
+
+    private final int mGroupStartSuffixesOffset;
+
+    private final int mGroupEntryOffsetsOffset;
+
+    private final int mEntriesOffset;
+
+    DeltaSuffixTableBlock(SatS2RangeFileFormat fileFormat, BlockData blockData) {
+        mFileFormat = Objects.requireNonNull(fileFormat);
+        mBlockData = Objects.requireNonNull(blockData);
+
+        int offset = 0;
+        mPrefix = blockData.getInt(offset);
+        offset += Integer.BYTES;
+        mEntryCount = blockData.getInt(offset);
+        offset += Integer.BYTES;
+        checkStateInRange("entryCount", mEntryCount, "minEntryCount", 1, "maxEntryCount",
+                fileFormat.getMaxSuffixValue());
+        mSkipInterval = blockData.getUnsignedByte(offset++);
+        checkStateInRange("skipInterval", mSkipInterval, "minSkipInterval", 1, "maxSkipInterval",
+                255);
+
+        mGroupCount = (mEntryCount + mSkipInterval - 1) / mSkipInterval;
+        mGroupStartSuffixesOffset = offset;
+        mGroupEntryOffsetsOffset = mGroupStartSuffixesOffset + mGroupCount * Integer.BYTES;
+        mEntriesOffset = mGroupEntryOffsetsOffset + mGroupCount * Integer.BYTES;
+    }
+
+    @Override
+    public int getPrefix() {
+        return mPrefix;
+    }
+
+    @Override
+    public SuffixTableBlock.Entry findEntryByCellId(long cellId) {
+        int suffixValue = mFileFormat.extractSuffixValueFromCellId(cellId);
+
+        // Binary search for the last group starting at or before the suffix.
+        int low = 0;
+        int high = mGroupCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getGroupStartSuffix(mid) <= suffixValue) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return null;
+        }
+
+        GroupCursor cursor = new GroupCursor(low - 1);
+        while (cursor.next()) {
+            if (suffixValue < cursor.mStartSuffix) {
+                return null;
+            }
+            if (suffixValue < cursor.mStartSuffix + cursor.mRangeLength) {
+                return cursor.createEntry();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public SuffixTableBlock.Entry findEntryByIndex(int i) {
+        if (i < 0 || i >= mEntryCount) {
+            throw new IndexOutOfBoundsException("i=" + i + ", entryCount=" + mEntryCount);
+        }
+        GroupCursor cursor = new GroupCursor(i / mSkipInterval);
+        for (int j = 0; j <= i % mSkipInterval; j++) {
+            cursor.next();
+        }
+        return cursor.createEntry();
+    }
+
+    @Override
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    @Override
+    public long getEntriesSizeBytes() {
+        return mBlockData.getSize() - mEntriesOffset;
+    }
+
+    private int getGroupStartSuffix(int group) {
+        return mBlockData.getInt(mGroupStartSuffixesOffset + group * Integer.BYTES);
+    }
+
+    private int getGroupEntryOffset(int group) {
+        return mBlockData.getInt(mGroupEntryOffsetsOffset + group * Integer.BYTES);
+    }
+
+    /** Decodes the entries of a group in order. */
+    private final class GroupCursor {
+
+        private final int mEndIndex;
+
+        private int mOffset;
+
+        private int mIndex;
+
+        int mStartSuffix;
+
+        int mRangeLength;
+
+        GroupCursor(int group) {
+            mIndex = group * mSkipInterval - 1;
+            mEndIndex = Math.min(mEntryCount, (group + 1) * mSkipInterval);
+            mOffset = mEntriesOffset + getGroupEntryOffset(group);
+            mStartSuffix = getGroupStartSuffix(group);
+        }
+
+        /** Decodes the next entry of the group, returns {@code false} at the end of the group. */
+        boolean next() {
+            if (mIndex + 1 >= mEndIndex) {
+                return false;
+            }
+            mIndex++;
+            if (mIndex % mSkipInterval != 0) {
+                // Only the entries after the first of the group store their start.
+                mStartSuffix += mRangeLength + readVarint();
+            }
+            mRangeLength = readVarint();
+            return true;
+        }
+
+        SuffixTableBlock.Entry createEntry() {
+            return new Entry(mIndex, mStartSuffix, mRangeLength);
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = mBlockData.getUnsignedByte(mOffset++);
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                if (shift >= MAX_VARINT_SHIFT) {
+                    throw new IllegalStateException("Malformed varint at offset=" + mOffset);
+                }
+            }
+        }
+    }
+
+    /**
+     * An entry from the {@link SuffixTableBlock}. Use {@link #getSuffixTableRange()} to get the
+     * full, interpreted entry data.
+     */
+    public final class Entry extends SuffixTableBlock.Entry {
+
+        private final int mIndex;
+
+        private final int mStartSuffix;
+
+        private final int mRangeLength;
+
+        private S2LevelRange mSuffixTableRange;
+
+        Entry(int index, int startSuffix, int rangeLength) {
+            mIndex = index;
+            mStartSuffix = startSuffix;
+            mRangeLength = rangeLength;
+        }
+
+        @Override
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /** Returns the data for this entry. */
+        @Override
+        public S2LevelRange getSuffixTableRange() {
+            // Creating SuffixTableRange is relatively expensive so it is created lazily and
+            // memoized.
+            if (mSuffixTableRange == null) {
+                mSuffixTableRange = SuffixTableBlock.createRange(
+                        mFileFormat, mPrefix, mStartSuffix, mRangeLength);
+            }
+            return mSuffixTableRange;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return mIndex == entry.mIndex
+                    && mStartSuffix == entry.mStartSuffix
+                    && mRangeLength == entry.mRangeLength;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mIndex, mStartSuffix, mRangeLength);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{"
+                    + "mIndex=" + mIndex
+                    + ", mStartSuffix=" + mStartSuffix
+                    + ", mRangeLength=" + mRangeLength
+                    + '}';
+        }
+    }
+}
@@ -40,10 +40,14 @@ public final class HeaderBlock {
         int suffixBitCount = blockData.getUnsignedByte(offset++);
         int suffixRecordBitCount = blockData.getUnsignedByte(offset++);
         int suffixTableBlockIdOffset = blockData.getUnsignedByte(offset++);
-        boolean isAllowedList = (blockData.getUnsignedByte(offset) == TRUE);
+        boolean isAllowedList = (blockData.getUnsignedByte(offset++) == TRUE);
+        // Files written before the suffix table version was introduced end here.
+        int suffixTableVersion = blockData.getSize() > offset
+                ? blockData.getUnsignedByte(offset)
+                : SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_PACKED;
         mFileFormat = new SatS2RangeFileFormat(
                 dataS2Level, prefixBitCount, suffixBitCount, suffixTableBlockIdOffset,
-                suffixRecordBitCount, isAllowedList);
+                suffixRecordBitCount, isAllowedList, suffixTableVersion);
     }
 
     /** Creates a {@link HeaderBlock} from low-level block data from a block file. */
@@ -16,10 +16,6 @@
 
 package com.android.telephony.sats2range.read;
 
-import static com.android.storage.s2.S2Support.MAX_FACE_ID;
-import static com.android.storage.s2.S2Support.cellIdToString;
-import static com.android.storage.util.Conditions.checkStateInRange;
-
 import com.android.storage.s2.S2LevelRange;
 import com.android.storage.table.packed.read.IntValueTypedPackedTable;
 import com.android.storage.table.reader.IntValueTable;
@@ -28,7 +24,8 @@ import java.util.Objects;
 
 /**
  * An implementation of {@link SuffixTableBlock.SuffixTableBlockDelegate} for tables that are backed
- * by real block data, i.e. have one or more entries.
+ * by real block data, i.e. have one or more entries, in
+ * {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_PACKED} files.
  *
  * <p>Logically, each populated suffix table block holds one or more entries for S2 ranges, e.g.:
  * <pre>
@@ -88,6 +85,11 @@ final class PopulatedSuffixTableBlock implements SuffixTableBlock.SuffixTableBlo
         return mPackedTable.getEntryCount();
     }
 
+    @Override
+    public long getEntriesSizeBytes() {
+        return (long) mPackedTable.getEntryCount() * mFileFormat.getTableEntryByteCount();
+    }
+
     /**
      * Returns an entry that matches the supplied matcher. If multiple entries match, an arbitrary
      * matching entry is returned. If no entries match then {@code null} is returned.
@@ -158,39 +160,11 @@ final class PopulatedSuffixTableBlock implements SuffixTableBlock.SuffixTableBlo
             // Creating SuffixTableRange is relatively expensive so it is created lazily and
             // memoized.
             if (mSuffixTableRange == null) {
-                // Create the range to return.
                 int startCellIdSuffix = mSuffixTableEntry.getKey();
-                checkStateInRange("startCellIdSuffixBits", startCellIdSuffix,
-                        "minSuffixValue", 0, "maxSuffixValue", mFileFormat.getMaxSuffixValue());
-                long startCellId = mFileFormat.createCellId(mPrefix, startCellIdSuffix);
-
-                int tableEntryValue = mSuffixTableEntry.getValue();
-                int rangeLength =
-                        mFileFormat.extractRangeLengthFromTableEntryValue(tableEntryValue);
-                checkStateInRange("rangeLength", rangeLength, "minRangeLength", 0, "maxRangeLength",
-                        mFileFormat.getTableEntryMaxRangeLengthValue());
-                int endCellIdSuffix = startCellIdSuffix + rangeLength;
-
-                int endCellPrefixValue = mPrefix;
-                if (endCellIdSuffix > mFileFormat.getMaxSuffixValue()) {
-                    // Handle the special case where the range ends in the next prefix. This is
-                    // because the range end is exclusive, so the end value is allowed to be first
-                    // cell ID from the next prefix.
-                    if (endCellIdSuffix != mFileFormat.getMaxSuffixValue() + 1) {
-                        throw new IllegalStateException("Range exceeds allowable cell IDs:"
-                                + " startCellId=" + cellIdToString(startCellId)
-                                + ", rangeLength=" + rangeLength);
-                    }
-                    endCellPrefixValue += 1;
-
-                    // Check to see if the face ID has overflowed, and wrap to face zero if it has.
-                    if (mFileFormat.extractFaceIdFromPrefix(endCellPrefixValue) > MAX_FACE_ID) {
-                        endCellPrefixValue = 0;
-                    }
-                    endCellIdSuffix = 0;
-                }
-                long endCellId = mFileFormat.createCellId(endCellPrefixValue, endCellIdSuffix);
-                mSuffixTableRange = new S2LevelRange(startCellId, endCellId);
+                int rangeLength = mFileFormat.extractRangeLengthFromTableEntryValue(
+                        mSuffixTableEntry.getValue());
+                mSuffixTableRange = SuffixTableBlock.createRange(
+                        mFileFormat, mPrefix, startCellIdSuffix, rangeLength);
             }
             return mSuffixTableRange;
         }
@@ -44,15 +44,35 @@ public final class SatS2RangeFileFormat {
      */
     public static final int BLOCK_TYPE_PADDING = 20;
 
-    /** The block type of a populated suffix table. */
+    /** The block type of a suffix table in {@link #SUFFIX_TABLE_VERSION_PACKED} files. */
     public static final int BLOCK_TYPE_SUFFIX_TABLE = 10;
 
+    /**
+     * The block type of a suffix table in {@link #SUFFIX_TABLE_VERSION_DELTA} files. It differs
+     * from {@link #BLOCK_TYPE_SUFFIX_TABLE} so that readers which only know about packed suffix
+     * tables reject these files rather than misinterpret them.
+     */
+    public static final int BLOCK_TYPE_DELTA_SUFFIX_TABLE = 11;
+
     /** The expected magic value of a satellite S2 data file. */
     public static final char MAGIC = 0xCFAF;
 
     /** The format version of the satellite S2 data file, read and written. */
     public static final int VERSION = 1;
 
+    /**
+     * The suffix table version storing each range as a fixed-width entry, see
+     * {@link PopulatedSuffixTableBlock}. Files with a header block that does not record a suffix
+     * table version use this version.
+     */
+    public static final int SUFFIX_TABLE_VERSION_PACKED = 1;
+
+    /**
+     * The suffix table version storing ranges as variable-length deltas with a skip index, see
+     * {@link DeltaSuffixTableBlock}.
+     */
+    public static final int SUFFIX_TABLE_VERSION_DELTA = 2;
+
     private final int mDataS2Level;
 
     private final int mPrefixBitCount;
@@ -86,14 +106,36 @@ public final class SatS2RangeFileFormat {
      */
     private final boolean mIsAllowedList;
 
+    /**
+     * How the suffix tables are stored, {@link #SUFFIX_TABLE_VERSION_PACKED} or
+     * {@link #SUFFIX_TABLE_VERSION_DELTA}.
+     */
+    private final int mSuffixTableVersion;
+
+    /**
+     * Creates a new file format with {@link #SUFFIX_TABLE_VERSION_PACKED} suffix tables. See
+     * {@link #SatS2RangeFileFormat(int, int, int, int, int, boolean, int)}.
+     */
+    public SatS2RangeFileFormat(int s2Level, int prefixBitCount, int suffixBitCount,
+            int suffixTableBlockIdOffset, int tableEntryBitCount, boolean isAllowedList) {
+        this(s2Level, prefixBitCount, suffixBitCount, suffixTableBlockIdOffset,
+                tableEntryBitCount, isAllowedList, SUFFIX_TABLE_VERSION_PACKED);
+    }
+
     /**
      * Creates a new file format. This constructor validates the values against various hard-coded
      * constraints and will throw an {@link IllegalArgumentException} if they are not satisfied.
+     *
+     * <p>{@code tableEntryBitCount} also bounds the range length of the entries of
+     * {@link #SUFFIX_TABLE_VERSION_DELTA} suffix tables, even though they are not fixed-width.
      */
     public SatS2RangeFileFormat(int s2Level, int prefixBitCount, int suffixBitCount,
-            int suffixTableBlockIdOffset, int tableEntryBitCount, boolean isAllowedList) {
+            int suffixTableBlockIdOffset, int tableEntryBitCount, boolean isAllowedList,
+            int suffixTableVersion) {
 
         Conditions.checkArgInRange("s2Level", s2Level, 0, MAX_S2_LEVEL);
+        Conditions.checkArgInRange("suffixTableVersion", suffixTableVersion,
+                SUFFIX_TABLE_VERSION_PACKED, SUFFIX_TABLE_VERSION_DELTA);
 
         // prefixBitCount must include at least the face bits and one more, it makes the logic
         // for mMaxPrefixValue easier below. We also assume that prefix and suffix will be 31-bits
@@ -180,6 +222,8 @@ public final class SatS2RangeFileFormat {
         mSuffixTableBlockIdOffset = suffixTableBlockIdOffset;
 
         mIsAllowedList = isAllowedList;
+
+        mSuffixTableVersion = suffixTableVersion;
     }
 
     /** Returns the S2 level of all geo data stored in the file. */
@@ -260,6 +304,20 @@ public final class SatS2RangeFileFormat {
         return mIsAllowedList;
     }
 
+    /**
+     * Returns how the suffix tables are stored, {@link #SUFFIX_TABLE_VERSION_PACKED} or
+     * {@link #SUFFIX_TABLE_VERSION_DELTA}.
+     */
+    public int getSuffixTableVersion() {
+        return mSuffixTableVersion;
+    }
+
+    /** Returns the block type of the suffix tables, which depends on the suffix table version. */
+    public int getSuffixTableBlockType() {
+        return mSuffixTableVersion == SUFFIX_TABLE_VERSION_DELTA
+                ? BLOCK_TYPE_DELTA_SUFFIX_TABLE : BLOCK_TYPE_SUFFIX_TABLE;
+    }
+
     /** Extracts the prefix bits from a cell ID and returns them as an unsigned int. */
     public int extractPrefixValueFromCellId(long cellId) {
         checkS2Level("cellId", cellId);
@@ -359,6 +417,7 @@ public final class SatS2RangeFileFormat {
                 + ", mSuffixTableBlockIdOffset=" + mSuffixTableBlockIdOffset
                 + ", mUnusedCellIdBitCount=" + mUnusedCellIdBitCount
                 + ", mIsAllowedList=" + mIsAllowedList
+                + ", mSuffixTableVersion=" + mSuffixTableVersion
                 + '}';
     }
 
@@ -381,6 +440,7 @@ public final class SatS2RangeFileFormat {
                 && mTableEntryMaxRangeLengthValue == that.mTableEntryMaxRangeLengthValue
                 && mSuffixTableBlockIdOffset == that.mSuffixTableBlockIdOffset
                 && mIsAllowedList == that.mIsAllowedList
+                && mSuffixTableVersion == that.mSuffixTableVersion
                 && mUnusedCellIdBitCount == that.mUnusedCellIdBitCount;
     }
 
@@ -389,7 +449,7 @@ public final class SatS2RangeFileFormat {
         return Objects.hash(mDataS2Level, mPrefixBitCount, mMaxPrefixValue, mSuffixBitCount,
                 mMaxSuffixValue, mTableEntryBitCount, mTableEntryRangeLengthBitCount,
                 mTableEntryMaxRangeLengthValue, mSuffixTableBlockIdOffset, mIsAllowedList,
-                mUnusedCellIdBitCount);
+                mUnusedCellIdBitCount, mSuffixTableVersion);
     }
 
     private void checkS2Level(String name, long cellId) {
@@ -26,13 +26,31 @@ import com.android.storage.util.Visitor;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /** Provides access to the content of a satellite S2 data file. */
 public final class SatS2RangeFileReader implements AutoCloseable {
 
+    /** The default number of decoded suffix table blocks kept by {@link #open(File)}. */
+    public static final int DEFAULT_BLOCK_CACHE_SIZE = 32;
+
     private final BlockFileReader mBlockFileReader;
 
+    /**
+     * The most recently used populated {@link SuffixTableBlock}s keyed by prefix, so that repeated
+     * lookups in the same region reuse the decoded table. {@code null} when caching is disabled.
+     */
+    private final Map<Integer, SuffixTableBlock> mBlockCache;
+
+    private long mBlockCacheHitCount;
+
+    private long mBlockCacheMissCount;
+
     private HeaderBlock mHeaderBlock;
 
     private SuffixTableExtraInfo[] mSuffixTableExtraInfos;
@@ -42,21 +60,46 @@ public final class SatS2RangeFileReader implements AutoCloseable {
 
     private boolean mClosed;
 
-    private SatS2RangeFileReader(BlockFileReader blockFileReader) {
+    private SatS2RangeFileReader(BlockFileReader blockFileReader, int blockCacheSize) {
         mBlockFileReader = Objects.requireNonNull(blockFileReader);
+        mBlockCache = blockCacheSize > 0 ? createBlockCache(blockCacheSize) : null;
+    }
+
+    private static Map<Integer, SuffixTableBlock> createBlockCache(int maxSize) {
+        return new LinkedHashMap<>(maxSize, 0.75f, true /* accessOrder */) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, SuffixTableBlock> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Opens the specified file, keeping up to {@link #DEFAULT_BLOCK_CACHE_SIZE} decoded suffix
+     * tables. See {@link #open(File, int)}.
+     */
+    public static SatS2RangeFileReader open(File file) throws IOException {
+        return open(file, DEFAULT_BLOCK_CACHE_SIZE);
     }
 
     /**
      * Opens the specified file. Throws {@link IOException} in the event of a access problem reading
      * the file. Throws {@link IllegalArgumentException} if the file has a format / syntax problem.
      *
+     * <p>The file is mapped once as a whole. Up to {@code blockCacheSize} of the most recently
+     * used suffix tables are kept decoded, {@code 0} decodes the table on every lookup.
+     *
      * <p>After open, use methods like {@link #findEntryByCellId(long)} to access the data.
      */
-    public static SatS2RangeFileReader open(File file) throws IOException {
+    public static SatS2RangeFileReader open(File file, int blockCacheSize) throws IOException {
+        Conditions.checkArgInRange("blockCacheSize", blockCacheSize, 0, Integer.MAX_VALUE);
+        // Blocks are sliced from a single mapping of the whole file rather than mapped one by
+        // one.
         boolean memoryMapBlocks = false;
         BlockFileReader blockFileReader = BlockFileReader.open(
                 memoryMapBlocks, file, SatS2RangeFileFormat.MAGIC, SatS2RangeFileFormat.VERSION);
-        SatS2RangeFileReader satS2RangeFileReader = new SatS2RangeFileReader(blockFileReader);
+        SatS2RangeFileReader satS2RangeFileReader =
+                new SatS2RangeFileReader(blockFileReader, blockCacheSize);
         satS2RangeFileReader.initialize();
         return satS2RangeFileReader;
     }
@@ -88,7 +131,7 @@ public final class SatS2RangeFileReader implements AutoCloseable {
             int blockId = prefix + mFileFormat.getSuffixTableBlockIdOffset();
             BlockInfo blockInfo = mBlockFileReader.getBlockInfo(blockId);
             int type = blockInfo.getType();
-            if (type == SatS2RangeFileFormat.BLOCK_TYPE_SUFFIX_TABLE) {
+            if (type == mFileFormat.getSuffixTableBlockType()) {
                 mSuffixTableExtraInfos[prefix] =
                         SuffixTableExtraInfo.create(mFileFormat, blockInfo);
             } else {
@@ -150,12 +193,7 @@ public final class SatS2RangeFileReader implements AutoCloseable {
      */
     public S2LevelRange findEntryByCellId(long cellId) throws IOException {
         checkNotClosed();
-        int dataS2Level = mFileFormat.getS2Level();
-        int searchS2Level = S2Support.getS2Level(cellId);
-        if (dataS2Level != searchS2Level) {
-            throw new IllegalArgumentException(
-                    "data S2 level=" + dataS2Level + ", search S2 level=" + searchS2Level);
-        }
+        checkS2Level(cellId);
 
         int prefix = mFileFormat.extractPrefixValueFromCellId(cellId);
         SuffixTableBlock suffixTableBlock = getSuffixTableBlockForPrefix(prefix);
@@ -166,6 +204,166 @@ public final class SatS2RangeFileReader implements AutoCloseable {
         return suffixTableEntry.getSuffixTableRange();
     }
 
+    /**
+     * Finds the {@link S2LevelRange}s associated with ranges covering each of {@code cellIds}.
+     * Element {@code i} of the returned array is the range covering {@code cellIds[i]}, or
+     * {@code null} if no range exists. Throws {@link IllegalArgumentException} if any cell ID is
+     * not the correct S2 level for the file.
+     *
+     * <p>The cell IDs are resolved in S2 order, so each suffix table is decoded at most once per
+     * call, and cell IDs following one another within the same range reuse the previous result
+     * instead of searching the table again.
+     */
+    public S2LevelRange[] findEntriesByCellIds(long[] cellIds) throws IOException {
+        checkNotClosed();
+        for (long cellId : cellIds) {
+            checkS2Level(cellId);
+        }
+
+        Integer[] order = new Integer[cellIds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(cellIds[a], cellIds[b]));
+
+        S2LevelRange[] results = new S2LevelRange[cellIds.length];
+        SuffixTableBlock suffixTableBlock = null;
+        S2LevelRange lastRange = null;
+        for (int index : order) {
+            long cellId = cellIds[index];
+            int prefix = mFileFormat.extractPrefixValueFromCellId(cellId);
+            if (suffixTableBlock == null || suffixTableBlock.getPrefix() != prefix) {
+                suffixTableBlock = getSuffixTableBlockForPrefix(prefix);
+                lastRange = null;
+            }
+            if (lastRange == null || !contains(lastRange, cellId)) {
+                SuffixTableBlock.Entry suffixTableEntry =
+                        suffixTableBlock.findEntryByCellId(cellId);
+                lastRange = suffixTableEntry == null
+                        ? null : suffixTableEntry.getSuffixTableRange();
+            }
+            results[index] = lastRange;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the {@link S2LevelRange}s which intersect the cell IDs from {@code startCellId}
+     * (inclusive) to {@code endCellId} (exclusive), in S2 order. An {@code endCellId} which is not
+     * after {@code startCellId} is treated as the end of the last face, matching how ranges wrap in
+     * the file. Throws {@link IllegalArgumentException} if either cell ID is not the correct S2
+     * level for the file.
+     *
+     * <p>The suffix tables visited by this method are not added to the block cache, so large
+     * queries do not evict the tables used by point lookups.
+     */
+    public List<S2LevelRange> findEntriesInRange(long startCellId, long endCellId)
+            throws IOException {
+        checkNotClosed();
+        checkS2Level(startCellId);
+        checkS2Level(endCellId);
+
+        boolean toEndOfLastFace = Long.compareUnsigned(endCellId, startCellId) <= 0;
+        int startPrefix = mFileFormat.extractPrefixValueFromCellId(startCellId);
+        int endPrefix = toEndOfLastFace
+                ? mFileFormat.getMaxPrefixValue()
+                : mFileFormat.extractPrefixValueFromCellId(endCellId);
+        List<S2LevelRange> results = new ArrayList<>();
+        for (int prefix = startPrefix; prefix <= endPrefix; prefix++) {
+            if (getSuffixTableExtraInfoForPrefix(prefix).isEmpty()) {
+                continue;
+            }
+            SuffixTableBlock suffixTableBlock = getCachedSuffixTableBlock(prefix);
+            if (suffixTableBlock == null) {
+                suffixTableBlock = readSuffixTableBlock(prefix);
+            }
+            for (int i = 0; i < suffixTableBlock.getEntryCount(); i++) {
+                S2LevelRange range = suffixTableBlock.getEntryByIndex(i).getSuffixTableRange();
+                if (!toEndOfLastFace
+                        && Long.compareUnsigned(range.getStartCellId(), endCellId) >= 0) {
+                    break;
+                }
+                if (isAfter(range, startCellId)) {
+                    results.add(range);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the range of cell IDs around {@code cellId} which is not covered by any entry,
+     * bounded by the neighboring entries or the ends of the suffix table {@code cellId} belongs
+     * to, or {@code null} if an entry covers {@code cellId}. Throws
+     * {@link IllegalArgumentException} if {@code cellId} is not the correct S2 level for the file.
+     */
+    public S2LevelRange findGapByCellId(long cellId) throws IOException {
+        checkNotClosed();
+        checkS2Level(cellId);
+
+        int prefix = mFileFormat.extractPrefixValueFromCellId(cellId);
+        SuffixTableBlock suffixTableBlock = getSuffixTableBlockForPrefix(prefix);
+        // Binary search for the first entry starting after cellId.
+        int low = 0;
+        int high = suffixTableBlock.getEntryCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long startCellId =
+                    suffixTableBlock.getEntryByIndex(mid).getSuffixTableRange().getStartCellId();
+            if (Long.compareUnsigned(startCellId, cellId) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        long gapStartCellId;
+        if (low > 0) {
+            S2LevelRange previousRange =
+                    suffixTableBlock.getEntryByIndex(low - 1).getSuffixTableRange();
+            if (isAfter(previousRange, cellId)) {
+                return null;
+            }
+            gapStartCellId = previousRange.getEndCellId();
+        } else {
+            gapStartCellId = mFileFormat.createCellId(prefix, 0);
+        }
+        long gapEndCellId;
+        if (low < suffixTableBlock.getEntryCount()) {
+            gapEndCellId =
+                    suffixTableBlock.getEntryByIndex(low).getSuffixTableRange().getStartCellId();
+        } else if (prefix < mFileFormat.getMaxPrefixValue()) {
+            gapEndCellId = mFileFormat.createCellId(prefix + 1, 0);
+        } else {
+            // The last suffix table ends with the first cell ID of face 0.
+            gapEndCellId = mFileFormat.createCellId(0, 0);
+        }
+        return new S2LevelRange(gapStartCellId, gapEndCellId);
+    }
+
+    /** Returns {@code true} if {@code cellId} is within {@code range}. */
+    private static boolean contains(S2LevelRange range, long cellId) {
+        return Long.compareUnsigned(cellId, range.getStartCellId()) >= 0
+                && isAfter(range, cellId);
+    }
+
+    /** Returns {@code true} if the (exclusive) end of {@code range} is after {@code cellId}. */
+    private static boolean isAfter(S2LevelRange range, long cellId) {
+        long endCellId = range.getEndCellId();
+        // The last range of the last face ends with the first cell ID of face 0.
+        return Long.compareUnsigned(endCellId, range.getStartCellId()) <= 0
+                || Long.compareUnsigned(endCellId, cellId) > 0;
+    }
+
+    private void checkS2Level(long cellId) {
+        int dataS2Level = mFileFormat.getS2Level();
+        int searchS2Level = S2Support.getS2Level(cellId);
+        if (dataS2Level != searchS2Level) {
+            throw new IllegalArgumentException(
+                    "data S2 level=" + dataS2Level + ", search S2 level=" + searchS2Level);
+        }
+    }
+
     private SuffixTableExtraInfo getSuffixTableExtraInfoForPrefix(int prefixValue) {
         Conditions.checkArgInRange(
                 "prefixValue", prefixValue, "minPrefixValue", 0, "maxPrefixValue",
@@ -179,6 +377,37 @@ public final class SatS2RangeFileReader implements AutoCloseable {
         if (suffixTableExtraInfo.isEmpty()) {
             return SuffixTableBlock.createEmpty(mFileFormat, prefix);
         }
+        if (mBlockCache == null) {
+            return readSuffixTableBlock(prefix);
+        }
+        synchronized (mBlockCache) {
+            SuffixTableBlock suffixTableBlock = mBlockCache.get(prefix);
+            if (suffixTableBlock != null) {
+                mBlockCacheHitCount++;
+                return suffixTableBlock;
+            }
+            mBlockCacheMissCount++;
+            suffixTableBlock = readSuffixTableBlock(prefix);
+            mBlockCache.put(prefix, suffixTableBlock);
+            return suffixTableBlock;
+        }
+    }
+
+    /**
+     * Returns the cached populated {@link SuffixTableBlock} for {@code prefix}, or {@code null} if
+     * it is not cached. Unlike {@link #getSuffixTableBlockForPrefix(int)}, a miss does not add the
+     * table to the cache.
+     */
+    private SuffixTableBlock getCachedSuffixTableBlock(int prefix) {
+        if (mBlockCache == null) {
+            return null;
+        }
+        synchronized (mBlockCache) {
+            return mBlockCache.get(prefix);
+        }
+    }
+
+    private SuffixTableBlock readSuffixTableBlock(int prefix) throws IOException {
         Block block = mBlockFileReader.getBlock(prefix + mFileFormat.getSuffixTableBlockIdOffset());
         SuffixTableBlock suffixTableBlock =
                 SuffixTableBlock.createPopulated(mFileFormat, block.getData());
@@ -193,6 +422,11 @@ public final class SatS2RangeFileReader implements AutoCloseable {
     public void close() throws IOException {
         mClosed = true;
         mHeaderBlock = null;
+        if (mBlockCache != null) {
+            synchronized (mBlockCache) {
+                mBlockCache.clear();
+            }
+        }
         mBlockFileReader.close();
     }
 
@@ -208,6 +442,32 @@ public final class SatS2RangeFileReader implements AutoCloseable {
         return mHeaderBlock.getFileFormat().getS2Level();
     }
 
+    /**
+     * Returns the number of lookups which reused a cached suffix table. Always zero if the file
+     * was opened without a block cache.
+     */
+    public long getBlockCacheHitCount() {
+        if (mBlockCache == null) {
+            return 0;
+        }
+        synchronized (mBlockCache) {
+            return mBlockCacheHitCount;
+        }
+    }
+
+    /**
+     * Returns the number of lookups which had to decode a suffix table into the cache. Always zero
+     * if the file was opened without a block cache.
+     */
+    public long getBlockCacheMissCount() {
+        if (mBlockCache == null) {
+            return 0;
+        }
+        synchronized (mBlockCache) {
+            return mBlockCacheMissCount;
+        }
+    }
+
     /**
      * @return {@code true} if the satellite S2 file contains an allowed list of S2 cells.
      * {@code false} if the satellite S2 file contains a disallowed list of S2 cells.
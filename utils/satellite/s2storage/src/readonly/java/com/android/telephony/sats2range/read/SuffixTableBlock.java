@@ -16,8 +16,10 @@
 
 package com.android.telephony.sats2range.read;
 
+import static com.android.storage.s2.S2Support.MAX_FACE_ID;
 import static com.android.storage.s2.S2Support.cellIdToString;
 import static com.android.storage.s2.S2Support.getS2Level;
+import static com.android.storage.util.Conditions.checkStateInRange;
 
 import com.android.storage.block.read.BlockData;
 import com.android.storage.s2.S2LevelRange;
@@ -59,10 +61,13 @@ public final class SuffixTableBlock {
 
     private final int mPrefix;
 
+    private final long mBlockSizeBytes;
+
     /**
-     * The implementation of the suffix table block. Suffix table blocks have two main
-     * implementations: zero-length blocks used to represent empty tables, and blocks containing
-     * {@link IntValueTypedPackedTable} data. Since they are so different they are implemented
+     * The implementation of the suffix table block. Suffix table blocks have three
+     * implementations: zero-length blocks used to represent empty tables, blocks containing
+     * {@link IntValueTypedPackedTable} data and blocks containing delta-encoded data (see
+     * {@link DeltaSuffixTableBlock}). Since they are so different they are implemented
      * independently.
      */
     interface SuffixTableBlockDelegate {
@@ -83,26 +88,40 @@ public final class SuffixTableBlock {
 
         /** Returns the number of entries in the table. */
         int getEntryCount();
+
+        /**
+         * Returns the size of the entries of the table, excluding any header or index data of the
+         * block.
+         */
+        long getEntriesSizeBytes();
     }
 
-    private SuffixTableBlock(SatS2RangeFileFormat fileFormat, SuffixTableBlockDelegate delegate) {
+    private SuffixTableBlock(SatS2RangeFileFormat fileFormat, SuffixTableBlockDelegate delegate,
+            long blockSizeBytes) {
         mFileFormat = Objects.requireNonNull(fileFormat);
         mDelegate = Objects.requireNonNull(delegate);
         mPrefix = delegate.getPrefix();
+        mBlockSizeBytes = blockSizeBytes;
     }
 
     /**
      * Creates a populated {@link SuffixTableBlock} by interpreting {@link BlockData} and using
-     * the supplied format information.
+     * the supplied format information. The block data is interpreted according to
+     * {@link SatS2RangeFileFormat#getSuffixTableVersion()}.
      */
     public static SuffixTableBlock createPopulated(
             SatS2RangeFileFormat fileFormat, BlockData blockData) {
         if (blockData.getSize() == 0) {
             throw new IllegalArgumentException("blockData=" + blockData + ", is zero length");
         }
-        IntValueTypedPackedTable packedTable = new IntValueTypedPackedTable(blockData);
-        PopulatedSuffixTableBlock delegate = new PopulatedSuffixTableBlock(fileFormat, packedTable);
-        return new SuffixTableBlock(fileFormat, delegate);
+        SuffixTableBlockDelegate delegate;
+        if (fileFormat.getSuffixTableVersion() == SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_DELTA) {
+            delegate = new DeltaSuffixTableBlock(fileFormat, blockData);
+        } else {
+            IntValueTypedPackedTable packedTable = new IntValueTypedPackedTable(blockData);
+            delegate = new PopulatedSuffixTableBlock(fileFormat, packedTable);
+        }
+        return new SuffixTableBlock(fileFormat, delegate, blockData.getSize());
     }
 
     /**
@@ -110,7 +129,8 @@ public final class SuffixTableBlock {
      * the supplied format information.
      */
     public static SuffixTableBlock createEmpty(SatS2RangeFileFormat fileFormat, int prefix) {
-        return new SuffixTableBlock(fileFormat, new UnpopulatedSuffixTableBlock(prefix));
+        return new SuffixTableBlock(
+                fileFormat, new UnpopulatedSuffixTableBlock(prefix), 0 /* blockSizeBytes */);
     }
 
     /** Returns the prefix for this table. */
@@ -151,6 +171,55 @@ public final class SuffixTableBlock {
         return mDelegate.getEntryCount();
     }
 
+    /** Returns the size of the block data holding the table, zero for empty tables. */
+    public long getBlockSizeBytes() {
+        return mBlockSizeBytes;
+    }
+
+    /**
+     * Returns the size of the entries of the table, i.e. {@link #getBlockSizeBytes()} without the
+     * header and index data of the block.
+     */
+    public long getEntriesSizeBytes() {
+        return mDelegate.getEntriesSizeBytes();
+    }
+
+    /**
+     * Creates the range for a table entry of the table with {@code prefix} from the suffix of its
+     * start cell ID and its length. Throws {@link IllegalStateException} if the entry is invalid.
+     */
+    static S2LevelRange createRange(SatS2RangeFileFormat fileFormat, int prefix,
+            int startCellIdSuffix, int rangeLength) {
+        checkStateInRange("startCellIdSuffixBits", startCellIdSuffix,
+                "minSuffixValue", 0, "maxSuffixValue", fileFormat.getMaxSuffixValue());
+        long startCellId = fileFormat.createCellId(prefix, startCellIdSuffix);
+
+        checkStateInRange("rangeLength", rangeLength, "minRangeLength", 0, "maxRangeLength",
+                fileFormat.getTableEntryMaxRangeLengthValue());
+        int endCellIdSuffix = startCellIdSuffix + rangeLength;
+
+        int endCellPrefixValue = prefix;
+        if (endCellIdSuffix > fileFormat.getMaxSuffixValue()) {
+            // Handle the special case where the range ends in the next prefix. This is
+            // because the range end is exclusive, so the end value is allowed to be first
+            // cell ID from the next prefix.
+            if (endCellIdSuffix != fileFormat.getMaxSuffixValue() + 1) {
+                throw new IllegalStateException("Range exceeds allowable cell IDs:"
+                        + " startCellId=" + cellIdToString(startCellId)
+                        + ", rangeLength=" + rangeLength);
+            }
+            endCellPrefixValue += 1;
+
+            // Check to see if the face ID has overflowed, and wrap to face zero if it has.
+            if (fileFormat.extractFaceIdFromPrefix(endCellPrefixValue) > MAX_FACE_ID) {
+                endCellPrefixValue = 0;
+            }
+            endCellIdSuffix = 0;
+        }
+        long endCellId = fileFormat.createCellId(endCellPrefixValue, endCellIdSuffix);
+        return new S2LevelRange(startCellId, endCellId);
+    }
+
     /** A {@link Visitor} for the {@link SuffixTableBlock}. See {@link #visit} */
     public interface SuffixTableBlockVisitor extends Visitor {
 
@@ -57,9 +57,9 @@ public final class SuffixTableExtraInfo {
      */
     public static SuffixTableExtraInfo create(
             SatS2RangeFileFormat fileFormat, BlockInfo blockInfo) {
-        if (blockInfo.getType() != SatS2RangeFileFormat.BLOCK_TYPE_SUFFIX_TABLE) {
+        if (blockInfo.getType() != fileFormat.getSuffixTableBlockType()) {
             throw new IllegalArgumentException("blockType=" + blockInfo.getType()
-                    + " is not of expected type=" + SatS2RangeFileFormat.BLOCK_TYPE_SUFFIX_TABLE);
+                    + " is not of expected type=" + fileFormat.getSuffixTableBlockType());
         }
         int prefix = blockInfo.getId() - fileFormat.getSuffixTableBlockIdOffset();
         if (blockInfo.getBlockSizeBytes() == 0) {
@@ -47,4 +47,9 @@ final class UnpopulatedSuffixTableBlock implements SuffixTableBlock.SuffixTableB
     public int getEntryCount() {
         return 0;
     }
+
+    @Override
+    public long getEntriesSizeBytes() {
+        return 0;
+    }
 }
@@ -48,6 +48,20 @@ public class HeaderBlockTest {
         assertEquals(fileFormat, headerBlock.getFileFormat());
     }
 
+    @Test
+    public void readWrite_deltaSuffixTables() throws IOException {
+        SatS2RangeFileFormat fileFormat = TestUtils.createS2RangeFileFormat(
+                true, SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_DELTA);
+
+        HeaderBlockWriter headerBlockWriter = HeaderBlockWriter.create(fileFormat);
+        BlockWriter.ReadBack readBack = headerBlockWriter.close();
+
+        HeaderBlock headerBlock = HeaderBlock.wrap(readBack.getBlockData());
+        assertEquals(fileFormat, headerBlock.getFileFormat());
+        assertEquals(SatS2RangeFileFormat.BLOCK_TYPE_DELTA_SUFFIX_TABLE,
+                headerBlock.getFileFormat().getSuffixTableBlockType());
+    }
+
     @Test
     public void visit() throws Exception {
         SatS2RangeFileFormat fileFormat = TestUtils.createS2RangeFileFormat(true);
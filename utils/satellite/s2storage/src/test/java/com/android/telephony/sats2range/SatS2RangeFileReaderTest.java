@@ -16,7 +16,9 @@
 
 package com.android.telephony.sats2range;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.android.storage.s2.S2LevelRange;
 import com.android.telephony.sats2range.read.SatS2RangeFileFormat;
@@ -29,7 +31,9 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 public class SatS2RangeFileReaderTest {
     @Test
@@ -78,4 +82,193 @@ public class SatS2RangeFileReaderTest {
             assertEquals(expectedRange3, range3);
         }
     }
+
+    @Test
+    public void findEntryByCellId_blockCache() throws IOException {
+        File file = File.createTempFile("test", ".dat");
+
+        int prefixCount = 64;
+        int rangesPerPrefix = 10;
+        SatS2RangeFileFormat fileFormat;
+        try (SatS2RangeFileWriter satS2RangeFileWriter = SatS2RangeFileWriter.open(
+                file, TestUtils.createS2RangeFileFormat(true /* isAllowedList */))) {
+            fileFormat = satS2RangeFileWriter.getFileFormat();
+
+            List<S2LevelRange> ranges = new ArrayList<>();
+            for (int prefix = 0; prefix < prefixCount; prefix++) {
+                for (int i = 0; i < rangesPerPrefix; i++) {
+                    ranges.add(new S2LevelRange(
+                            TestUtils.createCellId(fileFormat, 1, prefix, i * 1000),
+                            TestUtils.createCellId(fileFormat, 1, prefix, i * 1000 + 500)));
+                }
+            }
+            satS2RangeFileWriter.createSortedSuffixBlocks(ranges.iterator());
+        }
+
+        // Random lookups over all prefixes, followed by clustered lookups which stay within a few
+        // prefixes, as happens when the device location barely changes.
+        Random random = new Random(1234);
+        List<Long> cellIds = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            cellIds.add(TestUtils.createCellId(
+                    fileFormat, 1, random.nextInt(prefixCount), random.nextInt(10000)));
+        }
+        int clusteredLookups = 1000;
+        for (int i = 0; i < clusteredLookups; i++) {
+            cellIds.add(TestUtils.createCellId(
+                    fileFormat, 1, random.nextInt(2), random.nextInt(10000)));
+        }
+
+        int blockCacheSize = 4;
+        try (SatS2RangeFileReader uncachedReader = SatS2RangeFileReader.open(file, 0);
+                SatS2RangeFileReader cachedReader =
+                        SatS2RangeFileReader.open(file, blockCacheSize)) {
+            for (long cellId : cellIds) {
+                assertEquals(uncachedReader.findEntryByCellId(cellId),
+                        cachedReader.findEntryByCellId(cellId));
+            }
+
+            assertEquals(0, uncachedReader.getBlockCacheHitCount());
+            assertEquals(0, uncachedReader.getBlockCacheMissCount());
+            assertEquals(cellIds.size(), cachedReader.getBlockCacheHitCount()
+                    + cachedReader.getBlockCacheMissCount());
+            // All clustered lookups but the first of each prefix are served from the cache.
+            assertTrue(cachedReader.getBlockCacheHitCount() >= clusteredLookups - 2);
+        }
+    }
+
+    @Test
+    public void findEntryByCellId_deltaSuffixTables() throws IOException {
+        File packedFile = File.createTempFile("test", ".dat");
+        File deltaFile = File.createTempFile("test", ".dat");
+
+        SatS2RangeFileFormat packedFileFormat = TestUtils.createS2RangeFileFormat(true);
+        SatS2RangeFileFormat deltaFileFormat = TestUtils.createS2RangeFileFormat(
+                true, SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_DELTA);
+        List<S2LevelRange> ranges = new ArrayList<>();
+        for (int prefix = 0; prefix < 8; prefix++) {
+            for (int i = 0; i < 100; i++) {
+                ranges.add(new S2LevelRange(
+                        TestUtils.createCellId(packedFileFormat, 1, prefix, i * 100),
+                        TestUtils.createCellId(packedFileFormat, 1, prefix, i * 100 + 1 + i)));
+            }
+        }
+        try (SatS2RangeFileWriter packedWriter =
+                     SatS2RangeFileWriter.open(packedFile, packedFileFormat);
+                SatS2RangeFileWriter deltaWriter =
+                        SatS2RangeFileWriter.open(deltaFile, deltaFileFormat)) {
+            packedWriter.createSortedSuffixBlocks(ranges.iterator());
+            deltaWriter.createSortedSuffixBlocks(ranges.iterator());
+        }
+        assertTrue(deltaFile.length() < packedFile.length());
+
+        Random random = new Random(1234);
+        try (SatS2RangeFileReader packedReader = SatS2RangeFileReader.open(packedFile);
+                SatS2RangeFileReader deltaReader = SatS2RangeFileReader.open(deltaFile)) {
+            for (int i = 0; i < 1000; i++) {
+                long cellId = TestUtils.createCellId(
+                        packedFileFormat, 1, random.nextInt(10), random.nextInt(12000));
+                assertEquals(packedReader.findEntryByCellId(cellId),
+                        deltaReader.findEntryByCellId(cellId));
+                assertEquals(packedReader.findGapByCellId(cellId),
+                        deltaReader.findGapByCellId(cellId));
+            }
+            long startCellId = TestUtils.createCellId(packedFileFormat, 1, 0, 0);
+            assertEquals(ranges, deltaReader.findEntriesInRange(startCellId, startCellId));
+        }
+    }
+
+    @Test
+    public void findEntriesByCellIds() throws IOException {
+        File file = File.createTempFile("test", ".dat");
+
+        SatS2RangeFileFormat fileFormat;
+        S2LevelRange expectedRange1, expectedRange2, expectedRange3;
+        try (SatS2RangeFileWriter satS2RangeFileWriter = SatS2RangeFileWriter.open(
+                file, TestUtils.createS2RangeFileFormat(true /* isAllowedList */))) {
+            fileFormat = satS2RangeFileWriter.getFileFormat();
+
+            expectedRange1 = new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1000, 1000),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2000));
+            expectedRange2 = new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2000),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 3000));
+            expectedRange3 = new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1001, 1000),
+                    TestUtils.createCellId(fileFormat, 1, 1001, 2000));
+            satS2RangeFileWriter.createSortedSuffixBlocks(
+                    Arrays.asList(expectedRange1, expectedRange2, expectedRange3).iterator());
+        }
+
+        try (SatS2RangeFileReader satS2RangeFileReader = SatS2RangeFileReader.open(file)) {
+            // Unsorted, with duplicates, misses and an empty suffix table.
+            long[] cellIds = {
+                    TestUtils.createCellId(fileFormat, 1, 1001, 1500),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2500),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 999),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 1500),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 1501),
+                    TestUtils.createCellId(fileFormat, 5, 3, 1500),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2500),
+            };
+            S2LevelRange[] expectedRanges = {
+                    expectedRange3, expectedRange2, null, expectedRange1, expectedRange1, null,
+                    expectedRange2,
+            };
+            assertArrayEquals(expectedRanges,
+                    satS2RangeFileReader.findEntriesByCellIds(cellIds));
+            for (int i = 0; i < cellIds.length; i++) {
+                assertEquals(expectedRanges[i],
+                        satS2RangeFileReader.findEntryByCellId(cellIds[i]));
+            }
+        }
+    }
+
+    @Test
+    public void findEntriesInRange() throws IOException {
+        File file = File.createTempFile("test", ".dat");
+
+        SatS2RangeFileFormat fileFormat;
+        S2LevelRange range1, range2, range3;
+        try (SatS2RangeFileWriter satS2RangeFileWriter = SatS2RangeFileWriter.open(
+                file, TestUtils.createS2RangeFileFormat(true /* isAllowedList */))) {
+            fileFormat = satS2RangeFileWriter.getFileFormat();
+
+            range1 = new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1000, 1000),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 2000));
+            range2 = new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1000, 3000),
+                    TestUtils.createCellId(fileFormat, 1, 1000, 4000));
+            range3 = new S2LevelRange(
+                    TestUtils.createCellId(fileFormat, 1, 1002, 1000),
+                    TestUtils.createCellId(fileFormat, 1, 1002, 2000));
+            satS2RangeFileWriter.createSortedSuffixBlocks(
+                    Arrays.asList(range1, range2, range3).iterator());
+        }
+
+        try (SatS2RangeFileReader satS2RangeFileReader = SatS2RangeFileReader.open(file)) {
+            // Partially overlapping the first and last ranges.
+            assertEquals(Arrays.asList(range1, range2, range3),
+                    satS2RangeFileReader.findEntriesInRange(
+                            TestUtils.createCellId(fileFormat, 1, 1000, 1999),
+                            TestUtils.createCellId(fileFormat, 1, 1002, 1001)));
+            // Ends are exclusive.
+            assertEquals(Arrays.asList(range2),
+                    satS2RangeFileReader.findEntriesInRange(
+                            TestUtils.createCellId(fileFormat, 1, 1000, 2000),
+                            TestUtils.createCellId(fileFormat, 1, 1002, 1000)));
+            // Between ranges.
+            assertEquals(new ArrayList<S2LevelRange>(),
+                    satS2RangeFileReader.findEntriesInRange(
+                            TestUtils.createCellId(fileFormat, 1, 1000, 4000),
+                            TestUtils.createCellId(fileFormat, 1, 1002, 1000)));
+            // An end before the start runs to the end of the last face.
+            assertEquals(Arrays.asList(range3),
+                    satS2RangeFileReader.findEntriesInRange(
+                            TestUtils.createCellId(fileFormat, 1, 1001, 0),
+                            TestUtils.createCellId(fileFormat, 0, 0, 0)));
+        }
+    }
 }
@@ -35,6 +35,8 @@ import org.junit.Test;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 
+import java.util.Random;
+
 /** Tests for {@link SuffixTableWriter} and {@link SuffixTableBlock}. */
 public class SuffixTableBlockTest {
     @Test
@@ -302,6 +304,79 @@ public class SuffixTableBlockTest {
         inOrder.verify(mockVisitor).end();
     }
 
+    @Test
+    public void suffixTableBlock_delta_matchesPacked() throws Exception {
+        SatS2RangeFileFormat packedFileFormat = TestUtils.createS2RangeFileFormat(true);
+        SatS2RangeFileFormat deltaFileFormat = TestUtils.createS2RangeFileFormat(
+                true, SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_DELTA);
+
+        int tablePrefix = 0b10011_00110100;
+        int maxSuffix = 0b111111_11111111;
+        SuffixTableSharedData sharedData = new SuffixTableSharedData(tablePrefix);
+        SuffixTableWriter packedWriter =
+                SuffixTableWriter.createPopulated(packedFileFormat, sharedData);
+        SuffixTableWriter deltaWriter =
+                SuffixTableWriter.createPopulated(deltaFileFormat, sharedData);
+
+        // Enough ranges for several skip index groups, with and without gaps between them, and a
+        // last range which ends with the first cell ID of the next prefix.
+        Random random = new Random(1234);
+        int suffix = 0;
+        int entryCount = 0;
+        while (suffix < maxSuffix - 1000) {
+            int rangeLength = 1 + random.nextInt(100);
+            packedWriter.addRange(createRange(packedFileFormat, tablePrefix, suffix, rangeLength));
+            deltaWriter.addRange(createRange(deltaFileFormat, tablePrefix, suffix, rangeLength));
+            entryCount++;
+            suffix += rangeLength + (random.nextBoolean() ? 0 : random.nextInt(200));
+        }
+        packedWriter.addRange(
+                createRange(packedFileFormat, tablePrefix, maxSuffix - 10, 11));
+        deltaWriter.addRange(createRange(deltaFileFormat, tablePrefix, maxSuffix - 10, 11));
+        entryCount++;
+
+        BlockWriter.ReadBack packedReadBack = packedWriter.close();
+        BlockWriter.ReadBack deltaReadBack = deltaWriter.close();
+        assertEquals(SatS2RangeFileFormat.BLOCK_TYPE_DELTA_SUFFIX_TABLE, deltaReadBack.getType());
+        assertArrayEquals(packedReadBack.getExtraBytes(), deltaReadBack.getExtraBytes());
+        SuffixTableBlock packedBlock = SuffixTableBlock.createPopulated(
+                packedFileFormat, packedReadBack.getBlockData());
+        SuffixTableBlock deltaBlock = SuffixTableBlock.createPopulated(
+                deltaFileFormat, deltaReadBack.getBlockData());
+        assertTrue(deltaBlock.getBlockSizeBytes() < packedBlock.getBlockSizeBytes());
+        assertEquals((long) entryCount * packedFileFormat.getTableEntryByteCount(),
+                packedBlock.getEntriesSizeBytes());
+        assertTrue(deltaBlock.getEntriesSizeBytes() < packedBlock.getEntriesSizeBytes());
+        assertTrue(deltaBlock.getEntriesSizeBytes() < deltaBlock.getBlockSizeBytes());
+
+        assertEquals(tablePrefix, deltaBlock.getPrefix());
+        assertEquals(entryCount, deltaBlock.getEntryCount());
+        for (int i = 0; i < entryCount; i++) {
+            assertEquals(i, deltaBlock.getEntryByIndex(i).getIndex());
+            assertEquals(packedBlock.getEntryByIndex(i).getSuffixTableRange(),
+                    deltaBlock.getEntryByIndex(i).getSuffixTableRange());
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> deltaBlock.getEntryByIndex(-1));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> deltaBlock.getEntryByIndex(entryCount));
+
+        for (int i = 0; i <= maxSuffix; i += 7) {
+            assertEquals(findEntryByCellId(packedFileFormat, packedBlock, tablePrefix, i),
+                    findEntryByCellId(deltaFileFormat, deltaBlock, tablePrefix, i));
+        }
+        assertEquals(createRange(deltaFileFormat, tablePrefix, maxSuffix - 10, 11),
+                findEntryByCellId(deltaFileFormat, deltaBlock, tablePrefix, maxSuffix));
+    }
+
+    private static S2LevelRange createRange(
+            SatS2RangeFileFormat fileFormat, int prefix, int startSuffix, int rangeLength) {
+        int endSuffix = startSuffix + rangeLength;
+        long endCellId = endSuffix > fileFormat.getMaxSuffixValue()
+                ? fileFormat.createCellId(prefix + 1, 0)
+                : fileFormat.createCellId(prefix, endSuffix);
+        return new S2LevelRange(fileFormat.createCellId(prefix, startSuffix), endCellId);
+    }
+
     private S2LevelRange findEntryByCellId(SatS2RangeFileFormat fileFormat,
             SuffixTableBlock suffixTableBlock, int prefix, int suffix) {
         long cellId = fileFormat.createCellId(prefix, suffix);
@@ -38,6 +38,13 @@ public class TestUtils {
 
     /** Returns a valid {@link SatS2RangeFileFormat}. */
     public static SatS2RangeFileFormat createS2RangeFileFormat(boolean isAllowedList) {
+        return createS2RangeFileFormat(
+                isAllowedList, SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_PACKED);
+    }
+
+    /** Returns a valid {@link SatS2RangeFileFormat} with the specified suffix table version. */
+    public static SatS2RangeFileFormat createS2RangeFileFormat(
+            boolean isAllowedList, int suffixTableVersion) {
         int dataS2Level = TEST_S2_LEVEL;
         int faceIdBits = 3;
         int bitCountPerLevel = 2;
@@ -48,7 +55,8 @@ public class TestUtils {
         int suffixTableEntryBitCount = 4 * Byte.SIZE;
         int suffixTableBlockIdOffset = 5;
         return new SatS2RangeFileFormat(dataS2Level, prefixBitCount, suffixBitCount,
-                suffixTableBlockIdOffset, suffixTableEntryBitCount, isAllowedList);
+                suffixTableBlockIdOffset, suffixTableEntryBitCount, isAllowedList,
+                suffixTableVersion);
     }
 
     /** Create an S2 cell ID */
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.sats2range.write;
+
+import com.android.storage.io.write.TypedOutputStream;
+import com.android.telephony.sats2range.read.SatS2RangeFileFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the entries of a {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_DELTA} suffix table.
+ * See {@code DeltaSuffixTableBlock} for the layout of the block data.
+ */
+final class DeltaSuffixTableEncoder {
+
+    /**
+     * The number of entries per skip index entry. Lookups decode up to this many entries after a
+     * binary search of the skip index, which costs 8 bytes per group.
+     */
+    static final int SKIP_INTERVAL = 16;
+
+    private final int mPrefix;
+
+    private final ByteArrayOutputStream mEntryBytes = new ByteArrayOutputStream();
+
+    private final List<Integer> mGroupStartSuffixes = new ArrayList<>();
+
+    private final List<Integer> mGroupEntryOffsets = new ArrayList<>();
+
+    private int mEntryCount;
+
+    private int mLastEndSuffix;
+
+    DeltaSuffixTableEncoder(int prefix) {
+        mPrefix = prefix;
+    }
+
+    /**
+     * Adds an entry. Entries must be added in order and must not overlap, which is checked by
+     * {@link SuffixTableWriter}.
+     */
+    void addEntry(int startSuffix, int rangeLength) {
+        if (mEntryCount % SKIP_INTERVAL == 0) {
+            mGroupStartSuffixes.add(startSuffix);
+            mGroupEntryOffsets.add(mEntryBytes.size());
+        } else {
+            writeVarint(startSuffix - mLastEndSuffix);
+        }
+        writeVarint(rangeLength);
+        mLastEndSuffix = startSuffix + rangeLength;
+        mEntryCount++;
+    }
+
+    /** Returns the number of entries added. */
+    int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /** Writes the block data. */
+    void writeTo(TypedOutputStream tos) throws IOException {
+        tos.writeInt(mPrefix);
+        tos.writeInt(mEntryCount);
+        tos.writeUnsignedByte(SKIP_INTERVAL);
+        for (int groupStartSuffix : mGroupStartSuffixes) {
+            tos.writeInt(groupStartSuffix);
+        }
+        for (int groupEntryOffset : mGroupEntryOffsets) {
+            tos.writeInt(groupEntryOffset);
+        }
+        for (byte entryByte : mEntryBytes.toByteArray()) {
+            tos.writeUnsignedByte(entryByte & 0xFF);
+        }
+    }
+
+    private void writeVarint(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value=" + value + " must be >= 0");
+        }
+        while ((value & ~0x7F) != 0) {
+            mEntryBytes.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mEntryBytes.write(value);
+    }
+}
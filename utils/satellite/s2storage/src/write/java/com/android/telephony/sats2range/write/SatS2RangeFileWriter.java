@@ -164,7 +164,7 @@ public final class SatS2RangeFileWriter implements AutoCloseable {
         BlockWriter blockWriter;
         if (samePrefixRanges.size() == 0) {
             // Add an empty block.
-            blockWriter = SuffixTableWriter.createEmptyBlockWriter();
+            blockWriter = SuffixTableWriter.createEmptyBlockWriter(mFileFormat);
         } else {
             // Create a suffix table block.
             SuffixTableSharedData sharedData = new SuffixTableSharedData(currentPrefix);
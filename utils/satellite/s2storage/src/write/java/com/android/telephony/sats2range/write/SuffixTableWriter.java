@@ -29,6 +29,7 @@ import com.android.telephony.sats2range.read.SatS2RangeFileFormat;
 import com.android.telephony.sats2range.read.SuffixTableExtraInfo;
 import com.android.telephony.sats2range.read.SuffixTableSharedData;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -39,10 +40,11 @@ import java.nio.file.StandardOpenOption;
 
 /**
  * A class used to generate suffix tables block info and block data.
- * To write empty tables use {@link #createEmptyBlockWriter()}.
+ * To write empty tables use {@link #createEmptyBlockWriter(SatS2RangeFileFormat)}.
  * To write populated tables use {@link
  * #createPopulated(SatS2RangeFileFormat, SuffixTableSharedData)} and add entries with
- * {@link #addRange(S2LevelRange)}
+ * {@link #addRange(S2LevelRange)}. Tables are encoded according to
+ * {@link SatS2RangeFileFormat#getSuffixTableVersion()}.
  */
 public final class SuffixTableWriter implements BlockWriter {
 
@@ -50,10 +52,16 @@ public final class SuffixTableWriter implements BlockWriter {
 
     private final SatS2RangeFileFormat mFileFormat;
 
+    /** Writes the entries of {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_PACKED} tables. */
     private final PackedTableWriter mPackedTableWriter;
 
+    /** Writes the entries of {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_DELTA} tables. */
+    private final DeltaSuffixTableEncoder mDeltaEncoder;
+
     private final File mFile;
 
+    private boolean mIsOpen = true;
+
     private S2LevelRange mLastRangeAdded;
 
     private SuffixTableWriter(SatS2RangeFileFormat fileFormat, SuffixTableSharedData sharedData)
@@ -61,6 +69,13 @@ public final class SuffixTableWriter implements BlockWriter {
         mFileFormat = fileFormat;
         mSharedData = sharedData;
 
+        if (fileFormat.getSuffixTableVersion() == SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_DELTA) {
+            mFile = File.createTempFile("suffixtablewriter", ".delta");
+            mPackedTableWriter = null;
+            mDeltaEncoder = new DeltaSuffixTableEncoder(sharedData.getTablePrefix());
+            return;
+        }
+
         int keySizeBits = fileFormat.getSuffixBitCount();
         int entrySizeByteCount = fileFormat.getTableEntryByteCount();
         mFile = File.createTempFile("suffixtablewriter", ".packed");
@@ -70,13 +85,25 @@ public final class SuffixTableWriter implements BlockWriter {
         boolean signedValue = false;
         mPackedTableWriter = PackedTableWriter.create(
                 fileOutputStream, entrySizeByteCount, keySizeBits, signedValue, blockSharedData);
+        mDeltaEncoder = null;
     }
 
-    /** Returns a {@link BlockWriter} capable of generating the block data for an empty table. */
+    /**
+     * Returns a {@link BlockWriter} capable of generating the block data for an empty table in a
+     * {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_PACKED} file.
+     */
     public static BlockWriter createEmptyBlockWriter() {
         return new EmptyBlockWriter(SatS2RangeFileFormat.BLOCK_TYPE_SUFFIX_TABLE);
     }
 
+    /**
+     * Returns a {@link BlockWriter} capable of generating the block data for an empty table in a
+     * file with the specified format.
+     */
+    public static BlockWriter createEmptyBlockWriter(SatS2RangeFileFormat fileFormat) {
+        return new EmptyBlockWriter(fileFormat.getSuffixTableBlockType());
+    }
+
     /** Returns a {@link BlockWriter} capable of generating the block data for a populated table. */
     public static SuffixTableWriter createPopulated(
             SatS2RangeFileFormat fileFormat, SuffixTableSharedData sharedData) throws IOException {
@@ -87,7 +114,7 @@ public final class SuffixTableWriter implements BlockWriter {
      * Adds the supplied range to the table. The range must start after any previously added range,
      * no overlap is allowed. Gaps are permitted. The range must have the expected S2 cell ID
      * prefix. Invalid ranges will cause {@link IllegalArgumentException}. This method must be
-     * called at least once. See {@link SuffixTableWriter#createEmptyBlockWriter()} for empty
+     * called at least once. See {@link #createEmptyBlockWriter(SatS2RangeFileFormat)} for empty
      * tables.
      */
     public void addRange(S2LevelRange suffixTableRange) throws IOException {
@@ -139,22 +166,39 @@ public final class SuffixTableWriter implements BlockWriter {
 
         int rangeLength = mFileFormat.calculateRangeLength(rangeStartCellId, rangeEndCellId);
 
+        // Also checks the range length fits, whichever the encoding.
         long value = mFileFormat.createSuffixTableValue(rangeLength);
-        mPackedTableWriter.addEntry(rangeStartSuffixValue, value);
+        if (mDeltaEncoder != null) {
+            mDeltaEncoder.addEntry(rangeStartSuffixValue, rangeLength);
+        } else {
+            mPackedTableWriter.addEntry(rangeStartSuffixValue, value);
+        }
         mLastRangeAdded = suffixTableRange;
     }
 
     @Override
     public ReadBack close() throws IOException {
         checkIsOpen();
-        mPackedTableWriter.close();
+        mIsOpen = false;
         mLastRangeAdded = null;
 
-        int entryCount = mPackedTableWriter.getEntryCount();
+        int entryCount;
+        if (mDeltaEncoder != null) {
+            entryCount = mDeltaEncoder.getEntryCount();
+        } else {
+            mPackedTableWriter.close();
+            entryCount = mPackedTableWriter.getEntryCount();
+        }
         if (entryCount == 0) {
             throw new IllegalStateException("No ranges added. For an empty suffix table, use"
                     + " createEmptySuffixTableBlockWriter()");
         }
+        if (mDeltaEncoder != null) {
+            try (TypedOutputStream tos = new TypedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mFile)))) {
+                mDeltaEncoder.writeTo(tos);
+            }
+        }
 
         FileChannel fileChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ);
         MappedByteBuffer map = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, mFile.length());
@@ -174,7 +218,7 @@ public final class SuffixTableWriter implements BlockWriter {
 
             @Override
             public int getType() {
-                return SatS2RangeFileFormat.BLOCK_TYPE_SUFFIX_TABLE;
+                return mFileFormat.getSuffixTableBlockType();
             }
 
             @Override
@@ -185,7 +229,7 @@ public final class SuffixTableWriter implements BlockWriter {
     }
 
     private void checkIsOpen() {
-        if (!mPackedTableWriter.isOpen()) {
+        if (!mIsOpen) {
             throw new IllegalStateException("Writer is closed.");
         }
     }
@@ -16,6 +16,8 @@
 
 package com.android.telephony.tools.sats2;
 
+import com.android.telephony.sats2range.read.SatS2RangeFileFormat;
+
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
@@ -26,6 +28,7 @@ public final class CreateSatS2File {
      * Usage:
      * CreateSatS2File <[input] s2 cells file> <[input] s2 level of input data>
      *     <[input] whether s2 cells is an allowed list> <[output] sat s2 file>
+     *     [<[input] suffix table format: packed (default) or delta>]
      */
     public static void main(String[] args) throws Exception {
         Arguments arguments = new Arguments();
@@ -37,7 +40,11 @@ public final class CreateSatS2File {
         int s2Level = arguments.s2Level;
         String outputFile = arguments.outputFile;
         boolean isAllowedList = Arguments.getBooleanValue(arguments.isAllowedList);
-        SatS2FileCreator.create(inputFile, s2Level, isAllowedList, outputFile);
+        int suffixTableVersion =
+                Arguments.getSuffixTableVersionValue(arguments.suffixTableFormat);
+        SatS2FileCreator.create(inputFile,
+                FileFormats.getFileFormatForLevel(s2Level, isAllowedList, suffixTableVersion),
+                outputFile);
     }
 
     private static class Arguments {
@@ -61,6 +68,11 @@ public final class CreateSatS2File {
                 required = true)
         public String outputFile;
 
+        @Parameter(names = "--suffix-table-format",
+                description = "how suffix tables are stored: packed or delta. delta files are"
+                        + " smaller but cannot be read by older readers")
+        public String suffixTableFormat = "packed";
+
         public static Boolean getBooleanValue(String value) {
             if ("false".equalsIgnoreCase(value) || "true".equalsIgnoreCase(value)) {
                 return Boolean.parseBoolean(value);
@@ -68,5 +80,15 @@ public final class CreateSatS2File {
                 throw new ParameterException("Invalid boolean string:" + value);
             }
         }
+
+        public static int getSuffixTableVersionValue(String value) {
+            if ("packed".equalsIgnoreCase(value)) {
+                return SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_PACKED;
+            } else if ("delta".equalsIgnoreCase(value)) {
+                return SatS2RangeFileFormat.SUFFIX_TABLE_VERSION_DELTA;
+            } else {
+                throw new ParameterException("Invalid suffix table format:" + value);
+            }
+        }
     }
 }
@@ -41,7 +41,9 @@ public final class DumpSatS2File {
 
         File satS2File = new File(satS2FileName);
         try (SatS2RangeFileReader reader = SatS2RangeFileReader.open(satS2File)) {
-            reader.visit(new SatS2RangeFileDumper(outputDir));
+            SatS2RangeFileDumper dumper = new SatS2RangeFileDumper(outputDir);
+            reader.visit(dumper);
+            System.out.println(dumper.getSizeSummary());
         }
     }
 }
@@ -56,4 +56,17 @@ public final class FileFormats {
                         + ", isAllowedList=" + isAllowedList + " not mapped");
         }
     }
+
+    /**
+     * Like {@link #getFileFormatForLevel(int, boolean)}, but with the suffix tables stored as
+     * {@code suffixTableVersion}, e.g. {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_DELTA}.
+     */
+    public static SatS2RangeFileFormat getFileFormatForLevel(
+            int s2Level, boolean isAllowedList, int suffixTableVersion) {
+        SatS2RangeFileFormat fileFormat = getFileFormatForLevel(s2Level, isAllowedList);
+        return new SatS2RangeFileFormat(fileFormat.getS2Level(), fileFormat.getPrefixBitCount(),
+                fileFormat.getSuffixBitCount(), fileFormat.getSuffixTableBlockIdOffset(),
+                fileFormat.getTableEntryBitCount(), fileFormat.isAllowedList(),
+                suffixTableVersion);
+    }
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.tools.sats2;
+
+import com.android.storage.s2.S2LevelRange;
+
+import com.google.common.geometry.S2CellId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns a stream of S2 cells of any level into the sorted, merged S2 ranges at a fixed S2 level,
+ * without holding all of them in memory.
+ *
+ * <p>Cells added with {@link #add(long)} are collected in chunks. Each chunk is denormalized to
+ * the S2 level, sorted and merged on a pool of worker threads and spilled to a temporary file as
+ * a sorted run. {@link #iterator()} then merges the runs into the final ranges in a single
+ * streaming pass, and can be called again to replay them, e.g. for validation.
+ */
+final class SatS2RangeSorter implements AutoCloseable {
+    /** The default number of cells per chunk. */
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private static final Comparator<long[]> RANGE_START_COMPARATOR =
+            (a, b) -> Long.compareUnsigned(a[0], b[0]);
+
+    private final int mS2Level;
+    private final int mChunkSize;
+    private final int mThreadCount;
+    private final ExecutorService mExecutorService;
+    private final Path mTempDir;
+    private final Deque<Future<File>> mPendingRuns = new ArrayDeque<>();
+    private final List<File> mRuns = new ArrayList<>();
+    private final List<RunReader> mOpenRunReaders = new ArrayList<>();
+
+    private long[] mChunk;
+    private int mChunkCellCount;
+    private long mCellCount;
+    private boolean mFinished;
+
+    /**
+     * @param s2Level the S2 level of the output ranges.
+     * @param chunkSize the number of cells sorted in memory at once per thread.
+     * @param threadCount the number of worker threads.
+     */
+    SatS2RangeSorter(int s2Level, int chunkSize, int threadCount) throws IOException {
+        if (chunkSize <= 0 || threadCount <= 0) {
+            throw new IllegalArgumentException("chunkSize=" + chunkSize
+                    + " and threadCount=" + threadCount + " must be positive");
+        }
+        mS2Level = s2Level;
+        mChunkSize = chunkSize;
+        mThreadCount = threadCount;
+        mExecutorService = Executors.newFixedThreadPool(threadCount);
+        mTempDir = Files.createTempDirectory("sats2");
+        mChunk = new long[chunkSize];
+    }
+
+    /** Adds an S2 cell of any level. */
+    void add(long s2CellNumber) throws IOException {
+        if (mFinished) {
+            throw new IllegalStateException("Already finished");
+        }
+        mChunk[mChunkCellCount++] = s2CellNumber;
+        mCellCount++;
+        if (mChunkCellCount == mChunkSize) {
+            submitChunk();
+        }
+    }
+
+    /** Sorts the remaining cells and waits for all the runs to be written. */
+    void finish() throws IOException {
+        if (mFinished) {
+            return;
+        }
+        if (mChunkCellCount > 0) {
+            submitChunk();
+        }
+        while (!mPendingRuns.isEmpty()) {
+            awaitOldestRun();
+        }
+        mChunk = null;
+        mFinished = true;
+    }
+
+    /** Returns the number of cells added. */
+    long getCellCount() {
+        return mCellCount;
+    }
+
+    /** Returns the number of sorted runs spilled to disk. */
+    int getRunCount() {
+        return mRuns.size();
+    }
+
+    /**
+     * Returns the sorted ranges covering all added cells at the S2 level. Overlapping and adjacent
+     * ranges are merged. Must be called after {@link #finish()}. I/O errors while iterating are
+     * thrown as {@link UncheckedIOException}.
+     */
+    Iterator<S2LevelRange> iterator() throws IOException {
+        if (!mFinished) {
+            throw new IllegalStateException("Not finished");
+        }
+        PriorityQueue<RunReader> runReaders = new PriorityQueue<>(
+                Math.max(1, mRuns.size()),
+                (a, b) -> Long.compareUnsigned(a.mRangeStart, b.mRangeStart));
+        for (File run : mRuns) {
+            RunReader runReader = new RunReader(run);
+            mOpenRunReaders.add(runReader);
+            if (runReader.advance()) {
+                runReaders.add(runReader);
+            }
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !runReaders.isEmpty();
+            }
+
+            @Override
+            public S2LevelRange next() {
+                if (runReaders.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    RunReader first = runReaders.poll();
+                    long rangeStart = first.mRangeStart;
+                    long rangeEnd = first.mRangeEnd;
+                    advance(first);
+                    while (!runReaders.isEmpty()
+                            && Long.compareUnsigned(runReaders.peek().mRangeStart, rangeEnd)
+                                    <= 0) {
+                        RunReader next = runReaders.poll();
+                        if (Long.compareUnsigned(next.mRangeEnd, rangeEnd) > 0) {
+                            rangeEnd = next.mRangeEnd;
+                        }
+                        advance(next);
+                    }
+                    return new S2LevelRange(rangeStart, rangeEnd);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            private void advance(RunReader runReader) throws IOException {
+                if (runReader.advance()) {
+                    runReaders.add(runReader);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        mExecutorService.shutdownNow();
+        for (RunReader runReader : mOpenRunReaders) {
+            runReader.close();
+        }
+        for (File run : mRuns) {
+            Files.deleteIfExists(run.toPath());
+        }
+        // Runs still being written by cancelled tasks are removed with the directory.
+        File[] leftovers = mTempDir.toFile().listFiles();
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                Files.deleteIfExists(leftover.toPath());
+            }
+        }
+        Files.deleteIfExists(mTempDir);
+    }
+
+    private void submitChunk() throws IOException {
+        // Bound the memory used by chunks waiting for a worker.
+        while (mPendingRuns.size() >= mThreadCount) {
+            awaitOldestRun();
+        }
+        long[] chunk = Arrays.copyOf(mChunk, mChunkCellCount);
+        File run = mTempDir.resolve("run" + (mRuns.size() + mPendingRuns.size())).toFile();
+        mPendingRuns.add(mExecutorService.submit(() -> sortChunk(chunk, run)));
+        mChunkCellCount = 0;
+    }
+
+    private void awaitOldestRun() throws IOException {
+        try {
+            mRuns.add(mPendingRuns.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sorting S2 cells", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Failed to sort S2 cells", cause);
+        }
+    }
+
+    /**
+     * Denormalizes, sorts and merges the cells of {@code chunk}, and writes the resulting ranges
+     * to {@code run}.
+     */
+    private File sortChunk(long[] chunk, File run) throws IOException {
+        long[][] ranges = new long[chunk.length][];
+        for (int i = 0; i < chunk.length; i++) {
+            ranges[i] = denormalize(chunk[i], mS2Level);
+        }
+        Arrays.sort(ranges, RANGE_START_COMPARATOR);
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run)))) {
+            long rangeStart = ranges[0][0];
+            long rangeEnd = ranges[0][1];
+            for (int i = 1; i < ranges.length; i++) {
+                if (Long.compareUnsigned(ranges[i][0], rangeEnd) > 0) {
+                    out.writeLong(rangeStart);
+                    out.writeLong(rangeEnd);
+                    rangeStart = ranges[i][0];
+                }
+                if (Long.compareUnsigned(ranges[i][1], rangeEnd) > 0) {
+                    rangeEnd = ranges[i][1];
+                }
+            }
+            out.writeLong(rangeStart);
+            out.writeLong(rangeEnd);
+        }
+        return run;
+    }
+
+    /**
+     * Returns the range of cells at {@code s2Level} covered by the cell {@code s2CellNumber} as
+     * {start (inclusive), end (exclusive)}. Cells below {@code s2Level} are replaced by their
+     * parent.
+     */
+    private static long[] denormalize(long s2CellNumber, int s2Level) {
+        S2CellId s2CellId = new S2CellId(s2CellNumber);
+        if (s2CellId.level() > s2Level) {
+            s2CellId = s2CellId.parent(s2Level);
+        }
+        S2CellId rangeStart = s2CellId.childBegin(s2Level);
+        S2CellId rangeEnd = s2CellId.childEnd(s2Level);
+        if (rangeEnd.face() < rangeStart.face() || !rangeEnd.isValid()) {
+            // Fix this if it becomes an issue.
+            throw new IllegalStateException("s2CellId=" + s2CellId
+                    + ", childEnd(" + s2Level + ") produced an unsupported"
+                    + " value=" + rangeEnd);
+        }
+        return new long[] {rangeStart.id(), rangeEnd.id()};
+    }
+
+    /** Reads the ranges of a sorted run one at a time. */
+    private static final class RunReader {
+        private final DataInputStream mIn;
+        private boolean mClosed;
+        long mRangeStart;
+        long mRangeEnd;
+
+        RunReader(File run) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+        }
+
+        /** Reads the next range, returns {@code false} and closes the run at its end. */
+        boolean advance() throws IOException {
+            try {
+                mRangeStart = mIn.readLong();
+                mRangeEnd = mIn.readLong();
+                return true;
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+        }
+
+        void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                mIn.close();
+            }
+        }
+    }
+}
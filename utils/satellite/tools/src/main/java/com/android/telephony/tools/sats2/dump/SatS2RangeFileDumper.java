@@ -43,6 +43,14 @@ public final class SatS2RangeFileDumper implements SatS2RangeFileReader.SatS2Ran
 
     private SingleFileDumper mExtraInfoDumper;
 
+    private SatS2RangeFileFormat mFileFormat;
+
+    private long mEntryCount;
+
+    private long mSuffixTableBytes;
+
+    private long mSuffixTableEntryBytes;
+
     public SatS2RangeFileDumper(File outputDir) {
         mOutputDir = outputDir;
     }
@@ -66,6 +74,7 @@ public final class SatS2RangeFileDumper implements SatS2RangeFileReader.SatS2Ran
         File headerFile = new File(mOutputDir, "header.txt");
         headerBlock.visit(new HeaderBlockDumper(headerFile));
         SatS2RangeFileFormat fileFormat = headerBlock.getFileFormat();
+        mFileFormat = fileFormat;
         mMaxPrefix = fileFormat.getMaxPrefixValue();
         mMaxPrefixBinaryLength = binaryStringLength(mMaxPrefix);
         mMaxPrefixHexLength = hexStringLength(mMaxPrefix);
@@ -75,11 +84,37 @@ public final class SatS2RangeFileDumper implements SatS2RangeFileReader.SatS2Ran
     public void visitSuffixTableBlock(SuffixTableBlock suffixTableBlock)
             throws VisitException {
         suffixTableBlock.visit(new SuffixTableBlockDumper(mOutputDir, mMaxPrefix));
+        mEntryCount += suffixTableBlock.getEntryCount();
+        mSuffixTableBytes += suffixTableBlock.getBlockSizeBytes();
+        mSuffixTableEntryBytes += suffixTableBlock.getEntriesSizeBytes();
     }
 
     @Override
     public void end() throws VisitException {
         mExtraInfoDumper.end();
+
+        SingleFileDumper sizeDumper = new SingleFileDumper(new File(mOutputDir, "size.txt"));
+        sizeDumper.begin();
+        sizeDumper.println(getSizeSummary());
+        sizeDumper.end();
+    }
+
+    /**
+     * Returns the size of the suffix tables of the file. The size of their entries, without the
+     * header and index data of each table, is compared to the size of the same entries stored
+     * with fixed-width entries, i.e. as {@link SatS2RangeFileFormat#SUFFIX_TABLE_VERSION_PACKED}.
+     */
+    public String getSizeSummary() {
+        long packedEntryBytes = mEntryCount * mFileFormat.getTableEntryByteCount();
+        long savedBytes = packedEntryBytes - mSuffixTableEntryBytes;
+        return "suffixTableVersion=" + mFileFormat.getSuffixTableVersion()
+                + ", entryCount=" + mEntryCount
+                + ", suffixTableBytes=" + mSuffixTableBytes
+                + ", suffixTableEntryBytes=" + mSuffixTableEntryBytes
+                + ", packedEntryBytes=" + packedEntryBytes
+                + ", savedBytes=" + savedBytes
+                + (packedEntryBytes > 0
+                        ? " (" + (savedBytes * 100 / packedEntryBytes) + "%)" : "");
     }
 }
 
@@ -16,6 +16,7 @@
 
 package com.android.telephony.tools.sats2;
 
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
@@ -23,13 +24,23 @@ import com.android.telephony.sats2range.read.SatS2RangeFileFormat;
 import com.android.telephony.sats2range.read.SatS2RangeFileReader;
 import com.android.telephony.sats2range.utils.TestUtils;
 
+import com.google.common.geometry.S2CellId;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 
 /** Tests for {@link CreateSatS2File} */
@@ -92,6 +103,57 @@ public final class CreateSatS2FileTest {
         fail("Exception should have been caught");
     }
 
+    @Test
+    public void testCreateSatS2FileWithLargeClusteredInput() throws Exception {
+        int s2Level = 12;
+        Path inputFilePath = mTempDirPath.resolve("s2cells.txt");
+        Path outputFilePath = mTempDirPath.resolve("sats2.dat");
+        SatS2RangeFileFormat fileFormat = FileFormats.getFileFormatForLevel(s2Level, true);
+        List<Long> cells = createClusteredS2CellFile(inputFilePath.toFile(), 200_000, s2Level);
+
+        // Sort the input in many small chunks on several threads.
+        SatS2FileCreator.create(inputFilePath.toAbsolutePath().toString(), fileFormat,
+                outputFilePath.toAbsolutePath().toString(), 10_000 /* chunkSize */,
+                4 /* threadCount */);
+
+        try (SatS2RangeFileReader satS2RangeFileReader =
+                     SatS2RangeFileReader.open(outputFilePath.toFile())) {
+            for (int i = 0; i < cells.size(); i += 97) {
+                assertNotNull(satS2RangeFileReader.findEntryByCellId(cells.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Writes {@code cellCount} S2 cells at {@code s2Level} in random order. The cells are drawn
+     * from clusters of consecutive cells, like real coverage data, and some are repeated.
+     *
+     * @return The cells written to the file, in the same order.
+     */
+    private static List<Long> createClusteredS2CellFile(File file, int cellCount, int s2Level)
+            throws IOException {
+        Random random = new Random(0);
+        S2CellId begin = S2CellId.begin(s2Level);
+        long cellSpacing = begin.next().id() - begin.id();
+        long cellsPerFace = 1L << (2 * s2Level);
+        List<Long> cells = new ArrayList<>(cellCount);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            while (cells.size() < cellCount) {
+                long firstCell = begin.id() + (long) random.nextInt(6) * cellsPerFace * cellSpacing
+                        + (long) (random.nextDouble() * (cellsPerFace - 1000)) * cellSpacing;
+                int clusterSize = 1 + random.nextInt(1000);
+                for (int j = 0; j < clusterSize && cells.size() < cellCount; j++) {
+                    long cell = firstCell + (long) random.nextInt(clusterSize) * cellSpacing;
+                    writer.write(Long.toUnsignedString(cell));
+                    writer.newLine();
+                    cells.add(cell);
+                }
+            }
+        }
+        return cells;
+    }
+
     private void testCreateSatS2FileWithValidInput(boolean isAllowedList) throws Exception {
         int s2Level = 12;
         Path inputDirPath = mTempDirPath.resolve("input");
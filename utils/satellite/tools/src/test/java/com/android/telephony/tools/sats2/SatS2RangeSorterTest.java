@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.tools.sats2;
+
+import static org.junit.Assert.assertEquals;
+
+import com.android.storage.s2.S2LevelRange;
+
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/** Tests for {@link SatS2RangeSorter} */
+public final class SatS2RangeSorterTest {
+    private static final int S2_LEVEL = 12;
+
+    @Test
+    public void testMergesRunsFromSeveralThreads() throws Exception {
+        S2CellId first = S2CellId.fromLatLng(S2LatLng.fromDegrees(37.4, -122.1)).parent(S2_LEVEL);
+        List<Long> cells = new ArrayList<>();
+        // [first, first + 100) and [first + 200, first + 300), with duplicates, plus a finer
+        // cell inside the gap and a coarser cell far away.
+        for (int i = 0; i < 300; i++) {
+            if (i < 100 || i >= 200) {
+                cells.add(advance(first, i).id());
+                cells.add(advance(first, i).id());
+            }
+        }
+        S2CellId finerCell = advance(first, 150).childBegin(S2_LEVEL + 2);
+        cells.add(finerCell.id());
+        S2CellId coarserCell =
+                S2CellId.fromLatLng(S2LatLng.fromDegrees(-33.9, 151.2)).parent(S2_LEVEL - 1);
+        cells.add(coarserCell.id());
+        Collections.shuffle(cells, new Random(0));
+
+        List<S2LevelRange> expectedRanges = new ArrayList<>();
+        expectedRanges.add(new S2LevelRange(first.id(), advance(first, 100).id()));
+        expectedRanges.add(
+                new S2LevelRange(advance(first, 150).id(), advance(first, 151).id()));
+        expectedRanges.add(new S2LevelRange(advance(first, 200).id(), advance(first, 300).id()));
+        expectedRanges.add(new S2LevelRange(coarserCell.childBegin(S2_LEVEL).id(),
+                coarserCell.childEnd(S2_LEVEL).id()));
+        expectedRanges.sort((a, b) -> Long.compareUnsigned(a.getStartCellId(),
+                b.getStartCellId()));
+
+        try (SatS2RangeSorter sorter =
+                     new SatS2RangeSorter(S2_LEVEL, 16 /* chunkSize */, 3 /* threadCount */)) {
+            for (long cell : cells) {
+                sorter.add(cell);
+            }
+            sorter.finish();
+
+            assertEquals(cells.size(), sorter.getCellCount());
+            assertEquals((cells.size() + 15) / 16, sorter.getRunCount());
+            assertEquals(expectedRanges, toList(sorter.iterator()));
+            // The ranges can be replayed.
+            assertEquals(expectedRanges, toList(sorter.iterator()));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        try (SatS2RangeSorter sorter =
+                     new SatS2RangeSorter(S2_LEVEL, 16 /* chunkSize */, 3 /* threadCount */)) {
+            sorter.finish();
+
+            assertEquals(0, sorter.getRunCount());
+            assertEquals(0, toList(sorter.iterator()).size());
+        }
+    }
+
+    private static S2CellId advance(S2CellId cellId, int steps) {
+        for (int i = 0; i < steps; i++) {
+            cellId = cellId.next();
+        }
+        return cellId;
+    }
+
+    private static List<S2LevelRange> toList(Iterator<S2LevelRange> iterator) {
+        List<S2LevelRange> list = new ArrayList<>();
+        iterator.forEachRemaining(list::add);
+        return list;
+    }
+}